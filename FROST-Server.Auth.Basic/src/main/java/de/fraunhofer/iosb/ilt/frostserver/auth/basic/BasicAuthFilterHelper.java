@@ -71,6 +71,6 @@ public class BasicAuthFilterHelper {
         authFilterAdmin.setInitParameter(TAG_ROLE_POST, adminRoleString);
         authFilterAdmin.setInitParameter(TAG_ROLE_PUT, adminRoleString);
         authFilterAdmin.setInitParameter(TAG_ROLE_DELETE, adminRoleString);
-        authFilterAdmin.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST, DispatcherType.FORWARD), true, "/DatabaseStatus");
+        authFilterAdmin.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST, DispatcherType.FORWARD), true, "/DatabaseStatus", "/IndexAdvisor", "/QueueStatus");
     }
 }
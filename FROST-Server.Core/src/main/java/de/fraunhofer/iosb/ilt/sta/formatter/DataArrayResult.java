@@ -27,6 +27,7 @@ import java.util.List;
 public class DataArrayResult {
 
     private long count = -1;
+    private boolean countEstimated;
     private String nextLink;
     private List<DataArrayValue> value = new ArrayList<>();
 
@@ -38,6 +39,14 @@ public class DataArrayResult {
         this.count = count;
     }
 
+    public boolean isCountEstimated() {
+        return countEstimated;
+    }
+
+    public void setCountEstimated(boolean countEstimated) {
+        this.countEstimated = countEstimated;
+    }
+
     public String getNextLink() {
         return nextLink;
     }
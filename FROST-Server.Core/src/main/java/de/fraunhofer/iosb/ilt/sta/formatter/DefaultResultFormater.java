@@ -18,6 +18,7 @@
 package de.fraunhofer.iosb.ilt.sta.formatter;
 
 import de.fraunhofer.iosb.ilt.sta.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.sta.json.serialize.JsonEntitySetWriter;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
@@ -77,6 +78,15 @@ public class DefaultResultFormater implements ResultFormatter {
         return entityJsonString;
     }
 
+    @Override
+    public EntitySetWriter createEntitySetWriter(ResultStream out, ResourcePath path, Query query, boolean useAbsoluteNavigationLinks) throws IOException {
+        if (query.getFormat() != null && query.getFormat().equalsIgnoreCase("dataarray")) {
+            // The dataArray format groups Observations, this needs the entire set.
+            return null;
+        }
+        return new JsonEntitySetWriter(out, path, query, useAbsoluteNavigationLinks);
+    }
+
     public static class VisibleComponents {
 
         public final boolean id;
@@ -190,6 +200,7 @@ public class DefaultResultFormater implements ResultFormatter {
         }
 
         result.setCount(entitySet.getCount());
+        result.setCountEstimated(entitySet.isCountEstimated());
         result.setNextLink(entitySet.getNextLink());
 
         return EntityFormatter.writeObject(result);
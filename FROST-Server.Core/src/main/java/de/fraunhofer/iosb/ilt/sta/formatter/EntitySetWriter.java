@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.formatter;
+
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import java.io.IOException;
+
+/**
+ * Writes an entity set one entity at a time, while it is being loaded, so the
+ * entire set never has to be held in memory.
+ *
+ * The methods are called in the order: {@link #writeStart(long, boolean)} once,
+ * {@link #writeEntity(Entity)} for each entity and {@link #writeEnd(String)}
+ * once.
+ *
+ * @author scf
+ */
+public interface EntitySetWriter {
+
+    /**
+     * Start writing the entity set.
+     *
+     * @param count The total number of entities in the set, or a negative
+     * number if the count is not requested.
+     * @param countEstimated true if the count is an estimate.
+     * @throws IOException If writing fails.
+     */
+    public void writeStart(long count, boolean countEstimated) throws IOException;
+
+    /**
+     * Write the next entity of the set.
+     *
+     * @param entity The entity to write.
+     * @throws IOException If writing fails.
+     */
+    public void writeEntity(Entity entity) throws IOException;
+
+    /**
+     * Finish writing the entity set.
+     *
+     * @param nextLink The nextLink of the set, or null if there are no more
+     * entities.
+     * @throws IOException If writing fails.
+     */
+    public void writeEnd(String nextLink) throws IOException;
+}
@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.sta.formatter;
 
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
+import java.io.IOException;
 
 /**
  *
@@ -27,4 +28,21 @@ import de.fraunhofer.iosb.ilt.sta.query.Query;
 public interface ResultFormatter {
 
     public String format(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks);
+
+    /**
+     * Create a writer that writes the entity set in the given path directly to
+     * the given output, while it is being loaded. The output must not be
+     * opened before the first byte is written.
+     *
+     * @param out The output to write to.
+     * @param path The path to the entity set.
+     * @param query The query used to fetch the entity set.
+     * @param useAbsoluteNavigationLinks If true, navigationLinks are absolute.
+     * @return The writer to use, or null if this formatter can not stream the
+     * requested result.
+     * @throws IOException If the writer can not be created.
+     */
+    public default EntitySetWriter createEntitySetWriter(ResultStream out, ResourcePath path, Query query, boolean useAbsoluteNavigationLinks) throws IOException {
+        return null;
+    }
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.formatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The output a streamed result is written to. The output is only opened when
+ * the first byte of the result is written, so that a request that fails
+ * before that can still be answered with a normal error response.
+ *
+ * @author scf
+ */
+@FunctionalInterface
+public interface ResultStream {
+
+    /**
+     * Open the output. Sets the status and content type of the response, and
+     * the character encoding to UTF-8. Called at most once.
+     *
+     * @param contentType The content type of the result.
+     * @return The stream to write the UTF-8 encoded result to.
+     * @throws IOException If the output can not be opened.
+     */
+    public OutputStream open(String contentType) throws IOException;
+}
@@ -17,6 +17,7 @@
  */
 package de.fraunhofer.iosb.ilt.sta.json.deserialize;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -111,11 +112,25 @@ public class EntityParser {
      * @return The created object mapper.
      */
     private static ObjectMapper createObjectMapper(Class<? extends Id> idClass) {
+        return createObjectMapper(idClass, null);
+    }
+
+    /**
+     * Create a new object mapper for the given id Class, using the given
+     * factory. This allows entities to be parsed from other formats than
+     * JSON, like Smile.
+     *
+     * @param idClass The id class to use for this mapper.
+     * @param factory The factory to use, or null to use the default JSON
+     * factory.
+     * @return The created object mapper.
+     */
+    public static ObjectMapper createObjectMapper(Class<? extends Id> idClass, JsonFactory factory) {
         GeoJsonDeserializier geoJsonDeserializier = new GeoJsonDeserializier();
         for (String encodingType : GeoJsonDeserializier.ENCODINGS) {
             CustomDeserializationManager.getInstance().registerDeserializer(encodingType, geoJsonDeserializier);
         }
-        ObjectMapper mapper = new ObjectMapper()
+        ObjectMapper mapper = new ObjectMapper(factory)
                 .enable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
                 .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
 
@@ -26,6 +26,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
 import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
 import de.fraunhofer.iosb.ilt.sta.json.serialize.custom.CustomSerialization;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import java.io.IOException;
@@ -105,7 +106,7 @@ public class CustomEntityDeserializer<T extends Entity> extends JsonDeserializer
                 }
                 Object customDeserializedValue = CustomDeserializationManager.getInstance()
                         .getDeserializer(customEncoding)
-                        .deserialize(mapper.writeValueAsString(obj.get(classProperty.getName())));
+                        .deserialize(EntityParser.getSimpleObjectMapper().writeValueAsString(obj.get(classProperty.getName())));
                 classProperty.getMutator().setValue(result, customDeserializedValue);
             }
         }
@@ -35,6 +35,9 @@ public class DataArrayResultSerializer extends JsonSerializer<DataArrayResult> {
         long count = value.getCount();
         if (count >= 0) {
             gen.writeNumberField("@iot.count", count);
+            if (value.isCountEstimated()) {
+                gen.writeBooleanField("@iot.countEstimated", true);
+            }
         }
         String nextLink = value.getNextLink();
         if (nextLink != null) {
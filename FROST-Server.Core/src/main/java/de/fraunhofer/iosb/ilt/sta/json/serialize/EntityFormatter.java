@@ -18,7 +18,9 @@
 package de.fraunhofer.iosb.ilt.sta.json.serialize;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import de.fraunhofer.iosb.ilt.sta.formatter.DataArrayResult;
@@ -47,6 +49,11 @@ import java.io.IOException;
 public class EntityFormatter {
 
     private static ObjectMapper objectMapperInstance;
+    /**
+     * Writer without indentation, for messages that are not read by humans,
+     * like MQTT payloads.
+     */
+    private static ObjectWriter compactWriterInstance;
 
     public static ObjectMapper getObjectMapper() {
         if (objectMapperInstance == null) {
@@ -57,13 +64,35 @@ public class EntityFormatter {
 
     private static synchronized void initObjectMapper() {
         if (objectMapperInstance == null) {
-            objectMapperInstance = createObjectMapper();
+            objectMapperInstance = createObjectMapper(null);
+            objectMapperInstance.enable(SerializationFeature.INDENT_OUTPUT);
         }
     }
 
-    private static ObjectMapper createObjectMapper() {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
+    public static ObjectWriter getCompactWriter() {
+        if (compactWriterInstance == null) {
+            initCompactWriter();
+        }
+        return compactWriterInstance;
+    }
+
+    private static synchronized void initCompactWriter() {
+        if (compactWriterInstance == null) {
+            compactWriterInstance = getObjectMapper().writer().without(SerializationFeature.INDENT_OUTPUT);
+        }
+    }
+
+    /**
+     * Create a new, non-indenting, object mapper that can serialise entities,
+     * using the given factory. This allows entities to be written in other
+     * formats than JSON, like Smile.
+     *
+     * @param factory The factory to use, or null to use the default JSON
+     * factory.
+     * @return The new object mapper.
+     */
+    public static ObjectMapper createObjectMapper(JsonFactory factory) {
+        ObjectMapper mapper = new ObjectMapper(factory);
         mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
         mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
         mapper.setPropertyNamingStrategy(new EntitySetCamelCaseNamingStrategy());
@@ -91,6 +120,18 @@ public class EntityFormatter {
         return getObjectMapper().writeValueAsString(entity);
     }
 
+    /**
+     * Write the given entity as compact (not indented) UTF-8 encoded JSON.
+     *
+     * @param <T> The type of the entity.
+     * @param entity The entity to write.
+     * @return The UTF-8 encoded JSON.
+     * @throws IOException If the serialisation fails.
+     */
+    public static <T extends Entity> byte[] writeEntityCompact(T entity) throws IOException {
+        return getCompactWriter().writeValueAsBytes(entity);
+    }
+
     public static String writeEntityCollection(EntitySet entityCollection) throws IOException {
         return getObjectMapper().writeValueAsString(new EntitySetResult(entityCollection));
     }
@@ -24,22 +24,27 @@ import com.fasterxml.jackson.databind.BeanDescription;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
 import com.fasterxml.jackson.databind.introspect.BasicBeanDescription;
 import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
 import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
 import static com.fasterxml.jackson.databind.ser.BeanPropertyWriter.MARKER_FOR_EMPTY;
 import com.fasterxml.jackson.databind.ser.std.NullSerializer;
+import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
 import de.fraunhofer.iosb.ilt.sta.json.serialize.custom.CustomSerialization;
 import de.fraunhofer.iosb.ilt.sta.json.serialize.custom.CustomSerializationManager;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
 import de.fraunhofer.iosb.ilt.sta.model.core.NavigableElement;
 import java.io.IOException;
-import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +54,12 @@ import org.slf4j.LoggerFactory;
  * contains a non-empty navigationLink the field will be renamed with the suffix
  * '@iot.navigationLink' and will only contain the navigationLink as String.
  *
+ * The bean introspection is done only once for each entity class. The result
+ * is a {@link EntityPlan} that holds the ordered list of properties with their
+ * resolved writers. For each $select combination a filtered view of this plan
+ * is cached as well, so serializing an entity does not do any reflective
+ * lookups.
+ *
  * @author jab
  */
 public class EntitySerializer extends JsonSerializer<Entity> {
@@ -57,15 +68,22 @@ public class EntitySerializer extends JsonSerializer<Entity> {
      * The logger for this class.
      */
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(EntitySerializer.class);
+    /**
+     * The maximum number of $select combinations to cache per entity class.
+     */
+    private static final int MAX_SELECT_PLANS = 256;
+
+    private final Map<Class<?>, EntityPlan> plans = new ConcurrentHashMap<>();
 
     @Override
     public void serialize(Entity entity, JsonGenerator gen, SerializerProvider serializers) throws IOException {
         gen.writeStartObject();
         try {
-            BasicBeanDescription beanDescription = serializers.getConfig().introspect(serializers.constructType(entity.getClass()));
-            List<BeanPropertyDefinition> properties = beanDescription.findProperties();
-            for (BeanPropertyDefinition property : properties) {
-                serializeProperty(property, entity, properties, gen, serializers, beanDescription);
+            EntityPlan plan = getPlan(entity.getClass(), serializers);
+            // Entity is raw here, a direct call would erase the result type.
+            Set<String> selectedNames = entity.getSelectedPropertyNames();
+            for (SelectedProperty selectedProperty : plan.getSelectedProperties(selectedNames)) {
+                selectedProperty.property.serialize(entity, selectedProperty.selected, gen, serializers);
             }
         } catch (Exception exc) {
             LOGGER.error("could not serialize Entity", exc);
@@ -75,98 +93,53 @@ public class EntitySerializer extends JsonSerializer<Entity> {
         }
     }
 
-    private void serializeProperty(
-            BeanPropertyDefinition property,
+    private EntityPlan getPlan(Class<?> entityClass, SerializerProvider serializers) {
+        EntityPlan plan = plans.get(entityClass);
+        if (plan == null) {
+            plan = new EntityPlan(entityClass, serializers);
+            EntityPlan existing = plans.putIfAbsent(entityClass, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    protected void serializeFieldCustomized(
             Entity entity,
-            List<BeanPropertyDefinition> properties,
             JsonGenerator gen,
-            SerializerProvider serializers,
-            BasicBeanDescription beanDescription) throws Exception {
-
-        if (property.getAccessor() == null) {
-            LOGGER.warn("Null Accessor found for {}.{}. Missing @JsonIgnore?", entity.getEntityType(), property.getName());
-            return;
-        }
-        // 0. check if it should be serialized
-        // If not, we still have to check if it is expanded, hence no
-        // direct continue.
-        boolean selected = true;
-        Set<String> selectedProperties = entity.getSelectedPropertyNames();
-        if (selectedProperties != null && !selectedProperties.contains(property.getName())) {
-            selected = false;
-        }
-        // 1. is it a NavigableElement?
-        if (NavigableElement.class.isAssignableFrom(property.getAccessor().getRawType())) {
-            selected = serialiseNavigationElement(property, entity, selected, gen);
-        }
-        if (!selected) {
-            return;
-        }
-        // 2. check if property has CustomSerialization annotation -> use custom serializer
-        Annotation annotation = property.getAccessor().getAnnotation(CustomSerialization.class);
-        if (annotation != null) {
-            serializeFieldCustomized(
-                    entity,
-                    gen,
-                    property,
-                    properties,
-                    (CustomSerialization) annotation);
-        } else {
-            serializeField(entity, gen, serializers, beanDescription, property);
-        }
-        // 3. check if property is EntitySet than write count if needed.
-        if (EntitySet.class.isAssignableFrom(property.getAccessor().getRawType())) {
-            writeCountNextlinkForSet(property, entity, gen);
+            BeanPropertyDefinition property,
+            List<BeanPropertyDefinition> properties,
+            CustomSerialization annotation) throws IOException {
+        BeanPropertyDefinition encodingProperty = findProperty(properties, annotation.encoding());
+        if (encodingProperty == null) {
+            throw createMissingEncodingException(entity, property, annotation, gen);
         }
+        writeCustomized(entity, gen, property, encodingProperty, annotation);
     }
 
-    private void writeCountNextlinkForSet(BeanPropertyDefinition property, Entity entity, JsonGenerator gen) throws IOException {
-        Object rawValue = property.getAccessor().getValue(entity);
-        if (rawValue == null) {
-            return;
-        }
-        EntitySet set = (EntitySet) rawValue;
-        long count = set.getCount();
-        if (count >= 0) {
-            gen.writeNumberField(property.getName() + "@iot.count", count);
-        }
-        String nextLink = set.getNextLink();
-        if (nextLink != null) {
-            gen.writeStringField(property.getName() + "@iot.nextLink", nextLink);
+    private static BeanPropertyDefinition findProperty(List<BeanPropertyDefinition> properties, String name) {
+        for (BeanPropertyDefinition candidate : properties) {
+            if (candidate.getName().equals(name)) {
+                return candidate;
+            }
         }
+        return null;
     }
 
-    private boolean serialiseNavigationElement(BeanPropertyDefinition property, Entity entity, boolean selected, JsonGenerator gen) throws IOException {
-        Object rawValue = property.getAccessor().getValue(entity);
-        if (rawValue == null) {
-            return selected;
-        }
-        NavigableElement value = (NavigableElement) rawValue;
-        // If navigation link set, and selected, output navigation link.
-        if (selected && value.getNavigationLink() != null && !value.getNavigationLink().isEmpty()) {
-            gen.writeFieldName(property.getName() + "@iot.navigationLink");
-            gen.writeString(value.getNavigationLink());
-        }
-        // If object should not be exported, skip any further processing.
-        return value.isExportObject();
+    private static JsonGenerationException createMissingEncodingException(Entity entity, BeanPropertyDefinition property, CustomSerialization annotation, JsonGenerator gen) {
+        return new JsonGenerationException("can not serialize instance of class '" + entity.getClass() + "'! \n"
+                + "Reason: trying to use custom serialization for field '" + property.getName() + "' but field '" + annotation.encoding() + "' specifying enconding is not present!",
+                gen);
     }
 
-    protected void serializeFieldCustomized(
+    private static void writeCustomized(
             Entity entity,
             JsonGenerator gen,
             BeanPropertyDefinition property,
-            List<BeanPropertyDefinition> properties,
+            BeanPropertyDefinition encodingProperty,
             CustomSerialization annotation) throws IOException {
-        // check if encoding field is present in current bean
-        // get value
-        // call CustomSerializationManager
-        Optional<BeanPropertyDefinition> encodingProperty = properties.stream().filter(p -> p.getName().equals(annotation.encoding())).findFirst();
-        if (!encodingProperty.isPresent()) {
-            throw new JsonGenerationException("can not serialize instance of class '" + entity.getClass() + "'! \n"
-                    + "Reason: trying to use custom serialization for field '" + property.getName() + "' but field '" + annotation.encoding() + "' specifying enconding is not present!",
-                    gen);
-        }
-        Object value = encodingProperty.get().getAccessor().getValue(entity);
+        Object value = encodingProperty.getAccessor().getValue(entity);
         String encodingType = null;
         if (value != null) {
             encodingType = value.toString();
@@ -176,7 +149,12 @@ public class EntitySerializer extends JsonSerializer<Entity> {
                 .serialize(property.getAccessor().getValue(entity));
         if (customJson != null && !customJson.isEmpty()) {
             gen.writeFieldName(property.getName());
-            gen.writeRawValue(customJson);
+            if (gen.canWriteBinaryNatively()) {
+                // Binary formats, like Smile, can not contain raw json.
+                gen.writeTree(EntityParser.getSimpleObjectMapper().readTree(customJson));
+            } else {
+                gen.writeRawValue(customJson);
+            }
         }
     }
 
@@ -207,29 +185,37 @@ public class EntitySerializer extends JsonSerializer<Entity> {
                     typeSerializer = serializers.findTypeSerializer(serializers.constructType(propertyValue.getClass()));
                 }
             }
-
-            JsonInclude.Value inclusion = beanPropertyDefinition.findInclusion();
-            JsonInclude.Value defaultInclusion = serializers.getConfig().getDefaultPropertyInclusion();
-            JsonInclude.Value usedInclusion = defaultInclusion.withOverrides(inclusion);
-            BeanPropertyWriter bpw = new BeanPropertyWriter(
-                    beanPropertyDefinition,
-                    beanPropertyDefinition.getAccessor(),
-                    beanDescription.getClassAnnotations(),
-                    beanPropertyDefinition.getAccessor().getType(),
-                    null, // will be searched automatically
-                    typeSerializer, // will not be searched automatically
-                    beanPropertyDefinition.getAccessor().getType(),
-                    suppressNulls(usedInclusion),
-                    suppressableValue(serializers.getConfig().getDefaultPropertyInclusion()));
-            if (!bpw.willSuppressNulls()) {
-                bpw.assignNullSerializer(NullSerializer.instance);
-            }
-            bpw.serializeAsField(entity, gen, serializers);
+            createWriter(serializers, beanDescription, beanPropertyDefinition, typeSerializer)
+                    .serializeAsField(entity, gen, serializers);
         } catch (JsonMappingException ex) {
             Logger.getLogger(EntitySerializer.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
+    private static BeanPropertyWriter createWriter(
+            SerializerProvider serializers,
+            BeanDescription beanDescription,
+            BeanPropertyDefinition beanPropertyDefinition,
+            TypeSerializer typeSerializer) {
+        JsonInclude.Value inclusion = beanPropertyDefinition.findInclusion();
+        JsonInclude.Value defaultInclusion = serializers.getConfig().getDefaultPropertyInclusion();
+        JsonInclude.Value usedInclusion = defaultInclusion.withOverrides(inclusion);
+        BeanPropertyWriter bpw = new BeanPropertyWriter(
+                beanPropertyDefinition,
+                beanPropertyDefinition.getAccessor(),
+                beanDescription.getClassAnnotations(),
+                beanPropertyDefinition.getAccessor().getType(),
+                null, // will be searched automatically
+                typeSerializer, // will not be searched automatically
+                beanPropertyDefinition.getAccessor().getType(),
+                suppressNulls(usedInclusion),
+                suppressableValue(defaultInclusion));
+        if (!bpw.willSuppressNulls()) {
+            bpw.assignNullSerializer(NullSerializer.instance);
+        }
+        return bpw;
+    }
+
     protected static boolean suppressNulls(JsonInclude.Value inclusion) {
         if (inclusion == null) {
             return false;
@@ -266,4 +252,217 @@ public class EntitySerializer extends JsonSerializer<Entity> {
         return false;
     }
 
+    /**
+     * The serialization plan for one entity class: the introspected properties
+     * in serialization order, and the filtered views for the $select
+     * combinations seen so far.
+     */
+    private static class EntityPlan {
+
+        private final List<PropertyPlan> properties = new ArrayList<>();
+        private final List<SelectedProperty> allSelected;
+        private final Map<Set<String>, List<SelectedProperty>> selectPlans = new ConcurrentHashMap<>();
+
+        public EntityPlan(Class<?> entityClass, SerializerProvider serializers) {
+            BasicBeanDescription beanDescription = serializers.getConfig().introspect(serializers.constructType(entityClass));
+            List<BeanPropertyDefinition> definitions = beanDescription.findProperties();
+            for (BeanPropertyDefinition definition : definitions) {
+                properties.add(new PropertyPlan(entityClass, definition, definitions, beanDescription, serializers));
+            }
+            allSelected = createSelectedProperties(null);
+        }
+
+        public List<SelectedProperty> getSelectedProperties(Set<String> selectedNames) {
+            if (selectedNames == null) {
+                return allSelected;
+            }
+            List<SelectedProperty> result = selectPlans.get(selectedNames);
+            if (result == null) {
+                result = createSelectedProperties(selectedNames);
+                if (selectPlans.size() < MAX_SELECT_PLANS) {
+                    selectPlans.putIfAbsent(Collections.unmodifiableSet(new HashSet<>(selectedNames)), result);
+                }
+            }
+            return result;
+        }
+
+        private List<SelectedProperty> createSelectedProperties(Set<String> selectedNames) {
+            List<SelectedProperty> result = new ArrayList<>();
+            for (PropertyPlan property : properties) {
+                boolean selected = selectedNames == null || selectedNames.contains(property.name);
+                // Non-selected navigation properties are still needed, since
+                // they may have been expanded.
+                if (selected || property.navigable) {
+                    result.add(new SelectedProperty(property, selected));
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class SelectedProperty {
+
+        private final PropertyPlan property;
+        private final boolean selected;
+
+        public SelectedProperty(PropertyPlan property, boolean selected) {
+            this.property = property;
+            this.selected = selected;
+        }
+    }
+
+    /**
+     * The resolved serialization information for one property of an entity
+     * class.
+     */
+    private static class PropertyPlan {
+
+        private final String name;
+        private final BeanPropertyDefinition definition;
+        private final AnnotatedMember accessor;
+        private final BasicBeanDescription beanDescription;
+        private final boolean navigable;
+        private final boolean entitySet;
+        private final CustomSerialization customSerialization;
+        private final BeanPropertyDefinition encodingProperty;
+        private final String countName;
+        private final String nextLinkName;
+        private final String navigationLinkName;
+        /**
+         * The writer to use if the type serializer can be determined from the
+         * static type of the property.
+         */
+        private final BeanPropertyWriter staticWriter;
+        /**
+         * The writers for the dynamic types of the property, used when the
+         * static type does not give a type serializer.
+         */
+        private final Map<Class<?>, BeanPropertyWriter> dynamicWriters;
+        private boolean nullAccessorLogged = false;
+
+        public PropertyPlan(Class<?> entityClass, BeanPropertyDefinition definition, List<BeanPropertyDefinition> definitions, BasicBeanDescription beanDescription, SerializerProvider serializers) {
+            this.name = definition.getName();
+            this.definition = definition;
+            this.accessor = definition.getAccessor();
+            this.beanDescription = beanDescription;
+            countName = name + "@iot.count";
+            nextLinkName = name + "@iot.nextLink";
+            navigationLinkName = name + "@iot.navigationLink";
+            if (accessor == null) {
+                navigable = false;
+                entitySet = false;
+                customSerialization = null;
+                encodingProperty = null;
+                staticWriter = null;
+                dynamicWriters = null;
+                return;
+            }
+            Class<?> rawType = accessor.getRawType();
+            navigable = NavigableElement.class.isAssignableFrom(rawType);
+            entitySet = EntitySet.class.isAssignableFrom(rawType);
+            customSerialization = accessor.getAnnotation(CustomSerialization.class);
+            if (customSerialization == null) {
+                encodingProperty = null;
+                TypeSerializer typeSerializer = findTypeSerializer(serializers, rawType);
+                if (typeSerializer == null) {
+                    staticWriter = null;
+                    dynamicWriters = new ConcurrentHashMap<>();
+                } else {
+                    staticWriter = createWriter(serializers, beanDescription, definition, typeSerializer);
+                    dynamicWriters = null;
+                }
+            } else {
+                encodingProperty = findProperty(definitions, customSerialization.encoding());
+                staticWriter = null;
+                dynamicWriters = null;
+            }
+        }
+
+        public void serialize(Entity entity, boolean selected, JsonGenerator gen, SerializerProvider serializers) throws Exception {
+            if (accessor == null) {
+                if (!nullAccessorLogged) {
+                    LOGGER.warn("Null Accessor found for {}.{}. Missing @JsonIgnore?", entity.getEntityType(), name);
+                    nullAccessorLogged = true;
+                }
+                return;
+            }
+            Object rawValue = null;
+            if (navigable || entitySet) {
+                rawValue = accessor.getValue(entity);
+            }
+            if (navigable && rawValue != null) {
+                NavigableElement value = (NavigableElement) rawValue;
+                // If navigation link set, and selected, output navigation link.
+                String navigationLink = value.getNavigationLink();
+                if (selected && navigationLink != null && !navigationLink.isEmpty()) {
+                    gen.writeFieldName(navigationLinkName);
+                    gen.writeString(navigationLink);
+                }
+                // If object should not be exported, skip any further processing.
+                selected = value.isExportObject();
+            }
+            if (!selected) {
+                return;
+            }
+            if (customSerialization != null) {
+                if (encodingProperty == null) {
+                    throw createMissingEncodingException(entity, definition, customSerialization, gen);
+                }
+                writeCustomized(entity, gen, definition, encodingProperty, customSerialization);
+            } else {
+                serializeField(entity, gen, serializers);
+            }
+            if (entitySet && rawValue != null) {
+                EntitySet set = (EntitySet) rawValue;
+                long count = set.getCount();
+                if (count >= 0) {
+                    gen.writeNumberField(countName, count);
+                }
+                String nextLink = set.getNextLink();
+                if (nextLink != null) {
+                    gen.writeStringField(nextLinkName, nextLink);
+                }
+            }
+        }
+
+        private void serializeField(Entity entity, JsonGenerator gen, SerializerProvider serializers) throws Exception {
+            try {
+                BeanPropertyWriter writer = staticWriter;
+                if (writer == null) {
+                    writer = getDynamicWriter(accessor.getValue(entity), serializers);
+                }
+                writer.serializeAsField(entity, gen, serializers);
+            } catch (JsonMappingException ex) {
+                Logger.getLogger(EntitySerializer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+
+        private BeanPropertyWriter getDynamicWriter(Object propertyValue, SerializerProvider serializers) {
+            // Void is used as key for null values, these get no type serializer.
+            Class<?> valueClass = propertyValue == null ? Void.class : propertyValue.getClass();
+            BeanPropertyWriter writer = dynamicWriters.get(valueClass);
+            if (writer == null) {
+                TypeSerializer typeSerializer = null;
+                if (propertyValue != null) {
+                    typeSerializer = findTypeSerializer(serializers, valueClass);
+                }
+                writer = createWriter(serializers, beanDescription, definition, typeSerializer);
+                BeanPropertyWriter existing = dynamicWriters.putIfAbsent(valueClass, writer);
+                if (existing != null) {
+                    writer = existing;
+                }
+            }
+            return writer;
+        }
+
+        private static TypeSerializer findTypeSerializer(SerializerProvider serializers, Class<?> type) {
+            try {
+                return serializers.findTypeSerializer(serializers.constructType(type));
+            } catch (JsonMappingException ex) {
+                Logger.getLogger(EntitySerializer.class.getName()).log(Level.SEVERE, null, ex);
+                return null;
+            }
+        }
+    }
+
 }
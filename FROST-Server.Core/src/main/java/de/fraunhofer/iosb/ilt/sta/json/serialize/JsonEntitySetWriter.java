@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.json.serialize;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import de.fraunhofer.iosb.ilt.sta.formatter.EntitySetWriter;
+import de.fraunhofer.iosb.ilt.sta.formatter.ResultStream;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.util.VisibilityHelper;
+import java.io.IOException;
+
+/**
+ * Writes an entity set directly to a ResultStream, using a JsonGenerator.
+ * Since the nextLink is only known after all entities are written, it is
+ * written after the value array. The stream is opened in
+ * {@link #writeStart(long, boolean)}.
+ *
+ * @author scf
+ */
+public class JsonEntitySetWriter implements EntitySetWriter {
+
+    public static final String CONTENT_TYPE = "application/json";
+
+    private final ResultStream out;
+    private final ResourcePath path;
+    private final Query query;
+    private final boolean useAbsoluteNavigationLinks;
+    private JsonGenerator generator;
+
+    public JsonEntitySetWriter(ResultStream out, ResourcePath path, Query query, boolean useAbsoluteNavigationLinks) {
+        this.out = out;
+        this.path = path;
+        this.query = query;
+        this.useAbsoluteNavigationLinks = useAbsoluteNavigationLinks;
+    }
+
+    @Override
+    public void writeStart(long count, boolean countEstimated) throws IOException {
+        ObjectMapper mapper = EntityFormatter.getObjectMapper();
+        generator = mapper.getFactory().createGenerator(out.open(CONTENT_TYPE), JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        if (mapper.isEnabled(SerializationFeature.INDENT_OUTPUT)) {
+            generator.useDefaultPrettyPrinter();
+        }
+        generator.writeStartObject();
+        if (count >= 0) {
+            generator.writeNumberField("@iot.count", count);
+            if (countEstimated) {
+                generator.writeBooleanField("@iot.countEstimated", true);
+            }
+        }
+        generator.writeArrayFieldStart("value");
+    }
+
+    @Override
+    public void writeEntity(Entity entity) throws IOException {
+        VisibilityHelper.applyVisibility(entity, path, query, useAbsoluteNavigationLinks);
+        generator.writeObject(entity);
+    }
+
+    @Override
+    public void writeEnd(String nextLink) throws IOException {
+        generator.writeEndArray();
+        if (nextLink != null) {
+            generator.writeStringField("@iot.nextLink", nextLink);
+        }
+        generator.writeEndObject();
+        generator.close();
+    }
+
+}
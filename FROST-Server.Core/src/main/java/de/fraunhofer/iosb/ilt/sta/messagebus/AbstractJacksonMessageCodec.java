@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.messagebus;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base class for codecs that use Jackson. A single message is encoded as an
+ * object, a batch of messages as an array of objects.
+ *
+ * @author scf
+ */
+public abstract class AbstractJacksonMessageCodec implements MessageCodec {
+
+    private static final TypeReference<List<EntityChangedMessage>> LIST_OF_MESSAGES = new TypeReference<List<EntityChangedMessage>>() {
+        // Empty by design.
+    };
+
+    private ObjectWriter writer;
+    private ObjectMapper reader;
+
+    /**
+     * Set the mappers to use.
+     *
+     * @param writer The writer used to encode messages.
+     * @param reader The mapper used to decode messages.
+     */
+    protected void setMappers(ObjectWriter writer, ObjectMapper reader) {
+        this.writer = writer;
+        this.reader = reader;
+    }
+
+    @Override
+    public byte[] encode(List<EntityChangedMessage> messages) throws IOException {
+        if (messages.size() == 1) {
+            return writer.writeValueAsBytes(messages.get(0));
+        }
+        return writer.writeValueAsBytes(messages);
+    }
+
+    @Override
+    public List<EntityChangedMessage> decode(byte[] payload) throws IOException {
+        try (JsonParser parser = reader.getFactory().createParser(payload)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                return reader.readValue(parser, LIST_OF_MESSAGES);
+            }
+            return Collections.singletonList(reader.readValue(parser, EntityChangedMessage.class));
+        }
+    }
+
+}
@@ -18,11 +18,13 @@
 package de.fraunhofer.iosb.ilt.sta.messagebus;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
 import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Objects;
@@ -140,6 +142,30 @@ public class EntityChangedMessage {
         return this;
     }
 
+    /**
+     * The key used to keep related messages in order. Observations are keyed
+     * on their (Multi)Datastream, so Observations in the same Datastream are
+     * handled in order. Other entities are keyed on themselves.
+     *
+     * @return The key used to partition this message.
+     */
+    @JsonIgnore
+    public Object getPartitionKey() {
+        if (entity == null) {
+            return entityType;
+        }
+        if (entity instanceof Observation) {
+            Observation observation = (Observation) entity;
+            if (observation.getDatastream() != null) {
+                return Arrays.asList(EntityType.DATASTREAM, observation.getDatastream().getId());
+            }
+            if (observation.getMultiDatastream() != null) {
+                return Arrays.asList(EntityType.MULTIDATASTREAM, observation.getMultiDatastream().getId());
+            }
+        }
+        return Arrays.asList(entityType, entity.getId());
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.messagebus;
+
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
+import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.sta.util.OverflowHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Serialises EntityChangedMessages for spilling queues to disk.
+ *
+ * @author scf
+ */
+public class EntityChangedMessageSerialiser implements OverflowHandler.Serialiser<EntityChangedMessage> {
+
+    private final MessageCodec codec = new JsonMessageCodec();
+    /**
+     * The export flag to set on the navigation entities of deserialised
+     * messages.
+     */
+    private final boolean exportParents;
+
+    /**
+     * @param idClass The class used for entity ids.
+     * @param exportParents The export flag to set on the navigation entities
+     * of deserialised messages. Messages that are sent to other instances
+     * need their navigation entities exported, messages that are handed to
+     * listeners must not.
+     */
+    public EntityChangedMessageSerialiser(Class<? extends Id> idClass, boolean exportParents) {
+        this.exportParents = exportParents;
+        codec.init(idClass);
+    }
+
+    @Override
+    public byte[] serialise(EntityChangedMessage message) throws IOException {
+        // The ids of the navigation entities must be written, so they are
+        // exported for the serialisation, and restored afterwards.
+        List<Entity> notExported = new ArrayList<>();
+        for (Entity parent : getParents(message.getEntity())) {
+            if (!parent.isExportObject()) {
+                parent.setExportObject(true);
+                notExported.add(parent);
+            }
+        }
+        try {
+            return codec.encode(Collections.singletonList(message));
+        } finally {
+            for (Entity parent : notExported) {
+                parent.setExportObject(false);
+            }
+        }
+    }
+
+    @Override
+    public EntityChangedMessage deserialise(byte[] data) throws IOException {
+        EntityChangedMessage message = codec.decode(data).get(0);
+        for (Entity parent : getParents(message.getEntity())) {
+            parent.setExportObject(exportParents);
+        }
+        return message;
+    }
+
+    private static List<Entity> getParents(Entity entity) {
+        List<Entity> parents = new ArrayList<>();
+        for (NavigationProperty property : entity.getEntityType().getNavigationEntities()) {
+            Object parentObject = entity.getProperty(property);
+            if (parentObject instanceof Entity) {
+                parents.add((Entity) parentObject);
+            }
+        }
+        return parents;
+    }
+
+}
@@ -20,15 +20,18 @@ package de.fraunhofer.iosb.ilt.sta.messagebus;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManagerFactory;
 import de.fraunhofer.iosb.ilt.sta.settings.BusSettings;
 import de.fraunhofer.iosb.ilt.sta.settings.ConfigDefaults;
 import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.sta.settings.Settings;
+import de.fraunhofer.iosb.ilt.sta.settings.annotation.DefaultValue;
 import de.fraunhofer.iosb.ilt.sta.settings.annotation.DefaultValueInt;
+import de.fraunhofer.iosb.ilt.sta.util.OverflowHandler;
+import de.fraunhofer.iosb.ilt.sta.util.PartitionedQueue;
 import de.fraunhofer.iosb.ilt.sta.util.ProcessorHelper;
 
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
@@ -47,6 +50,14 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
     public static final String TAG_WORKER_COUNT = "workerPoolSize";
     @DefaultValueInt(100)
     public static final String TAG_QUEUE_SIZE = "queueSize";
+    @DefaultValue("DROP")
+    public static final String TAG_QUEUE_OVERFLOW = "queueOverflow";
+    @DefaultValueInt(1000)
+    public static final String TAG_QUEUE_BLOCK_TIMEOUT = "queueBlockTimeout";
+    @DefaultValueInt(64)
+    public static final String TAG_QUEUE_SPILL_SIZE = "queueSpillSize";
+
+    private static final String PROCESSOR_NAME = "InternalBusProcessor";
 
     /**
      * The logger for this class.
@@ -55,6 +66,7 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
 
     private BlockingQueue<EntityChangedMessage> entityChangedMessageQueue;
     private ExecutorService entityChangedExecutorService;
+    private OverflowHandler<EntityChangedMessage> entityChangedMessageOverflow;
     private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
 
     @Override
@@ -64,16 +76,31 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
         int poolSize = customSettings.getInt(TAG_WORKER_COUNT, defaultValueInt(TAG_WORKER_COUNT));
         int queueSize = customSettings.getInt(TAG_QUEUE_SIZE, defaultValueInt(TAG_QUEUE_SIZE));
 
-        entityChangedMessageQueue = new ArrayBlockingQueue<>(queueSize);
-        entityChangedExecutorService = ProcessorHelper.createProcessors(
-                poolSize,
-                entityChangedMessageQueue,
+        PartitionedQueue<EntityChangedMessage> partitionedQueue = new PartitionedQueue<>(poolSize, queueSize, EntityChangedMessage::getPartitionKey);
+        entityChangedMessageQueue = partitionedQueue;
+        entityChangedExecutorService = ProcessorHelper.createPartitionedProcessors(
+                partitionedQueue,
                 this::handleMessage,
-                "InternalBusProcessor");
+                PROCESSOR_NAME);
+        OverflowHandler.Policy policy = OverflowHandler.parsePolicy(customSettings.get(TAG_QUEUE_OVERFLOW, getClass()));
+        entityChangedMessageOverflow = new OverflowHandler<>(
+                PROCESSOR_NAME,
+                entityChangedMessageQueue,
+                policy,
+                customSettings.getInt(TAG_QUEUE_BLOCK_TIMEOUT, getClass()),
+                "Increase the queue size to allow a bigger buffer, or increase the worker pool size to empty the buffer quicker.",
+                settings.getTempPath(),
+                customSettings.getInt(TAG_QUEUE_SPILL_SIZE, getClass()) * 1024 * 1024,
+                policy == OverflowHandler.Policy.SPILL ? createSerialiser() : null);
+    }
+
+    private static EntityChangedMessageSerialiser createSerialiser() {
+        return new EntityChangedMessageSerialiser(PersistenceManagerFactory.getInstance().create().getIdManager().getIdClass(), false);
     }
 
     @Override
     public void stop() {
+        entityChangedMessageOverflow.close();
         entityChangedExecutorService.shutdown();
         try {
             if (entityChangedExecutorService.awaitTermination(2, TimeUnit.SECONDS)) {
@@ -100,9 +127,7 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
                 parentEntity.setExportObject(false);
             }
         }
-        if (!entityChangedMessageQueue.offer(message)) {
-            LOGGER.error("Failed to add message to queue. Increase the queue size to allow a bigger buffer, or increase the worker pool size to empty the buffer quicker.");
-        }
+        entityChangedMessageOverflow.offer(message);
     }
 
     @Override
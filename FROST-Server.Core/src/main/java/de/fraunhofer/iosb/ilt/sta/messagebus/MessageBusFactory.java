@@ -17,6 +17,7 @@
  */
 package de.fraunhofer.iosb.ilt.sta.messagebus;
 
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
 
 /**
@@ -51,6 +52,26 @@ public class MessageBusFactory {
         return instance;
     }
 
+    /**
+     * Create and initialise the MessageCodec configured in the bus settings.
+     *
+     * @param settings The settings to get the codec class from.
+     * @param idClass The class used for entity ids.
+     * @return The initialised codec.
+     */
+    public static MessageCodec createCodec(CoreSettings settings, Class<? extends Id> idClass) {
+        String codecClassName = settings.getBusSettings().getCodecClass();
+        MessageCodec codec;
+        try {
+            Class<?> codecClass = Class.forName(codecClassName);
+            codec = (MessageCodec) codecClass.newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException ex) {
+            throw new IllegalArgumentException("Could not generate MessageCodec instance: Class '" + codecClassName + "' could not be loaded", ex);
+        }
+        codec.init(idClass);
+        return codec;
+    }
+
     private MessageBusFactory() {
         // should not be instantiated.
     }
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.messagebus;
+
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Encodes EntityChangedMessages for transport over a message bus, and decodes
+ * them again. A single payload can contain a batch of messages.
+ *
+ * @author scf
+ */
+public interface MessageCodec {
+
+    /**
+     * Initialise the codec.
+     *
+     * @param idClass The class used for entity ids.
+     */
+    public void init(Class<? extends Id> idClass);
+
+    /**
+     * Encode the given messages into one payload.
+     *
+     * @param messages The messages to encode, must not be empty.
+     * @return The encoded payload.
+     * @throws IOException If the encoding fails.
+     */
+    public byte[] encode(List<EntityChangedMessage> messages) throws IOException;
+
+    /**
+     * Decode the messages in the given payload.
+     *
+     * @param payload The payload to decode.
+     * @return The messages in the payload.
+     * @throws IOException If the decoding fails.
+     */
+    public List<EntityChangedMessage> decode(byte[] payload) throws IOException;
+
+}
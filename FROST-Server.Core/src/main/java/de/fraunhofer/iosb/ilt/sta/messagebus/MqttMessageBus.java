@@ -17,10 +17,7 @@
  */
 package de.fraunhofer.iosb.ilt.sta.messagebus;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
-import de.fraunhofer.iosb.ilt.sta.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManagerFactory;
 import de.fraunhofer.iosb.ilt.sta.settings.BusSettings;
 import de.fraunhofer.iosb.ilt.sta.settings.ConfigDefaults;
@@ -28,11 +25,13 @@ import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.sta.settings.Settings;
 import de.fraunhofer.iosb.ilt.sta.settings.annotation.DefaultValue;
 import de.fraunhofer.iosb.ilt.sta.settings.annotation.DefaultValueInt;
+import de.fraunhofer.iosb.ilt.sta.util.OverflowHandler;
+import de.fraunhofer.iosb.ilt.sta.util.PartitionedQueue;
 import de.fraunhofer.iosb.ilt.sta.util.ProcessorHelper;
-import de.fraunhofer.iosb.ilt.sta.util.StringHelper;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
@@ -70,6 +69,21 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     public static final String TAG_QOS_LEVEL = "qosLevel";
     @DefaultValueInt(50)
     public static final String TAG_MAX_IN_FLIGHT = "maxInFlight";
+    @DefaultValueInt(1)
+    public static final String TAG_MAX_BATCH_SIZE = "maxBatchSize";
+    @DefaultValueInt(10)
+    public static final String TAG_MAX_BATCH_DELAY = "maxBatchDelay";
+    @DefaultValue("DROP")
+    public static final String TAG_SEND_QUEUE_OVERFLOW = "sendQueueOverflow";
+    @DefaultValue("DROP")
+    public static final String TAG_RECV_QUEUE_OVERFLOW = "recvQueueOverflow";
+    @DefaultValueInt(1000)
+    public static final String TAG_QUEUE_BLOCK_TIMEOUT = "queueBlockTimeout";
+    @DefaultValueInt(64)
+    public static final String TAG_QUEUE_SPILL_SIZE = "queueSpillSize";
+
+    private static final String SEND_PROCESSOR_NAME = "mqttBusSend";
+    private static final String RECV_PROCESSOR_NAME = "mqttBusRecv";
 
     /**
      * The logger for this class.
@@ -82,8 +96,10 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     private int recvQueueSize;
     private BlockingQueue<EntityChangedMessage> sendQueue;
     private ExecutorService sendService;
+    private OverflowHandler<EntityChangedMessage> sendOverflow;
     private BlockingQueue<EntityChangedMessage> recvQueue;
     private ExecutorService recvService;
+    private OverflowHandler<EntityChangedMessage> recvOverflow;
     private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
 
     private String broker;
@@ -93,9 +109,16 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     private int qosLevel;
     private int maxInFlight;
     private boolean listening = false;
+    /**
+     * The maximum number of messages to publish in one MQTT message.
+     */
+    private int maxBatchSize;
+    /**
+     * The maximum time, in milliseconds, to wait for a batch to fill.
+     */
+    private long maxBatchDelay;
 
-    private ObjectMapper formatter;
-    private EntityParser parser;
+    private MessageCodec codec;
 
     @Override
     public void init(CoreSettings settings) {
@@ -106,19 +129,31 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
         recvPoolSize = customSettings.getInt(TAG_RECV_WORKER_COUNT, getClass());
         recvQueueSize = customSettings.getInt(TAG_RECV_QUEUE_SIZE, getClass());
 
-        sendQueue = new ArrayBlockingQueue<>(sendQueueSize);
-        sendService = ProcessorHelper.createProcessors(
-                sendPoolSize,
-                sendQueue,
-                this::handleMessageSent,
-                "mqttBusSend");
+        maxBatchSize = customSettings.getInt(TAG_MAX_BATCH_SIZE, getClass());
+        maxBatchDelay = customSettings.getInt(TAG_MAX_BATCH_DELAY, getClass());
 
-        recvQueue = new ArrayBlockingQueue<>(recvQueueSize);
-        recvService = ProcessorHelper.createProcessors(
-                recvPoolSize,
-                recvQueue,
+        PartitionedQueue<EntityChangedMessage> sendPartitions = new PartitionedQueue<>(sendPoolSize, sendQueueSize, EntityChangedMessage::getPartitionKey);
+        sendQueue = sendPartitions;
+        if (maxBatchSize > 1) {
+            sendService = ProcessorHelper.createPartitionedBatchProcessors(
+                    sendPartitions,
+                    this::handleMessagesSent,
+                    maxBatchSize,
+                    maxBatchDelay,
+                    SEND_PROCESSOR_NAME);
+        } else {
+            sendService = ProcessorHelper.createPartitionedProcessors(
+                    sendPartitions,
+                    this::handleMessageSent,
+                    SEND_PROCESSOR_NAME);
+        }
+
+        PartitionedQueue<EntityChangedMessage> recvPartitions = new PartitionedQueue<>(recvPoolSize, recvQueueSize, EntityChangedMessage::getPartitionKey);
+        recvQueue = recvPartitions;
+        recvService = ProcessorHelper.createPartitionedProcessors(
+                recvPartitions,
                 this::handleMessageReceived,
-                "mqttBusRecv");
+                RECV_PROCESSOR_NAME);
 
         broker = customSettings.get(TAG_MQTT_BROKER, getClass());
         topicName = customSettings.get(TAG_TOPIC_NAME, getClass());
@@ -126,8 +161,29 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
         maxInFlight = customSettings.getInt(TAG_MAX_IN_FLIGHT, getClass());
         connect();
 
-        formatter = EntityFormatter.getObjectMapper();
-        parser = new EntityParser(PersistenceManagerFactory.getInstance().create().getIdManager().getIdClass());
+        Class<? extends Id> idClass = PersistenceManagerFactory.getInstance().create().getIdManager().getIdClass();
+        codec = MessageBusFactory.createCodec(settings, idClass);
+
+        long blockTimeout = customSettings.getInt(TAG_QUEUE_BLOCK_TIMEOUT, getClass());
+        int spillSize = customSettings.getInt(TAG_QUEUE_SPILL_SIZE, getClass()) * 1024 * 1024;
+        sendOverflow = new OverflowHandler<>(
+                SEND_PROCESSOR_NAME,
+                sendQueue,
+                OverflowHandler.parsePolicy(customSettings.get(TAG_SEND_QUEUE_OVERFLOW, getClass())),
+                blockTimeout,
+                "Increase " + TAG_SEND_QUEUE_SIZE + " (currently " + sendQueueSize + ") to allow a bigger buffer, or increase " + TAG_SEND_WORKER_COUNT + " (currently " + sendPoolSize + ") to empty the buffer quicker.",
+                settings.getTempPath(),
+                spillSize,
+                new EntityChangedMessageSerialiser(idClass, true));
+        recvOverflow = new OverflowHandler<>(
+                RECV_PROCESSOR_NAME,
+                recvQueue,
+                OverflowHandler.parsePolicy(customSettings.get(TAG_RECV_QUEUE_OVERFLOW, getClass())),
+                blockTimeout,
+                "Increase " + TAG_RECV_QUEUE_SIZE + " (currently " + recvQueueSize + ") to allow a bigger buffer, or increase " + TAG_RECV_WORKER_COUNT + " (currently " + recvPoolSize + ") to empty the buffer quicker.",
+                settings.getTempPath(),
+                spillSize,
+                new EntityChangedMessageSerialiser(idClass, false));
     }
 
     private synchronized void connect() {
@@ -212,6 +268,8 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
         LOGGER.info("Message bus shutting down.");
         stopListening();
         disconnect();
+        sendOverflow.close();
+        recvOverflow.close();
         ProcessorHelper.shutdownProcessors(sendService, sendQueue, 10, TimeUnit.SECONDS);
         ProcessorHelper.shutdownProcessors(recvService, recvQueue, 10, TimeUnit.SECONDS);
         LOGGER.info("Message bus closed.");
@@ -219,10 +277,7 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
 
     @Override
     public void sendMessage(EntityChangedMessage message) {
-        if (!sendQueue.offer(message)) {
-            LOGGER.error("Failed to add message to send-queue. Increase {} (currently {}) to allow a bigger buffer, or increase {} (currently {}) to empty the buffer quicker.",
-                    TAG_SEND_QUEUE_SIZE, sendQueueSize, TAG_SEND_WORKER_COUNT, sendPoolSize);
-        }
+        sendOverflow.offer(message);
     }
 
     @Override
@@ -242,15 +297,18 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     }
 
     private void handleMessageSent(EntityChangedMessage message) {
+        handleMessagesSent(Collections.singletonList(message));
+    }
+
+    private void handleMessagesSent(List<EntityChangedMessage> messages) {
         try {
-            String serialisedMessage = formatter.writeValueAsString(message);
-            byte[] bytes = serialisedMessage.getBytes(StringHelper.UTF8);
+            byte[] bytes = codec.encode(messages);
             if (!client.isConnected()) {
                 connect();
             }
             client.publish(topicName, bytes, qosLevel, false);
-        } catch (MqttException | JsonProcessingException ex) {
-            LOGGER.error("Failed to publish message to bus.", ex);
+        } catch (MqttException | IOException ex) {
+            LOGGER.error("Failed to publish " + messages.size() + " message(s) to bus.", ex);
         }
     }
 
@@ -262,11 +320,9 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
 
     @Override
     public void messageArrived(String topic, MqttMessage mqttMessage) throws Exception {
-        String serialisedEcMessage = new String(mqttMessage.getPayload(), StringHelper.UTF8);
-        EntityChangedMessage ecMessage = parser.parseObject(EntityChangedMessage.class, serialisedEcMessage);
-        if (!recvQueue.offer(ecMessage)) {
-            LOGGER.error("Failed to add message to receive-queue. Increase {} (currently {}) to allow a bigger buffer, or increase {} (currently {}) to empty the buffer quicker.",
-                    TAG_RECV_QUEUE_SIZE, recvQueueSize, TAG_RECV_WORKER_COUNT, recvPoolSize);
+        List<EntityChangedMessage> ecMessages = codec.decode(mqttMessage.getPayload());
+        for (EntityChangedMessage ecMessage : ecMessages) {
+            recvOverflow.offer(ecMessage);
         }
     }
 
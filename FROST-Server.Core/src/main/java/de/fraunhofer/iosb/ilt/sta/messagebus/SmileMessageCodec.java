@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.messagebus;
+
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
+import de.fraunhofer.iosb.ilt.sta.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
+
+/**
+ * Encodes messages in the binary Smile format. Smile payloads are smaller and
+ * faster to parse than JSON, but all nodes on the bus must use this codec.
+ *
+ * @author scf
+ */
+public class SmileMessageCodec extends AbstractJacksonMessageCodec {
+
+    @Override
+    public void init(Class<? extends Id> idClass) {
+        setMappers(
+                EntityFormatter.createObjectMapper(new SmileFactory()).writer(),
+                EntityParser.createObjectMapper(idClass, new SmileFactory()));
+    }
+
+}
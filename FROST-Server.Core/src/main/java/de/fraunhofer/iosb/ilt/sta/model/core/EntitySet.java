@@ -36,6 +36,14 @@ public interface EntitySet<T extends Entity<T>> extends Collection<T>, Navigable
 
     public void setCount(long count);
 
+    /**
+     * @return true if the count is an estimate, and not the exact number of
+     * entities in the set.
+     */
+    public boolean isCountEstimated();
+
+    public void setCountEstimated(boolean countEstimated);
+
     public String getNextLink();
 
     public void setNextLink(String nextLink);
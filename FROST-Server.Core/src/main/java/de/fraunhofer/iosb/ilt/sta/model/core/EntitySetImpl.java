@@ -37,6 +37,7 @@ public class EntitySetImpl<T extends Entity<T>> implements EntitySet<T> {
     protected final List<T> data;
     protected String navigationLink;
     protected long count = -1;
+    protected boolean countEstimated;
     protected String nextLink;
     @JsonIgnore
     private boolean exportObject = false;
@@ -185,6 +186,16 @@ public class EntitySetImpl<T extends Entity<T>> implements EntitySet<T> {
         this.count = count;
     }
 
+    @Override
+    public boolean isCountEstimated() {
+        return countEstimated;
+    }
+
+    @Override
+    public void setCountEstimated(boolean countEstimated) {
+        this.countEstimated = countEstimated;
+    }
+
     @Override
     public String getNextLink() {
         return nextLink;
@@ -17,38 +17,51 @@
  */
 package de.fraunhofer.iosb.ilt.sta.mqtt;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessageSerialiser;
 import de.fraunhofer.iosb.ilt.sta.messagebus.MessageListener;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.mqtt.create.EntityCreateListener;
 import de.fraunhofer.iosb.ilt.sta.mqtt.create.ObservationCreateEvent;
+import de.fraunhofer.iosb.ilt.sta.mqtt.create.ObservationCreateEventSerialiser;
+import de.fraunhofer.iosb.ilt.sta.mqtt.subscription.MatchContext;
 import de.fraunhofer.iosb.ilt.sta.mqtt.subscription.Subscription;
 import de.fraunhofer.iosb.ilt.sta.mqtt.subscription.SubscriptionEvent;
 import de.fraunhofer.iosb.ilt.sta.mqtt.subscription.SubscriptionFactory;
+import de.fraunhofer.iosb.ilt.sta.mqtt.subscription.SubscriptionIndex;
 import de.fraunhofer.iosb.ilt.sta.mqtt.subscription.SubscriptionListener;
+import de.fraunhofer.iosb.ilt.sta.mqtt.subscription.TopicTrie;
+import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
 import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
 import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManager;
 import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManagerFactory;
 import de.fraunhofer.iosb.ilt.sta.service.RequestType;
 import de.fraunhofer.iosb.ilt.sta.service.Service;
+import de.fraunhofer.iosb.ilt.sta.service.ServiceRequest;
 import de.fraunhofer.iosb.ilt.sta.service.ServiceRequestBuilder;
 import de.fraunhofer.iosb.ilt.sta.service.ServiceResponse;
 import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.sta.settings.MqttSettings;
+import de.fraunhofer.iosb.ilt.sta.util.OverflowHandler;
+import de.fraunhofer.iosb.ilt.sta.util.PartitionedQueue;
 import de.fraunhofer.iosb.ilt.sta.util.ProcessorHelper;
-import de.fraunhofer.iosb.ilt.sta.util.StringHelper;
 import java.io.IOException;
-import java.util.EnumMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +73,8 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
 
     private static MqttManager instance;
     private static final Logger LOGGER = LoggerFactory.getLogger(MqttManager.class);
+    private static final String ENTITY_CHANGED_PROCESSOR = "MqttManager EntityChangedEventProcessor";
+    private static final String OBSERVATION_CREATE_PROCESSOR = "MqttManager ObservationCreateEventProcessor";
 
     public static synchronized void init(CoreSettings settings) {
         if (instance == null) {
@@ -80,12 +95,22 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         return instance;
     }
 
-    private final Map<EntityType, Map<Subscription, AtomicInteger>> subscriptions = new EnumMap<>(EntityType.class);
+    private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+    private final TopicTrie wildcardSubscriptions = new TopicTrie();
+    /**
+     * The Subscriptions for concrete topics that are only subscribed to
+     * through wildcards, so they do not have to be parsed for each event.
+     */
+    private final Cache<String, Subscription> wildcardTopicSubscriptions = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build();
     private final CoreSettings settings;
     private MqttServer server;
     private BlockingQueue<EntityChangedMessage> entityChangedEventQueue;
     private ExecutorService entityChangedExecutorService;
     private BlockingQueue<ObservationCreateEvent> observationCreateEventQueue;
+    private OverflowHandler<EntityChangedMessage> entityChangedEventOverflow;
+    private OverflowHandler<ObservationCreateEvent> observationCreateEventOverflow;
     private ExecutorService observationCreateExecutorService;
     private boolean enabledMqtt = false;
     private boolean shutdown = false;
@@ -95,9 +120,6 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
             throw new IllegalArgumentException("setting must be non-null");
         }
         this.settings = settings;
-        for (EntityType entityType : EntityType.values()) {
-            subscriptions.put(entityType, new ConcurrentHashMap<>());
-        }
         init();
     }
 
@@ -107,20 +129,55 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         if (mqttSettings.isEnableMqtt()) {
             enabledMqtt = true;
             shutdown = false;
-            entityChangedEventQueue = new ArrayBlockingQueue<>(mqttSettings.getSubscribeMessageQueueSize());
-            // start watching for EntityChangedEvents
-            entityChangedExecutorService = ProcessorHelper.createProcessors(
+            int spillSize = mqttSettings.getQueueSpillSize() * 1024 * 1024;
+            PartitionedQueue<EntityChangedMessage> entityChangedPartitions = new PartitionedQueue<>(
                     mqttSettings.getSubscribeThreadPoolSize(),
-                    entityChangedEventQueue,
+                    mqttSettings.getSubscribeMessageQueueSize(),
+                    EntityChangedMessage::getPartitionKey);
+            entityChangedEventQueue = entityChangedPartitions;
+            // start watching for EntityChangedEvents
+            entityChangedExecutorService = ProcessorHelper.createPartitionedProcessors(
+                    entityChangedPartitions,
                     this::handleEntityChangedEvent,
-                    "MqttManager EntityChangedEventProcessor");
+                    ENTITY_CHANGED_PROCESSOR);
+            OverflowHandler.Policy subscribePolicy = mqttSettings.getSubscribeMessageQueueOverflow();
+            entityChangedEventOverflow = new OverflowHandler<>(
+                    ENTITY_CHANGED_PROCESSOR,
+                    entityChangedEventQueue,
+                    subscribePolicy,
+                    mqttSettings.getQueueBlockTimeout(),
+                    "Increase mqtt.SubscribeMessageQueueSize and/or mqtt.SubscribeThreadPoolSize, or change mqtt.SubscribeMessageQueueOverflow.",
+                    settings.getTempPath(),
+                    spillSize,
+                    subscribePolicy == OverflowHandler.Policy.SPILL ? createEntityChangedSerialiser() : null);
             // start watching for ObservationCreateEvents
-            observationCreateEventQueue = new ArrayBlockingQueue<>(mqttSettings.getCreateMessageQueueSize());
-            observationCreateExecutorService = ProcessorHelper.createProcessors(
+            PartitionedQueue<ObservationCreateEvent> observationCreatePartitions = new PartitionedQueue<>(
                     mqttSettings.getCreateThreadPoolSize(),
+                    mqttSettings.getCreateMessageQueueSize(),
+                    ObservationCreateEvent::getTopic);
+            observationCreateEventQueue = observationCreatePartitions;
+            if (mqttSettings.getCreateBatchSize() > 1) {
+                observationCreateExecutorService = ProcessorHelper.createPartitionedBatchProcessors(
+                        observationCreatePartitions,
+                        this::handleObservationCreateEvents,
+                        mqttSettings.getCreateBatchSize(),
+                        mqttSettings.getCreateBatchDelay(),
+                        OBSERVATION_CREATE_PROCESSOR);
+            } else {
+                observationCreateExecutorService = ProcessorHelper.createPartitionedProcessors(
+                        observationCreatePartitions,
+                        this::handleObservationCreateEvent,
+                        OBSERVATION_CREATE_PROCESSOR);
+            }
+            observationCreateEventOverflow = new OverflowHandler<>(
+                    OBSERVATION_CREATE_PROCESSOR,
                     observationCreateEventQueue,
-                    this::handleObservationCreateEvent,
-                    "MqttManager ObservationCreateEventProcessor");
+                    mqttSettings.getCreateMessageQueueOverflow(),
+                    mqttSettings.getQueueBlockTimeout(),
+                    "Increase mqtt.CreateMessageQueueSize and/or mqtt.CreateThreadPoolSize, or change mqtt.CreateMessageQueueOverflow.",
+                    settings.getTempPath(),
+                    spillSize,
+                    new ObservationCreateEventSerialiser(this));
             // start MQTT server
             server = MqttServerFactory.getInstance().get(settings);
             server.addSubscriptionListener(this);
@@ -137,8 +194,19 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         }
     }
 
+    private static EntityChangedMessageSerialiser createEntityChangedSerialiser() {
+        Class<? extends Id> idClass = PersistenceManagerFactory.getInstance().create().getIdManager().getIdClass();
+        return new EntityChangedMessageSerialiser(idClass, false);
+    }
+
     private void doShutdown() {
         shutdown = true;
+        if (entityChangedEventOverflow != null) {
+            entityChangedEventOverflow.close();
+        }
+        if (observationCreateEventOverflow != null) {
+            observationCreateEventOverflow.close();
+        }
         ProcessorHelper.shutdownProcessors(entityChangedExecutorService, entityChangedEventQueue, 10, TimeUnit.SECONDS);
         ProcessorHelper.shutdownProcessors(observationCreateExecutorService, observationCreateEventQueue, 10, TimeUnit.SECONDS);
         if (server != null) {
@@ -153,7 +221,8 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         }
         // check if there is any subscription, if not do not publish at all
         EntityType entityType = message.getEntityType();
-        if (!subscriptions.containsKey(entityType)) {
+        boolean noWildcards = wildcardSubscriptions.isEmpty();
+        if (subscriptions.isEmpty(entityType) && noWildcards) {
             return;
         }
         PersistenceManager persistenceManager = PersistenceManagerFactory.getInstance().create();
@@ -161,12 +230,20 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         Entity entity = message.getEntity();
         Set<Property> fields = message.getFields();
         try {
-            // for each subscription on EntityType check match
-            for (Subscription subscription : subscriptions.get(entityType).keySet()) {
-                if (subscription.matches(persistenceManager, entity, fields)) {
-                    notifySubscription(subscription, entity);
+            // for each subscription that may match the entity, check match,
+            // sharing the queries for the entity between the subscriptions.
+            MatchContext context = new MatchContext(persistenceManager, entity);
+            // Subscriptions with the same payload key get the same payload,
+            // so each payload is only serialised once per entity.
+            Map<Object, byte[]> payloads = new HashMap<>();
+            for (Subscription subscription : subscriptions.getCandidates(entity)) {
+                if (subscription.matches(context, fields)) {
+                    notifySubscription(subscription, entity, payloads);
                 }
             }
+            if (!noWildcards) {
+                notifyWildcardSubscriptions(context, entity, fields, payloads);
+            }
         } catch (Exception ex) {
             LOGGER.error("error handling MQTT subscriptions", ex);
         } finally {
@@ -174,33 +251,138 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         }
     }
 
-    private void notifySubscription(Subscription subscription, Entity entity) {
+    /**
+     * Publishes the entity on each of the concrete topics it belongs to that
+     * match a wildcard filter, but that have no exact subscription of their
+     * own. The broker then delivers the message to each client with a
+     * matching filter.
+     */
+    private void notifyWildcardSubscriptions(MatchContext context, Entity entity, Set<Property> fields, Map<Object, byte[]> payloads) {
+        for (String topic : getConcreteTopics(entity)) {
+            if (!wildcardSubscriptions.matches(topic) || subscriptions.getByTopic(topic) != null) {
+                continue;
+            }
+            Subscription subscription = getWildcardTopicSubscription(topic);
+            if (subscription != null && subscription.matches(context, fields)) {
+                notifySubscription(subscription, entity, payloads);
+            }
+        }
+    }
+
+    private Subscription getWildcardTopicSubscription(String topic) {
+        Subscription subscription = wildcardTopicSubscriptions.getIfPresent(topic);
+        if (subscription == null) {
+            subscription = SubscriptionFactory.getInstance().get(topic);
+            if (subscription != null) {
+                wildcardTopicSubscriptions.put(topic, subscription);
+            }
+        }
+        return subscription;
+    }
+
+    /**
+     * Lists the topics that the given entity would be published on: its entity
+     * set, the entity itself, each of its properties, and the sets it is in
+     * below each of its direct parents, like
+     * v1.0/Datastreams(1)/Observations.
+     *
+     * @param entity The changed entity.
+     * @return The concrete topics the entity is published on.
+     */
+    private Set<String> getConcreteTopics(Entity entity) {
+        Set<String> topics = new LinkedHashSet<>();
+        EntityType type = entity.getEntityType();
+        String prefix = settings.getMqttSettings().getTopicPrefix();
+        topics.add(prefix + type.plural);
+        Id id = entity.getId();
+        if (id == null) {
+            return topics;
+        }
+        String entityTopic = prefix + type.plural + "(" + id.getUrl() + ")";
+        topics.add(entityTopic);
+        for (Property property : type.getPropertySet()) {
+            if (property instanceof EntityProperty && property != EntityProperty.ID && property != EntityProperty.SELFLINK) {
+                topics.add(entityTopic + "/" + ((EntityProperty) property).entitiyName);
+            }
+        }
+        for (NavigationProperty parentProperty : type.getNavigationEntities()) {
+            Object parent = entity.getProperty(parentProperty);
+            if (!(parent instanceof Entity) || ((Entity) parent).getId() == null) {
+                continue;
+            }
+            Id parentId = ((Entity) parent).getId();
+            for (NavigationProperty setProperty : parentProperty.type.getNavigationSets()) {
+                if (setProperty.type == type) {
+                    topics.add(prefix + parentProperty.type.plural + "(" + parentId.getUrl() + ")/" + setProperty.propertyName);
+                }
+            }
+        }
+        return topics;
+    }
+
+    private void notifySubscription(Subscription subscription, Entity entity, Map<Object, byte[]> payloads) {
         try {
-            String payload = subscription.formatMessage(entity);
-            server.publish(subscription.getTopic(), payload.getBytes(StringHelper.UTF8), settings.getMqttSettings().getQosLevel());
+            Object payloadKey = subscription.getPayloadKey();
+            byte[] payload = payloads.get(payloadKey);
+            if (payload == null) {
+                payload = subscription.formatPayload(entity);
+                payloads.put(payloadKey, payload);
+            }
+            server.publish(subscription.getTopic(), payload, settings.getMqttSettings().getQosLevel());
         } catch (IOException ex) {
             LOGGER.error("publishing to MQTT on topic '" + subscription.getTopic() + "' failed", ex);
         }
     }
 
     private void handleObservationCreateEvent(ObservationCreateEvent e) {
+        ServiceRequest request = createObservationRequest(e);
+        if (request == null) {
+            return;
+        }
+        ServiceResponse<Observation> response = new Service(settings).execute(request);
+        logCreateResponse(e, response);
+    }
+
+    private void handleObservationCreateEvents(List<ObservationCreateEvent> events) {
+        List<ObservationCreateEvent> valid = new ArrayList<>(events.size());
+        List<ServiceRequest> requests = new ArrayList<>(events.size());
+        for (ObservationCreateEvent e : events) {
+            ServiceRequest request = createObservationRequest(e);
+            if (request != null) {
+                valid.add(e);
+                requests.add(request);
+            }
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+        List<ServiceResponse<Observation>> responses = new Service(settings).executeCreateObservationsBatch(requests);
+        for (int i = 0; i < responses.size(); i++) {
+            logCreateResponse(valid.get(i), responses.get(i));
+        }
+    }
+
+    private ServiceRequest createObservationRequest(ObservationCreateEvent e) {
         // check path?
         String topic = e.getTopic();
         if (!topic.endsWith("Observations")) {
             LOGGER.info("received message on topic '{}' which is no valid topic to create an observation.", topic);
-            return;
+            return null;
         }
         String url = topic.replaceFirst(settings.getApiVersion(), "");
-        ServiceResponse<Observation> response = new Service(settings).execute(new ServiceRequestBuilder()
+        return new ServiceRequestBuilder()
                 .withRequestType(RequestType.CREATE)
                 .withContent(e.getPayload())
                 .withUrlPath(url)
-                .build());
+                .build();
+    }
+
+    private static void logCreateResponse(ObservationCreateEvent e, ServiceResponse<Observation> response) {
         if (response.isSuccessful()) {
             LOGGER.debug("Observation (ID {}) created via MQTT", response.getResult().getId().getValue());
         } else {
             LOGGER.error("Creating observation via MQTT failed (topic: {}, payload: {}, code: {}, message: {})",
-                    topic, e.getPayload(), response.getCode(), response.getMessage());
+                    e.getTopic(), e.getPayload(), response.getCode(), response.getMessage());
         }
     }
 
@@ -208,51 +390,52 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         if (shutdown || !enabledMqtt) {
             return;
         }
-        if (!entityChangedEventQueue.offer(e)) {
-            LOGGER.warn("EntityChangedevent discarded because message queue is full {}! Increase mqtt.SubscribeMessageQueueSize and/or mqtt.SubscribeThreadPoolSize.", entityChangedEventQueue.size());
-        }
+        entityChangedEventOverflow.offer(e);
     }
 
     @Override
     public void onSubscribe(SubscriptionEvent e) {
-        Subscription subscription = SubscriptionFactory.getInstance().get(e.getTopic());
+        if (TopicTrie.isWildcard(e.getTopic())) {
+            int newCount = wildcardSubscriptions.add(e.getTopic());
+            LOGGER.debug("Now {} subscriptions for wildcard topic {}.", newCount, e.getTopic());
+            return;
+        }
+        Subscription subscription = subscriptions.getByTopic(e.getTopic());
+        if (subscription == null) {
+            subscription = SubscriptionFactory.getInstance().get(e.getTopic());
+        }
         if (subscription == null) {
             // Not a valid topic.
             return;
         }
 
-        Map<Subscription, AtomicInteger> subscriptionsMap = subscriptions.get(subscription.getEntityType());
-        synchronized (subscriptionsMap) {
-            AtomicInteger clientCount = subscriptionsMap.get(subscription);
-            if (clientCount == null) {
-                clientCount = new AtomicInteger(1);
-                subscriptionsMap.put(subscription, clientCount);
-                LOGGER.debug("Created new subscription for topic {}.", subscription.getTopic());
-            } else {
-                int newCount = clientCount.incrementAndGet();
-                LOGGER.debug("Now {} subscriptions for topic {}.", newCount, subscription.getTopic());
-            }
+        int newCount = subscriptions.addClient(subscription);
+        if (newCount == 1) {
+            LOGGER.debug("Created new subscription for topic {}.", subscription.getTopic());
+        } else {
+            LOGGER.debug("Now {} subscriptions for topic {}.", newCount, subscription.getTopic());
         }
     }
 
     @Override
     public void onUnsubscribe(SubscriptionEvent e) {
-        Subscription subscription = SubscriptionFactory.getInstance().get(e.getTopic());
+        if (TopicTrie.isWildcard(e.getTopic())) {
+            int newCount = wildcardSubscriptions.remove(e.getTopic());
+            if (newCount >= 0) {
+                LOGGER.debug("Now {} subscriptions for wildcard topic {}.", newCount, e.getTopic());
+            }
+            return;
+        }
+        Subscription subscription = subscriptions.getByTopic(e.getTopic());
         if (subscription == null) {
-            // Not a valid topic.
+            // Not a valid topic, or no clients subscribed to it.
             return;
         }
-        final Map<Subscription, AtomicInteger> subscriptionsMap = subscriptions.get(subscription.getEntityType());
-        synchronized (subscriptionsMap) {
-            AtomicInteger clientCount = subscriptionsMap.get(subscription);
-            if (clientCount != null) {
-                int newCount = clientCount.decrementAndGet();
-                LOGGER.debug("Now {} subscriptions for topic {}.", newCount, subscription.getTopic());
-                if (newCount <= 0) {
-                    subscriptionsMap.remove(subscription);
-                    LOGGER.debug("Removed last subscription for topic {}.", subscription.getTopic());
-                }
-            }
+        int newCount = subscriptions.removeClient(subscription);
+        if (newCount == 0) {
+            LOGGER.debug("Removed last subscription for topic {}.", subscription.getTopic());
+        } else if (newCount > 0) {
+            LOGGER.debug("Now {} subscriptions for topic {}.", newCount, subscription.getTopic());
         }
     }
 
@@ -266,8 +449,6 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         if (shutdown || !enabledMqtt) {
             return;
         }
-        if (!observationCreateEventQueue.offer(e)) {
-            LOGGER.warn("ObservationCreateEvent discarded because message queue is full {}! Increase mqtt.SubscribeMessageQueueSize and/or mqtt.SubscribeThreadPoolSize", observationCreateEventQueue.size());
-        }
+        observationCreateEventOverflow.offer(e);
     }
 }
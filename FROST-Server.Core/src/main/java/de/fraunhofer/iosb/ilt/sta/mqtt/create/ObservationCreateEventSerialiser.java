@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.mqtt.create;
+
+import de.fraunhofer.iosb.ilt.sta.util.OverflowHandler;
+import de.fraunhofer.iosb.ilt.sta.util.StringHelper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Serialises ObservationCreateEvents for spilling queues to disk. Only the
+ * topic and payload are stored, deserialised events get the given source.
+ *
+ * @author scf
+ */
+public class ObservationCreateEventSerialiser implements OverflowHandler.Serialiser<ObservationCreateEvent> {
+
+    private final Object source;
+
+    public ObservationCreateEventSerialiser(Object source) {
+        this.source = source;
+    }
+
+    @Override
+    public byte[] serialise(ObservationCreateEvent event) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeString(out, event.getTopic());
+            writeString(out, event.getPayload());
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public ObservationCreateEvent deserialise(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            String topic = readString(in);
+            String payload = readString(in);
+            return new ObservationCreateEvent(source, topic, payload);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        // writeUTF is limited to 64k, payloads can be larger.
+        byte[] bytes = value.getBytes(StringHelper.UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StringHelper.UTF8);
+    }
+
+}
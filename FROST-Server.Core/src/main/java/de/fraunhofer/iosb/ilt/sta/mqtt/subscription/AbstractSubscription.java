@@ -17,10 +17,12 @@
  */
 package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
 
+import de.fraunhofer.iosb.ilt.sta.json.serialize.EntityFormatter;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
 import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
@@ -28,7 +30,6 @@ import de.fraunhofer.iosb.ilt.sta.path.Property;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePathElement;
 import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManager;
-import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.query.expression.Expression;
 import de.fraunhofer.iosb.ilt.sta.query.expression.Path;
 import de.fraunhofer.iosb.ilt.sta.query.expression.constant.IntegerConstant;
@@ -38,6 +39,7 @@ import de.fraunhofer.iosb.ilt.sta.util.PathHelper;
 import de.fraunhofer.iosb.ilt.sta.util.UrlHelper;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
@@ -57,9 +59,25 @@ public abstract class AbstractSubscription implements Subscription {
     protected final String topic;
     protected EntityType entityType;
     protected Expression matchExpression = null;
+    /**
+     * The navigation path and id that the match expression checks.
+     */
+    private List<NavigationProperty> matchPath;
+    private Id matchId;
     private Predicate<? super Entity> matcher;
+    /**
+     * The property and id that entities must have to match, used to index
+     * this Subscription.
+     */
+    protected Property indexProperty;
+    protected Id indexId;
     protected ResourcePath path;
     protected String serviceRootUrl;
+    /**
+     * The names of the properties to include in messages, or null for all
+     * properties.
+     */
+    protected Set<String> selectedPropertyNames;
 
     public AbstractSubscription(String topic, ResourcePath path, String serviceRootUrl) {
         initNavigationProperties();
@@ -83,6 +101,12 @@ public abstract class AbstractSubscription implements Subscription {
 
     @Override
     public boolean matches(PersistenceManager persistenceManager, Entity newEntity, Set<Property> fields) {
+        return matches(new MatchContext(persistenceManager, newEntity), fields);
+    }
+
+    @Override
+    public boolean matches(MatchContext context, Set<Property> fields) {
+        Entity newEntity = context.getEntity();
         if (!newEntity.getEntityType().equals(entityType)) {
             return false;
         }
@@ -90,10 +114,7 @@ public abstract class AbstractSubscription implements Subscription {
             return false;
         }
         if (matchExpression != null) {
-            Query query = new Query();
-            query.setFilter(matchExpression);
-            Object result = persistenceManager.get(newEntity.getPath(), query);
-            return result != null;
+            return context.matches(matchPath, matchId, matchExpression);
         }
         return true;
     }
@@ -103,24 +124,32 @@ public abstract class AbstractSubscription implements Subscription {
         List<Property> properties = new ArrayList<>();
         for (int i = path.size() - 1 - pathElementOffset; i >= 0; i--) {
             ResourcePathElement element = path.get(i);
-            if (!(element instanceof EntityPathElement)) {
+            EntityType elementType;
+            Id id;
+            if (element instanceof EntityPathElement) {
+                elementType = ((EntityPathElement) element).getEntityType();
+                id = ((EntityPathElement) element).getId();
+            } else if (element instanceof EntitySetPathElement) {
+                // A collection in the middle of the path, like the
+                // Datastreams in Things(x)/Datastreams/Observations.
+                elementType = ((EntitySetPathElement) element).getEntityType();
+                id = null;
+            } else {
                 continue;
             }
-            final EntityPathElement epe = (EntityPathElement) element;
-            final NavigationProperty navProp = PathHelper.getNavigationProperty(lastType, epe.getEntityType());
+            final NavigationProperty navProp = PathHelper.getNavigationProperty(lastType, elementType);
 
-            Id id = epe.getId();
-            if (!navProp.isSet && id != null) {
+            if (properties.isEmpty() && !navProp.isSet && id != null) {
                 createMatcher(navProp, id);
                 assert (i <= 1);
                 return;
             }
 
             properties.add(navProp);
-            lastType = epe.getEntityType();
+            lastType = elementType;
 
             if (id != null) {
-                createMatchExpression(properties, epe);
+                createMatchExpression(properties, (EntityPathElement) element);
                 // there should be at most two PathElements left, the EntitySetPath and the EntityPath now visiting
                 assert (i <= 1);
                 return;
@@ -131,6 +160,8 @@ public abstract class AbstractSubscription implements Subscription {
     private void createMatcher(final NavigationProperty navProp, Id id) {
         // We have a collectionSubscription of type one-to-many.
         // Create a (cheap) matcher instead of an (expensive) Expression
+        indexProperty = navProp;
+        indexId = id;
         matcher = (Entity t) -> {
             Entity parent = (Entity) t.getProperty(navProp);
             if (parent == null) {
@@ -142,6 +173,11 @@ public abstract class AbstractSubscription implements Subscription {
     }
 
     private void createMatchExpression(List<Property> properties, final EntityPathElement epe) {
+        matchPath = new ArrayList<>();
+        for (Property property : properties) {
+            matchPath.add((NavigationProperty) property);
+        }
+        matchId = epe.getId();
         properties.add(EntityProperty.ID);
         String epeId = epe.getId().getUrl();
         if (epeId.startsWith("'")) {
@@ -156,6 +192,16 @@ public abstract class AbstractSubscription implements Subscription {
         return entityType;
     }
 
+    @Override
+    public Property getIndexProperty() {
+        return indexProperty;
+    }
+
+    @Override
+    public Id getIndexId() {
+        return indexId;
+    }
+
     @Override
     public String getTopic() {
         return topic;
@@ -163,6 +209,28 @@ public abstract class AbstractSubscription implements Subscription {
 
     @Override
     public String formatMessage(Entity entity) throws IOException {
+        prepareEntity(entity);
+        return EntityFormatter.writeEntity(entity);
+    }
+
+    @Override
+    public byte[] formatPayload(Entity entity) throws IOException {
+        prepareEntity(entity);
+        return EntityFormatter.writeEntityCompact(entity);
+    }
+
+    /**
+     * The payload only depends on the links, that are generated from the
+     * service root url, and the selected properties.
+     *
+     * @return The key for payloads of this Subscription.
+     */
+    @Override
+    public Object getPayloadKey() {
+        return Arrays.asList(serviceRootUrl, selectedPropertyNames);
+    }
+
+    private void prepareEntity(Entity entity) {
         entity.setSelfLink(UrlHelper.generateSelfLink(path, entity));
         for (NavigationProperty navigationProperty : navigationProperties.get(entity.getEntityType())) {
             if (navigationProperty.isSet) {
@@ -175,11 +243,10 @@ public abstract class AbstractSubscription implements Subscription {
                 }
             }
         }
-        return doFormatMessage(entity);
+        // The entity is shared between Subscriptions, always reset the selection.
+        entity.setSelectedPropertyNames(selectedPropertyNames);
     }
 
-    public abstract String doFormatMessage(Entity entity) throws IOException;
-
     @Override
     public int hashCode() {
         return Objects.hash(topic, entityType);
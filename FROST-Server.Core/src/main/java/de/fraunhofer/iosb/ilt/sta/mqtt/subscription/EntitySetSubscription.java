@@ -17,8 +17,6 @@
  */
 package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
 
-import de.fraunhofer.iosb.ilt.sta.json.serialize.EntityFormatter;
-import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.parser.query.QueryParser;
 import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
@@ -26,12 +24,13 @@ import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.sta.util.StringHelper;
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,6 +64,10 @@ public class EntitySetSubscription extends AbstractSubscription {
                 throw new IllegalArgumentException("Invalid subscription to: '" + topic + "': only $select is allowed in query options.");
             }
             selectedProperties.addAll(query.getSelect());
+            selectedPropertyNames = Collections.unmodifiableSet(
+                    selectedProperties.stream()
+                            .map(Property::getJsonName)
+                            .collect(Collectors.toSet()));
         }
         generateFilter(1);
     }
@@ -84,14 +87,6 @@ public class EntitySetSubscription extends AbstractSubscription {
         }
     }
 
-    @Override
-    public String doFormatMessage(Entity entity) throws IOException {
-        if (!selectedProperties.isEmpty()) {
-            entity.setSelectedProperties(selectedProperties);
-        }
-        return EntityFormatter.writeEntity(entity);
-    }
-
     @Override
     public int hashCode() {
         return Objects.hash(super.hashCode(), selectedProperties);
@@ -17,7 +17,6 @@
  */
 package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
 
-import de.fraunhofer.iosb.ilt.sta.json.serialize.EntityFormatter;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
@@ -25,8 +24,6 @@ import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
 import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
-import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManager;
-import java.io.IOException;
 import java.util.Set;
 import java.util.function.Predicate;
 
@@ -52,21 +49,18 @@ public class EntitySubscription extends AbstractSubscription {
         if (size == 2 && path.get(0) instanceof EntitySetPathElement) {
             Id id = ((EntityPathElement) path.getLastElement()).getId();
             matcher = x -> x.getProperty(EntityProperty.ID).equals(id);
+            indexProperty = EntityProperty.ID;
+            indexId = id;
         }
         generateFilter(1);
     }
 
     @Override
-    public boolean matches(PersistenceManager persistenceManager, Entity newEntity, Set<Property> fields) {
-        if (matcher != null && !matcher.test(newEntity)) {
+    public boolean matches(MatchContext context, Set<Property> fields) {
+        if (matcher != null && !matcher.test(context.getEntity())) {
             return false;
         }
-        return super.matches(persistenceManager, newEntity, fields);
-    }
-
-    @Override
-    public String doFormatMessage(Entity entity) throws IOException {
-        return EntityFormatter.writeEntity(entity);
+        return super.matches(context, fields);
     }
 
     @Override
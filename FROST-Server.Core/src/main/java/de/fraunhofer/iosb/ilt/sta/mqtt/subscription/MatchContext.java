@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
+import de.fraunhofer.iosb.ilt.sta.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
+import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.sta.path.Property;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.query.expression.Expression;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The state shared by all Subscriptions that are checked against one changed
+ * entity.
+ *
+ * Subscriptions with a match expression, like
+ * Things(x)/Datastreams/Observations, require the id of an entity that is
+ * linked to the changed entity over a path of navigation properties. The ids
+ * of the entities at the end of such a path are fetched once per event,
+ * after which all Subscriptions with the same path are checked against them
+ * without further queries. If the ids can not be fetched in one query,
+ * because the path goes through a collection before its end, the expression
+ * is evaluated, but still only once per distinct expression.
+ *
+ * A MatchContext is used by one thread only.
+ *
+ * @author scf
+ */
+public class MatchContext {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MatchContext.class);
+    /**
+     * The maximum number of linked entities fetched for a path ending in a
+     * collection. If there are more, the expressions are evaluated instead.
+     */
+    private static final int MAX_LINKED_IDS = 1000;
+
+    private final PersistenceManager persistenceManager;
+    private final Entity entity;
+    private final Map<List<NavigationProperty>, Set<Id>> linkedIds = new HashMap<>();
+    private final Map<String, Boolean> expressionResults = new HashMap<>();
+
+    public MatchContext(PersistenceManager persistenceManager, Entity entity) {
+        this.persistenceManager = persistenceManager;
+        this.entity = entity;
+    }
+
+    public PersistenceManager getPersistenceManager() {
+        return persistenceManager;
+    }
+
+    public Entity getEntity() {
+        return entity;
+    }
+
+    /**
+     * Check if the entity at the end of the given navigation path, starting
+     * at the changed entity, has the given id.
+     *
+     * @param navigationPath The path from the changed entity to the entity
+     * that must have the given id.
+     * @param id The id to look for.
+     * @param expression The expression that does the same check, used if
+     * the linked ids can not be fetched in one query.
+     * @return true if the entity at the end of the path has the given id.
+     */
+    public boolean matches(List<NavigationProperty> navigationPath, Id id, Expression expression) {
+        Set<Id> ids;
+        if (linkedIds.containsKey(navigationPath)) {
+            ids = linkedIds.get(navigationPath);
+        } else {
+            ids = fetchLinkedIds(navigationPath);
+            linkedIds.put(navigationPath, ids);
+        }
+        if (ids != null) {
+            return ids.contains(id);
+        }
+        return expressionResults.computeIfAbsent(expression.toUrl(), k -> evaluate(expression));
+    }
+
+    private Set<Id> fetchLinkedIds(List<NavigationProperty> navigationPath) {
+        if (navigationPath.isEmpty()) {
+            return null;
+        }
+        StringBuilder url = new StringBuilder("/")
+                .append(entity.getEntityType().plural)
+                .append('(').append(entity.getId().getUrl()).append(')');
+        for (int i = 0; i < navigationPath.size(); i++) {
+            NavigationProperty navProp = navigationPath.get(i);
+            if (navProp.isSet && i < navigationPath.size() - 1) {
+                // Can not navigate on from a collection.
+                return null;
+            }
+            url.append('/').append(navProp.propertyName);
+        }
+        LOGGER.trace("Fetching linked ids using {}", url);
+        ResourcePath path = PathParser.parsePath(persistenceManager.getIdManager(), "", url.toString());
+        Query query = new Query();
+        Set<Property> select = Collections.singleton(EntityProperty.ID);
+        query.setSelect(select);
+        NavigationProperty last = navigationPath.get(navigationPath.size() - 1);
+        if (last.isSet) {
+            query.setTop(MAX_LINKED_IDS);
+        }
+
+        Object result = persistenceManager.get(path, query);
+        Set<Id> ids = new HashSet<>();
+        if (result instanceof Entity) {
+            ids.add(((Entity) result).getId());
+        } else if (result instanceof EntitySet) {
+            EntitySet<?> set = (EntitySet<?>) result;
+            if (set.getNextLink() != null) {
+                return null;
+            }
+            for (Entity linked : set) {
+                ids.add(linked.getId());
+            }
+        }
+        return ids;
+    }
+
+    private boolean evaluate(Expression expression) {
+        Query query = new Query();
+        query.setFilter(expression);
+        Object result = persistenceManager.get(entity.getPath(), query);
+        return result != null;
+    }
+}
@@ -17,7 +17,6 @@
  */
 package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
 
-import de.fraunhofer.iosb.ilt.sta.json.serialize.EntityFormatter;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
@@ -25,9 +24,7 @@ import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
 import de.fraunhofer.iosb.ilt.sta.path.PropertyPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
-import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManager;
-import java.io.IOException;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Predicate;
@@ -53,31 +50,26 @@ public class PropertySubscription extends AbstractSubscription {
         final int size = path.size();
         entityType = ((EntityPathElement) path.get(size - 2)).getEntityType();
         property = ((PropertyPathElement) path.get(size - 1)).getProperty();
+        selectedPropertyNames = Collections.singleton(property.getJsonName());
         if (path.getIdentifiedElement() != null) {
             Id id = path.getIdentifiedElement().getId();
             matcher = x -> x.getProperty(EntityProperty.ID).equals(id);
+            indexProperty = EntityProperty.ID;
+            indexId = id;
         }
         generateFilter(2);
     }
 
     @Override
-    public boolean matches(PersistenceManager persistenceManager, Entity newEntity, Set<Property> fields) {
-        if (matcher != null && !matcher.test(newEntity)) {
+    public boolean matches(MatchContext context, Set<Property> fields) {
+        if (matcher != null && !matcher.test(context.getEntity())) {
             return false;
         }
         if (fields == null || !fields.contains(property)) {
             return false;
         }
 
-        return super.matches(persistenceManager, newEntity, fields);
-    }
-
-    @Override
-    public String doFormatMessage(Entity entity) throws IOException {
-        HashSet<String> propNames = new HashSet<>(1);
-        propNames.add(property.getJsonName());
-        entity.setSelectedPropertyNames(propNames);
-        return EntityFormatter.writeEntity(entity);
+        return super.matches(context, fields);
     }
 
     @Override
@@ -18,9 +18,11 @@
 package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
 
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
 import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.sta.util.StringHelper;
 import java.io.IOException;
 import java.util.Set;
 
@@ -39,6 +41,29 @@ public interface Subscription {
      */
     String formatMessage(Entity entity) throws IOException;
 
+    /**
+     * Format the given entity so it fits for the subscription, as bytes that
+     * can be published directly.
+     *
+     * @param entity The entity to format.
+     * @return A message payload.
+     * @throws IOException If the formatting failed.
+     */
+    default byte[] formatPayload(Entity entity) throws IOException {
+        return formatMessage(entity).getBytes(StringHelper.UTF8);
+    }
+
+    /**
+     * Get the key that identifies the payloads of this Subscription.
+     * Subscriptions with equal keys produce equal payloads for the same
+     * entity, so the payload only needs to be formatted once for all of them.
+     *
+     * @return The key for payloads of this Subscription.
+     */
+    default Object getPayloadKey() {
+        return this;
+    }
+
     /**
      * Get the type of entity that is of interest for this Subscription.
      *
@@ -63,4 +88,41 @@ public interface Subscription {
      */
     boolean matches(PersistenceManager persistenceManager, Entity newEntity, Set<Property> fields);
 
+    /**
+     * Check of the entity of the given context is of interest to this
+     * Subscription. Subscriptions that need to query the database should use
+     * the context, so that queries can be shared with the other Subscriptions
+     * that are checked for the same entity.
+     *
+     * @param context The context of the changed entity.
+     * @param fields The fields of the entity that changed.
+     * @return true if the change is of interest for the Subscription.
+     */
+    default boolean matches(MatchContext context, Set<Property> fields) {
+        return matches(context.getPersistenceManager(), context.getEntity(), fields);
+    }
+
+    /**
+     * Get the property of which the value, or the id of the entity in it,
+     * must be {@link #getIndexId()} for an entity to match this Subscription.
+     * Used to index the Subscriptions.
+     *
+     * @return The property to index this Subscription on, or null if the
+     * Subscription can not be indexed.
+     */
+    default Property getIndexProperty() {
+        return null;
+    }
+
+    /**
+     * Get the id an entity must have in the {@link #getIndexProperty()} to
+     * match this Subscription.
+     *
+     * @return The id to index this Subscription on, or null if the
+     * Subscription can not be indexed.
+     */
+    default Id getIndexId() {
+        return null;
+    }
+
 }
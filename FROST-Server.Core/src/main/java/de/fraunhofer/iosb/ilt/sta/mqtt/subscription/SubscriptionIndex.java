@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.path.Property;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the active Subscriptions, and the number of clients subscribed to
+ * each, indexed so that for a changed entity only the Subscriptions that can
+ * match it have to be checked.
+ *
+ * Subscriptions that require a certain id in one of the properties of the
+ * entity, like Datastreams(x)/Observations or Things(x), are indexed on that
+ * property and id. All other Subscriptions are always candidates for entities
+ * of their type.
+ *
+ * The active Subscriptions can also be looked up by their topic, so a topic
+ * that already has clients does not have to be parsed again.
+ *
+ * Adding and removing is synchronised, finding candidates and looking up
+ * topics is not, and can happen from many threads at the same time.
+ *
+ * @author scf
+ */
+public class SubscriptionIndex {
+
+    private final Map<Subscription, Integer> clientCounts = new HashMap<>();
+    private final Map<String, Subscription> byTopic = new ConcurrentHashMap<>();
+    private final Map<EntityType, TypeIndex> indices = new EnumMap<>(EntityType.class);
+
+    public SubscriptionIndex() {
+        for (EntityType type : EntityType.values()) {
+            indices.put(type, new TypeIndex());
+        }
+    }
+
+    /**
+     * Register a client for the given Subscription.
+     *
+     * @param subscription The Subscription a client subscribed to.
+     * @return The number of clients for the Subscription, including the new
+     * one.
+     */
+    public synchronized int addClient(Subscription subscription) {
+        Integer count = clientCounts.get(subscription);
+        if (count == null) {
+            clientCounts.put(subscription, 1);
+            byTopic.put(subscription.getTopic(), subscription);
+            indices.get(subscription.getEntityType()).add(subscription);
+            return 1;
+        }
+        clientCounts.put(subscription, count + 1);
+        return count + 1;
+    }
+
+    /**
+     * Unregister a client from the given Subscription. When the last client
+     * is removed, the Subscription is removed from the index.
+     *
+     * @param subscription The Subscription a client unsubscribed from.
+     * @return The number of clients left for the Subscription, or -1 if the
+     * Subscription was not known.
+     */
+    public synchronized int removeClient(Subscription subscription) {
+        Integer count = clientCounts.get(subscription);
+        if (count == null) {
+            return -1;
+        }
+        if (count <= 1) {
+            clientCounts.remove(subscription);
+            byTopic.remove(subscription.getTopic());
+            indices.get(subscription.getEntityType()).remove(subscription);
+            return 0;
+        }
+        clientCounts.put(subscription, count - 1);
+        return count - 1;
+    }
+
+    /**
+     * Get the active Subscription for the given topic.
+     *
+     * @param topic The topic to get the Subscription for.
+     * @return The Subscription for the topic, or null if no client is
+     * subscribed to the topic.
+     */
+    public Subscription getByTopic(String topic) {
+        return byTopic.get(topic);
+    }
+
+    /**
+     * Check if there are any Subscriptions for the given entity type.
+     *
+     * @param entityType The entity type to check.
+     * @return true if there are no Subscriptions for the given type.
+     */
+    public boolean isEmpty(EntityType entityType) {
+        return indices.get(entityType).isEmpty();
+    }
+
+    /**
+     * Get the Subscriptions that may match the given entity. The candidates
+     * still have to be checked using
+     * {@link Subscription#matches(de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManager, Entity, Set)}.
+     *
+     * @param entity The entity to find the candidate Subscriptions for.
+     * @return The Subscriptions that may match the entity.
+     */
+    public List<Subscription> getCandidates(Entity entity) {
+        return indices.get(entity.getEntityType()).getCandidates(entity);
+    }
+
+    /**
+     * The index for the Subscriptions on one entity type.
+     */
+    private static class TypeIndex {
+
+        private final Map<Property, Map<Id, Set<Subscription>>> indexed = new ConcurrentHashMap<>();
+        private final Set<Subscription> unindexed = ConcurrentHashMap.newKeySet();
+        private volatile int size = 0;
+
+        public void add(Subscription subscription) {
+            Property property = subscription.getIndexProperty();
+            Id id = subscription.getIndexId();
+            if (property == null || id == null) {
+                unindexed.add(subscription);
+            } else {
+                indexed.computeIfAbsent(property, p -> new ConcurrentHashMap<>())
+                        .computeIfAbsent(id, i -> ConcurrentHashMap.newKeySet())
+                        .add(subscription);
+            }
+            size++;
+        }
+
+        public void remove(Subscription subscription) {
+            Property property = subscription.getIndexProperty();
+            Id id = subscription.getIndexId();
+            if (property == null || id == null) {
+                unindexed.remove(subscription);
+            } else {
+                Map<Id, Set<Subscription>> byId = indexed.get(property);
+                Set<Subscription> set = byId == null ? null : byId.get(id);
+                if (set == null) {
+                    return;
+                }
+                set.remove(subscription);
+                if (set.isEmpty()) {
+                    byId.remove(id);
+                }
+            }
+            size--;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public List<Subscription> getCandidates(Entity entity) {
+            List<Subscription> result = new ArrayList<>(unindexed);
+            for (Map.Entry<Property, Map<Id, Set<Subscription>>> entry : indexed.entrySet()) {
+                Object value = entity.getProperty(entry.getKey());
+                if (value instanceof Entity) {
+                    value = ((Entity) value).getId();
+                }
+                if (value == null) {
+                    continue;
+                }
+                Set<Subscription> set = entry.getValue().get(value);
+                if (set != null) {
+                    result.addAll(set);
+                }
+            }
+            return result;
+        }
+    }
+}
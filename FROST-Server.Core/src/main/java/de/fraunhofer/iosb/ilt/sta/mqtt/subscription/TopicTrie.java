@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the active wildcard topic filters, like v1.0/+/Observations or
+ * v1.0/Datastreams(1)/#, in a trie of topic levels, so that finding out if a
+ * concrete topic is matched by any of the filters takes time proportional to
+ * the number of levels in the topic, not to the number of filters.
+ *
+ * Adding and removing is synchronised, matching is not, and can happen from
+ * many threads at the same time.
+ *
+ * @author scf
+ */
+public class TopicTrie {
+
+    public static final String SEPARATOR = "/";
+    public static final String SINGLE_LEVEL = "+";
+    public static final String MULTI_LEVEL = "#";
+
+    private final Node root = new Node();
+    private volatile int filterCount = 0;
+
+    /**
+     * Checks if the given topic is a filter containing MQTT wildcards.
+     *
+     * @param topic The topic to check.
+     * @return true if the topic contains a + or # wildcard.
+     */
+    public static boolean isWildcard(String topic) {
+        return topic.contains(SINGLE_LEVEL) || topic.contains(MULTI_LEVEL);
+    }
+
+    /**
+     * Register a client for the given topic filter.
+     *
+     * @param filter The topic filter a client subscribed to.
+     * @return The number of clients for the filter, including the new one.
+     */
+    public synchronized int add(String filter) {
+        Node node = root;
+        for (String level : filter.split(SEPARATOR, -1)) {
+            node = node.children.computeIfAbsent(level, l -> new Node());
+        }
+        node.clientCount++;
+        if (node.clientCount == 1) {
+            filterCount++;
+        }
+        return node.clientCount;
+    }
+
+    /**
+     * Unregister a client for the given topic filter.
+     *
+     * @param filter The topic filter a client unsubscribed from.
+     * @return The number of clients left for the filter, or -1 if the filter
+     * was not registered.
+     */
+    public synchronized int remove(String filter) {
+        String[] levels = filter.split(SEPARATOR, -1);
+        Node[] path = new Node[levels.length + 1];
+        path[0] = root;
+        for (int i = 0; i < levels.length; i++) {
+            path[i + 1] = path[i].children.get(levels[i]);
+            if (path[i + 1] == null) {
+                return -1;
+            }
+        }
+        Node node = path[levels.length];
+        if (node.clientCount == 0) {
+            return -1;
+        }
+        node.clientCount--;
+        if (node.clientCount > 0) {
+            return node.clientCount;
+        }
+        filterCount--;
+        // Prune the nodes that no longer lead to any filter.
+        for (int i = levels.length; i > 0; i--) {
+            Node current = path[i];
+            if (current.clientCount > 0 || !current.children.isEmpty()) {
+                break;
+            }
+            path[i - 1].children.remove(levels[i - 1]);
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if there are no filters registered.
+     */
+    public boolean isEmpty() {
+        return filterCount == 0;
+    }
+
+    /**
+     * Checks if the given concrete topic is matched by any of the registered
+     * filters.
+     *
+     * @param topic The concrete topic, without wildcards.
+     * @return true if at least one registered filter matches the topic.
+     */
+    public boolean matches(String topic) {
+        if (isEmpty()) {
+            return false;
+        }
+        return matches(root, topic.split(SEPARATOR, -1), 0);
+    }
+
+    private static boolean matches(Node node, String[] levels, int index) {
+        Node multi = node.children.get(MULTI_LEVEL);
+        if (multi != null && multi.clientCount > 0) {
+            // # also matches the parent level itself.
+            return true;
+        }
+        if (index == levels.length) {
+            return node.clientCount > 0;
+        }
+        Node exact = node.children.get(levels[index]);
+        if (exact != null && matches(exact, levels, index + 1)) {
+            return true;
+        }
+        Node single = node.children.get(SINGLE_LEVEL);
+        return single != null && matches(single, levels, index + 1);
+    }
+
+    private static class Node {
+
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private volatile int clientCount = 0;
+    }
+}
@@ -17,6 +17,8 @@
  */
 package de.fraunhofer.iosb.ilt.sta.parser.path;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import de.fraunhofer.iosb.ilt.sta.path.CustomPropertyArrayIndex;
 import de.fraunhofer.iosb.ilt.sta.path.CustomPropertyPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
@@ -31,6 +33,11 @@ import de.fraunhofer.iosb.ilt.sta.util.StringHelper;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,8 +47,25 @@ public class PathParser implements ParserVisitor {
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(PathParser.class);
+    /**
+     * Matches an id in a path: a long or a quoted string, in brackets.
+     */
+    private static final Pattern ID_PATTERN = Pattern.compile("\\((-?(?:0|[1-9][0-9]*)|'(?:[^']|'')*')\\)");
+    private static final String ID_PLACEHOLDER = "()";
+
+    /**
+     * The parse trees of recently parsed paths, by the path with the ids
+     * removed. Paths that only differ in their ids have the same parse tree.
+     */
+    private static volatile Cache<String, ASTStart> parseTreeCache = createCache(1000);
+    private static volatile long cacheSize = 1000;
 
     private final IdManager idmanager;
+    /**
+     * The ids to use instead of the ones in the parse tree, when re-using the
+     * parse tree of a path with the same shape.
+     */
+    private final Iterator<String> ids;
 
     /**
      * Parse the given path with an IdManagerlong and UTF-8 encoding.
@@ -82,11 +106,18 @@ public class PathParser implements ParserVisitor {
         if (path == null) {
             return resourcePath;
         }
+        List<String> ids = new ArrayList<>();
+        String shape = extractIds(path, ids);
+        ASTStart start = parseTreeCache.getIfPresent(shape);
+        if (start != null) {
+            start.jjtAccept(new PathParser(idmanager, ids.iterator()), resourcePath);
+            return resourcePath;
+        }
         LOGGER.debug("Parsing: {}", path);
         InputStream is = new ByteArrayInputStream(path.getBytes(encoding));
         Parser t = new Parser(is, StringHelper.UTF8.name());
         try {
-            ASTStart start = t.Start();
+            start = t.Start();
             PathParser v = new PathParser(idmanager);
             start.jjtAccept(v, resourcePath);
         } catch (ParseException | TokenMgrError ex) {
@@ -94,11 +125,68 @@ public class PathParser implements ParserVisitor {
             LOGGER.trace("Exception: ", ex);
             throw new IllegalStateException("Path is not valid.");
         }
+        parseTreeCache.put(shape, start);
         return resourcePath;
     }
 
+    /**
+     * Replaces all ids in the given path with an empty placeholder, and adds
+     * the ids to the given list, in the order they appear in the path. The
+     * number of ids is part of the shape, so a path that contains the
+     * placeholder itself never has the shape of a valid path.
+     *
+     * @param path The path to extract the ids from.
+     * @param ids The list to add the ids to.
+     * @return The shape of the path: the number of ids, and the path without
+     * ids.
+     */
+    private static String extractIds(String path, List<String> ids) {
+        Matcher matcher = ID_PATTERN.matcher(path);
+        if (!matcher.find()) {
+            return "0:" + path;
+        }
+        StringBuilder shape = new StringBuilder(path.length());
+        int last = 0;
+        do {
+            ids.add(matcher.group(1));
+            shape.append(path, last, matcher.start()).append(ID_PLACEHOLDER);
+            last = matcher.end();
+        } while (matcher.find());
+        shape.append(path, last, path.length());
+        return ids.size() + ":" + shape;
+    }
+
+    /**
+     * Sets the number of path shapes to keep the parse tree of. Paths that
+     * only differ in their ids have the same shape. 0 disables the cache.
+     *
+     * @param size The maximum number of parse trees to keep.
+     */
+    public static void setCacheSize(long size) {
+        if (size == cacheSize) {
+            return;
+        }
+        synchronized (PathParser.class) {
+            if (size != cacheSize) {
+                parseTreeCache = createCache(size);
+                cacheSize = size;
+            }
+        }
+    }
+
+    private static Cache<String, ASTStart> createCache(long size) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .build();
+    }
+
     public PathParser(IdManager idmanager) {
+        this(idmanager, null);
+    }
+
+    private PathParser(IdManager idmanager, Iterator<String> ids) {
         this.idmanager = idmanager;
+        this.ids = ids;
     }
 
     public ResourcePath defltAction(SimpleNode node, ResourcePath data) {
@@ -115,7 +203,8 @@ public class PathParser implements ParserVisitor {
         EntityPathElement epa = new EntityPathElement();
         epa.setEntityType(type);
         if (node.value != null) {
-            epa.setId(idmanager.parseId(node.value.toString()));
+            String idString = ids == null ? node.value.toString() : ids.next();
+            epa.setId(idmanager.parseId(idString));
             rp.setIdentifiedElement(epa);
         }
         epa.setParent(rp.getLastElement());
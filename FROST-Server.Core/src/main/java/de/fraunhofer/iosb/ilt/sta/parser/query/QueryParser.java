@@ -17,6 +17,8 @@
  */
 package de.fraunhofer.iosb.ilt.sta.parser.query;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
 import de.fraunhofer.iosb.ilt.sta.query.Expand;
@@ -40,6 +42,13 @@ public class QueryParser extends AbstractParserVisitor {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(QueryParser.class);
 
+    /**
+     * The parse trees of recently parsed queries. Each parse is turned into a
+     * new Query, so the Query can be changed by the caller.
+     */
+    private static volatile Cache<String, ASTStart> parseTreeCache = createCache(1000);
+    private static volatile long cacheSize = 1000;
+
     private final CoreSettings settings;
 
     public QueryParser(CoreSettings settings) {
@@ -59,12 +68,18 @@ public class QueryParser extends AbstractParserVisitor {
             return new Query(settings);
         }
 
+        ASTStart cached = parseTreeCache.getIfPresent(query);
+        if (cached != null) {
+            return new QueryParser(settings).visit(cached, null);
+        }
         InputStream is = new ByteArrayInputStream(query.getBytes(encoding));
         Parser t = new Parser(is, StringHelper.UTF8.name());
         try {
             ASTStart n = t.Start();
             QueryParser v = new QueryParser(settings);
-            return v.visit(n, null);
+            Query result = v.visit(n, null);
+            parseTreeCache.put(query, n);
+            return result;
         } catch (ParseException | TokenMgrError | IllegalArgumentException ex) {
             LOGGER.error("Exception parsing: {}", query);
             LOGGER.error("Failed to parse because (Set loglevel to trace for stack): {}", ex.getMessage());
@@ -73,6 +88,30 @@ public class QueryParser extends AbstractParserVisitor {
         }
     }
 
+    /**
+     * Sets the number of query strings to keep the parse tree of. 0 disables
+     * the cache.
+     *
+     * @param size The maximum number of parse trees to keep.
+     */
+    public static void setCacheSize(long size) {
+        if (size == cacheSize) {
+            return;
+        }
+        synchronized (QueryParser.class) {
+            if (size != cacheSize) {
+                parseTreeCache = createCache(size);
+                cacheSize = size;
+            }
+        }
+    }
+
+    private static Cache<String, ASTStart> createCache(long size) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .build();
+    }
+
     @Override
     public Query visit(ASTStart node, Object data) {
         if (node.jjtGetNumChildren() != 1 || !(node.jjtGetChild(0) instanceof ASTOptions)) {
@@ -90,6 +129,7 @@ public class QueryParser extends AbstractParserVisitor {
 
     private static final String OP_TOP = "top";
     private static final String OP_SKIP = "skip";
+    private static final String OP_SKIPTOKEN = "skiptoken";
     private static final String OP_COUNT = "count";
     private static final String OP_SELECT = "select";
     private static final String OP_EXPAND = "expand";
@@ -111,6 +151,10 @@ public class QueryParser extends AbstractParserVisitor {
                 query.setSkip(Math.toIntExact((long) ((ASTValueNode) node.jjtGetChild(0)).jjtGetValue()));
                 break;
 
+            case OP_SKIPTOKEN:
+                query.setSkipToken((String) ((ASTValueNode) node.jjtGetChild(0)).jjtGetValue());
+                break;
+
             case OP_COUNT:
                 query.setCount(((ASTBool) node.jjtGetChild(0)).getValue());
                 break;
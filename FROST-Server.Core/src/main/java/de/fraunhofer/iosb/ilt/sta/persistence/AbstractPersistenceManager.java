@@ -32,7 +32,9 @@ import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.util.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.NoSuchEntityException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -44,13 +46,24 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
      * The changed entity messages that need to be sent to the bus.
      */
     private final List<EntityChangedMessage> changedEntities;
+    /**
+     * The entities as they were returned by the database when they were
+     * stored, keyed by the (identical) entity that was passed to insert or
+     * update.
+     */
+    private final Map<Entity, Entity> storedEntities;
 
     protected AbstractPersistenceManager() {
         this.changedEntities = new ArrayList<>();
+        this.storedEntities = new IdentityHashMap<>();
     }
 
-    private Entity fetchEntity(EntityType entityType, Id id) {
-        Entity entity = get(entityType, id);
+    private Entity fetchEntity(Entity original) {
+        Entity entity = getStoredEntity(original);
+        EntityType entityType = original.getEntityType();
+        if (entity == null) {
+            entity = get(entityType, original.getId());
+        }
         for (NavigationProperty property : entityType.getNavigationEntities()) {
             Object parentObject = entity.getProperty(property);
             if (parentObject instanceof Entity) {
@@ -65,9 +78,7 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
     public boolean insert(Entity entity) throws NoSuchEntityException, IncompleteEntityException {
         boolean result = doInsert(entity);
         if (result) {
-            Entity newEntity = fetchEntity(
-                    entity.getEntityType(),
-                    entity.getId());
+            Entity newEntity = fetchEntity(entity);
             changedEntities.add(
                     new EntityChangedMessage()
                             .setEventType(EntityChangedMessage.Type.CREATE)
@@ -79,6 +90,45 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
 
     public abstract boolean doInsert(Entity entity) throws NoSuchEntityException, IncompleteEntityException;
 
+    /**
+     * Register the given entity as created, to send a create message for it to
+     * the bus after the commit. Unlike {@link #insert(Entity)}, the entity is
+     * not fetched from the database again, so it must already be complete.
+     *
+     * @param entity The entity that was created.
+     */
+    protected void entityCreated(Entity entity) {
+        changedEntities.add(
+                new EntityChangedMessage()
+                        .setEventType(EntityChangedMessage.Type.CREATE)
+                        .setEntity(entity)
+        );
+    }
+
+    /**
+     * Register the entity as it was stored in the database, when the database
+     * returned the stored row in the same statement that inserted or updated
+     * it. The stored entity is then used for the message to the bus, instead
+     * of fetching the entity again.
+     *
+     * @param entity The entity that was passed to insert or update.
+     * @param storedEntity The entity as it was stored.
+     */
+    protected void entityStored(Entity entity, Entity storedEntity) {
+        storedEntities.put(entity, storedEntity);
+    }
+
+    /**
+     * Get, and forget, the entity as it was stored for the given entity, if
+     * it was registered using {@link #entityStored(Entity, Entity)}.
+     *
+     * @param entity The entity that was passed to insert or update.
+     * @return The entity as it was stored, or null if it was not registered.
+     */
+    protected Entity getStoredEntity(Entity entity) {
+        return storedEntities.remove(entity);
+    }
+
     @Override
     public boolean delete(EntityPathElement pathElement) throws NoSuchEntityException {
         Entity entity = getEntityByEntityPath(pathElement);
@@ -115,9 +165,7 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
         EntityChangedMessage result = doUpdate(pathElement, entity);
         if (result != null) {
             result.setEventType(EntityChangedMessage.Type.UPDATE);
-            Entity newEntity = fetchEntity(
-                    entity.getEntityType(),
-                    entity.getId());
+            Entity newEntity = fetchEntity(entity);
             result.setEntity(newEntity);
             changedEntities.add(result);
         }
@@ -173,6 +221,7 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
 
     private void clearEntityChangedEvents() {
         changedEntities.clear();
+        storedEntities.clear();
     }
 
     @Override
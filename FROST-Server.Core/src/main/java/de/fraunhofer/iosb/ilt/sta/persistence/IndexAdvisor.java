@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An interface for PersistenceManagers that keep statistics on the shapes of
+ * the queries they execute, and can recommend indexes based on those.
+ *
+ * @author scf
+ */
+public interface IndexAdvisor {
+
+    /**
+     * Give a summary of the recorded query shapes.
+     *
+     * @return A human readable text summarising the recorded query shapes,
+     * their frequency, latency and the number of rows they returned.
+     */
+    public String getQueryStatistics();
+
+    /**
+     * Recommend indexes that do not exist yet, most valuable first.
+     *
+     * @return The statements that would create the recommended indexes.
+     */
+    public List<String> getIndexRecommendations();
+
+    /**
+     * Create the given recommended indexes. Statements that are not in the
+     * current list of recommendations are ignored.
+     *
+     * @param statements The statements of the recommendations to execute.
+     * @param out The Writer to append logging messages to.
+     * @throws java.io.IOException when the Writer throws this exception.
+     */
+    public void createIndexes(Collection<String> statements, Writer out) throws IOException;
+
+}
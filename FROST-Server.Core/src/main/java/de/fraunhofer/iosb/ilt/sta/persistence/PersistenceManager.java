@@ -18,7 +18,10 @@
 package de.fraunhofer.iosb.ilt.sta.persistence;
 
 import com.github.fge.jsonpatch.JsonPatch;
+import de.fraunhofer.iosb.ilt.sta.formatter.EntitySetWriter;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.EntityType;
@@ -28,6 +31,9 @@ import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.sta.util.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.LiquibaseUser;
 import de.fraunhofer.iosb.ilt.sta.util.NoSuchEntityException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  *
@@ -56,6 +62,29 @@ public interface PersistenceManager extends LiquibaseUser {
      */
     public boolean insert(Entity entity) throws NoSuchEntityException, IncompleteEntityException;
 
+    /**
+     * Insert the given Observations. Implementations can override this to
+     * insert the Observations in bulk, checking the Datastreams and
+     * FeaturesOfInterest they link to only once. After the call, the
+     * Observations that were inserted have their id set.
+     *
+     * @param observations The Observations to insert.
+     * @return For each given Observation, in the same order, null if it was
+     * inserted, or the exception explaining why it was not inserted.
+     */
+    public default List<Exception> insertObservations(List<Observation> observations) {
+        List<Exception> errors = new ArrayList<>(observations.size());
+        for (Observation observation : observations) {
+            try {
+                insert(observation);
+                errors.add(null);
+            } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                errors.add(exc);
+            }
+        }
+        return errors;
+    }
+
     public Entity get(EntityType entityType, Id id);
 
     public Object get(ResourcePath path, Query query);
@@ -68,6 +97,25 @@ public interface PersistenceManager extends LiquibaseUser {
         return clazz.cast(result);
     }
 
+    /**
+     * Get the entity set in the given path, and pass the entities to the given
+     * writer as they are loaded. Implementations that can not stream may load
+     * the entire set first.
+     *
+     * @param path The path to an entity set.
+     * @param query The query to apply.
+     * @param writer The writer to pass the entities to.
+     * @throws IOException If the writer fails.
+     */
+    public default void stream(ResourcePath path, Query query, EntitySetWriter writer) throws IOException {
+        EntitySet<?> entitySet = get(path, query, EntitySet.class);
+        writer.writeStart(entitySet.getCount(), entitySet.isCountEstimated());
+        for (Entity entity : entitySet) {
+            writer.writeEntity(entity);
+        }
+        writer.writeEnd(entitySet.getNextLink());
+    }
+
     public boolean delete(EntityPathElement pathElement) throws NoSuchEntityException;
 
     /**
@@ -135,4 +183,13 @@ public interface PersistenceManager extends LiquibaseUser {
         close();
     }
 
+    /**
+     * Stop the background tasks that are shared by all instances of this
+     * persistence manager. Called once, when the server shuts down, on an
+     * instance that is not initialised.
+     */
+    public default void shutdown() {
+        // Nothing runs in the background by default.
+    }
+
 }
@@ -46,6 +46,23 @@ public class PersistenceManagerFactory {
         }
     }
 
+    /**
+     * Stop the background tasks of the persistence manager, if the factory
+     * was initialised. Called when the server shuts down.
+     */
+    public static synchronized void shutdown() {
+        if (instance == null) {
+            return;
+        }
+        try {
+            PersistenceManager persistenceManager = (PersistenceManager) instance.persistenceManagerClass.newInstance();
+            persistenceManager.shutdown();
+        } catch (InstantiationException | IllegalAccessException ex) {
+            LOGGER.error(ERROR_MSG + "Class '" + instance.persistenceManagerClass.getName() + "' could not be instantiated", ex);
+        }
+        instance = null;
+    }
+
     public static PersistenceManagerFactory getInstance() {
         if (instance == null) {
             throw new IllegalStateException("PersistanceManagerFactory is not initialized! Call init() before accessing the instance.");
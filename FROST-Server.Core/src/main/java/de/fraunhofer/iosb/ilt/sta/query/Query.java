@@ -42,6 +42,11 @@ public class Query {
     private CoreSettings settings;
     private Optional<Integer> top;
     private Optional<Integer> skip;
+    /**
+     * The continuation token for keyset pagination, pointing to the last
+     * entity of the previous page.
+     */
+    private String skipToken;
     private Optional<Boolean> count;
     private Set<Property> select;
     private Expression filter;
@@ -110,6 +115,10 @@ public class Query {
         return dflt;
     }
 
+    public String getSkipToken() {
+        return skipToken;
+    }
+
     public Optional<Boolean> getCount() {
         return count;
     }
@@ -162,6 +171,17 @@ public class Query {
         this.skip = Optional.of(skip);
     }
 
+    /**
+     * Remove the $skip option.
+     */
+    public void clearSkip() {
+        this.skip = Optional.empty();
+    }
+
+    public void setSkipToken(String skipToken) {
+        this.skipToken = skipToken;
+    }
+
     public void setCount(boolean count) {
         this.count = Optional.of(count);
     }
@@ -188,7 +208,7 @@ public class Query {
 
     @Override
     public int hashCode() {
-        return Objects.hash(top, skip, count, select, filter, format, expand, orderBy);
+        return Objects.hash(top, skip, skipToken, count, select, filter, format, expand, orderBy);
     }
 
     @Override
@@ -206,6 +226,7 @@ public class Query {
         return Objects.equals(this.count, other.count)
                 && Objects.equals(this.top, other.top)
                 && Objects.equals(this.skip, other.skip)
+                && Objects.equals(this.skipToken, other.skipToken)
                 && Objects.equals(this.select, other.select)
                 && Objects.equals(this.filter, other.filter)
                 && Objects.equals(this.format, other.format)
@@ -227,6 +248,8 @@ public class Query {
 
         addSkipToUrl(sb, separator);
 
+        addSkipTokenToUrl(sb, separator);
+
         addSelectToUrl(sb, separator);
 
         addFilterToUrl(sb, separator, inExpand);
@@ -263,6 +286,12 @@ public class Query {
         }
     }
 
+    private void addSkipTokenToUrl(StringBuilder sb, char separator) {
+        if (skipToken != null) {
+            sb.append(separator).append("$skiptoken=").append(skipToken);
+        }
+    }
+
     private void addTopToUrl(StringBuilder sb, char separator) {
         if (top.isPresent()) {
             sb.append(separator).append("$top=").append(top.get());
@@ -21,6 +21,7 @@ import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.github.fge.jsonpatch.JsonPatch;
 import de.fraunhofer.iosb.ilt.sta.formatter.DataArrayValue;
+import de.fraunhofer.iosb.ilt.sta.formatter.EntitySetWriter;
 import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
 import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
@@ -88,6 +89,8 @@ public class Service {
     public Service(CoreSettings settings) {
         this.settings = settings;
         PersistenceManagerFactory.init(settings);
+        PathParser.setCacheSize(settings.getParserCacheSize());
+        QueryParser.setCacheSize(settings.getParserCacheSize());
     }
 
     public <T> ServiceResponse<T> execute(ServiceRequest request) {
@@ -255,6 +258,10 @@ public class Service {
             maybeCommitAndClose();
             return response;
         }
+        EntitySetWriter setWriter = createEntitySetWriter(request, path, query);
+        if (setWriter != null) {
+            return handleGetStreaming(pm, path, query, setWriter, response);
+        }
         T object;
         try {
             object = (T) pm.get(path, query);
@@ -289,6 +296,51 @@ public class Service {
         return response;
     }
 
+    private EntitySetWriter createEntitySetWriter(ServiceRequest request, ResourcePath path, Query query) {
+        if (request.getResultStream() == null || request.getFormatter() == null) {
+            return null;
+        }
+        if (!(path.getLastElement() instanceof EntitySetPathElement)) {
+            return null;
+        }
+        try {
+            return request.getFormatter().createEntitySetWriter(request.getResultStream(), path, query, settings.isUseAbsoluteNavigationLinks());
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to create streaming writer, falling back to buffered result.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Streams the entity set. The result stream is only opened after the count
+     * and the query are done. Errors before that give a normal error response.
+     * If an error happens after that, the caller must abort the response,
+     * since the status was already sent.
+     */
+    private <T> ServiceResponse<T> handleGetStreaming(PersistenceManager pm, ResourcePath path, Query query, EntitySetWriter setWriter, ServiceResponse<T> response) {
+        try {
+            pm.stream(path, query, setWriter);
+        } catch (UnsupportedOperationException e) {
+            LOGGER.error("Unsupported operation.", e);
+            response.setStatus(500, "Unsupported operation: " + e.getMessage());
+            pm.rollbackAndClose();
+            return response;
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Illegal operation.", e);
+            response.setStatus(400, "Illegal operation: " + e.getMessage());
+            pm.rollbackAndClose();
+            return response;
+        } catch (IOException e) {
+            LOGGER.error("Failed to write result.", e);
+            response.setStatus(500, "Failed to write result: " + e.getMessage());
+            pm.rollbackAndClose();
+            return response;
+        }
+        response.setCode(200);
+        maybeCommitAndClose();
+        return response;
+    }
+
     private void fixDataArrayRequests(Query query, ResourcePath path) {
         // If DataArray is requested, and $select is used, make sure Datastream is in the $select.
         if ("dataarray".equalsIgnoreCase(query.getFormat()) && !query.getSelect().isEmpty()) {
@@ -399,6 +451,8 @@ public class Service {
 
     private void handleDataArrayItems(List<ArrayValueHandlers.ArrayValueHandler> handlers, DataArrayValue daValue, Datastream datastream, MultiDatastream multiDatastream, PersistenceManager pm, List<String> selfLinks) {
         int compCount = handlers.size();
+        List<Observation> observations = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
         for (List<Object> entry : daValue.getDataArray()) {
             try {
                 ObservationBuilder obsBuilder = new ObservationBuilder();
@@ -407,15 +461,146 @@ public class Service {
                 for (int i = 0; i < compCount; i++) {
                     handlers.get(i).handle(entry.get(i), obsBuilder);
                 }
-                Observation observation = obsBuilder.build();
-                pm.insert(observation);
-                String selfLink = UrlHelper.generateSelfLink(settings.getServiceRootUrl(), observation);
-                selfLinks.add(selfLink);
-            } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                observations.add(obsBuilder.build());
+                positions.add(selfLinks.size());
+                selfLinks.add(null);
+            } catch (IllegalArgumentException exc) {
                 LOGGER.debug("Failed to create entity", exc);
                 selfLinks.add("error " + exc.getMessage());
             }
         }
+        List<Exception> errors = pm.insertObservations(observations);
+        for (int i = 0; i < observations.size(); i++) {
+            Exception exc = errors.get(i);
+            if (exc == null) {
+                selfLinks.set(positions.get(i), UrlHelper.generateSelfLink(settings.getServiceRootUrl(), observations.get(i)));
+            } else {
+                LOGGER.debug("Failed to create entity", exc);
+                selfLinks.set(positions.get(i), "error " + exc.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Executes several CREATE requests for Observations in one transaction,
+     * using the bulk insert of the persistence manager. A request that can not
+     * be parsed, or of which the Observation is rejected, only fails that
+     * request. If the bulk insert itself fails, the transaction is rolled back
+     * and the requests are executed one by one, each in its own transaction,
+     * so only the requests that fail on their own are rejected.
+     *
+     * Can not be used in an explicitly started transaction.
+     *
+     * @param requests The CREATE requests, each creating one Observation.
+     * @return The responses, in the same order as the requests.
+     */
+    public List<ServiceResponse<Observation>> executeCreateObservationsBatch(List<ServiceRequest> requests) {
+        if (transactionActive) {
+            throw new IllegalStateException("Batched creates can not be used in an explicit transaction.");
+        }
+        PersistenceManager pm = getPm();
+        try {
+            return handleCreateObservationsBatch(pm, requests);
+        } catch (Exception e) {
+            LOGGER.error("", e);
+            if (pm != null) {
+                pm.rollbackAndClose();
+            }
+            List<ServiceResponse<Observation>> responses = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                responses.add(new ServiceResponse<>(500, "Failed to store data."));
+            }
+            return responses;
+        } finally {
+            maybeRollbackAndClose();
+        }
+    }
+
+    private List<ServiceResponse<Observation>> handleCreateObservationsBatch(PersistenceManager pm, List<ServiceRequest> requests) {
+        List<ServiceResponse<Observation>> responses = new ArrayList<>(requests.size());
+        List<Observation> observations = new ArrayList<>(requests.size());
+        List<Integer> positions = new ArrayList<>(requests.size());
+        EntityParser entityParser = new EntityParser(pm.getIdManager().getIdClass());
+        for (ServiceRequest request : requests) {
+            ServiceResponse<Observation> response = new ServiceResponse<>();
+            Observation observation = parseObservationForCreate(pm, entityParser, request, response);
+            if (observation != null) {
+                observations.add(observation);
+                positions.add(responses.size());
+            }
+            responses.add(response);
+        }
+        if (observations.isEmpty()) {
+            pm.rollbackAndClose();
+            return responses;
+        }
+
+        List<Exception> errors;
+        try {
+            errors = pm.insertObservations(observations);
+            pm.commitAndClose();
+        } catch (RuntimeException exc) {
+            LOGGER.warn("Batch insert of {} Observations failed, inserting them one by one: {}", observations.size(), exc.getMessage());
+            LOGGER.debug("Exception:", exc);
+            pm.rollbackAndClose();
+            for (Integer position : positions) {
+                ServiceResponse<Observation> response = new Service(settings).execute(requests.get(position));
+                responses.set(position, response);
+            }
+            return responses;
+        }
+
+        for (int i = 0; i < observations.size(); i++) {
+            Observation observation = observations.get(i);
+            ServiceResponse<Observation> response = responses.get(positions.get(i));
+            Exception exc = errors.get(i);
+            if (exc == null) {
+                response.setResult(observation);
+                response.setCode(201);
+                response.addHeader("location", UrlHelper.generateSelfLink(settings.getServiceRootUrl(), observation));
+            } else {
+                LOGGER.debug("Failed to create entity", exc);
+                response.setStatus(400, exc.getMessage());
+            }
+        }
+        return responses;
+    }
+
+    private Observation parseObservationForCreate(PersistenceManager pm, EntityParser entityParser, ServiceRequest request, ServiceResponse<Observation> response) {
+        String urlPath = request.getUrlPath();
+        if (urlPath == null || urlPath.equals("/")) {
+            response.setStatus(400, POST_ONLY_ALLOWED_TO_COLLECTIONS);
+            return null;
+        }
+        ResourcePath path;
+        try {
+            path = PathParser.parsePath(pm.getIdManager(), settings.getServiceRootUrl(), urlPath);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(404, NOT_A_VALID_ID);
+            return null;
+        } catch (IllegalStateException e) {
+            response.setStatus(404, NOT_A_VALID_ID + ": " + e.getMessage());
+            return null;
+        }
+        if (!(path.getMainElement() instanceof EntitySetPathElement)) {
+            response.setStatus(400, POST_ONLY_ALLOWED_TO_COLLECTIONS);
+            return null;
+        }
+        EntitySetPathElement mainSet = (EntitySetPathElement) path.getMainElement();
+        if (mainSet.getEntityType() != EntityType.OBSERVATION) {
+            response.setStatus(400, "Only Observations can be created in a batch.");
+            return null;
+        }
+        try {
+            Observation observation = entityParser.parseObservation(request.getContent());
+            observation.complete(mainSet);
+            return observation;
+        } catch (IOException | IncompleteEntityException | IllegalStateException ex) {
+            LOGGER.debug("Post failed: {}", ex.getMessage());
+            LOGGER.trace("Exception:", ex);
+            response.setStatus(400, ex.getMessage());
+            return null;
+        }
     }
 
     private <T> ServiceResponse<T> executePatch(ServiceRequest request, boolean isChangeSet) {
@@ -18,6 +18,7 @@
 package de.fraunhofer.iosb.ilt.sta.service;
 
 import de.fraunhofer.iosb.ilt.sta.formatter.ResultFormatter;
+import de.fraunhofer.iosb.ilt.sta.formatter.ResultStream;
 
 /**
  *
@@ -30,6 +31,11 @@ public class ServiceRequest {
     private String urlQuery;
     private String content;
     private ResultFormatter formatter;
+    /**
+     * If set, entity sets are written directly to this stream, instead of
+     * being formatted into the response.
+     */
+    private ResultStream resultStream;
 
     protected ServiceRequest() {
 
@@ -121,4 +127,24 @@ public class ServiceRequest {
     public void setFormatter(ResultFormatter formatter) {
         this.formatter = formatter;
     }
+
+    /**
+     * If set, entity sets are written directly to this stream, instead of
+     * being formatted into the response.
+     *
+     * @return The stream to write results to, or null.
+     */
+    public ResultStream getResultStream() {
+        return resultStream;
+    }
+
+    /**
+     * If set, entity sets are written directly to this stream, instead of
+     * being formatted into the response.
+     *
+     * @param resultStream The stream to write results to, or null.
+     */
+    public void setResultStream(ResultStream resultStream) {
+        this.resultStream = resultStream;
+    }
 }
@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.sta.service;
 
 import de.fraunhofer.iosb.ilt.sta.formatter.DefaultResultFormater;
 import de.fraunhofer.iosb.ilt.sta.formatter.ResultFormatter;
+import de.fraunhofer.iosb.ilt.sta.formatter.ResultStream;
 import java.util.Optional;
 
 /**
@@ -33,6 +34,7 @@ public class ServiceRequestBuilder {
     private Optional<String> urlQuery;
     private Optional<String> content;
     private ResultFormatter formatter;
+    private ResultStream resultStream;
 
     public ServiceRequestBuilder() {
         this.requestType = Optional.empty();
@@ -68,6 +70,11 @@ public class ServiceRequestBuilder {
         return this;
     }
 
+    public ServiceRequestBuilder withResultStream(ResultStream resultStream) {
+        this.resultStream = resultStream;
+        return this;
+    }
+
     public ServiceRequestBuilder withRequestType(RequestType requestType) {
         this.requestType = Optional.of(requestType);
         return this;
@@ -91,6 +98,7 @@ public class ServiceRequestBuilder {
             result.setRequestType(requestType.get());
         }
         result.setFormatter(formatter);
+        result.setResultStream(resultStream);
         return result;
     }
 }
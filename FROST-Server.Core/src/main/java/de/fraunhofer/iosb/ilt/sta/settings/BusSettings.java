@@ -29,13 +29,21 @@ public class BusSettings implements ConfigDefaults {
      * Tags
      */
     @DefaultValue("de.fraunhofer.iosb.ilt.sta.messagebus.InternalMessageBus")
-    private static final String TAG_IMPLEMENTATION_CLASS = "busImplementationClass";
+    public static final String TAG_IMPLEMENTATION_CLASS = "busImplementationClass";
+    @DefaultValue("de.fraunhofer.iosb.ilt.sta.messagebus.JsonMessageCodec")
+    public static final String TAG_CODEC_CLASS = "codecClass";
 
     /**
      * Fully-qualified class name of the MqttServer implementation class
      */
     private String busImplementationClass;
 
+    /**
+     * Fully-qualified class name of the MessageCodec used to encode messages
+     * for buses that send messages between instances.
+     */
+    private String codecClass;
+
     /**
      * Extension point for implementation specific settings
      */
@@ -50,6 +58,7 @@ public class BusSettings implements ConfigDefaults {
 
     private void init(Settings settings) {
         busImplementationClass = settings.get(TAG_IMPLEMENTATION_CLASS, getClass());
+        codecClass = settings.get(TAG_CODEC_CLASS, getClass());
         customSettings = settings;
     }
 
@@ -69,6 +78,10 @@ public class BusSettings implements ConfigDefaults {
         this.busImplementationClass = busImplementationClass;
     }
 
+    public String getCodecClass() {
+        return codecClass;
+    }
+
     public Settings getCustomSettings() {
         return customSettings;
     }
@@ -83,6 +83,10 @@ public class CoreSettings implements ConfigDefaults {
     public static final String TAG_CORS_PREFLIGHT_MAXAGE = "cors.preflight.maxage";
     @DefaultValueBoolean(true)
     public static final String TAG_CORS_REQUEST_DECORATE = "cors.request.decorate";
+    @DefaultValueBoolean(false)
+    public static final String TAG_STREAM_RESULTS = "streamResults";
+    @DefaultValueInt(1000)
+    public static final String TAG_PARSER_CACHE_SIZE = "parserCacheSize";
 
     // Auth Tags
     @DefaultValue("")
@@ -140,6 +144,10 @@ public class CoreSettings implements ConfigDefaults {
      * The default count to use when no specific count is set.
      */
     private boolean countDefault = defaultValueBoolean(TAG_DEFAULT_COUNT);
+    /**
+     * The number of parsed paths and queries to keep.
+     */
+    private int parserCacheSize = defaultValueInt(TAG_PARSER_CACHE_SIZE);
     /**
      * Path to temp folder.
      */
@@ -215,6 +223,7 @@ public class CoreSettings implements ConfigDefaults {
         topDefault = settings.getInt(TAG_DEFAULT_TOP, getClass());
         topMax = settings.getInt(TAG_MAX_TOP, getClass());
         dataSizeMax = settings.getLong(TAG_MAX_DATASIZE, getClass());
+        parserCacheSize = settings.getInt(TAG_PARSER_CACHE_SIZE, getClass());
 
         mqttSettings = new MqttSettings(new Settings(settings.getProperties(), PREFIX_MQTT, false));
         persistenceSettings = new PersistenceSettings(new Settings(settings.getProperties(), PREFIX_PERSISTENCE, false));
@@ -312,6 +321,26 @@ public class CoreSettings implements ConfigDefaults {
         this.topMax = topMax;
     }
 
+    /**
+     * The number of parsed path shapes and query strings to keep, so that
+     * requests with the same shape do not have to be parsed again. 0 disables
+     * the cache.
+     *
+     * @return the parserCacheSize
+     */
+    public int getParserCacheSize() {
+        return parserCacheSize;
+    }
+
+    /**
+     * The number of parsed path shapes and query strings to keep.
+     *
+     * @param parserCacheSize the parserCacheSize to set
+     */
+    public void setParserCacheSize(int parserCacheSize) {
+        this.parserCacheSize = parserCacheSize;
+    }
+
     /**
      * The maximum allowed data size to return in a single query. This uses a
      * very coarse estimation of the size, using only the fields with an
@@ -20,6 +20,7 @@ package de.fraunhofer.iosb.ilt.sta.settings;
 import de.fraunhofer.iosb.ilt.sta.settings.annotation.DefaultValue;
 import de.fraunhofer.iosb.ilt.sta.settings.annotation.DefaultValueBoolean;
 import de.fraunhofer.iosb.ilt.sta.settings.annotation.DefaultValueInt;
+import de.fraunhofer.iosb.ilt.sta.util.OverflowHandler;
 
 /**
  *
@@ -50,6 +51,18 @@ public class MqttSettings implements ConfigDefaults {
     public static final String TAG_CREATE_MESSAGE_QUEUE_SIZE = "CreateMessageQueueSize";
     @DefaultValueInt(5)
     public static final String TAG_CREATE_THREAD_POOL_SIZE = "CreateThreadPoolSize";
+    @DefaultValueInt(100)
+    public static final String TAG_CREATE_BATCH_SIZE = "CreateBatchSize";
+    @DefaultValueInt(10)
+    public static final String TAG_CREATE_BATCH_DELAY = "CreateBatchDelay";
+    @DefaultValue("DROP")
+    public static final String TAG_SUBSCRIBE_MESSAGE_QUEUE_OVERFLOW = "SubscribeMessageQueueOverflow";
+    @DefaultValue("BLOCK")
+    public static final String TAG_CREATE_MESSAGE_QUEUE_OVERFLOW = "CreateMessageQueueOverflow";
+    @DefaultValueInt(1000)
+    public static final String TAG_QUEUE_BLOCK_TIMEOUT = "QueueBlockTimeout";
+    @DefaultValueInt(64)
+    public static final String TAG_QUEUE_SPILL_SIZE = "QueueSpillSize";
 
     /**
      * Constraints
@@ -116,6 +129,34 @@ public class MqttSettings implements ConfigDefaults {
      * Number of threads used to process ObservationCreateEvents
      */
     private int createThreadPoolSize;
+    /**
+     * The maximum number of ObservationCreateEvents to insert in one
+     * transaction.
+     */
+    private int createBatchSize;
+    /**
+     * The maximum time, in milliseconds, to wait for more
+     * ObservationCreateEvents to fill a batch.
+     */
+    private int createBatchDelay;
+    /**
+     * What to do with EntityChangeEvents when the subscribe queue is full.
+     */
+    private OverflowHandler.Policy subscribeMessageQueueOverflow;
+    /**
+     * What to do with ObservationCreateEvents when the create queue is full.
+     */
+    private OverflowHandler.Policy createMessageQueueOverflow;
+    /**
+     * The time, in milliseconds, to wait for space in a full queue, when the
+     * overflow policy is BLOCK.
+     */
+    private int queueBlockTimeout;
+    /**
+     * The size, in megabytes, of the spill file of a queue, when the overflow
+     * policy is SPILL.
+     */
+    private int queueSpillSize;
     /**
      * Extension point for implementation specific settings
      */
@@ -138,6 +179,12 @@ public class MqttSettings implements ConfigDefaults {
         setSubscribeThreadPoolSize(settings.getInt(TAG_SUBSCRIBE_THREAD_POOL_SIZE, getClass()));
         setCreateMessageQueueSize(settings.getInt(TAG_CREATE_MESSAGE_QUEUE_SIZE, getClass()));
         setCreateThreadPoolSize(settings.getInt(TAG_CREATE_THREAD_POOL_SIZE, getClass()));
+        setCreateBatchSize(settings.getInt(TAG_CREATE_BATCH_SIZE, getClass()));
+        createBatchDelay = settings.getInt(TAG_CREATE_BATCH_DELAY, getClass());
+        subscribeMessageQueueOverflow = OverflowHandler.parsePolicy(settings.get(TAG_SUBSCRIBE_MESSAGE_QUEUE_OVERFLOW, getClass()));
+        createMessageQueueOverflow = OverflowHandler.parsePolicy(settings.get(TAG_CREATE_MESSAGE_QUEUE_OVERFLOW, getClass()));
+        queueBlockTimeout = settings.getInt(TAG_QUEUE_BLOCK_TIMEOUT, getClass());
+        queueSpillSize = settings.getInt(TAG_QUEUE_SPILL_SIZE, getClass());
         setQosLevel(settings.getInt(TAG_QOS, getClass()));
         customSettings = settings;
     }
@@ -280,4 +327,46 @@ public class MqttSettings implements ConfigDefaults {
         this.createThreadPoolSize = createThreadPoolSize;
     }
 
+    public OverflowHandler.Policy getSubscribeMessageQueueOverflow() {
+        return subscribeMessageQueueOverflow;
+    }
+
+    public OverflowHandler.Policy getCreateMessageQueueOverflow() {
+        return createMessageQueueOverflow;
+    }
+
+    public int getCreateBatchSize() {
+        return createBatchSize;
+    }
+
+    /**
+     * @param createBatchSize The maximum number of ObservationCreateEvents to
+     * insert in one transaction.
+     */
+    public void setCreateBatchSize(int createBatchSize) {
+        if (createBatchSize < 1) {
+            throw new IllegalArgumentException(TAG_CREATE_BATCH_SIZE + MUST_BE_POSITIVE);
+        }
+        this.createBatchSize = createBatchSize;
+    }
+
+    /**
+     * @return The maximum time, in milliseconds, to wait for more
+     * ObservationCreateEvents to fill a batch.
+     */
+    public int getCreateBatchDelay() {
+        return createBatchDelay;
+    }
+
+    public int getQueueBlockTimeout() {
+        return queueBlockTimeout;
+    }
+
+    /**
+     * @return The size of the spill file of a queue, in megabytes.
+     */
+    public int getQueueSpillSize() {
+        return queueSpillSize;
+    }
+
 }
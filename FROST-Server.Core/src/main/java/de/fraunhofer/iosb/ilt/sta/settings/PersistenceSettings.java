@@ -29,6 +29,22 @@ public class PersistenceSettings {
     private static final String TAG_IMPLEMENTATION_CLASS = "persistenceManagerImplementationClass";
     private static final String DEFAULT_IMPLEMENTATION_CLASS = "de.fraunhofer.iosb.ilt.sta.persistence.postgres.longid.PostgresPersistenceManagerLong";
     private static final String TAG_ALWAYS_ORDERBY_ID = "alwaysOrderbyId";
+    private static final String TAG_KEYSET_PAGINATION = "keysetPagination";
+    private static final String TAG_COUNT_MODE = "countMode";
+    private static final String TAG_COUNT_LIMIT = "countLimit";
+    private static final String TAG_COUNT_CACHE_TTL = "countCacheTtl";
+    private static final String TAG_EXISTENCE_CACHE_SIZE = "existenceCacheSize";
+    private static final String TAG_GENERATED_FOI_CACHE_SIZE = "generatedFoiCacheSize";
+    private static final String TAG_EXTENT_MAINTENANCE = "extentMaintenance";
+    private static final String TAG_JSON_INDEXES = "jsonIndexes";
+    private static final String TAG_QUERY_STATISTICS = "queryStatistics";
+    private static final String TAG_QUERY_STATISTICS_SIZE = "queryStatisticsSize";
+    private static final String TAG_OBSERVATION_PARTITIONING = "observationPartitioning";
+    private static final String TAG_OBSERVATION_PARTITIONS_AHEAD = "observationPartitionsAhead";
+    private static final String TAG_OBSERVATION_RETENTION_DAYS = "observationRetentionDays";
+    private static final String TAG_PREPARE_THRESHOLD = "prepareThreshold";
+    private static final String TAG_PS_CACHE_QUERIES = "preparedStatementCacheQueries";
+    private static final String TAG_PS_CACHE_SIZE_MIB = "preparedStatementCacheSizeMiB";
     private static final String TAG_ID_GENERATION_MODE = "idGenerationMode";
     private static final String TAG_AUTO_UPDATE_DATABASE = "autoUpdateDatabase";
     private static final boolean DEFAULT_AUTO_UPDATE_DATABASE = false;
@@ -38,6 +54,83 @@ public class PersistenceSettings {
      */
     private String persistenceManagerImplementationClass;
     private boolean alwaysOrderbyId = true;
+    /**
+     * Use a $skiptoken with the last seen $orderby values in nextLinks,
+     * instead of $skip.
+     */
+    private boolean keysetPagination = false;
+    /**
+     * How $count is calculated: Exact, Estimated, Capped or Cached.
+     */
+    private String countMode = "Exact";
+    /**
+     * The maximum number of rows counted by the Capped mode, and the estimate
+     * below which the Estimated mode counts exactly.
+     */
+    private long countLimit = 10000;
+    /**
+     * The time, in seconds, the Cached mode keeps counts.
+     */
+    private int countCacheTtl = 60;
+    /**
+     * The maximum number of ids of Datastreams, MultiDatastreams and
+     * FeaturesOfInterest, per type, that are remembered to exist.
+     */
+    private int existenceCacheSize = 10000;
+    /**
+     * The maximum number of Datastreams and MultiDatastreams, each, for which
+     * the generated FeatureOfInterest is remembered.
+     */
+    private int generatedFoiCacheSize = 10000;
+    /**
+     * How the extents of Datastreams are maintained by the database triggers:
+     * Row or Statement.
+     */
+    private String extentMaintenance = "Row";
+    /**
+     * Create GIN indexes on the json properties and parameters when the
+     * database is updated.
+     */
+    private boolean jsonIndexes = false;
+    /**
+     * Record the shapes of the queries that are executed, for the index
+     * advisor.
+     */
+    private boolean queryStatistics = false;
+    /**
+     * The maximum number of query shapes to keep statistics for.
+     */
+    private int queryStatisticsSize = 1000;
+    /**
+     * How the Observations table is partitioned by phenomenonTime: None, Day,
+     * Week, Month or Year.
+     */
+    private String observationPartitioning = "None";
+    /**
+     * The number of future partitions to keep available.
+     */
+    private int observationPartitionsAhead = 3;
+    /**
+     * The number of days after which partitions of old Observations are
+     * dropped. 0 keeps all Observations.
+     */
+    private int observationRetentionDays = 0;
+    /**
+     * The number of executions of a statement on a connection, after which
+     * the driver uses a server-side prepared statement for it, so PostgreSQL
+     * does not parse and plan it again.
+     */
+    private int prepareThreshold = 5;
+    /**
+     * The maximum number of prepared statements the driver keeps per
+     * connection.
+     */
+    private int preparedStatementCacheQueries = 256;
+    /**
+     * The maximum size, in MiB, of the prepared statements the driver keeps
+     * per connection.
+     */
+    private int preparedStatementCacheSizeMiB = 5;
     private String idGenerationMode = "ServerGeneratedOnly";
     private boolean autoUpdateDatabase;
     /**
@@ -55,6 +148,22 @@ public class PersistenceSettings {
     private void init(Settings settings) {
         persistenceManagerImplementationClass = settings.get(TAG_IMPLEMENTATION_CLASS, DEFAULT_IMPLEMENTATION_CLASS);
         alwaysOrderbyId = settings.getBoolean(TAG_ALWAYS_ORDERBY_ID, alwaysOrderbyId);
+        keysetPagination = settings.getBoolean(TAG_KEYSET_PAGINATION, keysetPagination);
+        countMode = settings.get(TAG_COUNT_MODE, countMode);
+        countLimit = settings.getLong(TAG_COUNT_LIMIT, countLimit);
+        countCacheTtl = settings.getInt(TAG_COUNT_CACHE_TTL, countCacheTtl);
+        existenceCacheSize = settings.getInt(TAG_EXISTENCE_CACHE_SIZE, existenceCacheSize);
+        generatedFoiCacheSize = settings.getInt(TAG_GENERATED_FOI_CACHE_SIZE, generatedFoiCacheSize);
+        extentMaintenance = settings.get(TAG_EXTENT_MAINTENANCE, extentMaintenance);
+        jsonIndexes = settings.getBoolean(TAG_JSON_INDEXES, jsonIndexes);
+        queryStatistics = settings.getBoolean(TAG_QUERY_STATISTICS, queryStatistics);
+        queryStatisticsSize = settings.getInt(TAG_QUERY_STATISTICS_SIZE, queryStatisticsSize);
+        observationPartitioning = settings.get(TAG_OBSERVATION_PARTITIONING, observationPartitioning);
+        observationPartitionsAhead = settings.getInt(TAG_OBSERVATION_PARTITIONS_AHEAD, observationPartitionsAhead);
+        observationRetentionDays = settings.getInt(TAG_OBSERVATION_RETENTION_DAYS, observationRetentionDays);
+        prepareThreshold = settings.getInt(TAG_PREPARE_THRESHOLD, prepareThreshold);
+        preparedStatementCacheQueries = settings.getInt(TAG_PS_CACHE_QUERIES, preparedStatementCacheQueries);
+        preparedStatementCacheSizeMiB = settings.getInt(TAG_PS_CACHE_SIZE_MIB, preparedStatementCacheSizeMiB);
         idGenerationMode = settings.get(TAG_ID_GENERATION_MODE, idGenerationMode);
         autoUpdateDatabase = settings.getBoolean(TAG_AUTO_UPDATE_DATABASE, DEFAULT_AUTO_UPDATE_DATABASE);
         customSettings = settings;
@@ -68,6 +177,74 @@ public class PersistenceSettings {
         return alwaysOrderbyId;
     }
 
+    public boolean isKeysetPagination() {
+        return keysetPagination;
+    }
+
+    public String getCountMode() {
+        return countMode;
+    }
+
+    public long getCountLimit() {
+        return countLimit;
+    }
+
+    public int getCountCacheTtl() {
+        return countCacheTtl;
+    }
+
+    public int getExistenceCacheSize() {
+        return existenceCacheSize;
+    }
+
+    public int getGeneratedFoiCacheSize() {
+        return generatedFoiCacheSize;
+    }
+
+    public String getExtentMaintenance() {
+        return extentMaintenance;
+    }
+
+    public boolean isJsonIndexes() {
+        return jsonIndexes;
+    }
+
+    public boolean isQueryStatistics() {
+        return queryStatistics;
+    }
+
+    public int getQueryStatisticsSize() {
+        return queryStatisticsSize;
+    }
+
+    public String getObservationPartitioning() {
+        return observationPartitioning;
+    }
+
+    public boolean isObservationPartitioned() {
+        return !"none".equalsIgnoreCase(observationPartitioning);
+    }
+
+    public int getObservationPartitionsAhead() {
+        return observationPartitionsAhead;
+    }
+
+    public int getObservationRetentionDays() {
+        return observationRetentionDays;
+    }
+
+    public int getPrepareThreshold() {
+        return prepareThreshold;
+    }
+
+    public int getPreparedStatementCacheQueries() {
+        return preparedStatementCacheQueries;
+    }
+
+    public int getPreparedStatementCacheSizeMiB() {
+        return preparedStatementCacheSizeMiB;
+    }
+
     public boolean isAutoUpdateDatabase() {
         return autoUpdateDatabase;
     }
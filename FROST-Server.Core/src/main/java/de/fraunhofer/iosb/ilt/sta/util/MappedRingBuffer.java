@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A ring buffer of byte arrays, backed by a memory-mapped file. Records are
+ * stored as a length followed by the data. Records are never split; if a
+ * record does not fit in the space left at the end of the file, a wrap marker
+ * is written and the record is stored at the start of the file.
+ *
+ * @author scf
+ */
+public class MappedRingBuffer implements AutoCloseable {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedRingBuffer.class);
+    private static final int HEADER_SIZE = 4;
+    private static final int WRAP_MARKER = -1;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    /**
+     * The position of the next record to read.
+     */
+    private int head = 0;
+    /**
+     * The position to write the next record.
+     */
+    private int tail = 0;
+    /**
+     * The number of bytes in use, including space wasted at the end of the
+     * file when wrapping.
+     */
+    private int used = 0;
+    private int count = 0;
+
+    /**
+     * Create a new, empty, ring buffer in a new file in the given directory.
+     *
+     * @param directory The directory to create the file in.
+     * @param prefix The prefix to use for the name of the file.
+     * @param capacity The size of the file, in bytes.
+     * @throws IOException If the file could not be created or mapped.
+     */
+    public MappedRingBuffer(Path directory, String prefix, int capacity) throws IOException {
+        if (capacity <= HEADER_SIZE) {
+            throw new IllegalArgumentException("capacity must be larger than " + HEADER_SIZE);
+        }
+        this.capacity = capacity;
+        this.file = Files.createTempFile(directory, prefix, ".spill");
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Add a record to the buffer.
+     *
+     * @param data The record to add.
+     * @return false if there was not enough space for the record.
+     */
+    public synchronized boolean put(byte[] data) {
+        int needed = HEADER_SIZE + data.length;
+        if (needed > capacity) {
+            return false;
+        }
+        int toEnd = capacity - tail;
+        if (needed > toEnd) {
+            if (used + toEnd + needed > capacity) {
+                return false;
+            }
+            if (toEnd >= HEADER_SIZE) {
+                buffer.putInt(tail, WRAP_MARKER);
+            }
+            used += toEnd;
+            tail = 0;
+        } else if (used + needed > capacity) {
+            return false;
+        }
+        buffer.putInt(tail, data.length);
+        ByteBuffer target = buffer.duplicate();
+        target.position(tail + HEADER_SIZE);
+        target.put(data);
+        tail = (tail + needed) % capacity;
+        used += needed;
+        count++;
+        return true;
+    }
+
+    /**
+     * Remove the oldest record from the buffer.
+     *
+     * @return The oldest record, or null if the buffer is empty.
+     */
+    public synchronized byte[] poll() {
+        byte[] data = peek();
+        if (data != null) {
+            remove();
+        }
+        return data;
+    }
+
+    /**
+     * Get the oldest record from the buffer, without removing it.
+     *
+     * @return The oldest record, or null if the buffer is empty.
+     */
+    public synchronized byte[] peek() {
+        if (count == 0) {
+            return null;
+        }
+        skipWrapMarker();
+        int length = buffer.getInt(head);
+        byte[] data = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(head + HEADER_SIZE);
+        source.get(data);
+        return data;
+    }
+
+    /**
+     * Remove the oldest record from the buffer, if there is one.
+     */
+    public synchronized void remove() {
+        if (count == 0) {
+            return;
+        }
+        skipWrapMarker();
+        int length = buffer.getInt(head);
+        head = (head + HEADER_SIZE + length) % capacity;
+        used -= HEADER_SIZE + length;
+        count--;
+        if (count == 0) {
+            head = 0;
+            tail = 0;
+            used = 0;
+        }
+    }
+
+    private void skipWrapMarker() {
+        int toEnd = capacity - head;
+        if (toEnd < HEADER_SIZE || buffer.getInt(head) == WRAP_MARKER) {
+            used -= toEnd;
+            head = 0;
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return The number of records in the buffer.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            LOGGER.warn("Failed to remove spill file {}.", file, ex);
+        }
+    }
+
+}
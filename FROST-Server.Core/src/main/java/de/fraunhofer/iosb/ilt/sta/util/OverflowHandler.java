@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds items to a queue of a processor, and decides what happens to items
+ * when the queue is full.
+ *
+ * @author scf
+ * @param <T> The type of the items in the queue.
+ */
+public class OverflowHandler<T> implements AutoCloseable {
+
+    /**
+     * What to do with items when the queue is full.
+     */
+    public enum Policy {
+        /**
+         * Discard the item.
+         */
+        DROP,
+        /**
+         * Wait for space in the queue, for at most the block timeout. Then
+         * discard the item.
+         */
+        BLOCK,
+        /**
+         * Write the item to a memory-mapped file, and move it to the queue
+         * when there is space. If the file is full, discard the item.
+         */
+        SPILL
+    }
+
+    /**
+     * Converts items to bytes, and back, for the spill buffer.
+     *
+     * @param <T> The type of the items.
+     */
+    public static interface Serialiser<T> {
+
+        public byte[] serialise(T item) throws IOException;
+
+        public T deserialise(byte[] data) throws IOException;
+    }
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(OverflowHandler.class);
+    /**
+     * The minimum time between two warnings about discarded items.
+     */
+    private static final long WARN_INTERVAL_MILLIS = 10_000;
+    private static final long REPLAY_WAIT_MILLIS = 100;
+
+    private final String name;
+    private final BlockingQueue<T> queue;
+    private final Policy policy;
+    private final long blockTimeout;
+    private final QueueMetrics metrics;
+    private final String hint;
+    private MappedRingBuffer spillBuffer;
+    private Serialiser<T> serialiser;
+    private Thread replayThread;
+    private volatile boolean running = true;
+    private volatile long lastWarning = 0;
+
+    /**
+     * Create a handler for the given queue. The spill file is only created
+     * if the policy is SPILL.
+     *
+     * @param name The name of the processors emptying the queue.
+     * @param queue The queue to add items to.
+     * @param policy The policy to apply when the queue is full.
+     * @param blockTimeout The time, in milliseconds, to wait for space when
+     * the policy is BLOCK.
+     * @param hint The hint to log when items are discarded.
+     * @param spillDirectory The directory to create the spill file in.
+     * @param spillSize The size of the spill file, in bytes.
+     * @param serialiser The serialiser used to write items to the spill file.
+     */
+    public OverflowHandler(String name, BlockingQueue<T> queue, Policy policy, long blockTimeout, String hint, String spillDirectory, int spillSize, Serialiser<T> serialiser) {
+        this.name = name;
+        this.queue = queue;
+        this.policy = policy;
+        this.blockTimeout = blockTimeout;
+        this.hint = hint;
+        this.metrics = ProcessorHelper.getQueueMetrics(name);
+        if (policy == Policy.SPILL) {
+            initSpill(Paths.get(spillDirectory), spillSize, serialiser);
+        }
+    }
+
+    private void initSpill(Path directory, int spillSize, Serialiser<T> serialiser) {
+        try {
+            this.spillBuffer = new MappedRingBuffer(directory, name.replaceAll("[^A-Za-z0-9]", "") + "-", spillSize);
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Could not create spill file for queue " + name + " in " + directory, ex);
+        }
+        this.serialiser = serialiser;
+        replayThread = new Thread(this::replay, name + "-replay");
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    /**
+     * Parse the given policy name, ignoring case.
+     *
+     * @param value The name of the policy.
+     * @return The policy.
+     */
+    public static Policy parsePolicy(String value) {
+        try {
+            return Policy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            throw new IllegalArgumentException("Unknown queue overflow policy: " + value, ex);
+        }
+    }
+
+    /**
+     * Add the item to the queue, applying the overflow policy if the queue is
+     * full.
+     *
+     * @param item The item to add.
+     * @return true if the item was queued or spilled, false if it was
+     * discarded.
+     */
+    public boolean offer(T item) {
+        if (spillBuffer == null || spillBuffer.isEmpty()) {
+            // If there are spilled items, new items go to the spill buffer
+            // too, so they do not overtake the spilled ones.
+            if (queue.offer(item)) {
+                return true;
+            }
+        }
+        switch (policy) {
+            case BLOCK:
+                return block(item);
+
+            case SPILL:
+                return spill(item);
+
+            default:
+                return drop();
+        }
+    }
+
+    private boolean block(T item) {
+        metrics.incBlocked();
+        try {
+            if (queue.offer(item, blockTimeout, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return drop();
+    }
+
+    private boolean spill(T item) {
+        try {
+            if (spillBuffer.put(serialiser.serialise(item))) {
+                metrics.incSpilled();
+                synchronized (spillBuffer) {
+                    spillBuffer.notifyAll();
+                }
+                return true;
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Failed to serialise item for spill buffer of queue {}.", name, ex);
+        }
+        return drop();
+    }
+
+    private boolean drop() {
+        long dropped = metrics.incDropped();
+        long now = System.currentTimeMillis();
+        if (now - lastWarning > WARN_INTERVAL_MILLIS) {
+            lastWarning = now;
+            LOGGER.warn("Queue {} is full, {} items discarded in total! {}", name, dropped, hint);
+        }
+        return false;
+    }
+
+    /**
+     * Moves spilled items to the queue. An item is only removed from the spill
+     * buffer once it is in the queue. As long as it is in the spill buffer,
+     * new items are spilled too, so they can not overtake it, and it is not
+     * lost if the replay thread is interrupted while waiting for space.
+     */
+    private void replay() {
+        while (running) {
+            try {
+                byte[] data = spillBuffer.peek();
+                if (data == null) {
+                    synchronized (spillBuffer) {
+                        spillBuffer.wait(REPLAY_WAIT_MILLIS);
+                    }
+                    continue;
+                }
+                T item;
+                try {
+                    item = serialiser.deserialise(data);
+                } catch (IOException ex) {
+                    LOGGER.error("Failed to read item from spill buffer of queue {}, discarding it.", name, ex);
+                    spillBuffer.remove();
+                    metrics.incDropped();
+                    continue;
+                }
+                queue.put(item);
+                spillBuffer.remove();
+                metrics.incReplayed();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public QueueMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (replayThread != null) {
+            replayThread.interrupt();
+            try {
+                replayThread.join(1000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (spillBuffer != null) {
+            int lost = spillBuffer.size();
+            if (lost > 0) {
+                LOGGER.warn("Queue {} closed with {} items left in the spill buffer.", name, lost);
+            }
+            spillBuffer.close();
+        }
+    }
+
+}
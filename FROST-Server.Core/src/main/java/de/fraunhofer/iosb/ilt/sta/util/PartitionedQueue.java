@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.util;
+
+import com.google.common.collect.Iterators;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A queue that is split into partitions, each with its own consumer. Items
+ * are assigned to a partition by the hash of their key, so items with the
+ * same key are always handled by the same consumer, in the order they were
+ * added. Producers only contend with other producers adding to the same
+ * partition.
+ *
+ * Items are added through this queue. The processors take them from the
+ * partitions, to keep the per-key ordering. Taking from the queue itself
+ * takes from any partition that has items.
+ *
+ * Each partition can hold as many items as the configured capacity, so a
+ * single busy key can buffer as many items as it could in an unpartitioned
+ * queue. The total number of items can thus be up to the capacity times the
+ * number of partitions.
+ *
+ * @author scf
+ * @param <T> The type of the items in the queue.
+ */
+public class PartitionedQueue<T> extends AbstractQueue<T> implements BlockingQueue<T> {
+
+    private final List<BlockingQueue<T>> partitions;
+    private final Function<? super T, ?> keyFunction;
+    /**
+     * Signalled when an item is added while threads wait in take or poll.
+     */
+    private final Object notEmpty = new Object();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Create a new PartitionedQueue.
+     *
+     * @param partitionCount The number of partitions.
+     * @param capacity The capacity of each partition.
+     * @param keyFunction The function that gives the key of an item.
+     */
+    public PartitionedQueue(int partitionCount, int capacity, Function<? super T, ?> keyFunction) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("partitionCount must be > 0");
+        }
+        List<BlockingQueue<T>> list = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            list.add(new ArrayBlockingQueue<>(Math.max(1, capacity)));
+        }
+        this.partitions = Collections.unmodifiableList(list);
+        this.keyFunction = keyFunction;
+    }
+
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    public BlockingQueue<T> getPartition(int index) {
+        return partitions.get(index);
+    }
+
+    /**
+     * Get the partition that the given item is assigned to.
+     *
+     * @param item The item to get the partition for.
+     * @return The partition for the item.
+     */
+    public BlockingQueue<T> getPartitionFor(T item) {
+        Object key = keyFunction.apply(item);
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 16;
+        return partitions.get(Math.floorMod(hash, partitions.size()));
+    }
+
+    @Override
+    public boolean offer(T item) {
+        if (getPartitionFor(item).offer(item)) {
+            signalNotEmpty();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        if (getPartitionFor(item).offer(item, timeout, unit)) {
+            signalNotEmpty();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void put(T item) throws InterruptedException {
+        getPartitionFor(item).put(item);
+        signalNotEmpty();
+    }
+
+    private void signalNotEmpty() {
+        if (waiting.get() > 0) {
+            synchronized (notEmpty) {
+                notEmpty.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        while (true) {
+            T item = poll();
+            if (item != null) {
+                return item;
+            }
+            waitForItems(0);
+        }
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            T item = poll();
+            if (item != null) {
+                return item;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return null;
+            }
+            waitForItems(remaining);
+        }
+    }
+
+    /**
+     * Wait until an item is added, or the timeout passes. Returns immediately
+     * if there are items in any partition.
+     *
+     * @param timeout The maximum time to wait, in milliseconds, or 0 to wait
+     * without a timeout.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    private void waitForItems(long timeout) throws InterruptedException {
+        synchronized (notEmpty) {
+            waiting.incrementAndGet();
+            try {
+                // Producers only signal if they see a waiting thread, so check
+                // again after registering.
+                if (isEmpty()) {
+                    notEmpty.wait(timeout);
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public T poll() {
+        for (BlockingQueue<T> partition : partitions) {
+            T item = partition.poll();
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public T peek() {
+        for (BlockingQueue<T> partition : partitions) {
+            T item = partition.peek();
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (BlockingQueue<T> partition : partitions) {
+            size += partition.size();
+        }
+        return size;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        int remaining = 0;
+        for (BlockingQueue<T> partition : partitions) {
+            remaining += partition.remainingCapacity();
+        }
+        return remaining;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return Iterators.concat(partitions.stream().map(BlockingQueue::iterator).iterator());
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> target, int maxElements) {
+        int count = 0;
+        for (BlockingQueue<T> partition : partitions) {
+            if (count >= maxElements) {
+                break;
+            }
+            count += partition.drainTo(target, maxElements - count);
+        }
+        return count;
+    }
+
+}
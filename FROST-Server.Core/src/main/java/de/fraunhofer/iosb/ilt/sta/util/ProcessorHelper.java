@@ -18,7 +18,13 @@
 package de.fraunhofer.iosb.ilt.sta.util;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -35,16 +41,116 @@ public class ProcessorHelper {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProcessorHelper.class);
     private static final long SHUTDOWN_WAIT_STEP_IN_MILLIS = 100;
+    /**
+     * The metrics of all queues, by processor name.
+     */
+    private static final ConcurrentMap<String, QueueMetrics> METRICS = new ConcurrentHashMap<>();
 
     private ProcessorHelper() {
     }
 
+    /**
+     * Get the metrics for the queue of the processors with the given name.
+     * The metrics are created if they do not exist yet.
+     *
+     * @param name The name of the processors.
+     * @return The metrics for the queue.
+     */
+    public static QueueMetrics getQueueMetrics(String name) {
+        return METRICS.computeIfAbsent(name, QueueMetrics::new);
+    }
+
+    /**
+     * @return The metrics of all queues.
+     */
+    public static Collection<QueueMetrics> getAllQueueMetrics() {
+        return Collections.unmodifiableCollection(METRICS.values());
+    }
+
     public static <T> ExecutorService createProcessors(int threadCount, BlockingQueue<T> queue, Consumer<T> consumer, String name) {
         ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat(name + "-%d").build();
         ExecutorService result = Executors.newFixedThreadPool(threadCount, factory);
+        QueueMetrics metrics = getQueueMetrics(name);
+        metrics.setQueue(queue);
+        for (int i = 0; i < threadCount; i++) {
+
+            result.submit(new Processor(queue, consumer, name, metrics));
+        }
+        return result;
+    }
+
+    /**
+     * Create one processor for each partition of the given queue. Items with
+     * the same key are handled by the same processor, in the order they were
+     * added to the queue.
+     *
+     * @param <T> The type of the items in the queue.
+     * @param queue The queue to take items from.
+     * @param consumer The consumer to hand the items to.
+     * @param name The name used for the threads.
+     * @return The ExecutorService running the processors.
+     */
+    public static <T> ExecutorService createPartitionedProcessors(PartitionedQueue<T> queue, Consumer<T> consumer, String name) {
+        int threadCount = queue.getPartitionCount();
+        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat(name + "-%d").build();
+        ExecutorService result = Executors.newFixedThreadPool(threadCount, factory);
+        QueueMetrics metrics = getQueueMetrics(name);
+        metrics.setQueue(queue);
+        for (int i = 0; i < threadCount; i++) {
+            result.submit(new Processor(queue.getPartition(i), consumer, name, metrics));
+        }
+        return result;
+    }
+
+    /**
+     * Create processors that hand the items from the queue to the consumer in
+     * batches. A batch is handed over when it contains maxBatchSize items, or
+     * when maxDelay milliseconds have passed since the first item of the
+     * batch was taken from the queue.
+     *
+     * @param <T> The type of the items in the queue.
+     * @param threadCount The number of processors to create.
+     * @param queue The queue to take items from.
+     * @param consumer The consumer to hand the batches to.
+     * @param maxBatchSize The maximum number of items in a batch.
+     * @param maxDelay The maximum time, in milliseconds, to wait for a batch
+     * to fill.
+     * @param name The name used for the threads.
+     * @return The ExecutorService running the processors.
+     */
+    public static <T> ExecutorService createBatchProcessors(int threadCount, BlockingQueue<T> queue, Consumer<List<T>> consumer, int maxBatchSize, long maxDelay, String name) {
+        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat(name + "-%d").build();
+        ExecutorService result = Executors.newFixedThreadPool(threadCount, factory);
+        QueueMetrics metrics = getQueueMetrics(name);
+        metrics.setQueue(queue);
         for (int i = 0; i < threadCount; i++) {
+            result.submit(new BatchProcessor(queue, consumer, maxBatchSize, maxDelay, name, metrics));
+        }
+        return result;
+    }
 
-            result.submit(new Processor(queue, consumer, name));
+    /**
+     * Create one batch processor for each partition of the given queue. Items
+     * with the same key are handled by the same processor, in the order they
+     * were added to the queue.
+     *
+     * @param <T> The type of the items in the queue.
+     * @param queue The queue to take items from.
+     * @param consumer The consumer to hand the batches to.
+     * @param maxBatchSize The maximum number of items in a batch.
+     * @param maxDelay The maximum time, in milliseconds, to wait for a batch
+     * to fill.
+     * @param name The name used for the threads.
+     * @return The ExecutorService running the processors.
+     */
+    public static <T> ExecutorService createPartitionedBatchProcessors(PartitionedQueue<T> queue, Consumer<List<T>> consumer, int maxBatchSize, long maxDelay, String name) {
+        int threadCount = queue.getPartitionCount();
+        ThreadFactory factory = new ThreadFactoryBuilder().setNameFormat(name + "-%d").build();
+        ExecutorService result = Executors.newFixedThreadPool(threadCount, factory);
+        QueueMetrics metrics = getQueueMetrics(name);
+        metrics.setQueue(queue);
+        for (int i = 0; i < threadCount; i++) {
+            result.submit(new BatchProcessor(queue.getPartition(i), consumer, maxBatchSize, maxDelay, name, metrics));
         }
         return result;
     }
@@ -79,12 +185,9 @@ public class ProcessorHelper {
         private final BlockingQueue<T> queue;
         private final Consumer<T> consumer;
         private final String name;
+        private final QueueMetrics metrics;
 
-        private Processor(BlockingQueue<T> queue, Consumer<T> consumer) {
-            this(queue, consumer, null);
-        }
-
-        private Processor(BlockingQueue<T> queue, Consumer<T> consumer, String name) {
+        private Processor(BlockingQueue<T> queue, Consumer<T> consumer, String name, QueueMetrics metrics) {
             if (queue == null) {
                 throw new IllegalArgumentException("queue must be non-null");
             }
@@ -98,6 +201,7 @@ public class ProcessorHelper {
             }
             this.queue = queue;
             this.consumer = consumer;
+            this.metrics = metrics;
         }
 
         @Override
@@ -107,6 +211,7 @@ public class ProcessorHelper {
                 T event;
                 try {
                     event = queue.take();
+                    metrics.incProcessed();
                     consumer.accept(event);
                 } catch (InterruptedException ex) {
                     LOGGER.debug("{} interrupted", name);
@@ -120,4 +225,71 @@ public class ProcessorHelper {
             LOGGER.debug("exiting {}-Thread", name);
         }
     }
+
+    private static class BatchProcessor<T> implements Runnable {
+
+        private static final Logger LOGGER = LoggerFactory.getLogger(BatchProcessor.class);
+        private final BlockingQueue<T> queue;
+        private final Consumer<List<T>> consumer;
+        private final int maxBatchSize;
+        private final long maxDelayNanos;
+        private final String name;
+        private final QueueMetrics metrics;
+
+        private BatchProcessor(BlockingQueue<T> queue, Consumer<List<T>> consumer, int maxBatchSize, long maxDelay, String name, QueueMetrics metrics) {
+            if (queue == null) {
+                throw new IllegalArgumentException("queue must be non-null");
+            }
+            if (consumer == null) {
+                throw new IllegalArgumentException("handler must be non-null");
+            }
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("maxBatchSize must be at least 1");
+            }
+            this.queue = queue;
+            this.consumer = consumer;
+            this.maxBatchSize = maxBatchSize;
+            this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelay);
+            this.name = name;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void run() {
+            LOGGER.debug("starting {}-Thread", name);
+            while (!Thread.currentThread().isInterrupted()) {
+                List<T> batch = new ArrayList<>(maxBatchSize);
+                try {
+                    batch.add(queue.take());
+                    fillBatch(batch);
+                    metrics.addProcessed(batch.size());
+                    consumer.accept(batch);
+                } catch (InterruptedException ex) {
+                    LOGGER.debug("{} interrupted", name);
+                    LOGGER.trace(name + " interrupted", ex);
+                    Thread.currentThread().interrupt();
+                    if (!batch.isEmpty()) {
+                        // Do not lose the items already taken from the queue.
+                        consumer.accept(batch);
+                    }
+                    break;
+                } catch (Exception ex) {
+                    LOGGER.warn("Exception while executing " + name, ex);
+                }
+            }
+            LOGGER.debug("exiting {}-Thread", name);
+        }
+
+        private void fillBatch(List<T> batch) throws InterruptedException {
+            long deadline = System.nanoTime() + maxDelayNanos;
+            while (batch.size() < maxBatchSize) {
+                long remaining = deadline - System.nanoTime();
+                T item = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                if (item == null) {
+                    return;
+                }
+                batch.add(item);
+            }
+        }
+    }
 }
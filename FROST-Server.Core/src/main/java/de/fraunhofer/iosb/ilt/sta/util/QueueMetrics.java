@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.util;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for a queue that is emptied by processors.
+ *
+ * @author scf
+ */
+public class QueueMetrics {
+
+    private final String name;
+    private volatile Queue<?> queue;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    public QueueMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void setQueue(Queue<?> queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * @return The number of items currently waiting in the queue.
+     */
+    public int getDepth() {
+        Queue<?> q = queue;
+        return q == null ? 0 : q.size();
+    }
+
+    /**
+     * @return The number of items handed to the processors.
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * @return The number of items that were discarded because the queue was
+     * full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return The number of times a producer had to wait for space in the
+     * queue.
+     */
+    public long getBlocked() {
+        return blocked.get();
+    }
+
+    /**
+     * @return The number of items written to the spill buffer.
+     */
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    /**
+     * @return The number of items moved from the spill buffer back into the
+     * queue.
+     */
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    void incProcessed() {
+        processed.incrementAndGet();
+    }
+
+    void addProcessed(long count) {
+        processed.addAndGet(count);
+    }
+
+    long incDropped() {
+        return dropped.incrementAndGet();
+    }
+
+    void incBlocked() {
+        blocked.incrementAndGet();
+    }
+
+    void incSpilled() {
+        spilled.incrementAndGet();
+    }
+
+    void incReplayed() {
+        replayed.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": depth=" + getDepth()
+                + ", processed=" + getProcessed()
+                + ", dropped=" + getDropped()
+                + ", blocked=" + getBlocked()
+                + ", spilled=" + getSpilled()
+                + ", replayed=" + getReplayed();
+    }
+
+}
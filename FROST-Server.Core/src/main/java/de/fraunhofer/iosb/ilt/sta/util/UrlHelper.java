@@ -24,6 +24,7 @@ import de.fraunhofer.iosb.ilt.sta.query.Query;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.Optional;
 import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -122,6 +123,29 @@ public class UrlHelper {
         return nextLink;
     }
 
+    /**
+     * Generate a nextLink for keyset pagination. The $skip of the query is
+     * replaced by the given $skiptoken.
+     *
+     * @param path The path of the current request.
+     * @param query The query of the current request.
+     * @param skipToken The token pointing to the last entity of the current
+     * page.
+     * @return The nextLink.
+     */
+    public static String generateNextLink(ResourcePath path, Query query, String skipToken) {
+        Optional<Integer> oldSkip = query.getSkip();
+        String oldSkipToken = query.getSkipToken();
+        query.clearSkip();
+        query.setSkipToken(skipToken);
+        String nextLink = path.toString() + "?" + query.toString(false);
+        query.setSkipToken(oldSkipToken);
+        if (oldSkip.isPresent()) {
+            query.setSkip(oldSkip.get());
+        }
+        return nextLink;
+    }
+
     public static String generateSelfLink(String serviceRootUrl, Entity entity) {
         StringBuilder sb = new StringBuilder(serviceRootUrl);
         sb.append('/');
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.messagebus;
+
+import de.fraunhofer.iosb.ilt.sta.model.ObservedProperty;
+import de.fraunhofer.iosb.ilt.sta.model.Sensor;
+import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import de.fraunhofer.iosb.ilt.sta.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.builder.FeatureOfInterestBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.builder.HistoricalLocationBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.builder.LocationBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.builder.MultiDatastreamBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.builder.ObservedPropertyBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.builder.SensorBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.builder.ThingBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.builder.UnitOfMeasurementBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.sta.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.sta.model.ext.UnitOfMeasurement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityProperty;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.sta.util.TestHelper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that messages for all entity types survive a round trip through the
+ * message codecs, both alone and in batches.
+ *
+ * @author scf
+ */
+public class MessageCodecTest {
+
+    @Test
+    public void testJsonCodec() throws IOException {
+        MessageCodec codec = new JsonMessageCodec();
+        codec.init(IdLong.class);
+        testCodec(codec);
+    }
+
+    @Test
+    public void testSmileCodec() throws IOException {
+        MessageCodec codec = new SmileMessageCodec();
+        codec.init(IdLong.class);
+        testCodec(codec);
+    }
+
+    @Test
+    public void testSmileSmallerThanJson() throws IOException {
+        MessageCodec json = new JsonMessageCodec();
+        json.init(IdLong.class);
+        MessageCodec smile = new SmileMessageCodec();
+        smile.init(IdLong.class);
+        List<EntityChangedMessage> messages = createMessages();
+        assertTrue(smile.encode(messages).length < json.encode(messages).length);
+    }
+
+    private void testCodec(MessageCodec codec) throws IOException {
+        List<EntityChangedMessage> messages = createMessages();
+        for (EntityChangedMessage message : messages) {
+            List<EntityChangedMessage> single = Collections.singletonList(message);
+            assertEquals(message.getEntityType().toString(), single, codec.decode(codec.encode(single)));
+        }
+        assertEquals(messages, codec.decode(codec.encode(messages)));
+    }
+
+    private List<EntityChangedMessage> createMessages() {
+        List<EntityChangedMessage> messages = new ArrayList<>();
+        long id = 1;
+        for (EntityType type : EntityType.values()) {
+            EntityChangedMessage message = new EntityChangedMessage()
+                    .setEventType(EntityChangedMessage.Type.UPDATE)
+                    .setEntity(setExports(createEntity(type, id++)));
+            message.addEpField(EntityProperty.ID);
+            message.addNpField(NavigationProperty.THING);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private static Entity setExports(Entity entity) {
+        for (NavigationProperty property : entity.getEntityType().getNavigationEntities()) {
+            Object parentObject = entity.getProperty(property);
+            if (parentObject instanceof Entity) {
+                ((Entity) parentObject).setExportObject(true);
+            }
+        }
+        return entity;
+    }
+
+    private static Entity createEntity(EntityType type, long id) {
+        UnitOfMeasurement uom = new UnitOfMeasurementBuilder()
+                .setName("degree Celsius")
+                .setSymbol("Cel")
+                .setDefinition("http://unitsofmeasure.org/ucum.html#para-30")
+                .build();
+        switch (type) {
+            case DATASTREAM:
+                return new DatastreamBuilder()
+                        .setId(new IdLong(id))
+                        .setName("Datastream " + id)
+                        .setDescription("A Datastream")
+                        .setObservationType("http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement")
+                        .setUnitOfMeasurement(uom)
+                        .setThing(new Thing(new IdLong(1)))
+                        .setSensor(new Sensor(new IdLong(2)))
+                        .setObservedProperty(new ObservedProperty(new IdLong(3)))
+                        .build();
+
+            case MULTIDATASTREAM:
+                return new MultiDatastreamBuilder()
+                        .setId(new IdLong(id))
+                        .setName("MultiDatastream " + id)
+                        .setDescription("A MultiDatastream")
+                        .addObservationType("http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement")
+                        .addUnitOfMeasurement(uom)
+                        .setThing(new Thing(new IdLong(1)))
+                        .setSensor(new Sensor(new IdLong(2)))
+                        .build();
+
+            case FEATUREOFINTEREST:
+                return new FeatureOfInterestBuilder()
+                        .setId(new IdLong(id))
+                        .setName("FeatureOfInterest " + id)
+                        .setDescription("A FeatureOfInterest")
+                        .setEncodingType("application/geo+json")
+                        .setFeature(TestHelper.getPoint(8.4, 49.0))
+                        .build();
+
+            case HISTORICALLOCATION:
+                return new HistoricalLocationBuilder()
+                        .setId(new IdLong(id))
+                        .setTime(TestHelper.createTimeInstantUTC(2018, 1, 2, 3, 4, 5))
+                        .setThing(new Thing(new IdLong(1)))
+                        .build();
+
+            case LOCATION:
+                return new LocationBuilder()
+                        .setId(new IdLong(id))
+                        .setName("Location " + id)
+                        .setDescription("A Location")
+                        .setEncodingType("application/geo+json")
+                        .setLocation(TestHelper.getPoint(-117.123, 54.123))
+                        .build();
+
+            case OBSERVATION:
+                return new ObservationBuilder()
+                        .setId(new IdLong(id))
+                        .setResult(12345)
+                        .setResultTime(new TimeInstant(null))
+                        .addParameter("param1", "value 1")
+                        .setDatastream(new DatastreamBuilder().setId(new IdLong(4)).build())
+                        .build();
+
+            case OBSERVEDPROPERTY:
+                return new ObservedPropertyBuilder()
+                        .setId(new IdLong(id))
+                        .setName("ObservedProperty " + id)
+                        .setDescription("An ObservedProperty")
+                        .setDefinition("http://example.org/temperature")
+                        .build();
+
+            case SENSOR:
+                return new SensorBuilder()
+                        .setId(new IdLong(id))
+                        .setName("Sensor " + id)
+                        .setDescription("A Sensor")
+                        .setEncodingType("application/pdf")
+                        .setMetadata("http://example.org/sensor.pdf")
+                        .build();
+
+            case THING:
+                return new ThingBuilder()
+                        .setId(new IdLong(id))
+                        .setName("Thing " + id)
+                        .setDescription("A Thing")
+                        .addProperty("owner", "John Doe")
+                        .build();
+
+            default:
+                throw new IllegalArgumentException("Unknown entity type " + type);
+        }
+    }
+
+}
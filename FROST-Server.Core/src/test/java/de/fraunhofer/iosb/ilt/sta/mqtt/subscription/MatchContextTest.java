@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import de.fraunhofer.iosb.ilt.sta.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.persistence.IdManagerlong;
+import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManager;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests that Subscriptions with a match expression share the query for the
+ * linked entity through the MatchContext.
+ *
+ * @author scf
+ */
+public class MatchContextTest {
+
+    @Test
+    public void testMatches_ThingObservations_OneQuery() {
+        AtomicInteger queryCount = new AtomicInteger();
+        PersistenceManager pm = createPersistenceManager(queryCount, new Thing(new IdLong(2)));
+        Observation observation = SubscriptionIndexTest.createObservation(7);
+        MatchContext context = new MatchContext(pm, observation);
+
+        assertFalse(SubscriptionIndexTest.createSubscription("Things(1)/Datastreams/Observations").matches(context, null));
+        assertTrue(SubscriptionIndexTest.createSubscription("Things(2)/Datastreams/Observations").matches(context, null));
+        assertFalse(SubscriptionIndexTest.createSubscription("Things(3)/Datastreams/Observations").matches(context, null));
+        assertEquals(1, queryCount.get());
+    }
+
+    @Test
+    public void testMatches_NoLinkedEntity() {
+        AtomicInteger queryCount = new AtomicInteger();
+        PersistenceManager pm = createPersistenceManager(queryCount, null);
+        MatchContext context = new MatchContext(pm, SubscriptionIndexTest.createObservation(7));
+
+        assertFalse(SubscriptionIndexTest.createSubscription("Things(1)/Datastreams/Observations").matches(context, null));
+        assertFalse(SubscriptionIndexTest.createSubscription("Things(2)/Datastreams/Observations").matches(context, null));
+        assertEquals(1, queryCount.get());
+    }
+
+    /**
+     * Creates a PersistenceManager that only answers get(ResourcePath, Query)
+     * for paths ending in a Thing, with the given result.
+     */
+    private static PersistenceManager createPersistenceManager(AtomicInteger queryCount, Thing result) {
+        return (PersistenceManager) Proxy.newProxyInstance(
+                MatchContextTest.class.getClassLoader(),
+                new Class<?>[]{PersistenceManager.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getIdManager":
+                            return new IdManagerlong();
+                        case "get":
+                            ResourcePath path = (ResourcePath) args[0];
+                            EntityPathElement last = (EntityPathElement) path.getLastElement();
+                            assertEquals(EntityType.THING, last.getEntityType());
+                            queryCount.incrementAndGet();
+                            return result;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
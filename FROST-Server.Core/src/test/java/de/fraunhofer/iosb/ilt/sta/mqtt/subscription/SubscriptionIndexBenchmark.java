@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares finding the Subscriptions matching new Observations using the
+ * SubscriptionIndex against checking all Subscriptions, with 10k
+ * Subscriptions on Datastreams(x)/Observations. Each operation handles one
+ * event, so the throughput is in events per second, and should stay well
+ * above the 5k events per second we need. Run with the main method, from
+ * the test classpath.
+ *
+ * @author scf
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionIndexBenchmark {
+
+    private static final int EVENT_COUNT = 5000;
+
+    @Param({"10000"})
+    public int subscriptionCount;
+
+    private final List<Subscription> allSubscriptions = new ArrayList<>();
+    private final SubscriptionIndex index = new SubscriptionIndex();
+    private final List<Observation> events = new ArrayList<>();
+    private int nextEvent = 0;
+
+    @Setup
+    public void setUp() {
+        for (int i = 1; i <= subscriptionCount; i++) {
+            Subscription subscription = SubscriptionIndexTest.createSubscription("Datastreams(" + i + ")/Observations");
+            allSubscriptions.add(subscription);
+            index.addClient(subscription);
+        }
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            events.add(SubscriptionIndexTest.createObservation(1 + (i * 7919L) % subscriptionCount));
+        }
+    }
+
+    private Observation nextEvent() {
+        nextEvent = (nextEvent + 1) % EVENT_COUNT;
+        return events.get(nextEvent);
+    }
+
+    @Benchmark
+    public int matchIndexed() {
+        Observation event = nextEvent();
+        int matches = 0;
+        for (Subscription subscription : index.getCandidates(event)) {
+            if (subscription.matches(null, event, null)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public int matchLinear() {
+        Observation event = nextEvent();
+        int matches = 0;
+        for (Subscription subscription : allSubscriptions) {
+            if (subscription.matches(null, event, null)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SubscriptionIndexBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.sta.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.persistence.IdManagerlong;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests that the SubscriptionIndex only returns the Subscriptions that can
+ * match an entity, and that those do match.
+ *
+ * @author scf
+ */
+public class SubscriptionIndexTest {
+
+    private static final String SERVICE_ROOT_URL = "http://example.org/v1.0";
+
+    @Test
+    public void testCandidates_DatastreamObservations() {
+        SubscriptionIndex index = new SubscriptionIndex();
+        for (long i = 1; i <= 100; i++) {
+            index.addClient(createSubscription("Datastreams(" + i + ")/Observations"));
+        }
+        Subscription allObservations = createSubscription("Observations");
+        index.addClient(allObservations);
+
+        Observation observation = createObservation(5);
+        List<Subscription> candidates = index.getCandidates(observation);
+        assertEquals(
+                new HashSet<>(Arrays.asList(createSubscription("Datastreams(5)/Observations"), allObservations)),
+                new HashSet<>(candidates));
+        assertAllMatch(candidates, observation);
+    }
+
+    @Test
+    public void testGetByTopic() {
+        SubscriptionIndex index = new SubscriptionIndex();
+        Subscription subscription = createSubscription("Datastreams(1)/Observations");
+        assertNull(index.getByTopic("v1.0/Datastreams(1)/Observations"));
+        index.addClient(subscription);
+        index.addClient(createSubscription("Datastreams(1)/Observations"));
+        assertSame(subscription, index.getByTopic("v1.0/Datastreams(1)/Observations"));
+        assertEquals(1, index.removeClient(subscription));
+        assertSame(subscription, index.getByTopic("v1.0/Datastreams(1)/Observations"));
+        assertEquals(0, index.removeClient(subscription));
+        assertNull(index.getByTopic("v1.0/Datastreams(1)/Observations"));
+    }
+
+    @Test
+    public void testCandidates_MultiDatastreamObservation() {
+        SubscriptionIndex index = new SubscriptionIndex();
+        index.addClient(createSubscription("Datastreams(1)/Observations"));
+        Subscription allObservations = createSubscription("Observations");
+        index.addClient(allObservations);
+
+        Observation observation = new Observation(new IdLong(1));
+        observation.setMultiDatastream(new MultiDatastream(new IdLong(1)));
+        assertEquals(Arrays.asList(allObservations), index.getCandidates(observation));
+    }
+
+    @Test
+    public void testCandidates_Entity() {
+        SubscriptionIndex index = new SubscriptionIndex();
+        Subscription thing3 = createSubscription("Things(3)");
+        index.addClient(thing3);
+        index.addClient(createSubscription("Things(4)"));
+
+        Thing thing = new Thing(new IdLong(3));
+        assertEquals(Arrays.asList(thing3), index.getCandidates(thing));
+        assertAllMatch(index.getCandidates(thing), thing);
+        assertTrue(index.getCandidates(new Thing(new IdLong(5))).isEmpty());
+    }
+
+    @Test
+    public void testClientCounts() {
+        SubscriptionIndex index = new SubscriptionIndex();
+        Subscription subscription = createSubscription("Datastreams(1)/Observations");
+        assertEquals(1, index.addClient(subscription));
+        assertEquals(2, index.addClient(createSubscription("Datastreams(1)/Observations")));
+        assertEquals(1, index.removeClient(subscription));
+        assertEquals(1, index.getCandidates(createObservation(1)).size());
+        assertEquals(0, index.removeClient(subscription));
+        assertTrue(index.getCandidates(createObservation(1)).isEmpty());
+        assertTrue(index.isEmpty(EntityType.OBSERVATION));
+        assertEquals(-1, index.removeClient(subscription));
+    }
+
+    private static void assertAllMatch(List<Subscription> candidates, Entity entity) {
+        for (Subscription candidate : candidates) {
+            assertTrue(candidate.getTopic(), candidate.matches(null, entity, null));
+        }
+    }
+
+    static Observation createObservation(long datastreamId) {
+        Observation observation = new Observation(new IdLong(datastreamId * 1000));
+        observation.setDatastream(new Datastream(new IdLong(datastreamId)));
+        return observation;
+    }
+
+    static Subscription createSubscription(String pathString) {
+        ResourcePath path = PathParser.parsePath(new IdManagerlong(), SERVICE_ROOT_URL, "/" + pathString);
+        String topic = "v1.0/" + pathString;
+        if (path.getLastElement() instanceof EntitySetPathElement) {
+            return new EntitySetSubscription(topic, path, SERVICE_ROOT_URL);
+        }
+        return new EntitySubscription(topic, path, SERVICE_ROOT_URL);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.persistence.IdManagerlong;
+import de.fraunhofer.iosb.ilt.sta.util.StringHelper;
+import java.io.IOException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import org.junit.Test;
+
+/**
+ * Checks that Subscriptions that produce the same payload can share it.
+ *
+ * @author scf
+ */
+public class SubscriptionPayloadTest {
+
+    private static final String SERVICE_ROOT_URL = "http://example.org/v1.0";
+
+    @Test
+    public void testPayloadKeys() {
+        Subscription all = SubscriptionIndexTest.createSubscription("Observations");
+        Subscription allOfDs = SubscriptionIndexTest.createSubscription("Datastreams(1)/Observations");
+        Subscription one = SubscriptionIndexTest.createSubscription("Observations(1000)");
+        assertEquals(all.getPayloadKey(), allOfDs.getPayloadKey());
+        assertEquals(all.getPayloadKey(), one.getPayloadKey());
+
+        Subscription selectResult = createSelectSubscription("Observations", "result");
+        Subscription selectResultOfDs = createSelectSubscription("Datastreams(1)/Observations", "result");
+        Subscription selectTime = createSelectSubscription("Observations", "phenomenonTime");
+        assertEquals(selectResult.getPayloadKey(), selectResultOfDs.getPayloadKey());
+        assertNotEquals(selectResult.getPayloadKey(), selectTime.getPayloadKey());
+        assertNotEquals(all.getPayloadKey(), selectResult.getPayloadKey());
+
+        Subscription property = createPropertySubscription("Observations(1000)/result");
+        assertNotEquals(selectResult.getPayloadKey(), property.getPayloadKey());
+    }
+
+    @Test
+    public void testCompactPayload() throws IOException {
+        Observation observation = SubscriptionIndexTest.createObservation(1);
+        observation.setResult(42);
+        Subscription subscription = SubscriptionIndexTest.createSubscription("Observations");
+        String message = subscription.formatMessage(observation);
+        String payload = new String(subscription.formatPayload(observation), StringHelper.UTF8);
+        assertFalse(payload.contains("\n"));
+
+        ObjectMapper mapper = EntityParser.getSimpleObjectMapper();
+        assertEquals(mapper.readTree(message), mapper.readTree(payload));
+    }
+
+    @Test
+    public void testSelectionReset() throws IOException {
+        Observation observation = SubscriptionIndexTest.createObservation(1);
+        observation.setResult(42);
+        Subscription selectResult = createSelectSubscription("Observations", "result");
+        Subscription all = SubscriptionIndexTest.createSubscription("Observations");
+        String expected = new String(all.formatPayload(observation), StringHelper.UTF8);
+        selectResult.formatPayload(observation);
+        String result = new String(all.formatPayload(observation), StringHelper.UTF8);
+        assertEquals(expected, result);
+    }
+
+    private static Subscription createSelectSubscription(String pathString, String select) {
+        ResourcePath path = PathParser.parsePath(new IdManagerlong(), SERVICE_ROOT_URL, "/" + pathString);
+        String topic = "v1.0/" + pathString + "?$select=" + select;
+        return new EntitySetSubscription(topic, path, SERVICE_ROOT_URL);
+    }
+
+    private static Subscription createPropertySubscription(String pathString) {
+        ResourcePath path = PathParser.parsePath(new IdManagerlong(), SERVICE_ROOT_URL, "/" + pathString);
+        return new PropertySubscription("v1.0/" + pathString, path, SERVICE_ROOT_URL);
+    }
+}
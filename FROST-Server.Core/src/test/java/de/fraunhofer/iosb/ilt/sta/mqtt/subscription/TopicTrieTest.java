@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.mqtt.subscription;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author scf
+ */
+public class TopicTrieTest {
+
+    @Test
+    public void testIsWildcard() {
+        assertTrue(TopicTrie.isWildcard("v1.0/+/Observations"));
+        assertTrue(TopicTrie.isWildcard("v1.0/Datastreams(1)/#"));
+        assertFalse(TopicTrie.isWildcard("v1.0/Datastreams(1)/Observations"));
+    }
+
+    @Test
+    public void testSingleLevel() {
+        TopicTrie trie = new TopicTrie();
+        assertTrue(trie.isEmpty());
+        trie.add("v1.0/+/Observations");
+        assertFalse(trie.isEmpty());
+        assertTrue(trie.matches("v1.0/Datastreams(1)/Observations"));
+        assertTrue(trie.matches("v1.0/MultiDatastreams(2)/Observations"));
+        assertFalse(trie.matches("v1.0/Observations"));
+        assertFalse(trie.matches("v1.0/Datastreams(1)/Observations/result"));
+        assertFalse(trie.matches("v1.0/Datastreams(1)/Sensor"));
+    }
+
+    @Test
+    public void testMultiLevel() {
+        TopicTrie trie = new TopicTrie();
+        trie.add("v1.0/Datastreams(1)/#");
+        assertTrue(trie.matches("v1.0/Datastreams(1)"));
+        assertTrue(trie.matches("v1.0/Datastreams(1)/Observations"));
+        assertTrue(trie.matches("v1.0/Datastreams(1)/name"));
+        assertFalse(trie.matches("v1.0/Datastreams(2)/Observations"));
+        assertFalse(trie.matches("v1.0/Datastreams"));
+    }
+
+    @Test
+    public void testAddRemove() {
+        TopicTrie trie = new TopicTrie();
+        assertEquals(1, trie.add("v1.0/+/Observations"));
+        assertEquals(2, trie.add("v1.0/+/Observations"));
+        assertEquals(1, trie.add("v1.0/#"));
+        assertEquals(1, trie.remove("v1.0/+/Observations"));
+        assertEquals(0, trie.remove("v1.0/#"));
+        assertTrue(trie.matches("v1.0/Datastreams(1)/Observations"));
+        assertFalse(trie.matches("v1.0/Things(1)"));
+        assertEquals(0, trie.remove("v1.0/+/Observations"));
+        assertEquals(-1, trie.remove("v1.0/+/Observations"));
+        assertTrue(trie.isEmpty());
+        assertFalse(trie.matches("v1.0/Datastreams(1)/Observations"));
+    }
+}
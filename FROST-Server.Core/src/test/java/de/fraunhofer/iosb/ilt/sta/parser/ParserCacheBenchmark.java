@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.parser;
+
+import de.fraunhofer.iosb.ilt.sta.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.sta.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.persistence.IdManagerlong;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the time it takes to parse the path and query of a typical
+ * dashboard request, with the parser caches disabled (cacheSize 0) and
+ * enabled. The requests all have the same shape, but a different Datastream
+ * id. The queries are taken from a small set, like the few panels of a
+ * dashboard. Run with the main method, from the test classpath.
+ *
+ * @author scf
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserCacheBenchmark {
+
+    private static final String[] QUERIES = {
+        "$top=1&$orderby=phenomenonTime desc&$select=result,phenomenonTime",
+        "$filter=phenomenonTime gt 2019-01-01T00:00:00Z and phenomenonTime lt 2019-01-02T00:00:00Z&$orderby=phenomenonTime asc&$top=1000",
+        "$expand=Datastream($select=id,name;$expand=ObservedProperty($select=name))&$filter=parameters/type eq 'station'"
+    };
+
+    @Param({"0", "1000"})
+    public int cacheSize;
+
+    private final IdManagerlong idManager = new IdManagerlong();
+    private final CoreSettings settings = new CoreSettings();
+    private long nextId = 0;
+
+    @Setup
+    public void setUp() {
+        PathParser.setCacheSize(cacheSize);
+        QueryParser.setCacheSize(cacheSize);
+    }
+
+    @Benchmark
+    public Query parseRequest() {
+        nextId++;
+        ResourcePath path = PathParser.parsePath(idManager, "", "/Datastreams(" + nextId + ")/Observations");
+        Query query = QueryParser.parseQuery(QUERIES[(int) (nextId % QUERIES.length)], settings);
+        query.validate(path);
+        return query;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ParserCacheBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -123,6 +123,29 @@ public class PathParserTest {
         testThing("a String Id");
     }
 
+    @Test
+    public void testParsePath_sameShapeDifferentIds() {
+        String path1 = "/Things(1)/Datastreams(2)/Observations";
+        String path2 = "/Things(3)/Datastreams(4)/Observations";
+        PathParser.parsePath("", path1);
+        ResourcePath cached = PathParser.parsePath("", path2);
+
+        PathParser.setCacheSize(0);
+        try {
+            Assert.assertEquals(PathParser.parsePath("", path2), cached);
+        } finally {
+            PathParser.setCacheSize(1000);
+        }
+        Assert.assertEquals(new IdLong(3), ((EntityPathElement) cached.get(1)).getId());
+        Assert.assertEquals(new IdLong(4), ((EntityPathElement) cached.get(3)).getId());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParsePath_emptyIdNotCached() {
+        PathParser.parsePath("", "/Things(1)");
+        PathParser.parsePath("", "/Things()");
+    }
+
     @Test
     public void testParsePath_entityProperty() {
         for (EntityType entityType : EntityType.values()) {
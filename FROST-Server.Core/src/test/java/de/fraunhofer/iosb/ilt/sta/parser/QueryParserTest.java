@@ -87,6 +87,18 @@ public class QueryParserTest {
         Assert.assertEquals(10, result.getSkip(11));
     }
 
+    @Test
+    public void testParseQuery_SkipToken() {
+        Query expResult = new Query();
+        Assert.assertNull(expResult.getSkipToken());
+        expResult.setSkipToken("k1WyIxMCJd");
+
+        String query = "$skiptoken=k1WyIxMCJd";
+        Query result = QueryParser.parseQuery(query);
+        Assert.assertEquals(expResult, result);
+        Assert.assertFalse(result.getSkip().isPresent());
+    }
+
     @Test
     public void testParseQuery_Count() {
         Query expResult = new Query();
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.serialize;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.fraunhofer.iosb.ilt.sta.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.sta.model.ext.EntitySetResult;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares serializing a page of Observations with the cached serialization
+ * plans of the EntitySerializer against the reflective serializer. Run with
+ * the main method, from the test classpath.
+ *
+ * @author scf
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntitySerializerBenchmark {
+
+    @Param({"100", "1000"})
+    public int observationCount;
+
+    @Param({"false", "true"})
+    public boolean withSelect;
+
+    private EntitySetResult observations;
+    private ObjectMapper planMapper;
+    private ObjectMapper reflectiveMapper;
+
+    @Setup
+    public void setUp() {
+        HashSet<String> selected = null;
+        if (withSelect) {
+            selected = new HashSet<>(Arrays.asList("id", "phenomenonTime", "result"));
+        }
+        observations = new EntitySetResult(EntitySerializerTest.createObservations(observationCount, selected));
+        planMapper = EntityFormatter.getObjectMapper();
+        reflectiveMapper = EntitySerializerTest.createReflectiveMapper();
+    }
+
+    @Benchmark
+    public String serializePlans() throws IOException {
+        return planMapper.writeValueAsString(observations);
+    }
+
+    @Benchmark
+    public String serializeReflective() throws IOException {
+        return reflectiveMapper.writeValueAsString(observations);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(EntitySerializerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.serialize;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
+import de.fraunhofer.iosb.ilt.sta.json.serialize.EntityFormatter;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.builder.DatastreamBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.builder.FeatureOfInterestBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.builder.ObservationBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySetImpl;
+import de.fraunhofer.iosb.ilt.sta.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.sta.model.ext.EntitySetResult;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.util.TestHelper;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Checks that the cached serialization plans give the same json as the
+ * reflective serializer.
+ *
+ * @author scf
+ */
+public class EntitySerializerTest {
+
+    @Test
+    public void writeObservations_AllProperties_SameAsReflective() throws IOException {
+        assertSameAsReflective(createObservations(10, null));
+    }
+
+    @Test
+    public void writeObservations_Selected_SameAsReflective() throws IOException {
+        Set<String> selected = new HashSet<>(Arrays.asList("id", "result", "Datastream"));
+        assertSameAsReflective(createObservations(10, selected));
+        selected = new HashSet<>(Arrays.asList("phenomenonTime", "result"));
+        assertSameAsReflective(createObservations(10, selected));
+    }
+
+    private void assertSameAsReflective(EntitySet<Observation> observations) throws IOException {
+        Object result = new EntitySetResult(observations);
+        String expected = createReflectiveMapper().writeValueAsString(result);
+        String actual = EntityFormatter.getObjectMapper().writeValueAsString(result);
+        ObjectMapper mapper = EntityParser.getSimpleObjectMapper();
+        assertEquals(mapper.readTree(expected), mapper.readTree(actual));
+    }
+
+    /**
+     * Creates an ObjectMapper that is configured like the one of the
+     * EntityFormatter, but uses the reflective Entity serializer.
+     *
+     * @return the ObjectMapper using the reflective Entity serializer.
+     */
+    public static ObjectMapper createReflectiveMapper() {
+        ObjectMapper mapper = EntityFormatter.getObjectMapper().copy();
+        SimpleModule module = new SimpleModule("ReflectiveEntitySerializer");
+        module.addSerializer(Entity.class, new ReflectiveEntitySerializer());
+        mapper.registerModule(module);
+        return mapper;
+    }
+
+    /**
+     * Creates a set of Observations, like they are loaded from the database.
+     *
+     * @param count the number of Observations to create.
+     * @param selected the selected property names, or null to select all.
+     * @return the created set of Observations.
+     */
+    public static EntitySet<Observation> createObservations(int count, Set<String> selected) {
+        EntitySet<Observation> observations = new EntitySetImpl<>(EntityType.OBSERVATION);
+        for (long id = 1; id <= count; id++) {
+            String selfLink = "http://example.org/v1.0/Observations(" + id + ")";
+            Observation observation = new ObservationBuilder()
+                    .setId(new IdLong(id))
+                    .setSelfLink(selfLink)
+                    .setFeatureOfInterest(new FeatureOfInterestBuilder().setNavigationLink(selfLink + "/FeatureOfInterest").build())
+                    .setDatastream(new DatastreamBuilder().setNavigationLink(selfLink + "/Datastream").build())
+                    .setPhenomenonTime(TestHelper.createTimeInstantUTC(2014, 12, 31, 11, 59, (int) (id % 60)))
+                    .setResultTime(TestHelper.createTimeInstantUTC(2014, 12, 31, 19, 59, 59))
+                    .setResult(new BigDecimal(id).movePointLeft(2))
+                    .build();
+            observation.setSelectedPropertyNames(selected);
+            observations.add(observation);
+        }
+        return observations;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.serialize;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.fraunhofer.iosb.ilt.sta.formatter.DefaultResultFormater;
+import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
+import de.fraunhofer.iosb.ilt.sta.json.serialize.JsonEntitySetWriter;
+import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import de.fraunhofer.iosb.ilt.sta.model.builder.ThingBuilder;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySetImpl;
+import de.fraunhofer.iosb.ilt.sta.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.sta.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.persistence.IdManagerlong;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that streaming an entity set gives the same json as formatting it in
+ * one go.
+ *
+ * @author scf
+ */
+public class JsonEntitySetWriterTest {
+
+    private static final String SERVICE_ROOT_URL = "http://example.org/v1.0";
+
+    @Test
+    public void writeThings_Streamed_SameAsBuffered() throws IOException {
+        EntitySet<Thing> things = createThings();
+        things.setCount(2);
+        things.setNextLink(SERVICE_ROOT_URL + "/Things?$skip=2");
+        assertStreamedEqualsBuffered(things);
+    }
+
+    @Test
+    public void writeThings_StreamedEstimatedCount_SameAsBuffered() throws IOException {
+        EntitySet<Thing> things = createThings();
+        things.setCount(1000);
+        things.setCountEstimated(true);
+        things.setNextLink(SERVICE_ROOT_URL + "/Things?$skip=2");
+        assertStreamedEqualsBuffered(things);
+    }
+
+    @Test
+    public void writeThings_StreamedNoCount_SameAsBuffered() throws IOException {
+        EntitySet<Thing> things = createThings();
+        assertStreamedEqualsBuffered(things);
+    }
+
+    @Test
+    public void writeThings_Streamed_OpenedOnStart() throws IOException {
+        boolean[] opened = {false};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonEntitySetWriter writer = new JsonEntitySetWriter(contentType -> {
+            opened[0] = true;
+            assertEquals(JsonEntitySetWriter.CONTENT_TYPE, contentType);
+            return out;
+        }, createPath(), new Query(), true);
+        assertFalse(opened[0]);
+        writer.writeStart(-1, false);
+        assertTrue(opened[0]);
+    }
+
+    private void assertStreamedEqualsBuffered(EntitySet<Thing> things) throws IOException {
+        String buffered = new DefaultResultFormater().format(createPath(), new Query(), things, true);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonEntitySetWriter writer = new JsonEntitySetWriter(contentType -> out, createPath(), new Query(), true);
+        writer.writeStart(things.getCount(), things.isCountEstimated());
+        for (Thing thing : things) {
+            writer.writeEntity(thing);
+        }
+        writer.writeEnd(things.getNextLink());
+
+        ObjectMapper mapper = EntityParser.getSimpleObjectMapper();
+        JsonNode expected = mapper.readTree(buffered);
+        JsonNode result = mapper.readTree(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(expected, result);
+    }
+
+    private ResourcePath createPath() {
+        return PathParser.parsePath(new IdManagerlong(), SERVICE_ROOT_URL, "/Things");
+    }
+
+    private EntitySet<Thing> createThings() {
+        EntitySet<Thing> things = new EntitySetImpl<>(EntityType.THING);
+        for (long id = 1; id <= 2; id++) {
+            Thing thing = new ThingBuilder()
+                    .setId(new IdLong(id))
+                    .setName("Thing " + id)
+                    .setDescription("This thing is an oven, für Brötchen.")
+                    .addProperty("owner", "John Doe")
+                    .build();
+            things.add(thing);
+        }
+        return things;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.service;
+
+import com.github.fge.jsonpatch.JsonPatch;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
+import de.fraunhofer.iosb.ilt.sta.model.core.IdLong;
+import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.persistence.IdManager;
+import de.fraunhofer.iosb.ilt.sta.persistence.IdManagerlong;
+import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the batched creation of Observations, including the fallback to
+ * single inserts, against a persistence manager that keeps the Observations
+ * in memory.
+ *
+ * @author scf
+ */
+public class ServiceBatchTest {
+
+    private static final String OBSERVATIONS_PATH = "/Datastreams(1)/Observations";
+    private static CoreSettings coreSettings;
+
+    @BeforeClass
+    public static void initSettings() {
+        Properties properties = new Properties();
+        properties.put(CoreSettings.TAG_SERVICE_ROOT_URL, "http://localhost:8080/FROST-Server");
+        properties.put(CoreSettings.TAG_TEMP_PATH, System.getProperty("java.io.tmpdir"));
+        properties.put("persistence.persistenceManagerImplementationClass", MemoryPersistenceManager.class.getName());
+        coreSettings = new CoreSettings(properties);
+    }
+
+    @Before
+    public void reset() {
+        MemoryPersistenceManager.reset();
+    }
+
+    @Test
+    public void testBatchInsert() {
+        List<ServiceResponse<Observation>> responses = new Service(coreSettings).executeCreateObservationsBatch(Arrays.asList(
+                createRequest("{\"result\": 1}"),
+                createRequest("{\"result\": "),
+                createRequest("{\"result\": 2}")));
+        assertEquals(3, responses.size());
+        assertEquals(201, responses.get(0).getCode());
+        assertEquals(400, responses.get(1).getCode());
+        assertEquals(201, responses.get(2).getCode());
+        assertEquals(2, MemoryPersistenceManager.STORED.size());
+        assertEquals(1, MemoryPersistenceManager.batchInserts);
+    }
+
+    @Test
+    public void testBatchInsertRejectsSingleObservation() {
+        List<ServiceResponse<Observation>> responses = new Service(coreSettings).executeCreateObservationsBatch(Arrays.asList(
+                createRequest("{\"result\": 1}"),
+                createRequest("{\"result\": \"" + MemoryPersistenceManager.BAD_RESULT + "\"}")));
+        assertEquals(201, responses.get(0).getCode());
+        assertEquals(400, responses.get(1).getCode());
+        assertEquals(1, MemoryPersistenceManager.STORED.size());
+    }
+
+    @Test
+    public void testRejectedObservationDoesNotAffectOthers() {
+        List<ServiceResponse<Observation>> responses = new Service(coreSettings).executeCreateObservationsBatch(Arrays.asList(
+                createRequest("{\"result\": 1}"),
+                createRequest("{\"result\": \"" + MemoryPersistenceManager.BAD_RESULT + "\", \"resultQuality\": \"leaked\", \"parameters\": {\"leaked\": true}}"),
+                createRequest("{\"result\": 3}")));
+        assertEquals(201, responses.get(0).getCode());
+        assertEquals(400, responses.get(1).getCode());
+        assertEquals(201, responses.get(2).getCode());
+        assertEquals(2, MemoryPersistenceManager.STORED.size());
+        for (int i = 0; i < 2; i++) {
+            Observation stored = MemoryPersistenceManager.STORED.get(i);
+            assertEquals(i * 2 + 1, ((Number) stored.getResult()).intValue());
+            assertNull(stored.getResultQuality());
+            assertNull(stored.getParameters());
+            assertEquals(stored, responses.get(i * 2).getResult());
+        }
+    }
+
+    @Test
+    public void testBatchFailureFallsBackToSingleInserts() {
+        MemoryPersistenceManager.failBatch = true;
+        List<ServiceResponse<Observation>> responses = new Service(coreSettings).executeCreateObservationsBatch(Arrays.asList(
+                createRequest("{\"result\": 1}"),
+                createRequest("{\"result\": \"" + MemoryPersistenceManager.BAD_RESULT + "\"}"),
+                createRequest("{\"result\": 3}")));
+        assertEquals(201, responses.get(0).getCode());
+        assertEquals(400, responses.get(1).getCode());
+        assertEquals(201, responses.get(2).getCode());
+        assertEquals(2, MemoryPersistenceManager.STORED.size());
+        assertTrue(MemoryPersistenceManager.rollbacks > 0);
+    }
+
+    @Test
+    public void testUnexpectedFailureRollsBack() {
+        MemoryPersistenceManager.failIdManager = true;
+        List<ServiceResponse<Observation>> responses = new Service(coreSettings).executeCreateObservationsBatch(Arrays.asList(
+                createRequest("{\"result\": 1}"),
+                createRequest("{\"result\": 2}")));
+        assertEquals(2, responses.size());
+        assertEquals(500, responses.get(0).getCode());
+        assertEquals(500, responses.get(1).getCode());
+        assertEquals(0, MemoryPersistenceManager.STORED.size());
+        assertTrue(MemoryPersistenceManager.rollbacks > 0);
+        assertTrue(MemoryPersistenceManager.closes > 0);
+    }
+
+    private static ServiceRequest createRequest(String content) {
+        return new ServiceRequestBuilder()
+                .withRequestType(RequestType.CREATE)
+                .withUrlPath(OBSERVATIONS_PATH)
+                .withContent(content)
+                .build();
+    }
+
+    /**
+     * Keeps inserted Observations in memory. The state is static, since the
+     * PersistenceManagerFactory creates the instances.
+     */
+    public static class MemoryPersistenceManager implements PersistenceManager {
+
+        static final String BAD_RESULT = "bad";
+        static final List<Observation> STORED = new ArrayList<>();
+        static boolean failBatch;
+        static boolean failIdManager;
+        static int batchInserts;
+        static int rollbacks;
+        static int closes;
+        private static long nextId;
+
+        private final List<Observation> pending = new ArrayList<>();
+        private CoreSettings settings;
+
+        static synchronized void reset() {
+            STORED.clear();
+            failBatch = false;
+            failIdManager = false;
+            batchInserts = 0;
+            rollbacks = 0;
+            closes = 0;
+        }
+
+        @Override
+        public void init(CoreSettings settings) {
+            this.settings = settings;
+        }
+
+        @Override
+        public CoreSettings getCoreSettings() {
+            return settings;
+        }
+
+        @Override
+        public IdManager getIdManager() {
+            if (failIdManager) {
+                throw new IllegalStateException("Simulated failure.");
+            }
+            return new IdManagerlong();
+        }
+
+        @Override
+        public boolean validatePath(ResourcePath path) {
+            return true;
+        }
+
+        @Override
+        public boolean insert(Entity entity) {
+            Observation observation = (Observation) entity;
+            if (BAD_RESULT.equals(observation.getResult())) {
+                throw new IllegalArgumentException("Result rejected.");
+            }
+            synchronized (MemoryPersistenceManager.class) {
+                observation.setId(new IdLong(++nextId));
+            }
+            pending.add(observation);
+            return true;
+        }
+
+        @Override
+        public List<Exception> insertObservations(List<Observation> observations) {
+            if (failBatch) {
+                throw new IllegalStateException("Simulated batch failure.");
+            }
+            batchInserts++;
+            return PersistenceManager.super.insertObservations(observations);
+        }
+
+        @Override
+        public Entity get(EntityType entityType, Id id) {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public Object get(ResourcePath path, Query query) {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public boolean delete(EntityPathElement pathElement) {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public void delete(ResourcePath path, Query query) {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public boolean update(EntityPathElement pathElement, Entity entity) {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public boolean update(EntityPathElement pathElement, JsonPatch patch) {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        @Override
+        public void commit() {
+            STORED.addAll(pending);
+            pending.clear();
+        }
+
+        @Override
+        public void rollback() {
+            rollbacks++;
+            pending.clear();
+        }
+
+        @Override
+        public void close() {
+            closes++;
+            pending.clear();
+        }
+
+        @Override
+        public String checkForUpgrades() {
+            return "";
+        }
+
+        @Override
+        public boolean doUpgrades(Writer out) {
+            return true;
+        }
+
+    }
+}
@@ -1,11 +1,17 @@
 package de.fraunhofer.iosb.ilt.sta.settings;
 
 import de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus;
+import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_MAX_BATCH_DELAY;
+import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_MAX_BATCH_SIZE;
 import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_MAX_IN_FLIGHT;
 import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_MQTT_BROKER;
 import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_QOS_LEVEL;
+import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_QUEUE_BLOCK_TIMEOUT;
+import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_QUEUE_SPILL_SIZE;
+import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_RECV_QUEUE_OVERFLOW;
 import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_RECV_QUEUE_SIZE;
 import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_RECV_WORKER_COUNT;
+import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_SEND_QUEUE_OVERFLOW;
 import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_SEND_QUEUE_SIZE;
 import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_SEND_WORKER_COUNT;
 import static de.fraunhofer.iosb.ilt.sta.messagebus.MqttMessageBus.TAG_TOPIC_NAME;
@@ -103,6 +109,12 @@ public class ConfigDefaultsTest {
         tags.add(TAG_MAX_IN_FLIGHT);
         tags.add(TAG_MQTT_BROKER);
         tags.add(TAG_TOPIC_NAME);
+        tags.add(TAG_MAX_BATCH_SIZE);
+        tags.add(TAG_MAX_BATCH_DELAY);
+        tags.add(TAG_SEND_QUEUE_OVERFLOW);
+        tags.add(TAG_RECV_QUEUE_OVERFLOW);
+        tags.add(TAG_QUEUE_BLOCK_TIMEOUT);
+        tags.add(TAG_QUEUE_SPILL_SIZE);
         assertTrue(tags.equals(b.configTags()));
 
         // Test configDefaults
@@ -115,6 +127,10 @@ public class ConfigDefaultsTest {
         assertEquals("100", configDefaults.get(TAG_RECV_QUEUE_SIZE));
         assertEquals("2", configDefaults.get(TAG_QOS_LEVEL));
         assertEquals("50", configDefaults.get(TAG_MAX_IN_FLIGHT));
+        assertEquals("1", configDefaults.get(TAG_MAX_BATCH_SIZE));
+        assertEquals("10", configDefaults.get(TAG_MAX_BATCH_DELAY));
+        assertEquals("DROP", configDefaults.get(TAG_SEND_QUEUE_OVERFLOW));
+        assertEquals("DROP", configDefaults.get(TAG_RECV_QUEUE_OVERFLOW));
     }
 
     @Test
@@ -175,6 +191,12 @@ public class ConfigDefaultsTest {
         tags.add(TAG_MAX_IN_FLIGHT);
         tags.add(TAG_MQTT_BROKER);
         tags.add(TAG_TOPIC_NAME);
+        tags.add(TAG_MAX_BATCH_SIZE);
+        tags.add(TAG_MAX_BATCH_DELAY);
+        tags.add(TAG_SEND_QUEUE_OVERFLOW);
+        tags.add(TAG_RECV_QUEUE_OVERFLOW);
+        tags.add(TAG_QUEUE_BLOCK_TIMEOUT);
+        tags.add(TAG_QUEUE_SPILL_SIZE);
         assertTrue(tags.equals(ConfigUtils.getConfigTags(c)));
         // Test configDefaults
         Map<String, String> configDefaults = ConfigUtils.getConfigDefaults(c);
@@ -186,5 +208,9 @@ public class ConfigDefaultsTest {
         assertEquals("100", configDefaults.get(TAG_RECV_QUEUE_SIZE));
         assertEquals("2", configDefaults.get(TAG_QOS_LEVEL));
         assertEquals("50", configDefaults.get(TAG_MAX_IN_FLIGHT));
+        assertEquals("1", configDefaults.get(TAG_MAX_BATCH_SIZE));
+        assertEquals("10", configDefaults.get(TAG_MAX_BATCH_DELAY));
+        assertEquals("DROP", configDefaults.get(TAG_SEND_QUEUE_OVERFLOW));
+        assertEquals("DROP", configDefaults.get(TAG_RECV_QUEUE_OVERFLOW));
     }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.util;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the overflow policies of the OverflowHandler, and the spill buffer.
+ *
+ * @author scf
+ */
+public class OverflowHandlerTest {
+
+    private static final OverflowHandler.Serialiser<String> SERIALISER = new OverflowHandler.Serialiser<String>() {
+        @Override
+        public byte[] serialise(String item) {
+            return item.getBytes(StringHelper.UTF8);
+        }
+
+        @Override
+        public String deserialise(byte[] data) {
+            return new String(data, StringHelper.UTF8);
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDrop() {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(1);
+        try (OverflowHandler<String> handler = createHandler("testDrop", queue, OverflowHandler.Policy.DROP, 0)) {
+            assertTrue(handler.offer("a"));
+            assertFalse(handler.offer("b"));
+            assertFalse(handler.offer("c"));
+            assertEquals(2, handler.getMetrics().getDropped());
+            assertEquals(1, handler.getMetrics().getDepth());
+        }
+    }
+
+    @Test
+    public void testBlock() throws InterruptedException {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(1);
+        try (OverflowHandler<String> handler = createHandler("testBlock", queue, OverflowHandler.Policy.BLOCK, 10)) {
+            assertTrue(handler.offer("a"));
+            assertFalse(handler.offer("b"));
+            assertEquals(1, handler.getMetrics().getBlocked());
+            assertEquals(1, handler.getMetrics().getDropped());
+
+            Thread consumer = new Thread(() -> {
+                try {
+                    Thread.sleep(5);
+                    queue.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            consumer.start();
+            OverflowHandler<String> longHandler = createHandler("testBlockLong", queue, OverflowHandler.Policy.BLOCK, 5000);
+            assertTrue(longHandler.offer("c"));
+            consumer.join();
+            assertEquals("c", queue.poll());
+        }
+    }
+
+    @Test
+    public void testSpill() throws InterruptedException {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(2);
+        try (OverflowHandler<String> handler = createHandler("testSpill", queue, OverflowHandler.Policy.SPILL, 0)) {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(handler.offer("item " + i));
+            }
+            for (int i = 0; i < 10; i++) {
+                assertEquals("item " + i, queue.poll(5, TimeUnit.SECONDS));
+            }
+            assertEquals(8, handler.getMetrics().getSpilled());
+            assertEquals(8, handler.getMetrics().getReplayed());
+            assertEquals(0, handler.getMetrics().getDropped());
+        }
+    }
+
+    @Test
+    public void testSpillKeepsOrderWhileDraining() throws InterruptedException {
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(1);
+        // Small enough to fit in the spill file.
+        int total = 50;
+        try (OverflowHandler<String> handler = createHandler("testSpillOrder", queue, OverflowHandler.Policy.SPILL, 0)) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < total; i++) {
+                    handler.offer("item " + i);
+                }
+            });
+            producer.start();
+            for (int i = 0; i < total; i++) {
+                assertEquals("item " + i, queue.poll(5, TimeUnit.SECONDS));
+            }
+            producer.join();
+            assertEquals(0, handler.getMetrics().getDropped());
+        }
+    }
+
+    @Test
+    public void testRingBufferPeek() throws IOException {
+        try (MappedRingBuffer buffer = new MappedRingBuffer(folder.getRoot().toPath(), "testPeek", 64)) {
+            assertNull(buffer.peek());
+            assertTrue(buffer.put(filled(4, (byte) 1)));
+            assertTrue(buffer.put(filled(4, (byte) 2)));
+            assertArrayEquals(filled(4, (byte) 1), buffer.peek());
+            assertArrayEquals(filled(4, (byte) 1), buffer.peek());
+            assertEquals(2, buffer.size());
+            buffer.remove();
+            assertArrayEquals(filled(4, (byte) 2), buffer.peek());
+            buffer.remove();
+            assertTrue(buffer.isEmpty());
+            buffer.remove();
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    @Test
+    public void testRingBufferWrap() throws IOException {
+        try (MappedRingBuffer buffer = new MappedRingBuffer(folder.getRoot().toPath(), "testRing", 64)) {
+            assertNull(buffer.poll());
+            // Too big to ever fit.
+            assertFalse(buffer.put(new byte[61]));
+            byte value = 0;
+            byte expected = 0;
+            for (int round = 0; round < 50; round++) {
+                int size = 3 + round % 11;
+                while (buffer.put(filled(size, value))) {
+                    value++;
+                }
+                byte[] data = buffer.poll();
+                assertArrayEquals(filled(data.length, expected), data);
+                expected++;
+            }
+            while (!buffer.isEmpty()) {
+                byte[] data = buffer.poll();
+                assertEquals(expected, data[0]);
+                expected++;
+            }
+            assertEquals(value, expected);
+        }
+    }
+
+    private static byte[] filled(int size, byte value) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = value;
+        }
+        return data;
+    }
+
+    private OverflowHandler<String> createHandler(String name, BlockingQueue<String> queue, OverflowHandler.Policy policy, long timeout) {
+        return new OverflowHandler<>(name, queue, policy, timeout, "", folder.getRoot().getAbsolutePath(), 1024, SERIALISER);
+    }
+}
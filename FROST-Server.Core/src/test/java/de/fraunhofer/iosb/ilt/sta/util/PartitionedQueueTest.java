@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests that the PartitionedQueue keeps items with the same key together, and
+ * in order.
+ *
+ * @author scf
+ */
+public class PartitionedQueueTest {
+
+    private static final int KEY_COUNT = 10;
+    private static final int ITEMS_PER_KEY = 200;
+
+    @Test
+    public void testSameKeySamePartition() {
+        PartitionedQueue<String> queue = new PartitionedQueue<>(4, 100, PartitionedQueueTest::keyOf);
+        assertSame(queue.getPartitionFor("a-1"), queue.getPartitionFor("a-2"));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer("a-" + i));
+        }
+        assertEquals(5, queue.size());
+        assertEquals(5, queue.getPartitionFor("a-0").size());
+        assertEquals("a-0", queue.poll());
+    }
+
+    @Test
+    public void testCapacity() {
+        // Each partition gets the full capacity.
+        PartitionedQueue<String> queue = new PartitionedQueue<>(2, 2, PartitionedQueueTest::keyOf);
+        assertTrue(queue.offer("a-1"));
+        assertTrue(queue.offer("a-2"));
+        assertFalse(queue.offer("a-3"));
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testTakeAndPoll() throws InterruptedException {
+        PartitionedQueue<String> queue = new PartitionedQueue<>(4, 10, PartitionedQueueTest::keyOf);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        queue.put("a-1");
+        assertEquals("a-1", queue.poll(10, TimeUnit.MILLISECONDS));
+        queue.put("b-1");
+        assertEquals("b-1", queue.take());
+
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+                queue.put("c-1");
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        assertEquals("c-1", queue.take());
+        producer.join();
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testOrderPerKey() throws InterruptedException {
+        PartitionedQueue<String> queue = new PartitionedQueue<>(4, 50, PartitionedQueueTest::keyOf);
+        Map<String, List<Integer>> received = new HashMap<>();
+        CountDownLatch done = new CountDownLatch(KEY_COUNT * ITEMS_PER_KEY);
+        ExecutorService service = ProcessorHelper.createPartitionedProcessors(queue, item -> {
+            String key = keyOf(item);
+            synchronized (received) {
+                received.computeIfAbsent(key, k -> new ArrayList<>()).add(Integer.valueOf(item.substring(key.length() + 1)));
+            }
+            done.countDown();
+        }, "testOrderPerKey");
+
+        for (int i = 0; i < ITEMS_PER_KEY; i++) {
+            for (int k = 0; k < KEY_COUNT; k++) {
+                queue.put("k" + k + "-" + i);
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        ProcessorHelper.shutdownProcessors(service, queue, 1, TimeUnit.SECONDS);
+
+        assertEquals(KEY_COUNT, received.size());
+        for (List<Integer> values : received.values()) {
+            List<Integer> sorted = new ArrayList<>(values);
+            Collections.sort(sorted);
+            assertEquals(ITEMS_PER_KEY, values.size());
+            assertEquals(sorted, values);
+        }
+    }
+
+    private static String keyOf(String item) {
+        return item.substring(0, item.indexOf('-'));
+    }
+}
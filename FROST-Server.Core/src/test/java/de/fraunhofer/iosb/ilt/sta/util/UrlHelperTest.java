@@ -121,6 +121,21 @@ public class UrlHelperTest {
                 "/Things?$skip=4&$top=2");
     }
 
+    @Test
+    public void testNextLink_SkipToken_Success() {
+        IdManager idManager = new IdManagerlong();
+        ParserHelper.PathQuery queryBase = ParserHelper.parsePathAndQuery(idManager, "", "/Things?$skip=2&$top=2&$skiptoken=k1WyIxIl0");
+        ParserHelper.PathQuery queryExpected = ParserHelper.parsePathAndQuery(idManager, "", "/Things?$top=2&$skiptoken=k1WyIzIl0");
+
+        String nextLink = UrlHelper.generateNextLink(queryBase.path, queryBase.query, "k1WyIzIl0");
+        nextLink = UrlHelper.urlDecode(nextLink);
+        ParserHelper.PathQuery next = ParserHelper.parsePathAndQuery(idManager, "", nextLink);
+
+        Assert.assertEquals(queryExpected, next);
+        Assert.assertEquals(2, queryBase.query.getSkip(0));
+        Assert.assertEquals("k1WyIxIl0", queryBase.query.getSkipToken());
+    }
+
     @Test
     public void testNextLink_CountTrue_Success() {
         testNextLink(
@@ -90,6 +90,7 @@ public abstract class AbstractContextListener implements ServletContextListener
     public void contextDestroyed(ServletContextEvent sce) {
         LOGGER.info("Context destroyed, shutting down threads...");
         MessageBusFactory.getMessageBus().stop();
+        PersistenceManagerFactory.shutdown();
         try {
             Thread.sleep(5000L);
         } catch (InterruptedException ex) {
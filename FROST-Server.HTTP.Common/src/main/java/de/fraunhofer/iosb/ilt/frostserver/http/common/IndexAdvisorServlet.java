@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.http.common;
+
+import com.google.common.escape.Escaper;
+import com.google.common.html.HtmlEscapers;
+import de.fraunhofer.iosb.ilt.sta.persistence.IndexAdvisor;
+import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManagerFactory;
+import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import static de.fraunhofer.iosb.ilt.sta.settings.CoreSettings.TAG_CORE_SETTINGS;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lists the recorded query shapes and the indexes recommended for them, and
+ * creates the selected indexes.
+ *
+ * @author scf
+ */
+@WebServlet(name = "IndexAdvisor", urlPatterns = {"/IndexAdvisor"})
+public class IndexAdvisorServlet extends HttpServlet {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexAdvisorServlet.class);
+    private static final String DESCRIPTION = "Query statistics and index advisor servlet.";
+    private static final String PARAM_INDEX = "index";
+    private static final Escaper ESCAPER = HtmlEscapers.htmlEscaper();
+
+    protected void processGetRequest(HttpServletRequest request, HttpServletResponse response) {
+        CoreSettings coreSettings = (CoreSettings) request.getServletContext().getAttribute(TAG_CORE_SETTINGS);
+        PersistenceManagerFactory.init(coreSettings);
+
+        response.setContentType("text/html;charset=UTF-8");
+        LOGGER.info("IndexAdvisor Servlet called.");
+        PersistenceManager pm = PersistenceManagerFactory.getInstance().create();
+        try (PrintWriter out = response.getWriter()) {
+            printHeader(out, request);
+            if (pm instanceof IndexAdvisor) {
+                IndexAdvisor advisor = (IndexAdvisor) pm;
+                out.println("<h2>Query shapes</h2>");
+                out.println("<pre>");
+                out.println(ESCAPER.escape(advisor.getQueryStatistics()));
+                out.println("</pre>");
+                out.println("<h2>Recommended indexes</h2>");
+                List<String> recommendations = advisor.getIndexRecommendations();
+                if (recommendations.isEmpty()) {
+                    out.println("<p>No indexes to recommend.</p>");
+                } else {
+                    out.println("<form action='IndexAdvisor' method='post' enctype='application/x-www-form-urlencoded'>");
+                    for (String statement : recommendations) {
+                        String escaped = ESCAPER.escape(statement);
+                        out.println("<p><label><input type='checkbox' name='" + PARAM_INDEX + "' value='" + escaped + "'/> <code>" + escaped + "</code></label></p>");
+                    }
+                    out.println("<p><button name='create' value='Create' type='submit'>Create selected indexes</button></p>");
+                    out.println("</form>");
+                }
+            } else {
+                out.println("<p>The PersistenceManager does not keep query statistics.</p>");
+            }
+            out.println("<p><a href='.'>Back...</a></p>");
+            out.println("</body>");
+            out.println("</html>");
+        } catch (IOException exc) {
+            LOGGER.error("Error writing output to client", exc);
+        } finally {
+            if (pm != null) {
+                pm.close();
+            }
+        }
+    }
+
+    protected void processPostRequest(HttpServletRequest request, HttpServletResponse response) {
+        CoreSettings coreSettings = (CoreSettings) request.getServletContext().getAttribute(TAG_CORE_SETTINGS);
+        PersistenceManagerFactory.init(coreSettings);
+
+        response.setContentType("text/html;charset=UTF-8");
+        PersistenceManager pm = PersistenceManagerFactory.getInstance().create();
+        try (PrintWriter out = response.getWriter()) {
+            printHeader(out, request);
+            out.println("<p>Creating indexes</p>");
+            if (pm instanceof IndexAdvisor) {
+                String[] values = request.getParameterValues(PARAM_INDEX);
+                List<String> statements = values == null ? Collections.emptyList() : Arrays.asList(values);
+                StringWriter log = new StringWriter();
+                ((IndexAdvisor) pm).createIndexes(statements, log);
+                out.println("<pre>");
+                out.println(ESCAPER.escape(log.toString()));
+                out.println("</pre>");
+            }
+            out.println("<p>Done. <a href='IndexAdvisor'>Back...</a></p>");
+            out.println("</body>");
+            out.println("</html>");
+        } catch (IOException exc) {
+            LOGGER.error("Error writing output to client", exc);
+        } finally {
+            if (pm != null) {
+                pm.close();
+            }
+        }
+    }
+
+    private void printHeader(PrintWriter out, HttpServletRequest request) {
+        out.println("<!DOCTYPE html>");
+        out.println("<html>");
+        out.println("<head>");
+        out.println("<title>Servlet IndexAdvisor</title>");
+        out.println("</head>");
+        out.println("<body>");
+        out.println("<h1>Servlet IndexAdvisor at " + request.getContextPath() + "</h1>");
+    }
+
+    /**
+     * Handles the HTTP <code>GET</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) {
+        processGetRequest(request, response);
+    }
+
+    /**
+     * Handles the HTTP <code>POST</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) {
+        processPostRequest(request, response);
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     *
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return DESCRIPTION;
+    }
+
+}
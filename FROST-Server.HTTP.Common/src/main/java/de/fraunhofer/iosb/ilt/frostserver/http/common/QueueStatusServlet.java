@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.http.common;
+
+import com.google.common.escape.Escaper;
+import com.google.common.html.HtmlEscapers;
+import de.fraunhofer.iosb.ilt.sta.util.ProcessorHelper;
+import de.fraunhofer.iosb.ilt.sta.util.QueueMetrics;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shows the depth and counters of the processor queues.
+ *
+ * @author scf
+ */
+@WebServlet(name = "QueueStatus", urlPatterns = {"/QueueStatus"})
+public class QueueStatusServlet extends HttpServlet {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueueStatusServlet.class);
+    private static final String DESCRIPTION = "Processor queue status servlet.";
+    private static final Escaper ESCAPER = HtmlEscapers.htmlEscaper();
+
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response) {
+        response.setContentType("text/html;charset=UTF-8");
+        try (PrintWriter out = response.getWriter()) {
+            out.println("<!DOCTYPE html>");
+            out.println("<html>");
+            out.println("<head>");
+            out.println("<title>Servlet QueueStatus</title>");
+            out.println("</head>");
+            out.println("<body>");
+            out.println("<h1>Servlet QueueStatus at " + request.getContextPath() + "</h1>");
+            List<QueueMetrics> allMetrics = new ArrayList<>(ProcessorHelper.getAllQueueMetrics());
+            if (allMetrics.isEmpty()) {
+                out.println("<p>No queues have been created yet.</p>");
+            } else {
+                allMetrics.sort(Comparator.comparing(QueueMetrics::getName));
+                out.println("<table>");
+                out.println("<tr><th>Queue</th><th>Depth</th><th>Processed</th><th>Dropped</th><th>Blocked</th><th>Spilled</th><th>Replayed</th></tr>");
+                for (QueueMetrics metrics : allMetrics) {
+                    out.println("<tr><td>" + ESCAPER.escape(metrics.getName())
+                            + "</td><td>" + metrics.getDepth()
+                            + "</td><td>" + metrics.getProcessed()
+                            + "</td><td>" + metrics.getDropped()
+                            + "</td><td>" + metrics.getBlocked()
+                            + "</td><td>" + metrics.getSpilled()
+                            + "</td><td>" + metrics.getReplayed()
+                            + "</td></tr>");
+                }
+                out.println("</table>");
+            }
+            out.println("<p><a href='.'>Back...</a></p>");
+            out.println("</body>");
+            out.println("</html>");
+        } catch (IOException exc) {
+            LOGGER.error("Error writing output to client", exc);
+        }
+    }
+
+    /**
+     * Handles the HTTP <code>GET</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) {
+        processRequest(request, response);
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     *
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return DESCRIPTION;
+    }
+
+}
@@ -20,6 +20,7 @@ package de.fraunhofer.iosb.ilt.frostserver.http.common;
 import com.google.common.base.Strings;
 import de.fraunhofer.iosb.ilt.frostserver.http.common.multipart.BatchProcessor;
 import de.fraunhofer.iosb.ilt.frostserver.http.common.multipart.MixedContent;
+import de.fraunhofer.iosb.ilt.sta.formatter.ResultStream;
 import de.fraunhofer.iosb.ilt.sta.service.RequestType;
 import de.fraunhofer.iosb.ilt.sta.service.Service;
 import de.fraunhofer.iosb.ilt.sta.service.ServiceRequest;
@@ -30,6 +31,7 @@ import static de.fraunhofer.iosb.ilt.sta.settings.CoreSettings.TAG_CORE_SETTINGS
 import de.fraunhofer.iosb.ilt.sta.util.UrlHelper;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.stream.Collectors;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
@@ -134,14 +136,32 @@ public class ServletV1P0 extends HttpServlet {
     }
 
     private void executeService(RequestType requestType, HttpServletRequest request, HttpServletResponse response) {
+        HttpResultStream resultStream = null;
+        ServiceResponse<?> serviceResponse;
         try {
             CoreSettings coreSettings = (CoreSettings) request.getServletContext().getAttribute(TAG_CORE_SETTINGS);
             Service service = new Service(coreSettings);
-            sendResponse(service.execute(serviceRequestFromHttpRequest(request, requestType)), response);
+            ServiceRequest serviceRequest = serviceRequestFromHttpRequest(request, requestType);
+            if (requestType == RequestType.READ && coreSettings.getHttpSettings().getBoolean(CoreSettings.TAG_STREAM_RESULTS, CoreSettings.class)) {
+                resultStream = new HttpResultStream(response);
+                serviceRequest.setResultStream(resultStream);
+            }
+            serviceResponse = service.execute(serviceRequest);
         } catch (Exception exc) {
             LOGGER.error("", exc);
-            sendResponse(new ServiceResponse(500, exc.getMessage()), response);
+            serviceResponse = new ServiceResponse(500, exc.getMessage());
+        }
+        if (resultStream != null && resultStream.isOpened()) {
+            if (serviceResponse.getCode() >= 200 && serviceResponse.getCode() < 300) {
+                return;
+            }
+            // Part of the result is already sent with status 200. Instead of
+            // appending the error to it, the exception makes the container
+            // abort the connection, so the client can not mistake the
+            // truncated result for a complete one.
+            throw new IllegalStateException("Streaming the result failed: " + serviceResponse.getMessage());
         }
+        sendResponse(serviceResponse, response);
     }
 
     private ServiceRequest serviceRequestFromHttpRequest(HttpServletRequest request, RequestType requestType) throws IOException {
@@ -236,4 +256,31 @@ public class ServletV1P0 extends HttpServlet {
     private String readRequestData(BufferedReader reader) {
         return reader.lines().collect(Collectors.joining("\n"));
     }
+
+    /**
+     * Opens the output stream of the response only when the Service starts
+     * writing a streamed result.
+     */
+    private static class HttpResultStream implements ResultStream {
+
+        private final HttpServletResponse response;
+        private boolean opened = false;
+
+        public HttpResultStream(HttpServletResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public OutputStream open(String contentType) throws IOException {
+            opened = true;
+            response.setStatus(200);
+            response.setContentType(contentType);
+            response.setCharacterEncoding(ENCODING);
+            return response.getOutputStream();
+        }
+
+        public boolean isOpened() {
+            return opened;
+        }
+    }
 }
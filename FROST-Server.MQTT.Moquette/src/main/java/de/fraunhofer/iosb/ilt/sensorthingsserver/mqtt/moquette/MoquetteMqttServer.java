@@ -44,13 +44,13 @@ import io.moquette.server.config.MemoryConfig;
 import io.moquette.spi.impl.subscriptions.Subscription;
 import java.io.IOException;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.event.EventListenerList;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
@@ -95,7 +95,11 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
     protected EventListenerList subscriptionListeners = new EventListenerList();
     protected EventListenerList entityCreateListeners = new EventListenerList();
     private CoreSettings settings;
-    private final Map<String, List<String>> clientSubscriptions = new HashMap<>();
+    /**
+     * The topics each client is subscribed to. Changed from the threads of
+     * the broker, so both the map and the sets are concurrent.
+     */
+    private final Map<String, Set<String>> clientSubscriptions = new ConcurrentHashMap<>();
     /**
      * The MQTT Id used by the FROST server to connect to the MQTT broker.
      */
@@ -193,7 +197,7 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
                     return;
                 }
                 LOGGER.trace("Client connected: {}", clientId);
-                clientSubscriptions.put(clientId, new ArrayList<>());
+                clientSubscriptions.putIfAbsent(clientId, ConcurrentHashMap.newKeySet());
             }
 
             @Override
@@ -203,11 +207,12 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
                     return;
                 }
                 LOGGER.trace("Client disconnected: {}", clientId);
-                clientSubscriptions.getOrDefault(clientId, new ArrayList<>())
-                        .stream().forEach(
-                                subscribedTopic -> fireUnsubscribe(new SubscriptionEvent(subscribedTopic))
-                        );
-                clientSubscriptions.remove(clientId);
+                Set<String> topics = clientSubscriptions.remove(clientId);
+                if (topics != null) {
+                    for (String subscribedTopic : topics) {
+                        fireUnsubscribe(new SubscriptionEvent(subscribedTopic));
+                    }
+                }
             }
 
             @Override
@@ -218,10 +223,12 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
                 }
                 final String topicFilter = msg.getTopicFilter();
                 LOGGER.trace("Client {} subscribed to {}", clientId, topicFilter);
-                clientSubscriptions.getOrDefault(
-                        clientId, new ArrayList<>()
-                ).add(topicFilter);
-                fireSubscribe(new SubscriptionEvent(topicFilter));
+                boolean added = clientSubscriptions.computeIfAbsent(clientId, k -> ConcurrentHashMap.newKeySet())
+                        .add(topicFilter);
+                if (added) {
+                    // A repeated subscription to the same topic only replaces the old one.
+                    fireSubscribe(new SubscriptionEvent(topicFilter));
+                }
             }
 
             @Override
@@ -232,9 +239,10 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
                 }
                 final String topicFilter = msg.getTopicFilter();
                 LOGGER.trace("Client {} unsubscribed to {}", clientId, topicFilter);
-                clientSubscriptions.getOrDefault(clientId, new ArrayList<>())
-                        .remove(topicFilter);
-                fireUnsubscribe(new SubscriptionEvent(topicFilter));
+                Set<String> topics = clientSubscriptions.get(clientId);
+                if (topics != null && topics.remove(topicFilter)) {
+                    fireUnsubscribe(new SubscriptionEvent(topicFilter));
+                }
             }
 
             @Override
@@ -314,14 +322,16 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
             }
             String topic = sub.getTopicFilter().toString();
             LOGGER.debug("Re-subscribing existing subscription for {} on {}.", subClientId, topic);
-            List<String> clientSubList = clientSubscriptions.computeIfAbsent(
+            Set<String> clientSubList = clientSubscriptions.computeIfAbsent(
                     subClientId,
-                    k -> new ArrayList<>()
+                    k -> ConcurrentHashMap.newKeySet()
             );
             try {
-                fireSubscribe(new SubscriptionEvent(topic));
-                clientSubList.add(topic);
+                if (clientSubList.add(topic)) {
+                    fireSubscribe(new SubscriptionEvent(topic));
+                }
             } catch (IllegalArgumentException e) {
+                clientSubList.remove(topic);
                 LOGGER.warn("Exception initialising old subscription for client " + subClientId + " to topic " + topic, e);
             }
             count++;
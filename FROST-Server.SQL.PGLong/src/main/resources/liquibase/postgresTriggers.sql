@@ -49,6 +49,45 @@ END;
 $$ LANGUAGE plpgsql;
 
 
+-- ---------------------------------------
+-- Function: datastreams_update_extent(id)
+-- Recalculates the time extents of the given Datastream from its
+-- Observations. The triggers below only see Observations that are inserted,
+-- updated or deleted one by one. When OBSERVATIONS is partitioned (see
+-- postgresPartitioning.sql) whole partitions can be dropped, which does not
+-- fire any triggers, so this is called for the affected Datastreams instead.
+-- On a partitioned OBSERVATIONS the row level triggers below are defined on
+-- the partitioned table and apply to all partitions. An update that moves an
+-- Observation to a different partition fires the delete and insert triggers
+-- instead of the update trigger.
+-- ---------------------------------------
+create or replace function datastreams_update_extent(v_datastream_id "DATASTREAMS"."ID"%type)
+  returns void as
+$BODY$
+begin
+
+update "DATASTREAMS" set
+    "PHENOMENON_TIME_START" = "EXTENT"."PHENOMENON_TIME_START",
+    "PHENOMENON_TIME_END" = "EXTENT"."PHENOMENON_TIME_END",
+    "RESULT_TIME_START" = "EXTENT"."RESULT_TIME_START",
+    "RESULT_TIME_END" = "EXTENT"."RESULT_TIME_END"
+from (
+    select
+        min("PHENOMENON_TIME_START") as "PHENOMENON_TIME_START",
+        max(coalesce("PHENOMENON_TIME_END", "PHENOMENON_TIME_START")) as "PHENOMENON_TIME_END",
+        min("RESULT_TIME") as "RESULT_TIME_START",
+        max("RESULT_TIME") as "RESULT_TIME_END"
+    from "OBSERVATIONS"
+    where "OBSERVATIONS"."DATASTREAM_ID" = v_datastream_id
+) as "EXTENT"
+where "DATASTREAMS"."ID" = v_datastream_id;
+
+end
+$BODY$
+  language plpgsql volatile
+  cost 100;
+
+
 -- ---------------------------------------
 -- Trigger: datastreams_actualization_insert on OBSERVATIONS
 -- ---------------------------------------
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres.longid;
+
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.SQLQueryFactory;
+import com.querydsl.sql.spatial.PostGISTemplates;
+import de.fraunhofer.iosb.ilt.sta.model.Datastream;
+import de.fraunhofer.iosb.ilt.sta.model.Thing;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.sta.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.sta.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.JsonbType;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that expanded navigation properties are loaded for all parents at
+ * once, against a connection that records the statements and answers them
+ * with generated rows, instead of a database.
+ *
+ * Each Thing t has the Datastreams 10t+1, 10t+2 and 10t+3, in that order, and
+ * all Datastreams have Sensor 7.
+ *
+ * @author scf
+ */
+public class ExpandLoaderTest {
+
+    private static final String SERVICE_ROOT = "http://example.org/FROST-Server/v1.0";
+    private static final List<Long> THING_IDS = Arrays.asList(1L, 2L, 3L);
+    private static final long DATASTREAMS_PER_THING = 3;
+    private static final long SENSOR_ID = 7;
+
+    private static final Pattern ALIAS = Pattern.compile("(\"\\w+\"\\.\"\\w+\") as \"(\\w+)\"");
+
+    private final List<String> statements = new ArrayList<>();
+    private final List<List<Object>> parameters = new ArrayList<>();
+    private CoreSettings coreSettings;
+    private TestPersistenceManager pm;
+
+    @Before
+    public void setUp() {
+        statements.clear();
+        parameters.clear();
+        Properties properties = new Properties();
+        properties.put(CoreSettings.TAG_SERVICE_ROOT_URL, "http://example.org/FROST-Server");
+        properties.put(CoreSettings.TAG_TEMP_PATH, System.getProperty("java.io.tmpdir"));
+        coreSettings = new CoreSettings(properties);
+        pm = new TestPersistenceManager(proxy(Connection.class, (method, args) -> {
+            if ("prepareStatement".equals(method)) {
+                statements.add((String) args[0]);
+                return createStatement((String) args[0]);
+            }
+            return null;
+        }));
+        pm.init(coreSettings);
+    }
+
+    private EntitySet<Thing> getThings(String query) {
+        ResourcePath path = PathParser.parsePath(pm.getIdManager(), SERVICE_ROOT, "/Things");
+        Query parsedQuery = QueryParser.parseQuery(query, coreSettings);
+        return (EntitySet<Thing>) pm.get(path, parsedQuery);
+    }
+
+    @Test
+    public void testNestedExpandIsLoadedPerLevel() {
+        EntitySet<Thing> things = getThings("$expand=Datastreams($top=2;$orderby=name desc;$expand=Sensor)");
+
+        // One query for the Things, one for all their Datastreams and one
+        // for the Sensors of all those Datastreams.
+        assertEquals(statements.toString(), 3, statements.size());
+
+        String datastreamsSql = statements.get(1);
+        assertTrue(datastreamsSql, datastreamsSql.contains("row_number() over (partition by"));
+        assertTrue(datastreamsSql, datastreamsSql.contains("\"NAME\" desc"));
+        List<Object> datastreamsParams = parameters.get(1);
+        assertTrue(datastreamsParams.toString(), datastreamsParams.containsAll(THING_IDS));
+        // The rows after $skip, up to one more than $top, of each Thing.
+        int size = datastreamsParams.size();
+        assertEquals(Arrays.asList(0L, 3L), datastreamsParams.subList(size - 2, size));
+
+        List<Object> sensorsParams = parameters.get(2);
+        assertTrue(sensorsParams.toString(), sensorsParams.containsAll(Arrays.asList(11L, 12L, 21L, 22L, 31L, 32L)));
+        assertFalse(sensorsParams.toString(), sensorsParams.contains(13L));
+
+        assertEquals(3, things.size());
+        Datastream first = things.asList().get(0).getDatastreams().asList().get(0);
+        for (Thing thing : things) {
+            long thingId = (Long) thing.getId().getValue();
+            EntitySet<Datastream> datastreams = thing.getDatastreams();
+            assertEquals(2, datastreams.size());
+            assertEquals(thingId * 10 + 1, datastreams.asList().get(0).getId().getValue());
+            assertEquals(thingId * 10 + 2, datastreams.asList().get(1).getId().getValue());
+            assertNotNull("Each Thing has more Datastreams than $top", datastreams.getNextLink());
+            for (Datastream datastream : datastreams) {
+                assertEquals(SENSOR_ID, datastream.getSensor().getId().getValue());
+                // Loaded once, shared by all Datastreams.
+                assertSame(first.getSensor(), datastream.getSensor());
+            }
+        }
+    }
+
+    @Test
+    public void testTopAndSkipPerParent() {
+        EntitySet<Thing> things = getThings("$expand=Datastreams($skip=1;$top=1)");
+
+        assertEquals(statements.toString(), 2, statements.size());
+        List<Object> datastreamsParams = parameters.get(1);
+        int size = datastreamsParams.size();
+        assertEquals(Arrays.asList(1L, 3L), datastreamsParams.subList(size - 2, size));
+
+        for (Thing thing : things) {
+            long thingId = (Long) thing.getId().getValue();
+            List<Datastream> datastreams = thing.getDatastreams().asList();
+            assertEquals(1, datastreams.size());
+            assertEquals(thingId * 10 + 2, datastreams.get(0).getId().getValue());
+            assertNotNull(thing.getDatastreams().getNextLink());
+        }
+    }
+
+    /**
+     * Generates the rows for the given statement, based on the position of
+     * the statement: first the Things, then the Datastreams, then the
+     * Sensors.
+     */
+    private List<Object[]> respond(int statementNr, String sql, List<Object> params) {
+        List<String> columns = findColumns(sql);
+        List<Object[]> rows = new ArrayList<>();
+        switch (statementNr) {
+            case 0:
+                for (Long thingId : THING_IDS) {
+                    rows.add(createRow(columns, thingId, null, null));
+                }
+                break;
+
+            case 1:
+                // Like the database, only return the rows within the bounds
+                // on the row number, ordered by the row number.
+                long after = (Long) params.get(params.size() - 2);
+                long upTo = (Long) params.get(params.size() - 1);
+                for (long rowNumber = after + 1; rowNumber <= Math.min(upTo, DATASTREAMS_PER_THING); rowNumber++) {
+                    for (Long thingId : THING_IDS) {
+                        rows.add(createRow(columns, thingId * 10 + rowNumber, thingId, rowNumber));
+                    }
+                }
+                break;
+
+            case 2:
+                // The list of ids is padded, each Datastream has one row.
+                for (Object datastreamId : new LinkedHashSet<>(params)) {
+                    rows.add(createRow(columns, SENSOR_ID, datastreamId, null));
+                }
+                break;
+
+            default:
+                break;
+        }
+        return rows;
+    }
+
+    /**
+     * Creates a row with the given id, parent id and row number in the
+     * matching columns, and null in all other columns. Without a batch
+     * window, the parent id is the last column.
+     */
+    private static Object[] createRow(List<String> columns, Object id, Object parentId, Long rowNumber) {
+        Object[] row = new Object[columns.size()];
+        boolean batched = columns.contains("\"b1\".\"pid\"");
+        for (int i = 0; i < columns.size(); i++) {
+            String column = columns.get(i);
+            if (column.endsWith("\"pid\"") || (!batched && parentId != null && i == columns.size() - 1)) {
+                row[i] = parentId;
+            } else if (column.endsWith("\"rn\"")) {
+                row[i] = rowNumber;
+            } else if (column.endsWith(".\"ID\"")) {
+                row[i] = id;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Finds the selected columns of the outer query. Columns of the batch
+     * window, like "b1"."c0", are replaced by the column of the inner query
+     * they are an alias for.
+     */
+    private static List<String> findColumns(String sql) {
+        Map<String, String> aliases = new HashMap<>();
+        Matcher matcher = ALIAS.matcher(sql);
+        while (matcher.find()) {
+            aliases.put("\"b1\".\"" + matcher.group(2) + "\"", matcher.group(1));
+        }
+        List<String> columns = new ArrayList<>();
+        int start = sql.indexOf("select ") + "select ".length();
+        int depth = 0;
+        int columnStart = start;
+        for (int i = start; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && (c == ',' || sql.startsWith("from ", i) && Character.isWhitespace(sql.charAt(i - 1)))) {
+                String column = sql.substring(columnStart, i).trim();
+                if (!column.endsWith("\"pid\"") && !column.endsWith("\"rn\"")) {
+                    column = aliases.getOrDefault(column, column);
+                }
+                columns.add(column);
+                if (c != ',') {
+                    break;
+                }
+                columnStart = i + 1;
+            }
+        }
+        return columns;
+    }
+
+    private PreparedStatement createStatement(String sql) {
+        int statementNr = statements.size() - 1;
+        Map<Integer, Object> params = new TreeMap<>();
+        parameters.add(new ArrayList<>());
+        PreparedStatement[] statement = new PreparedStatement[1];
+        statement[0] = proxy(PreparedStatement.class, (method, args) -> {
+            if (method.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                params.put((Integer) args[0], args[1]);
+                parameters.set(statementNr, new ArrayList<>(params.values()));
+                return null;
+            }
+            if ("executeQuery".equals(method)) {
+                return createResults(statement[0], respond(statementNr, sql, new ArrayList<>(params.values())));
+            }
+            return null;
+        });
+        return statement[0];
+    }
+
+    private static ResultSet createResults(PreparedStatement statement, List<Object[]> rows) {
+        int[] current = {-1};
+        boolean[] wasNull = {false};
+        return proxy(ResultSet.class, (method, args) -> {
+            switch (method) {
+                case "next":
+                    current[0]++;
+                    return current[0] < rows.size();
+
+                case "getStatement":
+                    return statement;
+
+                case "wasNull":
+                    return wasNull[0];
+
+                default:
+                    if (method.startsWith("get") && args != null && args.length >= 1 && args[0] instanceof Integer) {
+                        Object value = rows.get(current[0])[(Integer) args[0] - 1];
+                        wasNull[0] = value == null;
+                        return value;
+                    }
+                    return null;
+            }
+        });
+    }
+
+    private interface Handler {
+
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(
+                ExpandLoaderTest.class.getClassLoader(),
+                new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    Object result = handler.invoke(method.getName(), args);
+                    Class<?> returnType = method.getReturnType();
+                    if (!returnType.isPrimitive() || returnType == void.class) {
+                        return result;
+                    }
+                    if (returnType == boolean.class) {
+                        return result != null && (Boolean) result;
+                    }
+                    Number number = result == null ? 0 : (Number) result;
+                    if (returnType == long.class) {
+                        return number.longValue();
+                    }
+                    if (returnType == double.class) {
+                        return number.doubleValue();
+                    }
+                    return number.intValue();
+                }));
+    }
+
+    /**
+     * A persistence manager that uses the given connection, instead of one
+     * from the connection pool.
+     */
+    private static class TestPersistenceManager extends PostgresPersistenceManagerLong {
+
+        private final Connection connection;
+        private SQLQueryFactory queryFactory;
+
+        TestPersistenceManager(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public SQLQueryFactory createQueryFactory() {
+            if (queryFactory == null) {
+                Configuration configuration = new Configuration(PostGISTemplates.builder().quote().build());
+                JsonbType.register(configuration, getPropertyResolver().qCollection);
+                queryFactory = new SQLQueryFactory(configuration, () -> connection);
+            }
+            return queryFactory;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+-- Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+-- Karlsruhe, Germany.
+--
+-- This program is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU Lesser General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- This program is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU Lesser General Public License for more details.
+--
+-- You should have received a copy of the GNU Lesser General Public License
+-- along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+
+-- ---------------------------------------
+-- Statement level maintenance of the time and area extents of Datastreams.
+--
+-- The row level triggers in the triggers file update the Datastream of each
+-- inserted Observation separately. The functions below instead update each
+-- Datastream once per statement, with the aggregated extent of all
+-- Observations in the statement, using transition tables. This requires
+-- PostgreSQL 10 or later.
+--
+-- Which of the two is used is switched using
+-- datastreams_set_extent_maintenance('row' | 'statement').
+-- ---------------------------------------
+
+
+-- ---------------------------------------
+-- Function: datastreams_update_insert_statement()
+-- ---------------------------------------
+create or replace function datastreams_update_insert_statement()
+  returns trigger as
+$BODY$
+begin
+
+update "DATASTREAMS" set
+    "PHENOMENON_TIME_START" = least("DATASTREAMS"."PHENOMENON_TIME_START", "EXTENT"."PHENOMENON_TIME_START"),
+    "PHENOMENON_TIME_END" = greatest("DATASTREAMS"."PHENOMENON_TIME_END", "EXTENT"."PHENOMENON_TIME_END"),
+    "RESULT_TIME_START" = least("DATASTREAMS"."RESULT_TIME_START", "EXTENT"."RESULT_TIME_START"),
+    "RESULT_TIME_END" = greatest("DATASTREAMS"."RESULT_TIME_END", "EXTENT"."RESULT_TIME_END"),
+    "OBSERVED_AREA" = ST_ConvexHull(ST_Collect("DATASTREAMS"."OBSERVED_AREA", "EXTENT"."OBSERVED_AREA"))
+from (
+    select
+        "NEW_OBSERVATIONS"."DATASTREAM_ID",
+        min("NEW_OBSERVATIONS"."PHENOMENON_TIME_START") as "PHENOMENON_TIME_START",
+        max(coalesce("NEW_OBSERVATIONS"."PHENOMENON_TIME_END", "NEW_OBSERVATIONS"."PHENOMENON_TIME_START")) as "PHENOMENON_TIME_END",
+        min("NEW_OBSERVATIONS"."RESULT_TIME") as "RESULT_TIME_START",
+        max("NEW_OBSERVATIONS"."RESULT_TIME") as "RESULT_TIME_END",
+        ST_ConvexHull(ST_Collect("FEATURES"."GEOM")) as "OBSERVED_AREA"
+    from "NEW_OBSERVATIONS"
+    left join "FEATURES" on "FEATURES"."ID" = "NEW_OBSERVATIONS"."FEATURE_ID"
+    where "NEW_OBSERVATIONS"."DATASTREAM_ID" is not null
+    group by "NEW_OBSERVATIONS"."DATASTREAM_ID"
+) as "EXTENT"
+where "DATASTREAMS"."ID" = "EXTENT"."DATASTREAM_ID";
+
+return null;
+END
+$BODY$
+  language plpgsql volatile
+  cost 100;
+
+
+-- ---------------------------------------
+-- Function: datastreams_update_update_statement()
+-- Recalculates the time extents of the Datastreams of which the Observations
+-- changed time, or moved to a different Datastream.
+-- ---------------------------------------
+create or replace function datastreams_update_update_statement()
+  returns trigger as
+$BODY$
+begin
+
+update "DATASTREAMS" set
+    ("PHENOMENON_TIME_START", "PHENOMENON_TIME_END", "RESULT_TIME_START", "RESULT_TIME_END") = (
+        select
+            min("PHENOMENON_TIME_START"),
+            max(coalesce("PHENOMENON_TIME_END", "PHENOMENON_TIME_START")),
+            min("RESULT_TIME"),
+            max("RESULT_TIME")
+        from "OBSERVATIONS"
+        where "OBSERVATIONS"."DATASTREAM_ID" = "DATASTREAMS"."ID"
+    )
+where "DATASTREAMS"."ID" in (
+    select unnest(array["OLD_OBSERVATIONS"."DATASTREAM_ID", "NEW_OBSERVATIONS"."DATASTREAM_ID"])
+    from "OLD_OBSERVATIONS"
+    join "NEW_OBSERVATIONS" on "NEW_OBSERVATIONS"."ID" = "OLD_OBSERVATIONS"."ID"
+    where "NEW_OBSERVATIONS"."PHENOMENON_TIME_START" is distinct from "OLD_OBSERVATIONS"."PHENOMENON_TIME_START"
+        or "NEW_OBSERVATIONS"."PHENOMENON_TIME_END" is distinct from "OLD_OBSERVATIONS"."PHENOMENON_TIME_END"
+        or "NEW_OBSERVATIONS"."RESULT_TIME" is distinct from "OLD_OBSERVATIONS"."RESULT_TIME"
+        or "NEW_OBSERVATIONS"."DATASTREAM_ID" is distinct from "OLD_OBSERVATIONS"."DATASTREAM_ID"
+);
+
+return null;
+END
+$BODY$
+  language plpgsql volatile
+  cost 100;
+
+
+-- ---------------------------------------
+-- Function: datastreams_update_delete_statement()
+-- Recalculates the time extents of the Datastreams of which a deleted
+-- Observation was on the edge of the extent.
+-- ---------------------------------------
+create or replace function datastreams_update_delete_statement()
+  returns trigger as
+$BODY$
+begin
+
+update "DATASTREAMS" set
+    ("PHENOMENON_TIME_START", "PHENOMENON_TIME_END", "RESULT_TIME_START", "RESULT_TIME_END") = (
+        select
+            min("PHENOMENON_TIME_START"),
+            max(coalesce("PHENOMENON_TIME_END", "PHENOMENON_TIME_START")),
+            min("RESULT_TIME"),
+            max("RESULT_TIME")
+        from "OBSERVATIONS"
+        where "OBSERVATIONS"."DATASTREAM_ID" = "DATASTREAMS"."ID"
+    )
+where "DATASTREAMS"."ID" in (
+    select "OLD_OBSERVATIONS"."DATASTREAM_ID"
+    from "OLD_OBSERVATIONS"
+    join "DATASTREAMS" as "DS" on "DS"."ID" = "OLD_OBSERVATIONS"."DATASTREAM_ID"
+    where "OLD_OBSERVATIONS"."PHENOMENON_TIME_START" = "DS"."PHENOMENON_TIME_START"
+        or coalesce("OLD_OBSERVATIONS"."PHENOMENON_TIME_END", "OLD_OBSERVATIONS"."PHENOMENON_TIME_START") = "DS"."PHENOMENON_TIME_END"
+        or "OLD_OBSERVATIONS"."RESULT_TIME" = "DS"."RESULT_TIME_START"
+        or "OLD_OBSERVATIONS"."RESULT_TIME" = "DS"."RESULT_TIME_END"
+);
+
+return null;
+END
+$BODY$
+  language plpgsql volatile
+  cost 100;
+
+
+-- ---------------------------------------
+-- Function: datastreams_set_extent_maintenance(text)
+-- Replaces the extent triggers on OBSERVATIONS with the row level ('row') or
+-- statement level ('statement') versions.
+-- ---------------------------------------
+create or replace function datastreams_set_extent_maintenance(v_mode text)
+  returns void as
+$BODY$
+begin
+
+if (lower(v_mode) not in ('row', 'statement')) then
+    raise exception 'Unknown extent maintenance mode: %. Use row or statement.', v_mode;
+end if;
+if (lower(v_mode) = 'statement' and current_setting('server_version_num')::integer < 100000) then
+    raise exception 'Statement level extent maintenance requires PostgreSQL 10 or later.';
+end if;
+
+drop trigger if exists datastreams_actualization_insert ON "OBSERVATIONS";
+drop trigger if exists datastreams_actualization_update ON "OBSERVATIONS";
+drop trigger if exists datastreams_actualization_delete ON "OBSERVATIONS";
+
+if (lower(v_mode) = 'statement') then
+    create trigger datastreams_actualization_insert
+      after insert
+      on "OBSERVATIONS"
+      referencing new table as "NEW_OBSERVATIONS"
+      for each statement
+      execute procedure datastreams_update_insert_statement();
+    create trigger datastreams_actualization_update
+      after update
+      on "OBSERVATIONS"
+      referencing old table as "OLD_OBSERVATIONS" new table as "NEW_OBSERVATIONS"
+      for each statement
+      execute procedure datastreams_update_update_statement();
+    create trigger datastreams_actualization_delete
+      after delete
+      on "OBSERVATIONS"
+      referencing old table as "OLD_OBSERVATIONS"
+      for each statement
+      execute procedure datastreams_update_delete_statement();
+else
+    create trigger datastreams_actualization_insert
+      after insert
+      on "OBSERVATIONS"
+      for each row
+      execute procedure datastreams_update_insert();
+    create trigger datastreams_actualization_update
+      after update
+      on "OBSERVATIONS"
+      for each row
+      execute procedure datastreams_update_update();
+    create trigger datastreams_actualization_delete
+      after delete
+      on "OBSERVATIONS"
+      for each row
+      execute procedure datastreams_update_delete();
+end if;
+
+END
+$BODY$
+  language plpgsql volatile
+  cost 100;
@@ -0,0 +1,293 @@
+-- Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+-- Karlsruhe, Germany.
+--
+-- This program is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU Lesser General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- This program is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU Lesser General Public License for more details.
+--
+-- You should have received a copy of the GNU Lesser General Public License
+-- along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+
+-- ---------------------------------------
+-- Range partitioning of OBSERVATIONS on PHENOMENON_TIME_START, used when
+-- persistence.observationPartitioning is set to day, week, month or year.
+-- Requires PostgreSQL 11 or later.
+--
+-- Partitions are named OBSERVATIONS_YYYYMMDD after the (UTC) start of the
+-- period they hold. The Observations that existed before the table was
+-- partitioned stay in OBSERVATIONS_HISTORIC, and Observations that do not fit
+-- any period partition go into OBSERVATIONS_DEFAULT.
+--
+-- Unique constraints on a partitioned table must contain the partition key,
+-- so ID is covered by a normal index. The ids are still unique, since they are
+-- generated by the sequence or the uuid function.
+-- ---------------------------------------
+
+
+-- ---------------------------------------
+-- Function: observations_period_start(text, timestamptz)
+-- The UTC start of the period of the given type that contains the given time.
+-- ---------------------------------------
+create or replace function observations_period_start(v_interval text, v_time timestamptz)
+  returns timestamptz as
+$BODY$
+begin
+return date_trunc(lower(v_interval), v_time at time zone 'UTC') at time zone 'UTC';
+end
+$BODY$
+  language plpgsql immutable;
+
+
+-- ---------------------------------------
+-- Function: observations_partition_end(oid)
+-- The exclusive upper bound of the given range partition of OBSERVATIONS, or
+-- null if it is the default partition.
+-- ---------------------------------------
+create or replace function observations_partition_end(v_partition oid)
+  returns timestamptz as
+$BODY$
+select substring(pg_get_expr(c.relpartbound, c.oid) from 'TO \(''(.*)''\)')::timestamptz
+    from pg_class c
+    where c.oid = v_partition;
+$BODY$
+  language sql stable;
+
+
+-- ---------------------------------------
+-- Function: observations_create_partitions(text, integer)
+-- Creates the partitions of OBSERVATIONS for the current period and the given
+-- number of periods after that, continuing from the last existing partition.
+-- Does nothing if OBSERVATIONS is not partitioned.
+-- Observations in OBSERVATIONS_DEFAULT that belong in a new partition are
+-- moved there, since the partition can not be created while the default
+-- partition holds rows in its range. They are moved by deleting and
+-- re-inserting them through OBSERVATIONS, so the extent triggers fire for both.
+-- ---------------------------------------
+create or replace function observations_create_partitions(v_interval text, v_ahead integer)
+  returns void as
+$BODY$
+declare
+v_step interval;
+v_start timestamptz;
+v_end timestamptz;
+v_until timestamptz;
+v_name text;
+begin
+
+if (lower(v_interval) not in ('day', 'week', 'month', 'year')) then
+    return;
+end if;
+if ((select c.relkind from pg_class c where c.oid = '"OBSERVATIONS"'::regclass) <> 'p') then
+    return;
+end if;
+
+v_step := ('1 ' || lower(v_interval))::interval;
+v_until := ((observations_period_start(v_interval, now()) at time zone 'UTC') + v_step * (v_ahead + 1)) at time zone 'UTC';
+
+select max(observations_partition_end(i.inhrelid)) into v_start
+    from pg_inherits i
+    where i.inhparent = '"OBSERVATIONS"'::regclass;
+if (v_start is null) then
+    v_start := observations_period_start(v_interval, now());
+end if;
+
+while (v_start < v_until) loop
+    -- Months and years differ in length, so step in UTC.
+    v_end := ((v_start at time zone 'UTC') + v_step) at time zone 'UTC';
+    v_name := 'OBSERVATIONS_' || to_char(v_start at time zone 'UTC', 'YYYYMMDD');
+    if exists (select 1 from "OBSERVATIONS_DEFAULT" where "PHENOMENON_TIME_START" >= v_start and "PHENOMENON_TIME_START" < v_end) then
+        raise warning 'OBSERVATIONS_DEFAULT contains Observations from % to %, moving them to %.', v_start, v_end, v_name;
+        create temporary table "OBSERVATIONS_MOVED" on commit drop as
+            select * from "OBSERVATIONS_DEFAULT" where "PHENOMENON_TIME_START" >= v_start and "PHENOMENON_TIME_START" < v_end;
+        delete from "OBSERVATIONS" where "PHENOMENON_TIME_START" >= v_start and "PHENOMENON_TIME_START" < v_end;
+        execute format('create table %I partition of "OBSERVATIONS" for values from (%L) to (%L)', v_name, v_start, v_end);
+        insert into "OBSERVATIONS" select * from "OBSERVATIONS_MOVED";
+        drop table "OBSERVATIONS_MOVED";
+    else
+        execute format('create table %I partition of "OBSERVATIONS" for values from (%L) to (%L)', v_name, v_start, v_end);
+    end if;
+    v_start := v_end;
+end loop;
+
+end
+$BODY$
+  language plpgsql volatile
+  cost 100;
+
+
+-- ---------------------------------------
+-- Function: observations_drop_partitions(timestamptz)
+-- Drops the partitions of OBSERVATIONS that only hold Observations that
+-- started before the given time. Since dropping a partition does not fire the
+-- delete triggers, the time extents of the affected Datastreams are
+-- recalculated.
+-- Observations that started before the given time, but ended up in
+-- OBSERVATIONS_DEFAULT because their partition was already dropped, are
+-- deleted through OBSERVATIONS, so the extent triggers fire for them.
+-- Observations without a PHENOMENON_TIME_START can not be aged and are kept.
+-- ---------------------------------------
+create or replace function observations_drop_partitions(v_before timestamptz)
+  returns void as
+$BODY$
+declare
+v_name text;
+v_count bigint;
+begin
+
+if ((select c.relkind from pg_class c where c.oid = '"OBSERVATIONS"'::regclass) <> 'p') then
+    return;
+end if;
+
+for v_name in
+    select c.relname
+    from pg_inherits i
+    join pg_class c on c.oid = i.inhrelid
+    where i.inhparent = '"OBSERVATIONS"'::regclass
+        and observations_partition_end(i.inhrelid) <= v_before
+loop
+    execute format('alter table "OBSERVATIONS" detach partition %I', v_name);
+    execute format('select datastreams_update_extent("DATASTREAM_ID") from (select distinct "DATASTREAM_ID" from %I where "DATASTREAM_ID" is not null) as "DS"', v_name);
+    execute format('drop table %I', v_name);
+    raise notice 'Dropped Observations partition %.', v_name;
+end loop;
+
+delete from "OBSERVATIONS"
+    where tableoid = '"OBSERVATIONS_DEFAULT"'::regclass
+        and "PHENOMENON_TIME_START" < v_before;
+get diagnostics v_count = row_count;
+if (v_count > 0) then
+    raise notice 'Deleted % Observations from before % from OBSERVATIONS_DEFAULT.', v_count, v_before;
+end if;
+
+end
+$BODY$
+  language plpgsql volatile
+  cost 100;
+
+
+-- ---------------------------------------
+-- Function: observations_set_partitioning(text, integer)
+-- Turns OBSERVATIONS into a table partitioned by PHENOMENON_TIME_START, with
+-- partitions of the given period ('day', 'week', 'month' or 'year'), and
+-- creates the partitions for the given number of periods ahead. Does nothing
+-- for 'none'. If OBSERVATIONS is already partitioned, only the partitions
+-- ahead are created, the period of existing partitions is not changed.
+-- The conversion holds an exclusive lock on OBSERVATIONS until all historic
+-- rows are checked against the partition bound, which takes time in
+-- proportion to the number of Observations.
+-- ---------------------------------------
+create or replace function observations_set_partitioning(v_interval text, v_ahead integer)
+  returns void as
+$BODY$
+declare
+v_start timestamptz;
+v_sql text;
+v_index_name text;
+v_indexes text[];
+v_foreign_keys text[];
+v_sequence text;
+begin
+
+if (lower(v_interval) = 'none') then
+    if ((select c.relkind from pg_class c where c.oid = '"OBSERVATIONS"'::regclass) = 'p') then
+        raise notice 'OBSERVATIONS is partitioned, this can not be undone automatically.';
+    end if;
+    return;
+end if;
+if (lower(v_interval) not in ('day', 'week', 'month', 'year')) then
+    raise exception 'Unknown observation partitioning: %. Use none, day, week, month or year.', v_interval;
+end if;
+if (current_setting('server_version_num')::integer < 110000) then
+    raise exception 'Partitioning the Observations requires PostgreSQL 11 or later.';
+end if;
+if ((select c.relkind from pg_class c where c.oid = '"OBSERVATIONS"'::regclass) = 'p') then
+    perform observations_create_partitions(v_interval, v_ahead);
+    return;
+end if;
+
+v_start := observations_period_start(v_interval, now());
+
+-- Remember the indexes and foreign keys, to re-create them on the partitioned table.
+select array_agg(pg_get_indexdef(i.indexrelid)) into v_indexes
+    from pg_index i
+    where i.indrelid = '"OBSERVATIONS"'::regclass and not i.indisprimary;
+select array_agg(format('alter table "OBSERVATIONS" add constraint %I %s', c.conname, pg_get_constraintdef(c.oid))) into v_foreign_keys
+    from pg_constraint c
+    where c.conrelid = '"OBSERVATIONS"'::regclass and c.contype = 'f';
+
+-- The extent triggers are re-created on the partitioned table by datastreams_set_extent_maintenance.
+drop trigger if exists datastreams_actualization_insert ON "OBSERVATIONS";
+drop trigger if exists datastreams_actualization_update ON "OBSERVATIONS";
+drop trigger if exists datastreams_actualization_delete ON "OBSERVATIONS";
+
+for v_sql in
+    select format('alter table "OBSERVATIONS" drop constraint %I', c.conname)
+    from pg_constraint c
+    where c.conrelid = '"OBSERVATIONS"'::regclass and c.contype in ('f', 'p')
+loop
+    execute v_sql;
+end loop;
+
+-- Index names are unique per schema. The renamed indexes are attached to the
+-- re-created indexes of the partitioned table, instead of being built again.
+for v_index_name in
+    select c.relname
+    from pg_index i
+    join pg_class c on c.oid = i.indexrelid
+    where i.indrelid = '"OBSERVATIONS"'::regclass
+loop
+    execute format('alter index %I rename to %I', v_index_name, left(
+        case when v_index_name like 'OBSERVATIONS\_%'
+            then 'OBSERVATIONS_HISTORIC_' || substr(v_index_name, 14)
+            else 'HISTORIC_' || v_index_name
+        end, 63));
+end loop;
+
+alter table "OBSERVATIONS" rename to "OBSERVATIONS_HISTORIC";
+create table "OBSERVATIONS" (like "OBSERVATIONS_HISTORIC" including defaults) partition by range ("PHENOMENON_TIME_START");
+v_sequence := pg_get_serial_sequence('"OBSERVATIONS_HISTORIC"', 'ID');
+if (v_sequence is not null) then
+    -- Otherwise the sequence would be dropped with the historic partition.
+    execute format('alter sequence %s owned by "OBSERVATIONS"."ID"', v_sequence);
+end if;
+
+create table "OBSERVATIONS_DEFAULT" partition of "OBSERVATIONS" default;
+perform observations_create_partitions(v_interval, v_ahead);
+
+with "MOVED" as (
+    delete from "OBSERVATIONS_HISTORIC"
+    where "PHENOMENON_TIME_START" >= v_start or "PHENOMENON_TIME_START" is null
+    returning *
+)
+insert into "OBSERVATIONS" select * from "MOVED";
+-- A validated check that implies the partition bound lets the attach skip its
+-- own scan. The rows of the current period are only moved out above, in the
+-- same transaction, so the validation still runs under the lock.
+execute format('alter table "OBSERVATIONS_HISTORIC" add constraint "OBSERVATIONS_HISTORIC_BOUND" check ("PHENOMENON_TIME_START" is not null and "PHENOMENON_TIME_START" < %L) not valid', v_start);
+alter table "OBSERVATIONS_HISTORIC" validate constraint "OBSERVATIONS_HISTORIC_BOUND";
+execute format('alter table "OBSERVATIONS" attach partition "OBSERVATIONS_HISTORIC" for values from (minvalue) to (%L)', v_start);
+alter table "OBSERVATIONS_HISTORIC" drop constraint "OBSERVATIONS_HISTORIC_BOUND";
+
+create index "OBSERVATIONS_ID" on "OBSERVATIONS" ("ID");
+if (v_indexes is not null) then
+    foreach v_sql in array v_indexes loop
+        execute v_sql;
+    end loop;
+end if;
+if (v_foreign_keys is not null) then
+    foreach v_sql in array v_foreign_keys loop
+        execute v_sql;
+    end loop;
+end if;
+
+end
+$BODY$
+  language plpgsql volatile
+  cost 100;
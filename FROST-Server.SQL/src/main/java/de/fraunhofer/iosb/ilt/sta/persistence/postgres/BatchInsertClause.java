@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.QueryException;
+import com.querydsl.core.dml.StoreClause;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Path;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.RelationalPath;
+import com.querydsl.sql.SQLQueryFactory;
+import com.querydsl.sql.SQLTemplates;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An insert clause that collects many rows and writes them using JDBC
+ * batching, returning the generated keys in the order the rows were added.
+ *
+ * Values are set on the current row like on a normal insert clause, and
+ * {@link #addBatch()} closes the row. If a row can not be completed,
+ * {@link #clearRow()} must be called before starting the next one.
+ * Consecutive rows that set the same columns share one prepared statement.
+ * Unlike the batch support of the QueryDSL insert clause, rows with null
+ * values do not result in different statements.
+ *
+ * @author scf
+ * @param <J> The type of the ID fields.
+ */
+public class BatchInsertClause<J> implements StoreClause<BatchInsertClause<J>> {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchInsertClause.class);
+
+    private final SQLQueryFactory qf;
+    private final RelationalPath<?> table;
+    private final Path<J> idPath;
+    private final List<Map<Path<?>, Object>> rows = new ArrayList<>();
+    private Map<Path<?>, Object> currentRow = new LinkedHashMap<>();
+
+    public BatchInsertClause(SQLQueryFactory qf, RelationalPath<?> table, Path<J> idPath) {
+        this.qf = qf;
+        this.table = table;
+        this.idPath = idPath;
+    }
+
+    @Override
+    public <T> BatchInsertClause<J> set(Path<T> path, T value) {
+        currentRow.put(path, value);
+        return this;
+    }
+
+    @Override
+    public <T> BatchInsertClause<J> set(Path<T> path, Expression<? extends T> expression) {
+        throw new IllegalArgumentException("Batch inserts only support plain values, not expressions.");
+    }
+
+    @Override
+    public <T> BatchInsertClause<J> setNull(Path<T> path) {
+        currentRow.put(path, null);
+        return this;
+    }
+
+    /**
+     * Close the current row and start a new one.
+     *
+     * @return this.
+     */
+    public BatchInsertClause<J> addBatch() {
+        rows.add(currentRow);
+        currentRow = new LinkedHashMap<>();
+        return this;
+    }
+
+    /**
+     * Discard the values set on the current row, for instance because the
+     * entity turned out to be invalid halfway through setting them. Without
+     * this, those values would end up in the next row.
+     *
+     * @return this.
+     */
+    public BatchInsertClause<J> clearRow() {
+        currentRow.clear();
+        return this;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    public int getBatchCount() {
+        return rows.size();
+    }
+
+    @Override
+    public long execute() {
+        return executeWithKeys().size();
+    }
+
+    /**
+     * Insert all rows added with {@link #addBatch()}.
+     *
+     * @return The generated ids, in the order the rows were added.
+     */
+    public List<J> executeWithKeys() {
+        List<J> keys = new ArrayList<>(rows.size());
+        int start = 0;
+        while (start < rows.size()) {
+            int end = start + 1;
+            while (end < rows.size() && sameColumns(rows.get(start), rows.get(end))) {
+                end++;
+            }
+            executeRun(rows.subList(start, end), keys);
+            start = end;
+        }
+        rows.clear();
+        return keys;
+    }
+
+    private static boolean sameColumns(Map<Path<?>, Object> row1, Map<Path<?>, Object> row2) {
+        return row1.size() == row2.size() && row1.keySet().containsAll(row2.keySet());
+    }
+
+    private void executeRun(List<Map<Path<?>, Object>> run, List<J> keys) {
+        Configuration configuration = qf.getConfiguration();
+        List<Path<?>> columns = new ArrayList<>(run.get(0).keySet());
+        String sql = createSql(configuration.getTemplates(), columns);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Batch inserting {} rows using:\n{}", run.size(), sql);
+        }
+        Connection connection = qf.getConnection();
+        String idColumn = table.getMetadata(idPath).getName();
+        try (PreparedStatement stmt = connection.prepareStatement(sql, new String[]{idColumn})) {
+            for (Map<Path<?>, Object> row : run) {
+                int index = 1;
+                for (Path<?> column : columns) {
+                    Object value = row.get(column);
+                    if (value == null) {
+                        stmt.setNull(index, table.getMetadata(column).getJdbcType());
+                    } else {
+                        configuration.set(stmt, column, index, value);
+                    }
+                    index++;
+                }
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                while (generatedKeys.next()) {
+                    keys.add(configuration.get(generatedKeys, idPath, 1, idPath.getType()));
+                }
+            }
+        } catch (SQLException exc) {
+            throw new QueryException("Failed to batch insert into " + table.getTableName() + ": " + Objects.toString(exc.getNextException(), exc.getMessage()), exc);
+        }
+    }
+
+    private String createSql(SQLTemplates templates, List<Path<?>> columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ");
+        if (templates.isPrintSchema()) {
+            sql.append(templates.quoteIdentifier(table.getSchemaName())).append('.');
+        }
+        sql.append(templates.quoteIdentifier(table.getTableName())).append(" (");
+        StringBuilder values = new StringBuilder(" VALUES (");
+        boolean first = true;
+        for (Path<?> column : columns) {
+            if (!first) {
+                sql.append(", ");
+                values.append(", ");
+            }
+            first = false;
+            ColumnMetadata metadata = table.getMetadata(column);
+            sql.append(templates.quoteIdentifier(metadata.getName()));
+            values.append('?');
+        }
+        return sql.append(')').append(values).append(')').toString();
+    }
+
+}
@@ -18,6 +18,7 @@
 package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
 
 import de.fraunhofer.iosb.ilt.sta.settings.ConfigDefaults;
+import de.fraunhofer.iosb.ilt.sta.settings.PersistenceSettings;
 import de.fraunhofer.iosb.ilt.sta.settings.Settings;
 import de.fraunhofer.iosb.ilt.sta.settings.annotation.DefaultValue;
 import java.sql.Connection;
@@ -25,6 +26,7 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Properties;
 import javax.inject.Provider;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -79,6 +81,41 @@ public class ConnectionUtils implements ConfigDefaults {
         return connection;
     }
 
+    /**
+     * Creates a connection that is not shared through a pool, for long-lived
+     * uses like listening for notifications. When a JNDI data source is
+     * configured, a connection is taken from that data source and is not
+     * returned until it is closed. The connection is in auto-commit mode.
+     *
+     * @param settings The settings, must contain the options for db driver, db
+     * url and username/password, or the name of the data source.
+     * @return A dedicated database connection.
+     * @throws SQLException If the connection could not be made.
+     */
+    public static Connection getDedicatedConnection(Settings settings) throws SQLException {
+        Connection connection;
+        String url = settings.get(TAG_DB_URL, ConnectionUtils.class);
+        if (url.isEmpty()) {
+            connection = setupDataSource(settings).getConnection();
+        } else {
+            String driver = settings.get(TAG_DB_DRIVER, ConnectionUtils.class);
+            if (driver.isEmpty()) {
+                throw new IllegalArgumentException("Property '" + TAG_DB_DRIVER + "' must be non-empty");
+            }
+            try {
+                Class.forName(driver);
+            } catch (ClassNotFoundException exc) {
+                throw new IllegalArgumentException(exc);
+            }
+            Properties properties = getStatementProperties(settings);
+            properties.setProperty("user", settings.get(TAG_DB_USERNAME, ConnectionUtils.class));
+            properties.setProperty("password", settings.get(TAG_DB_PASSWRD, ConnectionUtils.class));
+            connection = DriverManager.getConnection(url, properties);
+        }
+        connection.setAutoCommit(true);
+        return connection;
+    }
+
     /**
      * Creates a connection, setting up a new pool if needed.
      *
@@ -126,12 +163,35 @@ public class ConnectionUtils implements ConfigDefaults {
             ds.setMaxIdle(settings.getInt(TAG_DB_MAXIDLE, ds.getMaxIdle()));
             ds.setMaxTotal(settings.getInt(TAG_DB_MAXCONN, ds.getMaxTotal()));
             ds.setMinIdle(settings.getInt(TAG_DB_MINIDLE, ds.getMinIdle()));
+            for (Map.Entry<Object, Object> entry : getStatementProperties(settings).entrySet()) {
+                ds.addConnectionProperty(entry.getKey().toString(), entry.getValue().toString());
+            }
             return new ConnectionSourceBasicDataSource(ds);
         } catch (ClassNotFoundException exc) {
             throw new IllegalArgumentException(exc);
         }
     }
 
+    /**
+     * The driver properties for server-side prepared statements, from the
+     * persistence settings prepareThreshold, preparedStatementCacheQueries
+     * and preparedStatementCacheSizeMiB.
+     *
+     * When a JNDI data source is used, these have to be set in the
+     * connectionProperties of the data source instead.
+     *
+     * @param settings The persistence settings to read the values from.
+     * @return The driver properties.
+     */
+    private static Properties getStatementProperties(Settings settings) {
+        PersistenceSettings persistenceSettings = new PersistenceSettings(settings);
+        Properties properties = new Properties();
+        properties.setProperty("prepareThreshold", Integer.toString(persistenceSettings.getPrepareThreshold()));
+        properties.setProperty("preparedStatementCacheQueries", Integer.toString(persistenceSettings.getPreparedStatementCacheQueries()));
+        properties.setProperty("preparedStatementCacheSizeMiB", Integer.toString(persistenceSettings.getPreparedStatementCacheSizeMiB()));
+        return properties;
+    }
+
     private static ConnectionSource setupDataSource(Settings settings) {
         LOGGER.info("Setting up DataSource for database connections.");
         try {
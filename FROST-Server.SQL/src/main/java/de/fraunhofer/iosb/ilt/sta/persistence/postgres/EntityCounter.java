@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.querydsl.core.QueryFlag;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.PathBuilder;
+import com.querydsl.core.types.dsl.Wildcard;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.SQLQueryFactory;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.settings.PersistenceSettings;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calculates the $count of entity sets, using the strategy configured in the
+ * persistence setting "countMode". An exact count has to visit all rows of the
+ * set, which is very slow for large tables. The other modes trade accuracy
+ * for speed, and mark their counts as estimated.
+ *
+ * @author scf
+ */
+public class EntityCounter {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityCounter.class);
+
+    /**
+     * The possible count modes.
+     */
+    public enum CountMode {
+        /**
+         * Always count all rows.
+         */
+        EXACT,
+        /**
+         * Use the row estimate of the query planner for requests without a
+         * $filter, if that estimate is above the countLimit. Counts that are
+         * below the countLimit, and requests with a $filter, are counted like
+         * CAPPED.
+         */
+        ESTIMATED,
+        /**
+         * Count up to countLimit rows.
+         */
+        CAPPED,
+        /**
+         * Count all rows, and cache the result for countCacheTtl seconds.
+         */
+        CACHED;
+
+        private static final Map<String, CountMode> ALIASES;
+
+        static {
+            Map<String, CountMode> aliases = new HashMap<>();
+            for (CountMode mode : CountMode.values()) {
+                aliases.put(mode.name().toLowerCase(), mode);
+            }
+            ALIASES = Collections.unmodifiableMap(aliases);
+        }
+
+        public static CountMode findMode(String input) {
+            return ALIASES.get(input.toLowerCase());
+        }
+    }
+
+    /**
+     * The result of a count.
+     */
+    public static class Count {
+
+        private final long value;
+        private final boolean estimated;
+
+        public Count(long value, boolean estimated) {
+            this.value = value;
+            this.estimated = estimated;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        /**
+         * @return true if the value is not the exact number of rows.
+         */
+        public boolean isEstimated() {
+            return estimated;
+        }
+    }
+
+    private static class CachedCount {
+
+        private final long value;
+        private final long expires;
+
+        public CachedCount(long value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private static final int CACHE_MAX_SIZE = 1000;
+    private static final Map<String, CachedCount> COUNT_CACHE = new ConcurrentHashMap<>();
+
+    private final Supplier<SQLQueryFactory> queryFactory;
+    private final CountMode countMode;
+    private final long countLimit;
+    private final long countCacheTtl;
+
+    public EntityCounter(PostgresPersistenceManager pm) {
+        this(pm.getCoreSettings().getPersistenceSettings(), pm::createQueryFactory);
+    }
+
+    /**
+     * @param settings The settings to take the count mode from.
+     * @param queryFactory The query factory to use for the capped counts.
+     */
+    EntityCounter(PersistenceSettings settings, Supplier<SQLQueryFactory> queryFactory) {
+        this.queryFactory = queryFactory;
+        String mode = settings.getCountMode();
+        countMode = CountMode.findMode(mode);
+        if (countMode == null) {
+            String error = "Unknown countMode: " + mode + ".";
+            LOGGER.error(error);
+            throw new IllegalArgumentException(error);
+        }
+        countLimit = settings.getCountLimit();
+        countCacheTtl = settings.getCountCacheTtl() * 1000L;
+    }
+
+    /**
+     * Counts the rows returned by the given query. The query is modified.
+     *
+     * @param countQuery The query to count the rows of, selecting only the
+     * primary key.
+     * @param path The path of the request.
+     * @param query The query of the request.
+     * @return The count.
+     */
+    public Count count(SQLQuery<Tuple> countQuery, ResourcePath path, Query query) {
+        countQuery.getMetadata().clearOrderBy();
+        countQuery.restrict(QueryModifiers.EMPTY);
+        switch (countMode) {
+            case ESTIMATED:
+                return countEstimated(countQuery, query);
+
+            case CAPPED:
+                return countCapped(countQuery);
+
+            case CACHED:
+                return countCached(countQuery, path, query);
+
+            case EXACT:
+            default:
+                return new Count(countQuery.fetchCount(), false);
+        }
+    }
+
+    private Count countEstimated(SQLQuery<Tuple> countQuery, Query query) {
+        if (query.getFilter() == null) {
+            long estimate = planRows(countQuery);
+            if (estimate > countLimit) {
+                return new Count(estimate, true);
+            }
+        }
+        return countCapped(countQuery);
+    }
+
+    private Count countCapped(SQLQuery<Tuple> countQuery) {
+        countQuery.limit(countLimit + 1);
+        Long count = queryFactory.get()
+                .select(Wildcard.count)
+                .from(countQuery, new PathBuilder<>(Object.class, "counted"))
+                .fetchOne();
+        if (count == null) {
+            return new Count(0, false);
+        }
+        if (count > countLimit) {
+            return new Count(countLimit, true);
+        }
+        return new Count(count, false);
+    }
+
+    private Count countCached(SQLQuery<Tuple> countQuery, ResourcePath path, Query query) {
+        StringBuilder key = new StringBuilder(path.toString());
+        if (query.getFilter() != null) {
+            key.append("?$filter=").append(query.getFilter().toUrl());
+        }
+        String cacheKey = key.toString();
+        long now = System.currentTimeMillis();
+        CachedCount cached = COUNT_CACHE.get(cacheKey);
+        if (cached != null && cached.expires > now) {
+            return new Count(cached.value, true);
+        }
+        long count = countQuery.fetchCount();
+        if (COUNT_CACHE.size() >= CACHE_MAX_SIZE) {
+            purgeCache(now);
+        }
+        COUNT_CACHE.put(cacheKey, new CachedCount(count, now + countCacheTtl));
+        return new Count(count, false);
+    }
+
+    private static void purgeCache(long now) {
+        for (Iterator<CachedCount> it = COUNT_CACHE.values().iterator(); it.hasNext();) {
+            if (it.next().expires <= now) {
+                it.remove();
+            }
+        }
+        if (COUNT_CACHE.size() >= CACHE_MAX_SIZE) {
+            LOGGER.debug("Count cache full, clearing.");
+            COUNT_CACHE.clear();
+        }
+    }
+
+    /**
+     * Asks the query planner how many rows the given query returns.
+     *
+     * @param countQuery The query to explain.
+     * @return The estimated number of rows, or -1 if there is no estimate.
+     */
+    private static long planRows(SQLQuery<Tuple> countQuery) {
+        SQLQuery<Tuple> explain = countQuery.clone();
+        explain.addFlag(QueryFlag.Position.START, "EXPLAIN (FORMAT JSON) ");
+        ResultSet results = explain.getResults();
+        try {
+            Statement statement = results.getStatement();
+            try {
+                if (!results.next()) {
+                    return -1;
+                }
+                JsonNode plan = EntityFactories.getFormatter().readTree(results.getString(1));
+                return plan.path(0).path("Plan").path("Plan Rows").asLong(-1);
+            } finally {
+                results.close();
+                statement.close();
+            }
+        } catch (SQLException | IOException ex) {
+            LOGGER.warn("Failed to get row estimate.", ex);
+            return -1;
+        }
+    }
+
+}
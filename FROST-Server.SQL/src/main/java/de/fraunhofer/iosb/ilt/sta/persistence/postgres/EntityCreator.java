@@ -18,9 +18,10 @@
 package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.mysema.commons.lang.CloseableIterator;
 import com.querydsl.core.Tuple;
 import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.StatementOptions;
+import de.fraunhofer.iosb.ilt.sta.formatter.EntitySetWriter;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
 import de.fraunhofer.iosb.ilt.sta.model.core.NavigableElement;
@@ -28,6 +29,7 @@ import de.fraunhofer.iosb.ilt.sta.path.CustomPropertyArrayIndex;
 import de.fraunhofer.iosb.ilt.sta.path.CustomPropertyPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
 import de.fraunhofer.iosb.ilt.sta.path.PropertyPathElement;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
@@ -37,7 +39,11 @@ import de.fraunhofer.iosb.ilt.sta.persistence.postgres.factories.EntityFactory;
 import de.fraunhofer.iosb.ilt.sta.query.Expand;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.util.UrlHelper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.slf4j.Logger;
@@ -53,6 +59,11 @@ public class EntityCreator implements ResourcePathVisitor {
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(EntityCreator.class);
+    /**
+     * The number of entities to load, expand and write at a time when
+     * streaming.
+     */
+    private static final int STREAM_BATCH_SIZE = 100;
     private final PostgresPersistenceManager pm;
     private final ResourcePath path;
     private final Query query;
@@ -63,6 +74,10 @@ public class EntityCreator implements ResourcePathVisitor {
      * $value, then the resultObject is encapsulated in a Map, using this key.
      */
     private String entityName;
+    /**
+     * The number of entities loaded by the main query.
+     */
+    private long entityCount;
 
     /**
      *
@@ -92,6 +107,13 @@ public class EntityCreator implements ResourcePathVisitor {
         return entityName;
     }
 
+    /**
+     * @return The number of entities loaded by the main query.
+     */
+    public long getEntityCount() {
+        return entityCount;
+    }
+
     @Override
     public void visit(EntityPathElement element) {
         sqlQuery.limit(2);
@@ -112,37 +134,33 @@ public class EntityCreator implements ResourcePathVisitor {
         }
         expandEntity(entity, query);
         resultObject = entity;
+        entityCount = 1;
     }
 
     private void expandEntity(Entity entity, Query query) {
-        if (query == null) {
+        List<Entity> entities = new ArrayList<>();
+        entities.add(entity);
+        expandEntities(entities, query);
+    }
+
+    /**
+     * Expands the given entities. Each navigation property is loaded for all
+     * entities at once, instead of for each entity separately.
+     *
+     * @param entities The entities to expand.
+     * @param query The query, holding the expands to execute.
+     */
+    private void expandEntities(List<Entity> entities, Query query) {
+        if (query == null || entities.isEmpty()) {
             return;
         }
         for (Expand expand : query.getExpand()) {
-            addExpandToEntity(entity, expand, query);
+            addExpandToEntities(entities, expand, query);
         }
     }
 
-    private void addExpandToEntity(Entity entity, Expand expand, Query query1) {
-        ResourcePath ePath = new ResourcePath(path.getServiceRootUrl(), null);
-        ResourcePathElement parentCollection = new EntitySetPathElement(entity.getEntityType(), null);
-        ePath.addPathElement(parentCollection, false, false);
-        ResourcePathElement parent = new EntityPathElement(entity.getId(), entity.getEntityType(), parentCollection);
-        ePath.addPathElement(parent, false, true);
+    private void addExpandToEntities(List<Entity> entities, Expand expand, Query query1) {
         NavigationProperty firstNp = expand.getPath().get(0);
-        NavigableElement existing = null;
-        Object o = entity.getProperty(firstNp);
-        if (o instanceof NavigableElement) {
-            existing = (NavigableElement) o;
-        }
-        if (firstNp.isSet) {
-            EntitySetPathElement child = new EntitySetPathElement(firstNp.type, parent);
-            ePath.addPathElement(child, true, false);
-        } else {
-            EntityPathElement child = new EntityPathElement(null, firstNp.type, parent);
-            ePath.addPathElement(child, true, false);
-        }
-        Object child;
         Query subQuery;
         if (expand.getPath().size() == 1) {
             // This was the last element in the expand path. The query is for this element.
@@ -162,22 +180,65 @@ public class EntityCreator implements ResourcePathVisitor {
                 subQuery.setCount(query1.isCountOrDefault());
             }
         }
-        if (existing == null || !existing.isExportObject()) {
-            child = pm.get(ePath, subQuery);
-            entity.setProperty(firstNp, child);
-        } else if (existing instanceof EntitySet) {
-            expandEntitySet((EntitySet) existing, subQuery);
-        } else if (existing instanceof Entity) {
-            expandEntity((Entity) existing, subQuery);
+
+        List<Entity> existingEntities = new ArrayList<>();
+        Map<EntityType, Map<Object, List<Entity>>> toLoad = new EnumMap<>(EntityType.class);
+        for (Entity entity : entities) {
+            NavigableElement existing = null;
+            Object o = entity.getProperty(firstNp);
+            if (o instanceof NavigableElement) {
+                existing = (NavigableElement) o;
+            }
+            if (existing == null || !existing.isExportObject()) {
+                toLoad.computeIfAbsent(entity.getEntityType(), t -> new LinkedHashMap<>())
+                        .computeIfAbsent(entity.getId().asBasicPersistenceType(), t -> new ArrayList<>())
+                        .add(entity);
+            } else if (existing instanceof EntitySet) {
+                for (Object subEntity : (EntitySet) existing) {
+                    if (subEntity instanceof Entity) {
+                        existingEntities.add((Entity) subEntity);
+                    }
+                }
+            } else if (existing instanceof Entity) {
+                existingEntities.add((Entity) existing);
+            }
+        }
+        expandEntities(existingEntities, subQuery);
+
+        ExpandLoader loader = new ExpandLoader(pm, path.getServiceRootUrl());
+        for (Map.Entry<EntityType, Map<Object, List<Entity>>> entry : toLoad.entrySet()) {
+            List<Entity> loaded = loader.load(entry.getKey(), firstNp, entry.getValue(), subQuery);
+            if (loaded == null) {
+                for (List<Entity> parents : entry.getValue().values()) {
+                    for (Entity parent : parents) {
+                        addExpandToEntity(parent, firstNp, subQuery);
+                    }
+                }
+            } else {
+                expandEntities(loaded, subQuery);
+            }
         }
     }
 
-    private void expandEntitySet(EntitySet entitySet, Query subQuery) {
-        for (Object subEntity : entitySet) {
-            if (subEntity instanceof Entity) {
-                expandEntity((Entity) subEntity, subQuery);
-            }
+    /**
+     * Loads the navigation property of a single entity. Used when the expand
+     * can not be loaded for many entities at once.
+     */
+    private void addExpandToEntity(Entity entity, NavigationProperty firstNp, Query subQuery) {
+        ResourcePath ePath = new ResourcePath(path.getServiceRootUrl(), null);
+        ResourcePathElement parentCollection = new EntitySetPathElement(entity.getEntityType(), null);
+        ePath.addPathElement(parentCollection, false, false);
+        ResourcePathElement parent = new EntityPathElement(entity.getId(), entity.getEntityType(), parentCollection);
+        ePath.addPathElement(parent, false, true);
+        if (firstNp.isSet) {
+            EntitySetPathElement child = new EntitySetPathElement(firstNp.type, parent);
+            ePath.addPathElement(child, true, false);
+        } else {
+            EntityPathElement child = new EntityPathElement(null, firstNp.type, parent);
+            ePath.addPathElement(child, true, false);
         }
+        Object child = pm.get(ePath, subQuery);
+        entity.setProperty(firstNp, child);
     }
 
     @Override
@@ -189,44 +250,171 @@ public class EntityCreator implements ResourcePathVisitor {
         int skip = query.getSkip(0);
         sqlQuery.offset(skip);
 
+        EntityFactory factory;
+        factory = pm.getEntityFactories().getFactoryFor(element.getEntityType());
+
+        // The count must be taken before the skiptoken limits the query.
+        SQLQuery<Tuple> countQuery = null;
+        if (query.isCountOrDefault()) {
+            countQuery = sqlQuery.clone();
+            countQuery.select(factory.getPrimaryKey());
+        }
+        addSkipTokenFilter();
+
         long start = System.currentTimeMillis();
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("Query: {}", sqlQuery.getSQL().getSQL());
         }
-        CloseableIterator<Tuple> results = sqlQuery.iterate();
+        KeysetPagination.LastTupleIterator results = new KeysetPagination.LastTupleIterator(sqlQuery.iterate());
         if (LOGGER.isDebugEnabled()) {
             long end = System.currentTimeMillis();
             LOGGER.debug("Query executed in {} ms.", end - start);
         }
 
-        EntityFactory factory;
-        factory = pm.getEntityFactories().getFactoryFor(element.getEntityType());
         EntitySet<? extends Entity> entitySet = pm.getEntityFactories().createSetFromTuples(factory, results, query, pm.getCoreSettings().getDataSizeMax());
 
         if (entitySet == null) {
             throw new IllegalStateException("Empty set!");
         }
 
+        if (countQuery != null) {
+            EntityCounter.Count count = new EntityCounter(pm).count(countQuery, path, query);
+            entitySet.setCount(count.getValue());
+            entitySet.setCountEstimated(count.isEstimated());
+        }
+
+        int entityCount = entitySet.size();
+        boolean hasMore = results.hasNext();
+        if (entityCount < top && hasMore) {
+            // The loading was aborted, probably due to size constraints.
+            query.setTop(entityCount);
+        }
+        if (hasMore) {
+            entitySet.setNextLink(generateNextLink(results.getLast()));
+        }
+        expandEntities(new ArrayList<>(entitySet), query);
+        resultObject = entitySet;
+        this.entityCount = entityCount;
+    }
+
+    private boolean isKeysetPagination() {
+        return pm.getCoreSettings().getPersistenceSettings().isKeysetPagination();
+    }
+
+    private void addSkipTokenFilter() {
+        String skipToken = query.getSkipToken();
+        if (skipToken == null) {
+            return;
+        }
+        if (!isKeysetPagination()) {
+            throw new IllegalArgumentException("$skiptoken is not supported by this server.");
+        }
+        KeysetPagination.addTokenFilter(sqlQuery, skipToken);
+    }
+
+    /**
+     * Generates the nextLink. When using keyset pagination, and the $orderby
+     * allows it, the nextLink has a $skiptoken pointing to the last row.
+     * Otherwise it advances the $skip.
+     *
+     * @param lastTuple The last row returned in the current page.
+     * @return The nextLink.
+     */
+    private String generateNextLink(Tuple lastTuple) {
+        if (isKeysetPagination() && lastTuple != null) {
+            String skipToken = KeysetPagination.createToken(sqlQuery, lastTuple);
+            if (skipToken != null) {
+                return UrlHelper.generateNextLink(path, query, skipToken);
+            }
+            if (query.getSkipToken() != null) {
+                throw new IllegalArgumentException("The $orderby of the request can not be used with a $skiptoken.");
+            }
+        }
+        return UrlHelper.generateNextLink(path, query);
+    }
+
+    /**
+     * Loads the entity set and passes the entities to the given writer as they
+     * are read from the database. Expands are loaded per batch of
+     * {@link #STREAM_BATCH_SIZE} entities.
+     *
+     * @param element The path element of the set to load.
+     * @param writer The writer to pass the entities to.
+     * @throws IOException If the writer fails.
+     */
+    public void stream(EntitySetPathElement element, EntitySetWriter writer) throws IOException {
+        int top = query.getTopOrDefault();
+        sqlQuery.limit(1l + top);
+
+        int skip = query.getSkip(0);
+        sqlQuery.offset(skip);
+
+        EntityFactory factory;
+        factory = pm.getEntityFactories().getFactoryFor(element.getEntityType());
+
+        long count = -1;
+        boolean countEstimated = false;
         if (query.isCountOrDefault()) {
             SQLQuery<Tuple> countQuery = sqlQuery.clone();
             countQuery.select(factory.getPrimaryKey());
-            int count = (int) countQuery.fetchCount();
-            entitySet.setCount(count);
+            EntityCounter.Count result = new EntityCounter(pm).count(countQuery, path, query);
+            count = result.getValue();
+            countEstimated = result.isEstimated();
         }
+        addSkipTokenFilter();
 
-        int entityCount = entitySet.size();
-        boolean hasMore = results.hasNext();
+        sqlQuery.setStatementOptions(StatementOptions.builder().setFetchSize(STREAM_BATCH_SIZE).build());
+        long start = System.currentTimeMillis();
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Query: {}", sqlQuery.getSQL().getSQL());
+        }
+        KeysetPagination.LastTupleIterator results = new KeysetPagination.LastTupleIterator(sqlQuery.iterate());
+        if (LOGGER.isDebugEnabled()) {
+            long end = System.currentTimeMillis();
+            LOGGER.debug("Query executed in {} ms.", end - start);
+        }
+
+        long maxDataSize = pm.getCoreSettings().getDataSizeMax();
+        DataSize size = new DataSize();
+        List<Entity> batch = new ArrayList<>(STREAM_BATCH_SIZE);
+        int entityCount = 0;
+        boolean hasMore;
+        try {
+            // The count and the query are done, only now the response is
+            // started, so errors caused by the request do not end up in a
+            // partially written response.
+            writer.writeStart(count, countEstimated);
+            while (results.hasNext() && entityCount < top && size.getDataSize() <= maxDataSize) {
+                batch.add(factory.create(results.next(), query, size));
+                entityCount++;
+                if (batch.size() >= STREAM_BATCH_SIZE) {
+                    writeBatch(batch, writer);
+                }
+            }
+            writeBatch(batch, writer);
+            hasMore = results.hasNext();
+        } finally {
+            results.close();
+        }
+
+        String nextLink = null;
         if (entityCount < top && hasMore) {
             // The loading was aborted, probably due to size constraints.
             query.setTop(entityCount);
         }
         if (hasMore) {
-            entitySet.setNextLink(UrlHelper.generateNextLink(path, query));
+            nextLink = generateNextLink(results.getLast());
         }
-        for (Entity e : entitySet) {
-            expandEntity(e, query);
+        writer.writeEnd(nextLink);
+        this.entityCount = entityCount;
+    }
+
+    private void writeBatch(List<Entity> batch, EntitySetWriter writer) throws IOException {
+        expandEntities(batch, query);
+        for (Entity entity : batch) {
+            writer.writeEntity(entity);
         }
-        resultObject = entitySet;
+        batch.clear();
     }
 
     @Override
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the ids of entities that are known to exist, so that the checks
+ * done when linking Observations to their Datastream, MultiDatastream and
+ * FeatureOfInterest do not need to query the database each time.
+ *
+ * The cache is kept up to date with the delete and update messages from the
+ * message bus, so that deletes on other nodes are also seen. Since deleting
+ * a Thing, Sensor or ObservedProperty cascades to the (Multi)Datastreams,
+ * deleting one of those clears the (Multi)Datastream caches.
+ *
+ * @author scf
+ */
+public class EntityExistenceCache implements MessageListener {
+
+    /**
+     * The types of which existence is cached.
+     */
+    private static final Set<EntityType> CACHED_TYPES = EnumSet.of(
+            EntityType.DATASTREAM,
+            EntityType.MULTIDATASTREAM,
+            EntityType.FEATUREOFINTEREST);
+    /**
+     * The types of which the entities are deleted, when an entity of the key
+     * type is deleted.
+     */
+    private static final Map<EntityType, Set<EntityType>> CASCADES = new EnumMap<>(EntityType.class);
+
+    static {
+        CASCADES.put(EntityType.THING, EnumSet.of(EntityType.DATASTREAM, EntityType.MULTIDATASTREAM));
+        CASCADES.put(EntityType.SENSOR, EnumSet.of(EntityType.DATASTREAM, EntityType.MULTIDATASTREAM));
+        CASCADES.put(EntityType.OBSERVEDPROPERTY, EnumSet.of(EntityType.DATASTREAM, EntityType.MULTIDATASTREAM));
+    }
+
+    private final Map<EntityType, Map<Object, Boolean>> caches = new EnumMap<>(EntityType.class);
+
+    /**
+     * @param maxSize The maximum number of ids to keep, per entity type. If 0
+     * or less, nothing is cached.
+     */
+    public EntityExistenceCache(int maxSize) {
+        if (maxSize > 0) {
+            for (EntityType type : CACHED_TYPES) {
+                caches.put(type, Collections.synchronizedMap(new LruMap<>(maxSize)));
+            }
+        }
+    }
+
+    /**
+     * Checks if the entity with the given type and id is known to exist.
+     *
+     * @param type The type of the entity.
+     * @param id The id value of the entity.
+     * @return true if the entity is known to exist, false if it is not known.
+     */
+    public boolean contains(EntityType type, Object id) {
+        Map<Object, Boolean> cache = caches.get(type);
+        return cache != null && cache.containsKey(id);
+    }
+
+    /**
+     * Registers that the entity with the given type and id exists.
+     *
+     * @param type The type of the entity.
+     * @param id The id value of the entity.
+     */
+    public void add(EntityType type, Object id) {
+        Map<Object, Boolean> cache = caches.get(type);
+        if (cache != null) {
+            cache.put(id, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Removes the entity with the given type and id from the cache.
+     *
+     * @param type The type of the entity.
+     * @param id The id value of the entity.
+     */
+    public void remove(EntityType type, Object id) {
+        Map<Object, Boolean> cache = caches.get(type);
+        if (cache != null) {
+            cache.remove(id);
+        }
+    }
+
+    /**
+     * Registers that the entity with the given type and id was deleted,
+     * together with all entities that depend on it.
+     *
+     * @param type The type of the entity.
+     * @param id The id value of the entity.
+     */
+    public void entityDeleted(EntityType type, Object id) {
+        remove(type, id);
+        clearCascades(type);
+    }
+
+    /**
+     * Registers that an unknown set of entities of the given type was deleted.
+     *
+     * @param type The type of the deleted entities.
+     */
+    public void entitiesDeleted(EntityType type) {
+        clear(type);
+        clearCascades(type);
+    }
+
+    private void clearCascades(EntityType type) {
+        Set<EntityType> cascades = CASCADES.get(type);
+        if (cascades != null) {
+            for (EntityType cascade : cascades) {
+                clear(cascade);
+            }
+        }
+    }
+
+    private void clear(EntityType type) {
+        Map<Object, Boolean> cache = caches.get(type);
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        Entity entity = message.getEntity();
+        if (entity == null || entity.getId() == null) {
+            return;
+        }
+        switch (message.getEventType()) {
+            case DELETE:
+                entityDeleted(message.getEntityType(), entity.getId().getValue());
+                break;
+
+            case UPDATE:
+                remove(message.getEntityType(), entity.getId().getValue());
+                break;
+
+            default:
+                // Created entities are added when they are first checked.
+        }
+    }
+
+}
@@ -34,6 +34,9 @@ import com.querydsl.sql.SQLQueryFactory;
 import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
 import de.fraunhofer.iosb.ilt.sta.json.deserialize.custom.GeoJsonDeserializier;
 import de.fraunhofer.iosb.ilt.sta.json.serialize.GeoJsonSerializer;
+import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageBusFactory;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
 import de.fraunhofer.iosb.ilt.sta.model.FeatureOfInterest;
 import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
@@ -73,7 +76,10 @@ import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQ
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQThings;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQThingsLocations;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.QCollection;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.QueryStatistics;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.sta.settings.PersistenceSettings;
 import de.fraunhofer.iosb.ilt.sta.util.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.NoSuchEntityException;
 import java.io.IOException;
@@ -132,6 +138,9 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
     public final ObservedPropertyFactory<I, J> observedPropertyFactory;
 
     private final Map<EntityType, EntityFactory<? extends Entity, I, J>> factoryPerEntity = new EnumMap<>(EntityType.class);
+    private volatile EntityExistenceCache existenceCache;
+    private GeneratedFoiCache generatedFoiCache;
+    private volatile QueryStatistics queryStatistics;
 
     public EntityFactories(IdManager<J> idManager, QCollection<I, J> qCollection) {
         this.idManager = idManager;
@@ -164,6 +173,100 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
         return qCollection;
     }
 
+    /**
+     * Get the cache of entities known to exist. It is created on first use,
+     * and registered on the message bus to hear about deletes.
+     *
+     * @param pm The persistence manager to get the settings from.
+     * @return The existence cache.
+     */
+    public EntityExistenceCache getExistenceCache(PostgresPersistenceManager<I, J> pm) {
+        if (existenceCache == null) {
+            initCaches(pm.getCoreSettings());
+        }
+        return existenceCache;
+    }
+
+    /**
+     * Get the cache of FeaturesOfInterest generated for (Multi)Datastreams.
+     * It is created on first use, and registered on the message bus to hear
+     * about changes.
+     *
+     * @param pm The persistence manager to get the settings from.
+     * @return The generated FeatureOfInterest cache.
+     */
+    public GeneratedFoiCache getGeneratedFoiCache(PostgresPersistenceManager<I, J> pm) {
+        if (existenceCache == null) {
+            initCaches(pm.getCoreSettings());
+        }
+        return generatedFoiCache;
+    }
+
+    /**
+     * Get the statistics of the executed query shapes. They are created on
+     * first use.
+     *
+     * @param pm The persistence manager to get the settings from.
+     * @return The query statistics.
+     */
+    public QueryStatistics getQueryStatistics(PostgresPersistenceManager<I, J> pm) {
+        if (queryStatistics == null) {
+            initQueryStatistics(pm.getCoreSettings());
+        }
+        return queryStatistics;
+    }
+
+    private synchronized void initQueryStatistics(CoreSettings settings) {
+        if (queryStatistics == null) {
+            queryStatistics = new QueryStatistics(settings.getPersistenceSettings().getQueryStatisticsSize());
+        }
+    }
+
+    private synchronized void initCaches(CoreSettings settings) {
+        if (existenceCache != null) {
+            return;
+        }
+        PersistenceSettings persistenceSettings = settings.getPersistenceSettings();
+        EntityExistenceCache newExistenceCache = new EntityExistenceCache(persistenceSettings.getExistenceCacheSize());
+        GeneratedFoiCache newFoiCache = new GeneratedFoiCache(persistenceSettings.getGeneratedFoiCacheSize());
+        try {
+            MessageBus messageBus = MessageBusFactory.getMessageBus();
+            messageBus.addMessageListener(newExistenceCache);
+            messageBus.addMessageListener(newFoiCache);
+        } catch (IllegalStateException ex) {
+            LOGGER.warn("No message bus available, can not cache entity existence and generated FeaturesOfInterest.");
+            LOGGER.trace("No message bus.", ex);
+            newExistenceCache = new EntityExistenceCache(0);
+            newFoiCache = new GeneratedFoiCache(0);
+        }
+        generatedFoiCache = newFoiCache;
+        existenceCache = newExistenceCache;
+    }
+
+    /**
+     * Updates the caches after an entity is deleted locally, without waiting
+     * for the message bus.
+     *
+     * @param pm The persistence manager to get the settings from.
+     * @param type The type of the deleted entity.
+     * @param id The id value of the deleted entity.
+     */
+    public void entityDeleted(PostgresPersistenceManager<I, J> pm, EntityType type, Object id) {
+        getExistenceCache(pm).entityDeleted(type, id);
+        getGeneratedFoiCache(pm).entityChanged(EntityChangedMessage.Type.DELETE, type, id);
+    }
+
+    /**
+     * Updates the caches after an unknown set of entities is deleted locally.
+     *
+     * @param pm The persistence manager to get the settings from.
+     * @param type The type of the deleted entities.
+     */
+    public void entitiesDeleted(PostgresPersistenceManager<I, J> pm, EntityType type) {
+        getExistenceCache(pm).entitiesDeleted(type);
+        getGeneratedFoiCache(pm).entityChanged(EntityChangedMessage.Type.DELETE, type, null);
+    }
+
     public <T extends Entity<T>> EntitySet<T> createSetFromTuples(EntityFactory<T, I, J> factory, CloseableIterator<Tuple> tuples, Query query, long maxDataSize) {
         EntitySet<T> entitySet = new EntitySetImpl<>(factory.getEntityType());
         int count = 0;
@@ -293,6 +396,13 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
 
     public FeatureOfInterest generateFeatureOfInterest(PostgresPersistenceManager<I, J> pm, Id datastreamId, boolean isMultiDatastream) throws NoSuchEntityException, IncompleteEntityException {
         J dsId = (J) datastreamId.getValue();
+        GeneratedFoiCache foiCache = getGeneratedFoiCache(pm);
+        J cachedFoiId = (J) foiCache.get(dsId, isMultiDatastream);
+        if (cachedFoiId != null) {
+            FeatureOfInterest foi = new FeatureOfInterest();
+            foi.setId(idFromObject(cachedFoiId));
+            return foi;
+        }
         SQLQueryFactory qf = pm.createQueryFactory();
         AbstractQLocations<? extends AbstractQLocations, I, J> ql = qCollection.qLocations;
         AbstractQThingsLocations<? extends AbstractQThingsLocations, I, J> qtl = qCollection.qThingsLocations;
@@ -337,6 +447,8 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
         if (genFoiId != null) {
             foi = new FeatureOfInterest();
             foi.setId(idFromObject(genFoiId));
+            final J cacheFoiId = genFoiId;
+            pm.runAfterCommit(() -> foiCache.put(dsId, isMultiDatastream, cacheFoiId));
         } else if (locationId != null) {
             query = qf.select(ql.getId(), ql.encodingType, ql.location)
                     .from(ql)
@@ -362,6 +474,9 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
                     .set(ql.getGenFoiId(), (J) foi.getId().getValue())
                     .where(ql.getId().eq(locationId))
                     .execute();
+            // Only cache the new foi once it is committed, a rollback would
+            // otherwise leave the cache pointing at a foi that does not exist.
+            pm.runAfterCommit(() -> foiCache.put(dsId, isMultiDatastream, foiId));
             LOGGER.debug("Generated foi {} from Location {}.", foiId, locationId);
         } else {
             // Can not generate foi from Thing with no locations.
@@ -422,6 +537,10 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
             return false;
         }
         J id = (J) e.getId().getValue();
+        EntityExistenceCache cache = getExistenceCache(pm);
+        if (cache.contains(e.getEntityType(), id)) {
+            return true;
+        }
         SQLQueryFactory qFactory = pm.createQueryFactory();
         long count = 0;
         switch (e.getEntityType()) {
@@ -503,7 +622,13 @@ public class EntityFactories<I extends SimpleExpression<J> & Path<J>, J> {
         if (count > 1) {
             LOGGER.error("More than one instance of {} with id {}.", e.getEntityType(), id);
         }
-        return count > 0;
+        if (count > 0) {
+            // The entity may have been created in the current transaction.
+            EntityType type = e.getEntityType();
+            pm.runAfterCommit(() -> cache.add(type, id));
+            return true;
+        }
+        return false;
     }
 
     public boolean entityExists(PostgresPersistenceManager<I, J> pm, ResourcePath path) {
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.dsl.Wildcard;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.sql.SQLExpressions;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.SQLQueryFactory;
+import com.querydsl.sql.WindowFunction;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.sta.model.core.EntitySetImpl;
+import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntitySetPathElement;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePathElement;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.factories.EntityFactory;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.util.UrlHelper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads a navigation property for many entities at once, using one query per
+ * batch of parent entities, instead of one query per parent entity.
+ *
+ * For navigation properties that point to a set, $top and $skip are applied
+ * per parent using a row_number() window. $count is done by a separate query
+ * grouped by parent, since parents with fewer related entities than $skip have
+ * no rows in the windowed result.
+ *
+ * @author scf
+ */
+public class ExpandLoader {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExpandLoader.class);
+    /**
+     * The maximum number of parent IDs to put in one query.
+     */
+    private static final int MAX_PARENTS_PER_QUERY = 500;
+    private static final String ALIAS_BATCH = "b1";
+    private static final String COLUMN_PREFIX = "c";
+    private static final String COLUMN_PARENT = "pid";
+    private static final String COLUMN_ROW_NUMBER = "rn";
+
+    private final PostgresPersistenceManager pm;
+    private final String serviceRootUrl;
+
+    public ExpandLoader(PostgresPersistenceManager pm, String serviceRootUrl) {
+        this.pm = pm;
+        this.serviceRootUrl = serviceRootUrl;
+    }
+
+    /**
+     * Loads the given navigation property for all given parents, and sets it
+     * on the parents.
+     *
+     * @param parentType The entity type of the parents.
+     * @param np The navigation property to load.
+     * @param parents The parents to load the navigation property for, by the
+     * persistence-level ID of the parent. More than one parent can have the
+     * same ID.
+     * @param subQuery The query to use for the related entities.
+     * @return The loaded entities, or null if the query could not be batched
+     * and the navigation property must be loaded for each parent separately.
+     */
+    public List<Entity> load(EntityType parentType, NavigationProperty np, Map<Object, List<Entity>> parents, Query subQuery) {
+        List<Object> allIds = new ArrayList<>(parents.keySet());
+        List<Entity> loaded = new ArrayList<>();
+        for (int start = 0; start < allIds.size(); start += MAX_PARENTS_PER_QUERY) {
+            List<Object> ids = allIds.subList(start, Math.min(start + MAX_PARENTS_PER_QUERY, allIds.size()));
+            ResourcePath ePath = createPath(parentType, null, np);
+
+            SQLQueryFactory qf = pm.createQueryFactory();
+            PathSqlBuilderImp psb = new PathSqlBuilderImp(pm.getPropertyResolver());
+            SQLQuery<Tuple> sqlQuery = psb.buildForExpand(ePath, subQuery, ids, qf, pm.getCoreSettings().getPersistenceSettings());
+            if (sqlQuery == null) {
+                LOGGER.debug("Can not batch expand of {} on {}.", np, parentType);
+                return null;
+            }
+            Path<?> parentIdPath = psb.getExpandParentIdPath();
+            if (np.isSet) {
+                loadSets(parentType, np, parents, ids, subQuery, qf, sqlQuery, parentIdPath, loaded);
+            } else {
+                loadEntities(np, parents, ids, subQuery, sqlQuery, parentIdPath, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    private void loadEntities(NavigationProperty np, Map<Object, List<Entity>> parents, List<Object> ids, Query subQuery, SQLQuery<Tuple> sqlQuery, Path<?> parentIdPath, List<Entity> loaded) {
+        FactoryExpression<?> projection = (FactoryExpression<?>) sqlQuery.getMetadata().getProjection();
+        List<Expression<?>> selection = new ArrayList<>(projection.getArgs());
+        selection.add(parentIdPath);
+        sqlQuery.select(selection.toArray(new Expression<?>[selection.size()]));
+
+        List<Tuple> results = fetch(sqlQuery);
+        EntityFactory factory = pm.getEntityFactories().getFactoryFor(np.type);
+        Map<Object, Entity> entitiesById = new HashMap<>();
+        for (Object parentId : ids) {
+            for (Entity parent : parents.get(parentId)) {
+                parent.setProperty(np, null);
+            }
+        }
+        for (Tuple tuple : results) {
+            Entity entity = factory.create(tuple, subQuery, new DataSize());
+            if (entity == null) {
+                throw new IllegalStateException("Failed to create an entity from result set.");
+            }
+            Entity existing = entitiesById.putIfAbsent(entity.getId().asBasicPersistenceType(), entity);
+            if (existing == null) {
+                loaded.add(entity);
+            } else {
+                entity = existing;
+            }
+            for (Entity parent : parents.get(tuple.get(parentIdPath))) {
+                parent.setProperty(np, entity);
+            }
+        }
+    }
+
+    private void loadSets(EntityType parentType, NavigationProperty np, Map<Object, List<Entity>> parents, List<Object> ids, Query subQuery, SQLQueryFactory qf, SQLQuery<Tuple> sqlQuery, Path<?> parentIdPath, List<Entity> loaded) {
+        int top = subQuery.getTopOrDefault();
+        int skip = subQuery.getSkip(0);
+        boolean count = subQuery.isCountOrDefault();
+        long maxDataSize = pm.getCoreSettings().getDataSizeMax();
+
+        // The ordering of the query moves into the row_number() window.
+        QueryMetadata metadata = sqlQuery.getMetadata();
+        List<OrderSpecifier<?>> orderBy = new ArrayList<>(metadata.getOrderBy());
+        metadata.clearOrderBy();
+        metadata.setDistinct(false);
+
+        Map<Object, Long> counts = null;
+        if (count) {
+            counts = fetchCounts(sqlQuery.clone(), parentIdPath);
+        }
+
+        Path<Object> batch = Expressions.path(Object.class, ALIAS_BATCH);
+        List<Expression<?>> innerSelection = new ArrayList<>();
+        List<Expression<?>> outerSelection = new ArrayList<>();
+        Map<Expression<?>, Integer> indexes = new HashMap<>();
+        FactoryExpression<?> projection = (FactoryExpression<?>) metadata.getProjection();
+        for (Expression<?> expression : projection.getArgs()) {
+            String name = COLUMN_PREFIX + indexes.size();
+            indexes.put(expression, outerSelection.size());
+            innerSelection.add(ExpressionUtils.as(expression, name));
+            outerSelection.add(Expressions.path(expression.getType(), batch, name));
+        }
+
+        innerSelection.add(ExpressionUtils.as(parentIdPath, COLUMN_PARENT));
+        Path<?> outerParentId = Expressions.path(parentIdPath.getType(), batch, COLUMN_PARENT);
+        outerSelection.add(outerParentId);
+
+        WindowFunction<Long> rowNumber = SQLExpressions.rowNumber().over().partitionBy(parentIdPath);
+        if (!orderBy.isEmpty()) {
+            rowNumber.orderBy(orderBy.toArray(new OrderSpecifier<?>[orderBy.size()]));
+        }
+        innerSelection.add(rowNumber.as(COLUMN_ROW_NUMBER));
+        NumberPath<Long> outerRowNumber = Expressions.numberPath(Long.class, batch, COLUMN_ROW_NUMBER);
+        outerSelection.add(outerRowNumber);
+
+        sqlQuery.select(innerSelection.toArray(new Expression<?>[innerSelection.size()]));
+        SQLQuery<Tuple> batchQuery = qf.select(outerSelection.toArray(new Expression<?>[outerSelection.size()]))
+                .from(sqlQuery, batch)
+                .where(outerRowNumber.gt((long) skip), outerRowNumber.loe(1L + skip + top))
+                .orderBy(outerRowNumber.asc());
+        List<Tuple> results = fetch(batchQuery);
+
+        EntityFactory factory = pm.getEntityFactories().getFactoryFor(np.type);
+        Map<Object, EntitySet> sets = new LinkedHashMap<>();
+        Map<Object, DataSize> sizes = new HashMap<>();
+        Set<Object> hasMore = new HashSet<>();
+        for (Object parentId : ids) {
+            EntitySet set = new EntitySetImpl<>(np.type);
+            if (counts != null) {
+                set.setCount(counts.getOrDefault(parentId, 0L));
+            }
+            sets.put(parentId, set);
+            sizes.put(parentId, new DataSize());
+        }
+        for (Tuple tuple : results) {
+            Object parentId = tuple.get(outerParentId);
+            EntitySet set = sets.get(parentId);
+            DataSize size = sizes.get(parentId);
+            if (set.size() >= top || size.getDataSize() > maxDataSize) {
+                hasMore.add(parentId);
+                continue;
+            }
+            Entity entity = factory.create(new ExpandTuple(tuple, indexes), subQuery, size);
+            set.add(entity);
+            loaded.add(entity);
+        }
+
+        for (Map.Entry<Object, EntitySet> entry : sets.entrySet()) {
+            Object parentId = entry.getKey();
+            EntitySet set = entry.getValue();
+            List<Entity> parentList = parents.get(parentId);
+            if (hasMore.contains(parentId)) {
+                set.setNextLink(generateNextLink(parentType, parentList.get(0), np, subQuery, set.size()));
+            }
+            for (Entity parent : parentList) {
+                parent.setProperty(np, set);
+            }
+        }
+    }
+
+    private static Map<Object, Long> fetchCounts(SQLQuery<?> baseQuery, Path<?> parentIdPath) {
+        SQLQuery<Tuple> countQuery = baseQuery.select(parentIdPath, Wildcard.count).groupBy(parentIdPath);
+        Map<Object, Long> counts = new HashMap<>();
+        for (Tuple tuple : fetch(countQuery)) {
+            counts.put(tuple.get(parentIdPath), tuple.get(Wildcard.count));
+        }
+        return counts;
+    }
+
+    private String generateNextLink(EntityType parentType, Entity parent, NavigationProperty np, Query subQuery, int entityCount) {
+        ResourcePath ePath = createPath(parentType, parent, np);
+        int top = subQuery.getTopOrDefault();
+        if (entityCount >= top) {
+            return UrlHelper.generateNextLink(ePath, subQuery);
+        }
+        // The loading was aborted, probably due to size constraints.
+        subQuery.setTop(entityCount);
+        String nextLink = UrlHelper.generateNextLink(ePath, subQuery);
+        subQuery.setTop(top);
+        return nextLink;
+    }
+
+    private ResourcePath createPath(EntityType parentType, Entity parentEntity, NavigationProperty np) {
+        ResourcePath ePath = new ResourcePath(serviceRootUrl, null);
+        ResourcePathElement parentCollection = new EntitySetPathElement(parentType, null);
+        ePath.addPathElement(parentCollection, false, false);
+        ResourcePathElement parent = parentCollection;
+        if (parentEntity != null) {
+            parent = new EntityPathElement(parentEntity.getId(), parentType, parentCollection);
+            ePath.addPathElement(parent, false, true);
+        }
+        if (np.isSet) {
+            ePath.addPathElement(new EntitySetPathElement(np.type, parent), true, false);
+        } else {
+            ePath.addPathElement(new EntityPathElement(null, np.type, parent), true, false);
+        }
+        return ePath;
+    }
+
+    private static List<Tuple> fetch(SQLQuery<Tuple> sqlQuery) {
+        long start = System.currentTimeMillis();
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Expand query: {}", sqlQuery.getSQL().getSQL());
+        }
+        List<Tuple> results = sqlQuery.fetch();
+        if (LOGGER.isDebugEnabled()) {
+            long end = System.currentTimeMillis();
+            LOGGER.debug("Expand query executed in {} ms, {} rows.", end - start, results.size());
+        }
+        return results;
+    }
+
+    /**
+     * A Tuple that maps the expressions of the inner query onto the columns of
+     * the outer batch query, so the entity factories can read it as if it was
+     * the result of the inner query.
+     */
+    private static class ExpandTuple implements Tuple {
+
+        private final Tuple source;
+        private final Map<Expression<?>, Integer> indexes;
+
+        public ExpandTuple(Tuple source, Map<Expression<?>, Integer> indexes) {
+            this.source = source;
+            this.indexes = indexes;
+        }
+
+        @Override
+        public <T> T get(int index, Class<T> type) {
+            return source.get(index, type);
+        }
+
+        @Override
+        public <T> T get(Expression<T> expr) {
+            Integer index = indexes.get(expr);
+            if (index == null) {
+                return null;
+            }
+            return (T) source.get(index, expr.getType());
+        }
+
+        @Override
+        public int size() {
+            return source.size();
+        }
+
+        @Override
+        public Object[] toArray() {
+            return source.toArray();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ExpandTuple)) {
+                return false;
+            }
+            return Arrays.equals(toArray(), ((ExpandTuple) obj).toArray());
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(toArray());
+        }
+    }
+}
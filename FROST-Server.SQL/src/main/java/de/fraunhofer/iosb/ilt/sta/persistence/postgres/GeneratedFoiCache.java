@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
+import de.fraunhofer.iosb.ilt.sta.path.EntityType;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Remembers which FeatureOfInterest was generated for the Observations of a
+ * (Multi)Datastream, so the Locations of the Thing of the (Multi)Datastream do
+ * not have to be looked up for each Observation that has no
+ * FeatureOfInterest.
+ *
+ * The generated FeatureOfInterest depends on the Thing of the
+ * (Multi)Datastream and the Locations of that Thing. Changes to Datastreams
+ * and MultiDatastreams only remove those, other relevant changes clear the
+ * entire cache, since they are rare. The cache listens on the message bus,
+ * so that changes on other nodes are also seen.
+ *
+ * @author scf
+ */
+public class GeneratedFoiCache implements MessageListener {
+
+    private final Map<Object, Object> datastreamFois;
+    private final Map<Object, Object> multiDatastreamFois;
+
+    /**
+     * @param maxSize The maximum number of Datastreams and MultiDatastreams,
+     * each, to keep. If 0 or less, nothing is cached.
+     */
+    public GeneratedFoiCache(int maxSize) {
+        if (maxSize > 0) {
+            datastreamFois = Collections.synchronizedMap(new LruMap<>(maxSize));
+            multiDatastreamFois = Collections.synchronizedMap(new LruMap<>(maxSize));
+        } else {
+            datastreamFois = null;
+            multiDatastreamFois = null;
+        }
+    }
+
+    private Map<Object, Object> getMap(boolean isMultiDatastream) {
+        return isMultiDatastream ? multiDatastreamFois : datastreamFois;
+    }
+
+    /**
+     * Get the id of the FeatureOfInterest generated for the given
+     * (Multi)Datastream.
+     *
+     * @param streamId The id value of the (Multi)Datastream.
+     * @param isMultiDatastream Flag indicating the id is of a
+     * MultiDatastream.
+     * @return The id value of the FeatureOfInterest, or null if not known.
+     */
+    public Object get(Object streamId, boolean isMultiDatastream) {
+        Map<Object, Object> map = getMap(isMultiDatastream);
+        if (map == null) {
+            return null;
+        }
+        return map.get(streamId);
+    }
+
+    /**
+     * Register the id of the FeatureOfInterest generated for the given
+     * (Multi)Datastream.
+     *
+     * @param streamId The id value of the (Multi)Datastream.
+     * @param isMultiDatastream Flag indicating the id is of a
+     * MultiDatastream.
+     * @param foiId The id value of the FeatureOfInterest.
+     */
+    public void put(Object streamId, boolean isMultiDatastream, Object foiId) {
+        Map<Object, Object> map = getMap(isMultiDatastream);
+        if (map != null) {
+            map.put(streamId, foiId);
+        }
+    }
+
+    /**
+     * Remove all cached FeaturesOfInterest.
+     */
+    public void clear() {
+        if (datastreamFois != null) {
+            datastreamFois.clear();
+            multiDatastreamFois.clear();
+        }
+    }
+
+    /**
+     * Process a change to an entity.
+     *
+     * @param eventType The type of change.
+     * @param entityType The type of the changed entity.
+     * @param id The id value of the changed entity, or null if not known.
+     */
+    public void entityChanged(EntityChangedMessage.Type eventType, EntityType entityType, Object id) {
+        if (datastreamFois == null) {
+            return;
+        }
+        switch (entityType) {
+            case DATASTREAM:
+            case MULTIDATASTREAM:
+                if (eventType != EntityChangedMessage.Type.CREATE) {
+                    Map<Object, Object> map = getMap(entityType == EntityType.MULTIDATASTREAM);
+                    if (id == null) {
+                        map.clear();
+                    } else {
+                        map.remove(id);
+                    }
+                }
+                break;
+
+            case THING:
+            case FEATUREOFINTEREST:
+                // New Things have no Datastreams yet, and changed Features
+                // keep their id.
+                if (eventType == EntityChangedMessage.Type.DELETE
+                        || eventType == EntityChangedMessage.Type.UPDATE && entityType == EntityType.THING) {
+                    clear();
+                }
+                break;
+
+            case LOCATION:
+            case HISTORICALLOCATION:
+                clear();
+                break;
+
+            default:
+                // Other entity types do not influence the generated Feature.
+        }
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        Entity entity = message.getEntity();
+        Object id = null;
+        if (entity != null && entity.getId() != null) {
+            id = entity.getId().getValue();
+        }
+        entityChanged(message.getEventType(), message.getEntityType(), id);
+    }
+
+}
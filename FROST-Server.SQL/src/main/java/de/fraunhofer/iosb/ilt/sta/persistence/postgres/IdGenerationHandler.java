@@ -93,6 +93,17 @@ public abstract class IdGenerationHandler {
         }
     }
 
+    /**
+     * Checks if the given idGenerationMode only allows ids generated by the
+     * server.
+     *
+     * @param mode String that contains the idGenerationMode.
+     * @return true if the mode is ServerGeneratedOnly.
+     */
+    public static boolean isServerGeneratedOnly(String mode) {
+        return IdGenerationType.findType(mode) == IdGenerationType.SERVER_GENERATED_ONLY;
+    }
+
     protected Entity getEntity() {
         return entity;
     }
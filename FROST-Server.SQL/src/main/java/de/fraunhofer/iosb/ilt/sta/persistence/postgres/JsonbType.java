@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.types.Path;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.RelationalPath;
+import com.querydsl.sql.types.AbstractType;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.QCollection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Binds String values to jsonb columns. PostgreSQL does not implicitly cast
+ * varchar parameters to jsonb, so the values are sent untyped and the server
+ * parses them.
+ *
+ * @author scf
+ */
+public class JsonbType extends AbstractType<String> {
+
+    public static final JsonbType INSTANCE = new JsonbType();
+
+    public JsonbType() {
+        super(Types.OTHER);
+    }
+
+    @Override
+    public String getValue(ResultSet rs, int startIndex) throws SQLException {
+        return rs.getString(startIndex);
+    }
+
+    @Override
+    public Class<String> getReturnedClass() {
+        return String.class;
+    }
+
+    @Override
+    public void setValue(PreparedStatement st, int startIndex, String value) throws SQLException {
+        st.setObject(startIndex, value, Types.OTHER);
+    }
+
+    /**
+     * Registers this type for all jsonb columns in the given collection.
+     *
+     * @param configuration The configuration to register the type in.
+     * @param qCollection The tables to register the type for.
+     */
+    public static void register(Configuration configuration, QCollection<?, ?> qCollection) {
+        register(configuration, qCollection.qDatastreams.properties);
+        register(configuration, qCollection.qFeatures.properties);
+        register(configuration, qCollection.qLocations.properties);
+        register(configuration, qCollection.qMultiDatastreams.properties);
+        register(configuration, qCollection.qObsProperties.properties);
+        register(configuration, qCollection.qSensors.properties);
+        register(configuration, qCollection.qThings.properties);
+        register(configuration, qCollection.qObservations.parameters);
+        register(configuration, qCollection.qObservations.resultJson);
+        register(configuration, qCollection.qObservations.resultQuality);
+    }
+
+    private static void register(Configuration configuration, Path<?> column) {
+        RelationalPath<?> table = (RelationalPath<?>) column.getMetadata().getParent();
+        configuration.register(table.getTableName(), ColumnMetadata.getName(column), INSTANCE);
+    }
+
+}
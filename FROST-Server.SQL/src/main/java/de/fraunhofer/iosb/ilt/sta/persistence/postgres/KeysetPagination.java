@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.RelationalPath;
+import com.querydsl.sql.SQLQuery;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Keyset (seek) pagination. Instead of skipping the rows of the previous
+ * pages, the nextLink holds a $skiptoken with the values of the $orderby
+ * expressions of the last entity of the page. The next page is then loaded
+ * using a WHERE clause that selects the rows after that entity, so each page
+ * costs the same, regardless of how deep it is.
+ *
+ * This requires the order to be unique, which is ensured by the
+ * PathSqlBuilderImp by adding the id as last order expression.
+ *
+ * @author scf
+ */
+public class KeysetPagination {
+
+    /**
+     * The prefix of all tokens. It makes sure the token is never parsed as a
+     * number, and allows the format to change in future versions.
+     */
+    private static final String TOKEN_PREFIX = "k1";
+    private static final TypeReference<List<String>> TYPE_LIST_STRING = new TypeReference<List<String>>() {
+        // Empty by design.
+    };
+
+    private KeysetPagination() {
+        // Utility class.
+    }
+
+    /**
+     * Creates the skiptoken pointing to the given row of the given query.
+     *
+     * @param sqlQuery The query that loaded the row.
+     * @param lastTuple The last row that was returned to the user.
+     * @return The skiptoken, or null if the values of one of the order
+     * expressions can not be stored in a token.
+     */
+    public static String createToken(SQLQuery<Tuple> sqlQuery, Tuple lastTuple) {
+        List<OrderSpecifier<?>> orderBys = sqlQuery.getMetadata().getOrderBy();
+        List<String> values = new ArrayList<>(orderBys.size());
+        for (OrderSpecifier<?> orderBy : orderBys) {
+            Expression<?> target = orderBy.getTarget();
+            if (!isSupported(target.getType())) {
+                return null;
+            }
+            values.add(valueToString(lastTuple.get(target)));
+        }
+        try {
+            byte[] json = EntityFactories.getFormatter().writeValueAsBytes(values);
+            return TOKEN_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to create skiptoken.", ex);
+        }
+    }
+
+    /**
+     * Adds the WHERE clause that limits the given query to the rows after the
+     * row the given token points to. The query must have the same order as
+     * the query the token was generated from.
+     *
+     * @param sqlQuery The query to add the WHERE clause to.
+     * @param token The skiptoken.
+     * @throws IllegalArgumentException if the token is not valid for the
+     * query.
+     */
+    public static void addTokenFilter(SQLQuery<Tuple> sqlQuery, String token) {
+        List<OrderSpecifier<?>> orderBys = sqlQuery.getMetadata().getOrderBy();
+        List<String> values = parseToken(token);
+        if (values.size() != orderBys.size()) {
+            throw new IllegalArgumentException("Invalid $skiptoken, it does not match the $orderby of the request.");
+        }
+        if (orderBys.isEmpty()) {
+            return;
+        }
+        List<Object> parsed = new ArrayList<>(orderBys.size());
+        boolean rowComparable = true;
+        for (int i = 0; i < orderBys.size(); i++) {
+            OrderSpecifier<?> orderBy = orderBys.get(i);
+            Expression<?> target = orderBy.getTarget();
+            if (!isSupported(target.getType())) {
+                // Checked here, so that the nextLink can always be created.
+                throw new IllegalArgumentException("Invalid $skiptoken, the $orderby of the request can not be used with a $skiptoken.");
+            }
+            Object value = stringToValue(values.get(i), target.getType());
+            parsed.add(value);
+            rowComparable = rowComparable
+                    && value != null
+                    && isNotNull(target)
+                    && orderBy.isAscending() == orderBys.get(0).isAscending();
+        }
+        if (rowComparable) {
+            sqlQuery.where(rowAfter(orderBys, parsed));
+            return;
+        }
+        // (k1 after v1) or (k1 = v1 and k2 after v2) or ...
+        Predicate result = null;
+        Predicate equalSoFar = null;
+        for (int i = 0; i < orderBys.size(); i++) {
+            OrderSpecifier<?> orderBy = orderBys.get(i);
+            Expression<?> target = orderBy.getTarget();
+            Object value = parsed.get(i);
+            Predicate after = ExpressionUtils.and(equalSoFar, after(target, value, orderBy.isAscending()));
+            result = ExpressionUtils.or(result, after);
+            equalSoFar = ExpressionUtils.and(equalSoFar, equal(target, value));
+        }
+        // The OR-chain can not be used as an index range, the bound on the
+        // first key can.
+        OrderSpecifier<?> first = orderBys.get(0);
+        sqlQuery.where(ExpressionUtils.and(leadingBound(first.getTarget(), parsed.get(0), first.isAscending()), result));
+    }
+
+    /**
+     * Creates the row-value comparison (k1, k2, ...) &gt; (v1, v2, ...), or
+     * &lt; when descending. Only valid if all keys have the same direction and
+     * no key or value is null.
+     */
+    private static Predicate rowAfter(List<OrderSpecifier<?>> orderBys, List<Object> values) {
+        int size = orderBys.size();
+        StringBuilder keys = new StringBuilder("(");
+        StringBuilder vals = new StringBuilder("(");
+        List<Object> args = new ArrayList<>(2 * size);
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                keys.append(", ");
+                vals.append(", ");
+            }
+            keys.append('{').append(i).append('}');
+            vals.append('{').append(size + i).append('}');
+            args.add(orderBys.get(i).getTarget());
+        }
+        for (Object value : values) {
+            args.add(Expressions.constant(value));
+        }
+        String op = orderBys.get(0).isAscending() ? " > " : " < ";
+        return Expressions.booleanTemplate(keys + ")" + op + vals + ")", args.toArray());
+    }
+
+    /**
+     * Creates a bound on the first key that all rows after the given value
+     * satisfy, or null if there is no such bound that excludes rows.
+     * PostgreSQL sorts nulls last when ascending and first when descending.
+     */
+    private static Predicate leadingBound(Expression<?> target, Object value, boolean ascending) {
+        if (value == null) {
+            // Ascending, only nulls follow. Descending, everything can follow.
+            return ascending ? Expressions.predicate(Ops.IS_NULL, target) : null;
+        }
+        if (ascending) {
+            if (isNotNull(target)) {
+                return Expressions.predicate(Ops.GOE, target, Expressions.constant(value));
+            }
+            // The nulls follow, a bound would need an OR.
+            return null;
+        }
+        return Expressions.predicate(Ops.LOE, target, Expressions.constant(value));
+    }
+
+    /**
+     * Checks if the given expression is a column that is declared not null.
+     */
+    private static boolean isNotNull(Expression<?> target) {
+        if (!(target instanceof Path)) {
+            return false;
+        }
+        Path<?> path = (Path<?>) target;
+        Path<?> parent = path.getMetadata().getParent();
+        if (!(parent instanceof RelationalPath)) {
+            return false;
+        }
+        ColumnMetadata column = ((RelationalPath<?>) parent).getMetadata(path);
+        return column != null && !column.isNullable();
+    }
+
+    /**
+     * Creates the predicate for "target comes after value" in the given
+     * direction. PostgreSQL sorts nulls last when ascending and first when
+     * descending.
+     */
+    private static Predicate after(Expression<?> target, Object value, boolean ascending) {
+        if (ascending) {
+            if (value == null) {
+                // Nothing comes after the nulls.
+                return Expressions.FALSE.isTrue();
+            }
+            return ExpressionUtils.or(
+                    Expressions.predicate(Ops.GT, target, Expressions.constant(value)),
+                    Expressions.predicate(Ops.IS_NULL, target));
+        }
+        if (value == null) {
+            return Expressions.predicate(Ops.IS_NOT_NULL, target);
+        }
+        return Expressions.predicate(Ops.LT, target, Expressions.constant(value));
+    }
+
+    private static Predicate equal(Expression<?> target, Object value) {
+        if (value == null) {
+            return Expressions.predicate(Ops.IS_NULL, target);
+        }
+        return Expressions.predicate(Ops.EQ, target, Expressions.constant(value));
+    }
+
+    private static List<String> parseToken(String token) {
+        if (!token.startsWith(TOKEN_PREFIX)) {
+            throw new IllegalArgumentException("Invalid $skiptoken.");
+        }
+        try {
+            byte[] json = Base64.getUrlDecoder().decode(token.substring(TOKEN_PREFIX.length()));
+            return EntityFactories.getFormatter().readValue(new String(json, StandardCharsets.UTF_8), TYPE_LIST_STRING);
+        } catch (IllegalArgumentException | IOException ex) {
+            throw new IllegalArgumentException("Invalid $skiptoken.", ex);
+        }
+    }
+
+    private static boolean isSupported(Class<?> type) {
+        return Timestamp.class.equals(type)
+                || String.class.equals(type)
+                || Boolean.class.equals(type)
+                || UUID.class.equals(type)
+                || Double.class.equals(type)
+                || Float.class.equals(type)
+                || Long.class.equals(type)
+                || Integer.class.equals(type)
+                || Short.class.equals(type)
+                || Byte.class.equals(type)
+                || BigDecimal.class.equals(type)
+                || BigInteger.class.equals(type);
+    }
+
+    private static String valueToString(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Timestamp) {
+            // Keep the full precision, milliseconds are not enough.
+            return ((Timestamp) value).toInstant().toString();
+        }
+        return value.toString();
+    }
+
+    private static Object stringToValue(String value, Class<?> type) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            if (Timestamp.class.equals(type)) {
+                return Timestamp.from(Instant.parse(value));
+            } else if (String.class.equals(type)) {
+                return value;
+            } else if (Boolean.class.equals(type)) {
+                return Boolean.valueOf(value);
+            } else if (UUID.class.equals(type)) {
+                return UUID.fromString(value);
+            } else if (Double.class.equals(type)) {
+                return Double.valueOf(value);
+            } else if (Float.class.equals(type)) {
+                return Float.valueOf(value);
+            } else if (Long.class.equals(type)) {
+                return Long.valueOf(value);
+            } else if (Integer.class.equals(type)) {
+                return Integer.valueOf(value);
+            } else if (Short.class.equals(type)) {
+                return Short.valueOf(value);
+            } else if (Byte.class.equals(type)) {
+                return Byte.valueOf(value);
+            } else if (BigDecimal.class.equals(type)) {
+                return new BigDecimal(value);
+            } else if (BigInteger.class.equals(type)) {
+                return new BigInteger(value);
+            }
+        } catch (DateTimeParseException | IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Invalid $skiptoken.", ex);
+        }
+        throw new IllegalArgumentException("Invalid $skiptoken, the $orderby of the request can not be used with a $skiptoken.");
+    }
+
+    /**
+     * Wraps an iterator and remembers the last element returned, so the
+     * skiptoken can be generated from it.
+     */
+    public static class LastTupleIterator implements CloseableIterator<Tuple> {
+
+        private final CloseableIterator<Tuple> wrapped;
+        private Tuple last;
+
+        public LastTupleIterator(CloseableIterator<Tuple> wrapped) {
+            this.wrapped = wrapped;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return wrapped.hasNext();
+        }
+
+        @Override
+        public Tuple next() {
+            last = wrapped.next();
+            return last;
+        }
+
+        @Override
+        public void close() {
+            wrapped.close();
+        }
+
+        /**
+         * @return The last element returned by {@link #next()}, or null.
+         */
+        public Tuple getLast() {
+            return last;
+        }
+    }
+}
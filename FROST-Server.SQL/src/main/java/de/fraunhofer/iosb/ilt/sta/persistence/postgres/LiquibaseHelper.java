@@ -24,6 +24,8 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
 import liquibase.Contexts;
 import liquibase.Liquibase;
 import liquibase.database.Database;
@@ -45,10 +47,25 @@ public class LiquibaseHelper {
     }
 
     public static String checkForUpgrades(Connection connection, String liquibaseChangelogFilename) {
+        return checkForUpgrades(connection, liquibaseChangelogFilename, Collections.emptyMap());
+    }
+
+    /**
+     * Check the database for upgrades, using the given parameters in the
+     * changelog.
+     *
+     * @param connection The connection to the database.
+     * @param liquibaseChangelogFilename The changelog to check.
+     * @param parameters The changelog parameters, available in the changelog
+     * as ${name}.
+     * @return A description of the upgrades that would be applied.
+     */
+    public static String checkForUpgrades(Connection connection, String liquibaseChangelogFilename, Map<String, Object> parameters) {
         StringWriter out = new StringWriter();
         try {
             Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
             Liquibase liquibase = new liquibase.Liquibase(liquibaseChangelogFilename, new ClassLoaderResourceAccessor(), database);
+            setParameters(liquibase, parameters);
             liquibase.update(new Contexts(), out);
             database.commit();
             database.close();
@@ -69,9 +86,27 @@ public class LiquibaseHelper {
     }
 
     public static boolean doUpgrades(Connection connection, String liquibaseChangelogFilename, Writer out) throws UpgradeFailedException, IOException {
+        return doUpgrades(connection, liquibaseChangelogFilename, Collections.emptyMap(), out);
+    }
+
+    /**
+     * Apply the upgrades in the changelog to the database, using the given
+     * parameters in the changelog.
+     *
+     * @param connection The connection to the database.
+     * @param liquibaseChangelogFilename The changelog to apply.
+     * @param parameters The changelog parameters, available in the changelog
+     * as ${name}.
+     * @param out The writer to write errors to.
+     * @return true if the upgrade was successful.
+     * @throws UpgradeFailedException When the upgrade failed.
+     * @throws IOException When writing to out failed.
+     */
+    public static boolean doUpgrades(Connection connection, String liquibaseChangelogFilename, Map<String, Object> parameters, Writer out) throws UpgradeFailedException, IOException {
         try {
             Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
             Liquibase liquibase = new liquibase.Liquibase(liquibaseChangelogFilename, new ClassLoaderResourceAccessor(), database);
+            setParameters(liquibase, parameters);
             liquibase.update(new Contexts());
             database.commit();
             database.close();
@@ -93,4 +128,10 @@ public class LiquibaseHelper {
         return true;
     }
 
+    private static void setParameters(Liquibase liquibase, Map<String, Object> parameters) {
+        for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+            liquibase.setChangeLogParameter(entry.getKey(), entry.getValue());
+        }
+    }
+
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import de.fraunhofer.iosb.ilt.sta.settings.PersistenceSettings;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the partitions of a partitioned OBSERVATIONS table up to date. Once at
+ * startup and then every hour, the partitions for the coming periods are
+ * created, and, if a retention time is configured, the partitions that only
+ * hold Observations older than that are dropped.
+ *
+ * The work is done by the database functions observations_create_partitions
+ * and observations_drop_partitions, in a background thread, on a dedicated
+ * connection. Inserts never wait for it. Creating or dropping a partition
+ * needs a lock on the OBSERVATIONS table, so a lock timeout is set: if the
+ * lock can not be had quickly, the maintenance is tried again in the next run
+ * instead of blocking all queries on the table while waiting.
+ *
+ * @author scf
+ */
+public class PartitionMaintenance {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionMaintenance.class);
+    private static final long CHECK_INTERVAL_MINUTES = 60;
+    private static final String SQL_LOCK_TIMEOUT = "SET lock_timeout = '10s'";
+    private static final String SQL_CREATE_PARTITIONS = "select observations_create_partitions(?, ?)";
+    private static final String SQL_DROP_PARTITIONS = "select observations_drop_partitions(now() - ? * interval '1 day')";
+    /**
+     * The SQL state PostgreSQL uses when a lock could not be obtained.
+     */
+    private static final String STATE_LOCK_NOT_AVAILABLE = "55P03";
+    /**
+     * The SQL state of messages raised with level notice.
+     */
+    private static final String STATE_NOTICE = "00000";
+
+    private static ScheduledExecutorService executor;
+
+    private PartitionMaintenance() {
+        // Utility class, should not be instantiated.
+    }
+
+    /**
+     * Start the background maintenance, if partitioning is configured and
+     * the maintenance is not running yet.
+     *
+     * @param settings The persistence settings to use.
+     */
+    public static synchronized void start(PersistenceSettings settings) {
+        if (executor != null || !settings.isObservationPartitioned()) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PartitionMaintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> maintainPartitions(settings), 0, CHECK_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        LOGGER.info("Started the maintenance of the Observation partitions.");
+    }
+
+    /**
+     * Stop the background maintenance, if it is running. It is started again
+     * by the next call to {@link #start(PersistenceSettings)}.
+     */
+    public static synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        executor = null;
+        LOGGER.info("Stopped the maintenance of the Observation partitions.");
+    }
+
+    /**
+     * Create and drop partitions.
+     *
+     * @param settings The persistence settings to use.
+     */
+    static void maintainPartitions(PersistenceSettings settings) {
+        try (Connection connection = ConnectionUtils.getDedicatedConnection(settings.getCustomSettings())) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute(SQL_LOCK_TIMEOUT);
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(SQL_CREATE_PARTITIONS)) {
+                stmt.setString(1, settings.getObservationPartitioning().toLowerCase());
+                stmt.setInt(2, settings.getObservationPartitionsAhead());
+                stmt.execute();
+                logWarnings(stmt);
+            }
+            int retentionDays = settings.getObservationRetentionDays();
+            if (retentionDays > 0) {
+                try (PreparedStatement stmt = connection.prepareStatement(SQL_DROP_PARTITIONS)) {
+                    stmt.setInt(1, retentionDays);
+                    stmt.execute();
+                    logWarnings(stmt);
+                }
+            }
+        } catch (SQLException ex) {
+            if (STATE_LOCK_NOT_AVAILABLE.equals(ex.getSQLState())) {
+                LOGGER.warn("The Observations table is busy, maintaining its partitions in the next run.");
+            } else {
+                LOGGER.error("Failed to maintain the partitions of the Observations table.", ex);
+            }
+        } catch (RuntimeException ex) {
+            // Would otherwise cancel all further runs.
+            LOGGER.error("Failed to maintain the partitions of the Observations table.", ex);
+        }
+    }
+
+    /**
+     * Log the notices and warnings the maintenance functions raised, like
+     * dropped partitions or Observations that had to be moved out of the
+     * default partition.
+     */
+    private static void logWarnings(Statement stmt) throws SQLException {
+        for (SQLWarning warning = stmt.getWarnings(); warning != null; warning = warning.getNextWarning()) {
+            if (STATE_NOTICE.equals(warning.getSQLState())) {
+                LOGGER.info("Partition maintenance: {}", warning.getMessage());
+            } else {
+                LOGGER.warn("Partition maintenance: {}", warning.getMessage());
+            }
+        }
+    }
+}
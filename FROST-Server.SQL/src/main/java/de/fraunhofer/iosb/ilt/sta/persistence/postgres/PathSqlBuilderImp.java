@@ -19,7 +19,9 @@ package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
 
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.Path;
+import com.querydsl.core.types.QTuple;
 import com.querydsl.core.types.SubQueryExpression;
 import com.querydsl.core.types.dsl.ComparableExpressionBase;
 import com.querydsl.sql.SQLQuery;
@@ -50,10 +52,13 @@ import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQ
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQThings;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQThingsLocations;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.QCollection;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.QueryShape;
 import de.fraunhofer.iosb.ilt.sta.query.Expand;
 import de.fraunhofer.iosb.ilt.sta.query.OrderBy;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.settings.PersistenceSettings;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -92,6 +97,8 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
     private int aliasNr = 0;
     private boolean isFilter = false;
     private boolean needsDistinct = false;
+    private I expandParentIdPath;
+    private QueryShape queryShape;
 
     public PathSqlBuilderImp(PropertyResolver<I, J> propertyResolver) {
         this.propertyResolver = propertyResolver;
@@ -123,10 +130,129 @@ public class PathSqlBuilderImp<I extends ComparableExpressionBase<J> & Path<J>,
         }
 
         addOrderAndFilter(query, settings);
+        if (query != null && settings.isKeysetPagination()) {
+            prepareKeysetOrder();
+        }
+        queryShape = settings.isQueryStatistics() ? QueryShape.fromQuery(sqlQuery.getMetadata()) : null;
 
         return sqlQuery;
     }
 
+    /**
+     * The shape of the last query built by
+     * {@link #buildFor(ResourcePath, Query, SQLQueryFactory, PersistenceSettings)},
+     * if query statistics are enabled.
+     *
+     * @return The shape of the last query, or null.
+     */
+    public QueryShape getQueryShape() {
+        return queryShape;
+    }
+
+    /**
+     * Makes the order of the query unique, by adding the id as last order
+     * expression, and makes sure all order expressions are in the projection,
+     * so a {@link KeysetPagination} skiptoken can be created from the results.
+     */
+    private void prepareKeysetOrder() {
+        I idPath = mainTable.getIdPath();
+        List<OrderSpecifier<?>> orderBys = sqlQuery.getMetadata().getOrderBy();
+        if (orderBys.isEmpty() || !idPath.equals(orderBys.get(orderBys.size() - 1).getTarget())) {
+            sqlQuery.orderBy(idPath.asc());
+        }
+        Expression<?> projection = sqlQuery.getMetadata().getProjection();
+        if (!(projection instanceof QTuple)) {
+            return;
+        }
+        List<Expression<?>> args = new ArrayList<>(((QTuple) projection).getArgs());
+        boolean changed = false;
+        for (OrderSpecifier<?> orderBy : sqlQuery.getMetadata().getOrderBy()) {
+            if (!args.contains(orderBy.getTarget())) {
+                args.add(orderBy.getTarget());
+                changed = true;
+            }
+        }
+        if (changed) {
+            sqlQuery.select(args.toArray(new Expression[args.size()]));
+        }
+    }
+
+    /**
+     * Builds a query that fetches the related entities of many parent entities
+     * at once. The last element of the path is the (set of) related entities,
+     * the element before that is the set of parents, without an ID. After
+     * building, the path of the ID of the parent can be fetched using
+     * {@link #getExpandParentIdPath()}.
+     *
+     * @param path The path to build the query for.
+     * @param query The query options for the related entities.
+     * @param parentIds The IDs of the parents to fetch the related entities
+     * for.
+     * @param sqlQueryFactory The query factory to use.
+     * @param settings The persistence settings.
+     * @return The query, or null if the query can not be used for more than
+     * one parent at a time.
+     */
+    public synchronized SQLQuery<Tuple> buildForExpand(ResourcePath path, Query query, Collection<J> parentIds, SQLQueryFactory sqlQueryFactory, PersistenceSettings settings) {
+        findSelectedProperties(query);
+
+        sqlQuery = sqlQueryFactory.select();
+        lastPath.clear();
+        aliasNr = 0;
+
+        int count = path.size();
+        for (int i = count - 1; i >= 0; i--) {
+            ResourcePathElement element = path.get(i);
+            element.visit(this);
+        }
+        expandParentIdPath = lastPath.getIdPath();
+
+        needsDistinct = false;
+        addOrderAndFilter(query, settings);
+        if (needsDistinct) {
+            // The filter joins to-many relations, rows can no longer be
+            // attributed to exactly one parent.
+            return null;
+        }
+
+        sqlQuery.where(expandParentIdPath.in(padIds(parentIds)));
+        return sqlQuery;
+    }
+
+    /**
+     * Pads the list of ids to the next power of two, by repeating the last
+     * id, so that the IN clause only has a few different lengths. That way
+     * the SQL of the expand queries has only a few different shapes, and
+     * their prepared statements can be re-used.
+     *
+     * @param ids The ids to pad.
+     * @return The padded list of ids.
+     */
+    private static <T> List<T> padIds(Collection<T> ids) {
+        List<T> padded = new ArrayList<>(ids);
+        if (padded.isEmpty()) {
+            return padded;
+        }
+        int size = Integer.highestOneBit(padded.size());
+        if (size < padded.size()) {
+            size *= 2;
+        }
+        T last = padded.get(padded.size() - 1);
+        while (padded.size() < size) {
+            padded.add(last);
+        }
+        return padded;
+    }
+
+    /**
+     * @return The path of the ID of the parent entity of the last query built
+     * with
+     * {@link #buildForExpand(ResourcePath, Query, Collection, SQLQueryFactory, PersistenceSettings)}.
+     */
+    public I getExpandParentIdPath() {
+        return expandParentIdPath;
+    }
+
     private void findSelectedProperties(Query query) {
         selectedProperties = new HashSet<>();
         if (query == null) {
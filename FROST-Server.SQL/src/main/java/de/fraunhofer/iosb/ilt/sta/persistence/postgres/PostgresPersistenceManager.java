@@ -23,14 +23,17 @@ import com.github.fge.jsonpatch.JsonPatchException;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.dsl.SimpleExpression;
+import com.querydsl.sql.Configuration;
 import com.querydsl.sql.SQLQuery;
 import com.querydsl.sql.SQLQueryFactory;
 import com.querydsl.sql.SQLTemplates;
 import com.querydsl.sql.dml.SQLDeleteClause;
 import com.querydsl.sql.spatial.PostGISTemplates;
+import de.fraunhofer.iosb.ilt.sta.formatter.EntitySetWriter;
 import de.fraunhofer.iosb.ilt.sta.json.deserialize.EntityParser;
 import de.fraunhofer.iosb.ilt.sta.json.serialize.EntityFormatter;
 import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.model.Observation;
 import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.path.EntityPathElement;
@@ -40,10 +43,16 @@ import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePathElement;
 import de.fraunhofer.iosb.ilt.sta.persistence.AbstractPersistenceManager;
+import de.fraunhofer.iosb.ilt.sta.persistence.IndexAdvisor;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.ConnectionUtils.ConnectionWrapper;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.factories.EntityFactory;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.IndexRecommendation;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.IndexRecommender;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.QueryShape;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.ShapeStatistics;
 import de.fraunhofer.iosb.ilt.sta.query.Query;
 import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.sta.settings.PersistenceSettings;
 import de.fraunhofer.iosb.ilt.sta.settings.Settings;
 import de.fraunhofer.iosb.ilt.sta.util.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.NoSuchEntityException;
@@ -52,7 +61,11 @@ import java.io.IOException;
 import java.io.Writer;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.joda.time.DateTime;
@@ -64,7 +77,7 @@ import org.slf4j.LoggerFactory;
  * @param <I> The type of path used for the ID fields.
  * @param <J> The type of the ID fields.
  */
-public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> & Path<J>, J> extends AbstractPersistenceManager {
+public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> & Path<J>, J> extends AbstractPersistenceManager implements IndexAdvisor {
 
     public static final DateTime DATETIME_MAX = DateTime.parse("9999-12-31T23:59:59.999Z");
     public static final DateTime DATETIME_MIN = DateTime.parse("-4000-01-01T00:00:00.000Z");
@@ -73,16 +86,42 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
      * The logger for this class.
      */
     static final Logger LOGGER = LoggerFactory.getLogger(PostgresPersistenceManager.class);
+    /**
+     * A partitioned OBSERVATIONS table has no unique constraint on ID, since
+     * that would have to include the partition key. Only the sequence keeps
+     * the ids unique then, so clients may not supply their own.
+     */
+    private static final String PARTITIONING_NEEDS_SERVER_IDS = "Partitioning the Observations table requires idGenerationMode ServerGeneratedOnly.";
 
     private CoreSettings settings;
     private ConnectionWrapper connectionProvider;
     private SQLQueryFactory queryFactory;
+    /**
+     * Actions that may only take effect once the current transaction is
+     * committed, like filling shared caches with newly inserted ids.
+     */
+    private final List<Runnable> afterCommitActions = new ArrayList<>();
 
     @Override
     public void init(CoreSettings settings) {
         this.settings = settings;
         Settings customSettings = settings.getPersistenceSettings().getCustomSettings();
         connectionProvider = new ConnectionWrapper(customSettings);
+        if (!isPartitioningAllowed(settings.getPersistenceSettings())) {
+            LOGGER.error(PARTITIONING_NEEDS_SERVER_IDS);
+            throw new IllegalArgumentException(PARTITIONING_NEEDS_SERVER_IDS);
+        }
+        PartitionMaintenance.start(settings.getPersistenceSettings());
+    }
+
+    @Override
+    public void shutdown() {
+        PartitionMaintenance.stop();
+    }
+
+    private static boolean isPartitioningAllowed(PersistenceSettings persistenceSettings) {
+        return !persistenceSettings.isObservationPartitioned()
+                || IdGenerationHandler.isServerGeneratedOnly(persistenceSettings.getIdGenerationMode());
     }
 
     @Override
@@ -97,7 +136,9 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
     public SQLQueryFactory createQueryFactory() {
         if (queryFactory == null) {
             SQLTemplates templates = PostGISTemplates.builder().quote().build();
-            queryFactory = new SQLQueryFactory(templates, connectionProvider);
+            Configuration configuration = new Configuration(templates);
+            JsonbType.register(configuration, getPropertyResolver().qCollection);
+            queryFactory = new SQLQueryFactory(configuration, connectionProvider);
         }
         return queryFactory;
     }
@@ -173,6 +214,7 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
             }
         }
 
+        long start = System.nanoTime();
         SQLQueryFactory qf = createQueryFactory();
         PathSqlBuilderImp psb = new PathSqlBuilderImp(getPropertyResolver());
         SQLQuery<Tuple> sqlQuery = psb.buildFor(path, query, qf, getCoreSettings().getPersistenceSettings());
@@ -184,6 +226,7 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         EntityCreator entityCreator = new EntityCreator(this, path, query, sqlQuery);
         lastElement.visit(entityCreator);
         Object entity = entityCreator.getEntity();
+        recordQueryShape(psb, path, query, start, entityCreator.getEntityCount());
 
         if (path.isEntityProperty() && entity instanceof Map) {
             Map map = (Map) entity;
@@ -199,6 +242,110 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         return entity;
     }
 
+    @Override
+    public void stream(ResourcePath path, Query query, EntitySetWriter writer) throws IOException {
+        ResourcePathElement lastElement = path.getLastElement();
+        if (!(lastElement instanceof EntitySetPathElement)) {
+            throw new IllegalArgumentException("Only entity sets can be streamed, not " + lastElement.getClass());
+        }
+
+        long start = System.nanoTime();
+        SQLQueryFactory qf = createQueryFactory();
+        PathSqlBuilderImp psb = new PathSqlBuilderImp(getPropertyResolver());
+        SQLQuery<Tuple> sqlQuery = psb.buildFor(path, query, qf, getCoreSettings().getPersistenceSettings());
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Generated SQL:\n{}", sqlQuery.getSQL().getSQL());
+        }
+
+        EntityCreator entityCreator = new EntityCreator(this, path, query, sqlQuery);
+        entityCreator.stream((EntitySetPathElement) lastElement, writer);
+        recordQueryShape(psb, path, query, start, entityCreator.getEntityCount());
+    }
+
+    private void recordQueryShape(PathSqlBuilderImp psb, ResourcePath path, Query query, long start, long rows) {
+        QueryShape shape = psb.getQueryShape();
+        if (shape == null) {
+            return;
+        }
+        String queryString = query == null ? "" : query.toString();
+        String example = queryString.isEmpty() ? path.toString() : path + "?" + queryString;
+        getEntityFactories().getQueryStatistics(this).record(shape, example, System.nanoTime() - start, rows);
+    }
+
+    @Override
+    public String getQueryStatistics() {
+        if (!getCoreSettings().getPersistenceSettings().isQueryStatistics()) {
+            return "Query statistics are not enabled.\n";
+        }
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("%10s %10s %10s %10s  %s%n", "count", "avg ms", "max ms", "avg rows", "shape / example"));
+        for (ShapeStatistics stats : getEntityFactories().getQueryStatistics(this).getShapes()) {
+            long count = Math.max(1, stats.getCount());
+            result.append(String.format("%10d %10.1f %10.1f %10.1f  %s%n",
+                    stats.getCount(),
+                    stats.getTotalNanos() / 1e6 / count,
+                    stats.getMaxNanos() / 1e6,
+                    (double) stats.getTotalRows() / count,
+                    stats.getShape()));
+            result.append(String.format("%44s  %s%n", "", stats.getExample()));
+        }
+        return result.toString();
+    }
+
+    @Override
+    public List<String> getIndexRecommendations() {
+        List<String> statements = new ArrayList<>();
+        for (IndexRecommendation recommendation : recommendIndexes()) {
+            statements.add(recommendation.getStatement());
+        }
+        return statements;
+    }
+
+    private List<IndexRecommendation> recommendIndexes() {
+        IndexRecommender recommender = new IndexRecommender();
+        Settings customSettings = settings.getPersistenceSettings().getCustomSettings();
+        try (Connection connection = ConnectionUtils.getConnection("FROST-Source", customSettings)) {
+            recommender.loadExistingIndexes(connection);
+        } catch (SQLException ex) {
+            LOGGER.error("Could not load the existing indexes.", ex);
+            return new ArrayList<>();
+        }
+        return recommender.recommend(getEntityFactories().getQueryStatistics(this).getShapes());
+    }
+
+    @Override
+    public void createIndexes(Collection<String> statements, Writer out) throws IOException {
+        List<String> toCreate = new ArrayList<>();
+        for (IndexRecommendation recommendation : recommendIndexes()) {
+            if (statements.contains(recommendation.getStatement())) {
+                toCreate.add(recommendation.getStatement());
+            }
+        }
+        if (toCreate.isEmpty()) {
+            out.append("No recommended indexes selected.\n");
+            return;
+        }
+        // Indexes are created concurrently where possible, which can not be
+        // done in a transaction, so the dedicated connection in auto-commit
+        // mode is used.
+        Settings customSettings = settings.getPersistenceSettings().getCustomSettings();
+        try (Connection connection = ConnectionUtils.getDedicatedConnection(customSettings);
+                Statement stmt = connection.createStatement()) {
+            for (String statement : toCreate) {
+                out.append(statement).append('\n');
+                out.flush();
+                long start = System.currentTimeMillis();
+                stmt.execute(statement);
+                LOGGER.info("Created index using: {}", statement);
+                out.append("Done in ").append(Long.toString(System.currentTimeMillis() - start)).append(" ms.\n");
+            }
+        } catch (SQLException ex) {
+            LOGGER.error("Failed to create index.", ex);
+            out.append("Failed to create index: ").append(ex.getLocalizedMessage()).append('\n');
+        }
+    }
+
     @Override
     public boolean doInsert(Entity entity) throws NoSuchEntityException, IncompleteEntityException {
         EntityFactories<I, J> ef = getEntityFactories();
@@ -207,6 +354,29 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         return true;
     }
 
+    /**
+     * Register the entity as it was returned by the insert or update
+     * statement, so it does not have to be fetched again for the bus.
+     *
+     * @param entity The entity that was passed to the factory.
+     * @param storedEntity The entity as it was stored.
+     */
+    @Override
+    public void entityStored(Entity entity, Entity storedEntity) {
+        super.entityStored(entity, storedEntity);
+    }
+
+    @Override
+    public List<Exception> insertObservations(List<Observation> observations) {
+        List<Exception> errors = getEntityFactories().observationFactory.insertBatch(this, observations);
+        for (int i = 0; i < observations.size(); i++) {
+            if (errors.get(i) == null) {
+                entityCreated(observations.get(i));
+            }
+        }
+        return errors;
+    }
+
     @Override
     public EntityChangedMessage doUpdate(EntityPathElement pathElement, Entity entity) throws NoSuchEntityException, IncompleteEntityException {
         EntityFactories<I, J> ef = getEntityFactories();
@@ -258,7 +428,8 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         EntityFactory<Entity, I, J> factory = ef.getFactoryFor(entityType);
         factory.update(this, newEntity, (J) id.getValue());
 
-        message.setEntity(newEntity);
+        Entity storedEntity = getStoredEntity(newEntity);
+        message.setEntity(storedEntity == null ? newEntity : storedEntity);
         message.setEventType(EntityChangedMessage.Type.UPDATE);
         return message;
     }
@@ -269,6 +440,7 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         EntityType type = pathElement.getEntityType();
         EntityFactory<Entity, I, J> factory = ef.getFactoryFor(type);
         factory.delete(this, (J) pathElement.getId().getValue());
+        ef.entityDeleted(this, type, pathElement.getId().getValue());
         return true;
     }
 
@@ -279,24 +451,47 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
         PathSqlBuilderImp psb = new PathSqlBuilderImp(getPropertyResolver());
 
         SQLQuery<Tuple> sqlQuery = psb.buildFor(path, query, qf, getCoreSettings().getPersistenceSettings());
-        SQLDeleteClause sqlDelete = psb.createDelete((EntitySetPathElement) path.getLastElement(), qf, sqlQuery);
+        EntitySetPathElement setElement = (EntitySetPathElement) path.getLastElement();
+        SQLDeleteClause sqlDelete = psb.createDelete(setElement, qf, sqlQuery);
 
         long rowCount = sqlDelete.execute();
         LOGGER.debug("Deleted {} rows using query {}", rowCount, sqlDelete);
+        // No messages are sent for these deletes, so we don't know which.
+        getEntityFactories().entitiesDeleted(this, setElement.getEntityType());
+    }
+
+    /**
+     * Registers an action to run after the current transaction is committed.
+     * If the transaction is rolled back, or the persistence manager is closed
+     * without committing, the action is discarded.
+     *
+     * @param action The action to run after a successful commit.
+     */
+    public void runAfterCommit(Runnable action) {
+        afterCommitActions.add(action);
     }
 
     @Override
     protected boolean doCommit() {
-        return connectionProvider.doCommit();
+        boolean committed = connectionProvider.doCommit();
+        if (committed) {
+            for (Runnable action : afterCommitActions) {
+                action.run();
+            }
+        }
+        afterCommitActions.clear();
+        return committed;
     }
 
     @Override
     protected boolean doRollback() {
+        afterCommitActions.clear();
         return connectionProvider.doRollback();
     }
 
     @Override
     protected boolean doClose() {
+        afterCommitActions.clear();
         return connectionProvider.doClose();
     }
 
@@ -306,7 +501,7 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
             Settings customSettings = settings.getPersistenceSettings().getCustomSettings();
             Connection connection = ConnectionUtils.getConnection("FROST-Source", customSettings);
             String liquibaseChangelogFilename = getLiquibaseChangelogFilename();
-            return LiquibaseHelper.checkForUpgrades(connection, liquibaseChangelogFilename);
+            return LiquibaseHelper.checkForUpgrades(connection, liquibaseChangelogFilename, getLiquibaseParameters());
         } catch (SQLException ex) {
             LOGGER.error("Could not initialise database.", ex);
             return "Failed to initialise database:\n"
@@ -317,6 +512,11 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
 
     @Override
     public boolean doUpgrades(Writer out) throws UpgradeFailedException, IOException {
+        if (!isPartitioningAllowed(settings.getPersistenceSettings())) {
+            LOGGER.error(PARTITIONING_NEEDS_SERVER_IDS);
+            out.append(PARTITIONING_NEEDS_SERVER_IDS).append('\n');
+            return false;
+        }
         Settings customSettings = settings.getPersistenceSettings().getCustomSettings();
         Connection connection;
         try {
@@ -329,7 +529,21 @@ public abstract class PostgresPersistenceManager<I extends SimpleExpression<J> &
             return false;
         }
         String liquibaseChangelogFilename = getLiquibaseChangelogFilename();
-        return LiquibaseHelper.doUpgrades(connection, liquibaseChangelogFilename, out);
+        return LiquibaseHelper.doUpgrades(connection, liquibaseChangelogFilename, getLiquibaseParameters(), out);
+    }
+
+    /**
+     * The parameters to use in the Liquibase changelog.
+     *
+     * @return The parameters to use in the Liquibase changelog.
+     */
+    protected Map<String, Object> getLiquibaseParameters() {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("extentMaintenance", settings.getPersistenceSettings().getExtentMaintenance().toLowerCase());
+        parameters.put("jsonIndexes", Boolean.toString(settings.getPersistenceSettings().isJsonIndexes()));
+        parameters.put("observationPartitioning", settings.getPersistenceSettings().getObservationPartitioning().toLowerCase());
+        parameters.put("observationPartitionsAhead", Integer.toString(settings.getPersistenceSettings().getObservationPartitionsAhead()));
+        return parameters;
     }
 
 }
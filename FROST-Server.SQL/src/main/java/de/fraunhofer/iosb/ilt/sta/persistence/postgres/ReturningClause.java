@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.QueryException;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.dml.StoreClause;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Projections;
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.RelationalPath;
+import com.querydsl.sql.SQLQueryFactory;
+import com.querydsl.sql.SQLTemplates;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An insert or update clause for a single row, that returns the row as it was
+ * stored, using RETURNING. The returned row includes values filled in by the
+ * database, like generated ids and column defaults, so the entity does not
+ * have to be fetched again after it is stored.
+ *
+ * Like the {@link BatchInsertClause}, only plain values are supported, not
+ * expressions.
+ *
+ * @author scf
+ */
+public class ReturningClause implements StoreClause<ReturningClause> {
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReturningClause.class);
+
+    private final SQLQueryFactory qf;
+    private final RelationalPath<?> table;
+    private final Path<?> wherePath;
+    private final Object whereValue;
+    private final Map<Path<?>, Object> values = new LinkedHashMap<>();
+
+    private ReturningClause(SQLQueryFactory qf, RelationalPath<?> table, Path<?> wherePath, Object whereValue) {
+        this.qf = qf;
+        this.table = table;
+        this.wherePath = wherePath;
+        this.whereValue = whereValue;
+    }
+
+    /**
+     * Create a clause that inserts a new row into the given table.
+     *
+     * @param qf The query factory to use.
+     * @param table The table to insert into.
+     * @return The new clause.
+     */
+    public static ReturningClause insert(SQLQueryFactory qf, RelationalPath<?> table) {
+        return new ReturningClause(qf, table, null, null);
+    }
+
+    /**
+     * Create a clause that updates the row with the given id in the given
+     * table.
+     *
+     * @param <J> The type of the ID fields.
+     * @param qf The query factory to use.
+     * @param table The table to update.
+     * @param idPath The path of the primary key of the table.
+     * @param id The id of the row to update.
+     * @return The new clause.
+     */
+    public static <J> ReturningClause update(SQLQueryFactory qf, RelationalPath<?> table, Path<J> idPath, J id) {
+        return new ReturningClause(qf, table, idPath, id);
+    }
+
+    @Override
+    public <T> ReturningClause set(Path<T> path, T value) {
+        values.put(path, value);
+        return this;
+    }
+
+    @Override
+    public <T> ReturningClause set(Path<T> path, Expression<? extends T> expression) {
+        throw new IllegalArgumentException("Returning clauses only support plain values, not expressions.");
+    }
+
+    @Override
+    public <T> ReturningClause setNull(Path<T> path) {
+        values.put(path, null);
+        return this;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    @Override
+    public long execute() {
+        return executeReturning(table) == null ? 0 : 1;
+    }
+
+    /**
+     * Execute the insert or update, and return the stored row.
+     *
+     * @param resultTable The table instance to read the returned row with.
+     * This can be an aliased version of the table that was written to. The
+     * returned tuple contains all columns of this instance.
+     * @return The stored row, or null if no row was updated.
+     * @throws IllegalStateException if an update changed more than one row.
+     */
+    public Tuple executeReturning(RelationalPath<?> resultTable) {
+        Configuration configuration = qf.getConfiguration();
+        List<Path<?>> columns = resultTable.getColumns();
+        String sql = createSql(configuration.getTemplates(), resultTable, columns);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Generated SQL:\n{}", sql);
+        }
+        try (PreparedStatement stmt = qf.getConnection().prepareStatement(sql)) {
+            int index = 1;
+            for (Map.Entry<Path<?>, Object> entry : values.entrySet()) {
+                setValue(configuration, stmt, index++, entry.getKey(), entry.getValue());
+            }
+            if (wherePath != null) {
+                setValue(configuration, stmt, index, wherePath, whereValue);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Object[] row = new Object[columns.size()];
+                for (int i = 0; i < row.length; i++) {
+                    Path<?> column = columns.get(i);
+                    row[i] = configuration.get(rs, column, i + 1, column.getType());
+                }
+                if (rs.next()) {
+                    throw new IllegalStateException("Statement on " + table.getTableName() + " changed more than one row.");
+                }
+                return Projections.tuple(columns).newInstance(row);
+            }
+        } catch (SQLException exc) {
+            throw new QueryException("Failed to store into " + table.getTableName() + ": " + exc.getMessage(), exc);
+        }
+    }
+
+    private void setValue(Configuration configuration, PreparedStatement stmt, int index, Path<?> column, Object value) throws SQLException {
+        if (value == null) {
+            stmt.setNull(index, table.getMetadata(column).getJdbcType());
+        } else {
+            configuration.set(stmt, column, index, value);
+        }
+    }
+
+    private String createSql(SQLTemplates templates, RelationalPath<?> resultTable, List<Path<?>> columns) {
+        StringBuilder sql = new StringBuilder();
+        String tableName = templates.quoteIdentifier(table.getTableName());
+        if (templates.isPrintSchema()) {
+            tableName = templates.quoteIdentifier(table.getSchemaName()) + '.' + tableName;
+        }
+        if (wherePath == null) {
+            sql.append("INSERT INTO ").append(tableName);
+            if (values.isEmpty()) {
+                sql.append(" DEFAULT VALUES");
+            } else {
+                List<String> names = new ArrayList<>(values.size());
+                for (Path<?> column : values.keySet()) {
+                    names.add(templates.quoteIdentifier(table.getMetadata(column).getName()));
+                }
+                sql.append(" (").append(String.join(", ", names)).append(") VALUES (");
+                sql.append(String.join(", ", Collections.nCopies(names.size(), "?"))).append(')');
+            }
+        } else {
+            sql.append("UPDATE ").append(tableName).append(" SET ");
+            boolean first = true;
+            for (Path<?> column : values.keySet()) {
+                if (!first) {
+                    sql.append(", ");
+                }
+                first = false;
+                sql.append(templates.quoteIdentifier(table.getMetadata(column).getName())).append(" = ?");
+            }
+            sql.append(" WHERE ").append(templates.quoteIdentifier(table.getMetadata(wherePath).getName())).append(" = ?");
+        }
+        sql.append(" RETURNING ");
+        boolean first = true;
+        for (Path<?> column : columns) {
+            if (!first) {
+                sql.append(", ");
+            }
+            first = false;
+            sql.append(templates.quoteIdentifier(resultTable.getMetadata(column).getName()));
+        }
+        return sql.toString();
+    }
+
+}
@@ -35,6 +35,10 @@ public class ConstantNumberExpression<N extends Number & Comparable<?>> extends
         super(ConstantImpl.create(constant));
     }
 
+    public N getValue() {
+        return ((Constant<N>) mixin).getConstant();
+    }
+
     @Override
     @Nullable
     public <R, C> R accept(final Visitor<R, C> v, @Nullable final C context) {
@@ -33,6 +33,10 @@ public class ConstantStringExpression extends StringExpression {
         super(ConstantImpl.create(constant));
     }
 
+    public String getValue() {
+        return ((Constant<String>) mixin).getConstant();
+    }
+
     @Override
     @Nullable
     public <R, C> R accept(Visitor<R, C> v, C context) {
@@ -16,17 +16,24 @@
  */
 package de.fraunhofer.iosb.ilt.sta.persistence.postgres.expression;
 
+import com.querydsl.core.types.ConstantImpl;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Path;
 import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.TemplateExpression;
 import com.querydsl.core.types.dsl.BooleanExpression;
 import com.querydsl.core.types.dsl.ComparableTemplate;
 import com.querydsl.core.types.dsl.Expressions;
 import com.querydsl.core.types.dsl.NumberExpression;
 import com.querydsl.core.types.dsl.StringTemplate;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  *
@@ -44,16 +51,35 @@ public class JsonExpressionFactory {
     public static final String KEY_NUMBER = "n";
     public static final String KEY_STRING = "s";
     public static final String KEY_BOOLEAN = "b";
+    /**
+     * Strings that the text value of a json number or boolean can have. For
+     * these the string comparison can match non-string json values, so they
+     * can not be turned into a containment check.
+     */
+    private static final Pattern NON_STRING_TEXT = Pattern.compile("^(-|[0-9]|true$|false$|\\{|\\[)");
+    /**
+     * Path elements that could be interpreted as array indices.
+     */
+    private static final Pattern ARRAY_INDEX = Pattern.compile("^-?[0-9]+$|\\[");
+    /**
+     * The start of the template for the text value of a path in a json field.
+     */
+    private static final String TEXT_PATH_START = "{0}::jsonb#>>'{ ";
+    private static final String PATH_END = " }'";
     private final Expression<?> jsonField;
     private final List<String> path = new ArrayList<>();
 
     public static class ListExpressionJson extends ListExpression {
 
         private final ComparableTemplate jsonExpression;
+        private final Expression<?> jsonField;
+        private final List<String> path;
 
-        public ListExpressionJson(Map<String, Expression> expressions, Map<String, Expression> expressionsForOrder, ComparableTemplate jsonExpression) {
+        public ListExpressionJson(Map<String, Expression> expressions, Map<String, Expression> expressionsForOrder, ComparableTemplate jsonExpression, Expression<?> jsonField, List<String> path) {
             super(expressions, expressionsForOrder);
             this.jsonExpression = jsonExpression;
+            this.jsonField = jsonField;
+            this.path = path;
         }
 
         public ComparableTemplate getJsonExpression() {
@@ -66,14 +92,60 @@ public class JsonExpressionFactory {
 
         public BooleanExpression eq(Expression<?> other) {
             CompareType type = getOtherType(other);
+            BooleanExpression predicate;
             switch (type) {
                 case BOOLEAN:
                 case NUMBER:
-                    return jsonExpression.eq(otherToJson(other));
+                    predicate = jsonExpression.eq(otherToJson(other));
+                    break;
                 case STRING:
                 default:
-                    return ((StringTemplate) getExpression(KEY_STRING)).eq(StringCastExpressionFactory.build(other));
+                    predicate = ((StringTemplate) getExpression(KEY_STRING)).eq(StringCastExpressionFactory.build(other));
             }
+            BooleanExpression containment = createContainment(other);
+            if (containment == null) {
+                return predicate;
+            }
+            return containment.and(predicate);
+        }
+
+        /**
+         * Creates a containment check (@>) that is implied by the equality to
+         * the given constant. Unlike the path-based comparison, the containment
+         * check can use a GIN index on the json column. The original
+         * comparison is kept, so the result does not change.
+         *
+         * @param other The expression the json value is compared to.
+         * @return The containment check, or null if it can not be used.
+         */
+        private BooleanExpression createContainment(Expression<?> other) {
+            if (!(jsonField instanceof Path) || path.isEmpty()) {
+                return null;
+            }
+            Object value;
+            if (other instanceof ConstantNumberExpression) {
+                value = ((ConstantNumberExpression) other).getValue();
+            } else if (other instanceof ConstantStringExpression) {
+                String string = ((ConstantStringExpression) other).getValue();
+                if (string == null || NON_STRING_TEXT.matcher(string).find()) {
+                    return null;
+                }
+                value = string;
+            } else {
+                return null;
+            }
+            for (String key : path) {
+                if (ARRAY_INDEX.matcher(key).find()) {
+                    return null;
+                }
+            }
+            for (int i = path.size() - 1; i >= 0; i--) {
+                Map<String, Object> container = new LinkedHashMap<>();
+                container.put(path.get(i), value);
+                value = container;
+            }
+            String json = EntityFactories.objectToJson(value);
+            return Expressions.booleanTemplate("{0}::jsonb @> {1}::jsonb", jsonField, ConstantImpl.create(json));
         }
 
         public BooleanExpression ne(Expression<?> other) {
@@ -168,6 +240,24 @@ public class JsonExpressionFactory {
         this.jsonField = jsonField;
     }
 
+    /**
+     * Get the path of an expression created by this factory for the text
+     * value of a path in a json field. The json field is the first argument
+     * of the expression.
+     *
+     * @param expression The expression to get the path of.
+     * @return The elements of the path, or null if the expression is not the
+     * text value of a json path.
+     */
+    public static List<String> getTextPath(TemplateExpression<?> expression) {
+        String template = expression.getTemplate().toString();
+        if (!template.startsWith(TEXT_PATH_START) || !template.endsWith(PATH_END)) {
+            return null;
+        }
+        String core = template.substring(TEXT_PATH_START.length(), template.length() - PATH_END.length());
+        return Arrays.asList(core.split(",", -1));
+    }
+
     public JsonExpressionFactory addToPath(String key) {
         path.add(key);
         return this;
@@ -185,10 +275,10 @@ public class JsonExpressionFactory {
             templateCore.append(key);
         }
         String templateCoreString = templateCore.toString();
-        String templateJsonb = "{0}::jsonb#>'{ " + templateCoreString + " }'";
-        String templateString = "{0}::jsonb#>>'{ " + templateCoreString + " }'";
-        String templateNumber = "safe_cast_to_numeric({0}::jsonb#>'{ " + templateCoreString + " }')";
-        String templateBoolean = "safe_cast_to_boolean({0}::jsonb#>'{ " + templateCoreString + " }')";
+        String templateJsonb = "{0}::jsonb#>'{ " + templateCoreString + PATH_END;
+        String templateString = TEXT_PATH_START + templateCoreString + PATH_END;
+        String templateNumber = "safe_cast_to_numeric({0}::jsonb#>'{ " + templateCoreString + PATH_END + ")";
+        String templateBoolean = "safe_cast_to_boolean({0}::jsonb#>'{ " + templateCoreString + PATH_END + ")";
 
         Map<String, Expression> expressions = new HashMap<>();
         Map<String, Expression> expressionsForOrder = new HashMap<>();
@@ -201,7 +291,7 @@ public class JsonExpressionFactory {
         ComparableTemplate<String> jsonExpression = Expressions.comparableTemplate(String.class, templateJsonb, jsonField);
         expressions.put(KEY_JSONB, jsonExpression);
 
-        return new ListExpressionJson(expressions, expressionsForOrder, jsonExpression);
+        return new ListExpressionJson(expressions, expressionsForOrder, jsonExpression, jsonField, new ArrayList<>(path));
     }
 
 }
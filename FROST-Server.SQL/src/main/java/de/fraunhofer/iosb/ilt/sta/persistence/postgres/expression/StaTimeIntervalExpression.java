@@ -35,6 +35,10 @@ import java.util.Map;
 /**
  * Some paths point to time-intervals that return two column references. If the
  * references include a start and end time, they are treated as a time interval.
+ *
+ * Since the start of an interval is never after its end, every comparison also
+ * bounds the start column, even if the end column alone would suffice. This
+ * lets the database skip partitions and index ranges on the start column.
  */
 public class StaTimeIntervalExpression implements TimeExpression {
 
@@ -165,7 +169,7 @@ public class StaTimeIntervalExpression implements TimeExpression {
                 return e1.loe(t2).and(s1.lt(t2));
 
             case "<=":
-                return e1.loe(t2);
+                return e1.loe(t2).and(s1.loe(t2));
 
             case "a":
                 return s1.gt(t2);
@@ -177,16 +181,16 @@ public class StaTimeIntervalExpression implements TimeExpression {
                 return s1.loe(t2).and(e1.gt(t2));
 
             case "m":
-                return s1.eq(t2).or(e1.eq(t2));
+                return s1.loe(t2).and(s1.eq(t2).or(e1.eq(t2)));
 
             case "o":
-                return s1.eq(t2).or(s1.loe(t2).and(e1.gt(t2)));
+                return s1.loe(t2).and(s1.eq(t2).or(e1.gt(t2)));
 
             case "s":
                 return s1.eq(t2);
 
             case "f":
-                return e1.eq(t2);
+                return e1.eq(t2).and(s1.loe(t2));
 
             default:
                 throw new UnsupportedOperationException("Unknown boolean operation: " + op);
@@ -224,16 +228,16 @@ public class StaTimeIntervalExpression implements TimeExpression {
                 return s1.loe(s2).and(e1.gt(s2)).and(e1.goe(e2));
 
             case "m":
-                return s1.eq(e2).or(e1.eq(s2));
+                return s1.loe(e2).and(s1.eq(e2).or(e1.eq(s2)));
 
             case "o":
-                return s1.goe(e2).or(s2.goe(e1)).not().or(s1.eq(s2));
+                return s1.loe(e2).and(s1.goe(e2).or(s2.goe(e1)).not().or(s1.eq(s2)));
 
             case "s":
                 return s1.eq(s2);
 
             case "f":
-                return e1.eq(e2);
+                return e1.eq(e2).and(s1.loe(e2));
 
             default:
                 throw new UnsupportedOperationException("Unknown boolean operation: " + op);
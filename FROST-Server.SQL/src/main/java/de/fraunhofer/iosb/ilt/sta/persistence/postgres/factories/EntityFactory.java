@@ -50,7 +50,11 @@ public interface EntityFactory<T extends Entity, I extends SimpleExpression<J> &
     public T create(Tuple tuple, Query query, DataSize dataSize);
 
     /**
-     * Insert the given entity into the database as a new entity.
+     * Insert the given entity into the database as a new entity. If the
+     * stored row is returned by the insert statement, the entity created from
+     * it should be registered using
+     * {@link PostgresPersistenceManager#entityStored(Entity, Entity)}, so it
+     * does not have to be fetched again.
      *
      * @param pm The persistenceManager to use to access the database.
      * @param entity The entity to insert into the database.
@@ -63,7 +67,10 @@ public interface EntityFactory<T extends Entity, I extends SimpleExpression<J> &
     public boolean insert(PostgresPersistenceManager<I, J> pm, T entity) throws NoSuchEntityException, IncompleteEntityException;
 
     /**
-     * Update the given entity in the database.
+     * Update the given entity in the database. Like for inserts, if the stored
+     * row is returned by the update statement, the entity created from it
+     * should be registered using
+     * {@link PostgresPersistenceManager#entityStored(Entity, Entity)}.
      *
      * @param pm The persistenceManager to use to access the database.
      * @param entity The updated entity.
@@ -22,13 +22,12 @@ import com.querydsl.core.dml.StoreClause;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.dsl.SimpleExpression;
 import com.querydsl.sql.SQLQueryFactory;
-import com.querydsl.sql.dml.SQLInsertClause;
-import com.querydsl.sql.dml.SQLUpdateClause;
 import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
 import de.fraunhofer.iosb.ilt.sta.model.FeatureOfInterest;
 import de.fraunhofer.iosb.ilt.sta.model.MultiDatastream;
 import de.fraunhofer.iosb.ilt.sta.model.Observation;
+import de.fraunhofer.iosb.ilt.sta.model.core.Entity;
 import de.fraunhofer.iosb.ilt.sta.model.core.Id;
 import de.fraunhofer.iosb.ilt.sta.model.ext.TimeInstant;
 import de.fraunhofer.iosb.ilt.sta.model.ext.TimeValue;
@@ -38,11 +37,13 @@ import de.fraunhofer.iosb.ilt.sta.path.EntityType;
 import de.fraunhofer.iosb.ilt.sta.path.NavigationProperty;
 import de.fraunhofer.iosb.ilt.sta.path.Property;
 import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.BatchInsertClause;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.DataSize;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories;
 import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.CAN_NOT_BE_NULL;
 import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.CHANGED_MULTIPLE_ROWS;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.PostgresPersistenceManager;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.ReturningClause;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.ResultType;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.Utils;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQObservations;
@@ -52,7 +53,10 @@ import de.fraunhofer.iosb.ilt.sta.util.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.sta.util.NoSuchEntityException;
 import java.math.BigDecimal;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -192,8 +196,102 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
 
         SQLQueryFactory qFactory = pm.createQueryFactory();
         AbstractQObservations<? extends AbstractQObservations, I, J> qo = qCollection.qObservations;
-        SQLInsertClause query = qFactory.insert(qo);
+        ReturningClause query = ReturningClause.insert(qFactory, qo);
 
+        TimeValue phenomenonTime = newObservation.getPhenomenonTime();
+        if (phenomenonTime == null) {
+            phenomenonTime = TimeInstant.now();
+        }
+        if (newIsMultiDatastream) {
+            checkResultSize(newObservation.getResult(), countObservedProperties(pm, mds));
+        }
+        setInsertValues(pm, query, qo, newObservation, phenomenonTime, f);
+
+        Tuple stored = query.executeReturning(qInstance);
+        J generatedId = stored.get(qInstance.getId());
+        LOGGER.debug("Inserted Observation. Created id = {}.", generatedId);
+        newObservation.setId(entityFactories.idFromObject(generatedId));
+        pm.entityStored(newObservation, create(stored, null, new DataSize()));
+        return true;
+    }
+
+    /**
+     * Insert the given Observations using one batched insert statement. The
+     * Datastreams, MultiDatastreams and FeaturesOfInterest the Observations
+     * link to are checked, or generated, only once for the entire list.
+     * Afterwards, the inserted Observations have their id set and link to
+     * their Datastream and FeatureOfInterest by id, so they can be sent to
+     * the bus without fetching them again.
+     *
+     * @param pm The persistence manager to use.
+     * @param observations The Observations to insert.
+     * @return For each Observation, null if it was inserted, or the reason it
+     * was not inserted.
+     */
+    public List<Exception> insertBatch(PostgresPersistenceManager<I, J> pm, List<Observation> observations) {
+        List<Exception> errors = new ArrayList<>(Collections.nCopies(observations.size(), null));
+        AbstractQObservations<? extends AbstractQObservations, I, J> qo = qCollection.qObservations;
+        BatchInsertClause<J> query = new BatchInsertClause<>(pm.createQueryFactory(), qo, qo.getId());
+        BatchReferences references = new BatchReferences();
+        List<Integer> inserted = new ArrayList<>(observations.size());
+        for (int i = 0; i < observations.size(); i++) {
+            Observation observation = observations.get(i);
+            try {
+                FeatureOfInterest f = references.checkReferences(pm, observation);
+                if (observation.getPhenomenonTime() == null) {
+                    observation.setPhenomenonTime(TimeInstant.now());
+                }
+                setInsertValues(pm, query, qo, observation, observation.getPhenomenonTime(), f);
+                query.addBatch();
+                inserted.add(i);
+            } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                // Some values of this Observation may already be set.
+                query.clearRow();
+                errors.set(i, exc);
+            }
+        }
+        if (query.isEmpty()) {
+            return errors;
+        }
+        List<J> generatedIds = query.executeWithKeys();
+        if (generatedIds.size() != inserted.size()) {
+            throw new IllegalStateException("Inserted " + inserted.size() + " Observations, but got " + generatedIds.size() + " ids.");
+        }
+        LOGGER.debug("Inserted {} Observations.", generatedIds.size());
+        for (int i = 0; i < generatedIds.size(); i++) {
+            Observation observation = observations.get(inserted.get(i));
+            observation.setId(entityFactories.idFromObject(generatedIds.get(i)));
+            linkByIdForExport(observation);
+        }
+        return errors;
+    }
+
+    /**
+     * Replace the Datastream, MultiDatastream and FeatureOfInterest of the
+     * given, just inserted, Observation with id-only versions, the way they
+     * are when the Observation is loaded from the database.
+     */
+    private void linkByIdForExport(Observation observation) {
+        Datastream ds = observation.getDatastream();
+        if (ds != null) {
+            Datastream dsById = entityFactories.datastreamFromId((J) ds.getId().getValue());
+            dsById.setExportObject(true);
+            observation.setDatastream(dsById);
+        }
+        MultiDatastream mds = observation.getMultiDatastream();
+        if (mds != null) {
+            MultiDatastream mdsById = entityFactories.multiDatastreamFromId((J) mds.getId().getValue());
+            mdsById.setExportObject(true);
+            observation.setMultiDatastream(mdsById);
+        }
+        FeatureOfInterest foiById = entityFactories.featureOfInterestFromId((J) observation.getFeatureOfInterest().getId().getValue());
+        foiById.setExportObject(true);
+        observation.setFeatureOfInterest(foiById);
+    }
+
+    private <T extends StoreClause> void setInsertValues(PostgresPersistenceManager<I, J> pm, T query, AbstractQObservations<? extends AbstractQObservations, I, J> qo, Observation newObservation, TimeValue phenomenonTime, FeatureOfInterest f) throws IncompleteEntityException {
+        Datastream ds = newObservation.getDatastream();
+        MultiDatastream mds = newObservation.getMultiDatastream();
         if (ds != null) {
             query.set(qo.getDatastreamId(), (J) ds.getId().getValue());
         }
@@ -201,28 +299,19 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
             query.set(qo.getMultiDatastreamId(), (J) mds.getId().getValue());
         }
 
-        TimeValue phenomenonTime = newObservation.getPhenomenonTime();
-        if (phenomenonTime == null) {
-            phenomenonTime = TimeInstant.now();
-        }
         EntityFactories.insertTimeValue(query, qo.phenomenonTimeStart, qo.phenomenonTimeEnd, phenomenonTime);
         EntityFactories.insertTimeInstant(query, qo.resultTime, newObservation.getResultTime());
         EntityFactories.insertTimeInterval(query, qo.validTimeStart, qo.validTimeEnd, newObservation.getValidTime());
 
-        handleResult(newObservation, newIsMultiDatastream, pm, query, qo);
+        setResult(newObservation.getResult(), query, qo);
 
         if (newObservation.getResultQuality() != null) {
-            query.set(qo.resultQuality, newObservation.getResultQuality().toString());
+            query.set(qo.resultQuality, EntityFactories.objectToJson(newObservation.getResultQuality()));
         }
         query.set(qo.parameters, EntityFactories.objectToJson(newObservation.getParameters()));
         query.set(qo.getFeatureId(), (J) f.getId().getValue());
 
         entityFactories.insertUserDefinedId(pm, query, qo.getId(), newObservation);
-
-        J generatedId = query.executeWithKey(qo.getId());
-        LOGGER.debug("Inserted Observation. Created id = {}.", generatedId);
-        newObservation.setId(entityFactories.idFromObject(generatedId));
-        return true;
     }
 
     @Override
@@ -231,7 +320,7 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
 
         SQLQueryFactory qFactory = pm.createQueryFactory();
         AbstractQObservations<? extends AbstractQObservations, I, J> qo = qCollection.qObservations;
-        SQLUpdateClause query = qFactory.update(qo);
+        ReturningClause query = ReturningClause.update(qFactory, qo, qo.getId(), id);
         EntityChangedMessage message = new EntityChangedMessage();
 
         boolean newHasDatastream = checkDatastreamSet(newObservation, oldObservation, message, query, qo, pm);
@@ -276,14 +365,17 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
             EntityFactories.insertTimeInterval(query, qo.validTimeStart, qo.validTimeEnd, newObservation.getValidTime());
             message.addField(EntityProperty.VALIDTIME);
         }
-        query.where(qo.getId().eq(id));
-        long count = 0;
         if (!query.isEmpty()) {
-            count = query.execute();
-        }
-        if (count > 1) {
-            LOGGER.error("Updating Observation {} caused {} rows to change!", id, count);
-            throw new IllegalStateException(CHANGED_MULTIPLE_ROWS);
+            Tuple stored;
+            try {
+                stored = query.executeReturning(qInstance);
+            } catch (IllegalStateException exc) {
+                LOGGER.error("Updating Observation {} caused multiple rows to change!", id);
+                throw new IllegalStateException(CHANGED_MULTIPLE_ROWS, exc);
+            }
+            if (stored != null) {
+                pm.entityStored(newObservation, create(stored, null, new DataSize()));
+            }
         }
         LOGGER.debug("Updated Observation {}", id);
         return message;
@@ -292,19 +384,28 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
     private void handleResult(Observation newObservation, boolean newIsMultiDatastream, PostgresPersistenceManager<I, J> pm, StoreClause query, AbstractQObservations<? extends AbstractQObservations, I, J> qo) {
         Object result = newObservation.getResult();
         if (newIsMultiDatastream) {
-            MultiDatastream mds = newObservation.getMultiDatastream();
-            if (!(result instanceof List)) {
-                throw new IllegalArgumentException("Multidatastream only accepts array results.");
-            }
-            List list = (List) result;
-            ResourcePath path = mds.getPath();
-            path.addPathElement(new EntitySetPathElement(EntityType.OBSERVEDPROPERTY, null), false, false);
-            long count = pm.count(path, null);
-            if (count != list.size()) {
-                throw new IllegalArgumentException("Size of result array (" + list.size() + ") must match number of observed properties (" + count + ") in the MultiDatastream.");
-            }
+            checkResultSize(result, countObservedProperties(pm, newObservation.getMultiDatastream()));
         }
+        setResult(result, query, qo);
+    }
 
+    private long countObservedProperties(PostgresPersistenceManager<I, J> pm, MultiDatastream mds) {
+        ResourcePath path = mds.getPath();
+        path.addPathElement(new EntitySetPathElement(EntityType.OBSERVEDPROPERTY, null), false, false);
+        return pm.count(path, null);
+    }
+
+    private static void checkResultSize(Object result, long count) {
+        if (!(result instanceof List)) {
+            throw new IllegalArgumentException("Multidatastream only accepts array results.");
+        }
+        List list = (List) result;
+        if (count != list.size()) {
+            throw new IllegalArgumentException("Size of result array (" + list.size() + ") must match number of observed properties (" + count + ") in the MultiDatastream.");
+        }
+    }
+
+    private void setResult(Object result, StoreClause query, AbstractQObservations<? extends AbstractQObservations, I, J> qo) {
         if (result instanceof Number) {
             query.set(qo.resultType, ResultType.NUMBER.sqlValue());
             query.set(qo.resultString, result.toString());
@@ -332,7 +433,7 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
         }
     }
 
-    private boolean checkMultiDatastreamSet(Observation oldObservation, Observation newObservation, EntityChangedMessage message, SQLUpdateClause update, AbstractQObservations<? extends AbstractQObservations, I, J> qo, PostgresPersistenceManager<I, J> pm) throws IncompleteEntityException {
+    private boolean checkMultiDatastreamSet(Observation oldObservation, Observation newObservation, EntityChangedMessage message, StoreClause update, AbstractQObservations<? extends AbstractQObservations, I, J> qo, PostgresPersistenceManager<I, J> pm) throws IncompleteEntityException {
         MultiDatastream mds = oldObservation.getMultiDatastream();
         boolean newHasMultiDatastream = mds != null;
         if (newObservation.isSetMultiDatastream()) {
@@ -353,7 +454,7 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
         return newHasMultiDatastream;
     }
 
-    private boolean checkDatastreamSet(Observation newObservation, Observation oldObservation, EntityChangedMessage message, SQLUpdateClause update, AbstractQObservations<? extends AbstractQObservations, I, J> qo, PostgresPersistenceManager<I, J> pm) throws IncompleteEntityException {
+    private boolean checkDatastreamSet(Observation newObservation, Observation oldObservation, EntityChangedMessage message, StoreClause update, AbstractQObservations<? extends AbstractQObservations, I, J> qo, PostgresPersistenceManager<I, J> pm) throws IncompleteEntityException {
         Datastream ds = oldObservation.getDatastream();
         boolean newHasDatastream = ds != null;
         if (newObservation.isSetDatastream()) {
@@ -385,6 +486,92 @@ public class ObservationFactory<I extends SimpleExpression<J> & Path<J>, J> impl
         }
     }
 
+    /**
+     * Caches the checks of the entities linked to by the Observations of one
+     * batch, so each linked entity is checked, or generated, only once.
+     */
+    private class BatchReferences {
+
+        private final Map<EntityType, Map<Id, Exception>> checkedEntities = new EnumMap<>(EntityType.class);
+        private final Map<EntityType, Map<Id, FeatureOfInterest>> generatedFeatures = new EnumMap<>(EntityType.class);
+        private final Map<Id, Long> observedPropertyCounts = new HashMap<>();
+
+        /**
+         * Checks the Datastream or MultiDatastream and FeatureOfInterest of
+         * the given Observation, and the result size for MultiDatastreams.
+         *
+         * @return The FeatureOfInterest to link the Observation to.
+         */
+        public FeatureOfInterest checkReferences(PostgresPersistenceManager<I, J> pm, Observation observation) throws NoSuchEntityException, IncompleteEntityException {
+            Datastream ds = observation.getDatastream();
+            MultiDatastream mds = observation.getMultiDatastream();
+            Entity stream;
+            if (ds != null) {
+                stream = ds;
+                checkOnce(pm, ds);
+            } else if (mds != null) {
+                stream = mds;
+                checkOnce(pm, mds);
+                Long count = observedPropertyCounts.get(mds.getId());
+                if (count == null) {
+                    count = countObservedProperties(pm, mds);
+                    observedPropertyCounts.put(mds.getId(), count);
+                }
+                checkResultSize(observation.getResult(), count);
+            } else {
+                throw new IncompleteEntityException("Missing Datastream or MultiDatastream.");
+            }
+
+            FeatureOfInterest f = observation.getFeatureOfInterest();
+            if (f == null) {
+                Map<Id, FeatureOfInterest> generated = generatedFeatures.computeIfAbsent(stream.getEntityType(), t -> new HashMap<>());
+                f = generated.get(stream.getId());
+                if (f == null) {
+                    f = entityFactories.generateFeatureOfInterest(pm, stream.getId(), mds != null);
+                    generated.put(stream.getId(), f);
+                }
+                observation.setFeatureOfInterest(f);
+            } else {
+                checkOnce(pm, f);
+            }
+            return f;
+        }
+
+        /**
+         * Checks if the given entity exists, or creates it if it has no id.
+         * Entities with an id are only checked once per batch.
+         */
+        private void checkOnce(PostgresPersistenceManager<I, J> pm, Entity entity) throws NoSuchEntityException, IncompleteEntityException {
+            if (entity.getId() == null) {
+                entityFactories.entityExistsOrCreate(pm, entity);
+                return;
+            }
+            Map<Id, Exception> checked = checkedEntities.computeIfAbsent(entity.getEntityType(), t -> new HashMap<>());
+            Exception previous;
+            if (checked.containsKey(entity.getId())) {
+                previous = checked.get(entity.getId());
+            } else {
+                previous = check(pm, entity);
+                checked.put(entity.getId(), previous);
+            }
+            if (previous instanceof NoSuchEntityException) {
+                throw (NoSuchEntityException) previous;
+            }
+            if (previous instanceof IncompleteEntityException) {
+                throw (IncompleteEntityException) previous;
+            }
+        }
+
+        private Exception check(PostgresPersistenceManager<I, J> pm, Entity entity) {
+            try {
+                entityFactories.entityExistsOrCreate(pm, entity);
+                return null;
+            } catch (NoSuchEntityException | IncompleteEntityException exc) {
+                return exc;
+            }
+        }
+    }
+
     @Override
     public EntityType getEntityType() {
         return EntityType.OBSERVATION;
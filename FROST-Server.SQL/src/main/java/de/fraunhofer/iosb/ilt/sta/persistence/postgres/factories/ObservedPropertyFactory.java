@@ -22,7 +22,6 @@ import com.querydsl.core.types.Path;
 import com.querydsl.core.types.dsl.SimpleExpression;
 import com.querydsl.sql.SQLExpressions;
 import com.querydsl.sql.SQLQueryFactory;
-import com.querydsl.sql.dml.SQLInsertClause;
 import com.querydsl.sql.dml.SQLUpdateClause;
 import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
@@ -38,6 +37,7 @@ import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.CA
 import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.CHANGED_MULTIPLE_ROWS;
 import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.NO_ID_OR_NOT_FOUND;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.PostgresPersistenceManager;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.ReturningClause;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.Utils;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQDatastreams;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQMultiDatastreams;
@@ -97,7 +97,7 @@ public class ObservedPropertyFactory<I extends SimpleExpression<J> & Path<J>, J>
     public boolean insert(PostgresPersistenceManager<I, J> pm, ObservedProperty op) throws NoSuchEntityException, IncompleteEntityException {
         SQLQueryFactory qFactory = pm.createQueryFactory();
         AbstractQObsProperties<? extends AbstractQObsProperties, I, J> qop = qCollection.qObsProperties;
-        SQLInsertClause insert = qFactory.insert(qop);
+        ReturningClause insert = ReturningClause.insert(qFactory, qop);
         insert.set(qop.definition, op.getDefinition());
         insert.set(qop.name, op.getName());
         insert.set(qop.description, op.getDescription());
@@ -105,9 +105,11 @@ public class ObservedPropertyFactory<I extends SimpleExpression<J> & Path<J>, J>
 
         entityFactories.insertUserDefinedId(pm, insert, qop.getId(), op);
 
-        J generatedId = insert.executeWithKey(qop.getId());
+        Tuple stored = insert.executeReturning(qInstance);
+        J generatedId = stored.get(qInstance.getId());
         LOGGER.debug("Inserted ObservedProperty. Created id = {}.", generatedId);
         op.setId(entityFactories.idFromObject(generatedId));
+        pm.entityStored(op, create(stored, null, new DataSize()));
 
         // Create new datastreams, if any.
         for (Datastream ds : op.getDatastreams()) {
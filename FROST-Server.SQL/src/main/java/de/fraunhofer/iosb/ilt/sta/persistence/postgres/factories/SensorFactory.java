@@ -21,7 +21,6 @@ import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.dsl.SimpleExpression;
 import com.querydsl.sql.SQLQueryFactory;
-import com.querydsl.sql.dml.SQLInsertClause;
 import com.querydsl.sql.dml.SQLUpdateClause;
 import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.sta.model.Datastream;
@@ -36,6 +35,7 @@ import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.CA
 import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.CHANGED_MULTIPLE_ROWS;
 import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.NO_ID_OR_NOT_FOUND;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.PostgresPersistenceManager;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.ReturningClause;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.Utils;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQDatastreams;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQMultiDatastreams;
@@ -99,7 +99,7 @@ public class SensorFactory<I extends SimpleExpression<J> & Path<J>, J> implement
     public boolean insert(PostgresPersistenceManager<I, J> pm, Sensor s) throws NoSuchEntityException, IncompleteEntityException {
         SQLQueryFactory qFactory = pm.createQueryFactory();
         AbstractQSensors<? extends AbstractQSensors, I, J> qs = qCollection.qSensors;
-        SQLInsertClause insert = qFactory.insert(qs);
+        ReturningClause insert = ReturningClause.insert(qFactory, qs);
         insert.set(qs.name, s.getName());
         insert.set(qs.description, s.getDescription());
         insert.set(qs.encodingType, s.getEncodingType());
@@ -109,9 +109,11 @@ public class SensorFactory<I extends SimpleExpression<J> & Path<J>, J> implement
 
         entityFactories.insertUserDefinedId(pm, insert, qs.getId(), s);
 
-        J generatedId = insert.executeWithKey(qs.getId());
+        Tuple stored = insert.executeReturning(qInstance);
+        J generatedId = stored.get(qInstance.getId());
         LOGGER.debug("Inserted Sensor. Created id = {}.", generatedId);
         s.setId(entityFactories.idFromObject(generatedId));
+        pm.entityStored(s, create(stored, null, new DataSize()));
 
         // Create new datastreams, if any.
         for (Datastream ds : s.getDatastreams()) {
@@ -41,6 +41,7 @@ import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.LI
 import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.NO_ID_OR_NOT_FOUND;
 import static de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityFactories.UNLINKED_L_FROM_T;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.PostgresPersistenceManager;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.ReturningClause;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.Utils;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQDatastreams;
 import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQHistLocations;
@@ -106,16 +107,18 @@ public class ThingFactory<I extends SimpleExpression<J> & Path<J>, J> implements
     public boolean insert(PostgresPersistenceManager<I, J> pm, Thing t) throws NoSuchEntityException, IncompleteEntityException {
         SQLQueryFactory qFactory = pm.createQueryFactory();
         AbstractQThings<? extends AbstractQThings, I, J> qt = qCollection.qThings;
-        SQLInsertClause insert = qFactory.insert(qt);
-        insert.set(qt.name, t.getName());
-        insert.set(qt.description, t.getDescription());
-        insert.set(qt.properties, EntityFactories.objectToJson(t.getProperties()));
+        ReturningClause thingInsert = ReturningClause.insert(qFactory, qt);
+        thingInsert.set(qt.name, t.getName());
+        thingInsert.set(qt.description, t.getDescription());
+        thingInsert.set(qt.properties, EntityFactories.objectToJson(t.getProperties()));
 
-        entityFactories.insertUserDefinedId(pm, insert, qt.getId(), t);
+        entityFactories.insertUserDefinedId(pm, thingInsert, qt.getId(), t);
 
-        J thingId = insert.executeWithKey(qt.getId());
+        Tuple stored = thingInsert.executeReturning(qInstance);
+        J thingId = stored.get(qInstance.getId());
         LOGGER.debug("Inserted Thing. Created id = {}.", thingId);
         t.setId(entityFactories.idFromObject(thingId));
+        pm.entityStored(t, create(stored, null, new DataSize()));
 
         // Create new Locations, if any.
         List<J> locationIds = new ArrayList<>();
@@ -124,7 +127,7 @@ public class ThingFactory<I extends SimpleExpression<J> & Path<J>, J> implements
             J lId = (J) l.getId().getValue();
 
             AbstractQThingsLocations<? extends AbstractQThingsLocations, I, J> qtl = qCollection.qThingsLocations;
-            insert = qFactory.insert(qtl);
+            SQLInsertClause insert = qFactory.insert(qtl);
             insert.set(qtl.getThingId(), thingId);
             insert.set(qtl.getLocationId(), lId);
             insert.execute();
@@ -135,7 +138,7 @@ public class ThingFactory<I extends SimpleExpression<J> & Path<J>, J> implements
         // Now link the new locations also to a historicalLocation.
         if (!locationIds.isEmpty()) {
             AbstractQHistLocations<? extends AbstractQHistLocations, I, J> qhl = qCollection.qHistLocations;
-            insert = qFactory.insert(qhl);
+            SQLInsertClause insert = qFactory.insert(qhl);
             insert.set(qhl.getThingId(), thingId);
             insert.set(qhl.time, new Timestamp(Calendar.getInstance().getTimeInMillis()));
             J histLocationId = insert.executeWithKey(qhl.getId());
@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres.messagebus;
+
+import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.sta.messagebus.EntityChangedMessageSerialiser;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageBusFactory;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageCodec;
+import de.fraunhofer.iosb.ilt.sta.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.sta.model.core.Id;
+import de.fraunhofer.iosb.ilt.sta.persistence.PersistenceManagerFactory;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.ConnectionUtils;
+import de.fraunhofer.iosb.ilt.sta.settings.ConfigDefaults;
+import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.sta.settings.Settings;
+import de.fraunhofer.iosb.ilt.sta.settings.annotation.DefaultValue;
+import de.fraunhofer.iosb.ilt.sta.settings.annotation.DefaultValueInt;
+import de.fraunhofer.iosb.ilt.sta.util.LiquibaseUtils;
+import de.fraunhofer.iosb.ilt.sta.util.OverflowHandler;
+import de.fraunhofer.iosb.ilt.sta.util.PartitionedQueue;
+import de.fraunhofer.iosb.ilt.sta.util.ProcessorHelper;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A message bus implementation that uses the PostgreSQL database of the
+ * persistence manager to distribute messages between FROST instances, using
+ * NOTIFY and LISTEN. Messages that are too large for a notification are
+ * stored in an outbox table, and only their id is sent in the notification.
+ *
+ * The database connection is configured through the persistence settings.
+ * Each instance uses one dedicated connection to listen for notifications.
+ *
+ * @author scf
+ */
+public class PostgresMessageBus implements MessageBus, ConfigDefaults {
+
+    @DefaultValueInt(2)
+    public static final String TAG_SEND_WORKER_COUNT = "sendWorkerPoolSize";
+    @DefaultValueInt(2)
+    public static final String TAG_RECV_WORKER_COUNT = "recvWorkerPoolSize";
+    @DefaultValueInt(100)
+    public static final String TAG_SEND_QUEUE_SIZE = "sendQueueSize";
+    @DefaultValueInt(100)
+    public static final String TAG_RECV_QUEUE_SIZE = "recvQueueSize";
+    @DefaultValue("frost_bus")
+    public static final String TAG_CHANNEL_NAME = "channelName";
+    @DefaultValueInt(7000)
+    public static final String TAG_MAX_NOTIFY_SIZE = "maxNotifySize";
+    @DefaultValueInt(20)
+    public static final String TAG_POLL_INTERVAL = "pollInterval";
+    @DefaultValueInt(300)
+    public static final String TAG_OUTBOX_RETENTION = "outboxRetention";
+    @DefaultValueInt(1)
+    public static final String TAG_MAX_BATCH_SIZE = "maxBatchSize";
+    @DefaultValueInt(10)
+    public static final String TAG_MAX_BATCH_DELAY = "maxBatchDelay";
+    @DefaultValue("DROP")
+    public static final String TAG_SEND_QUEUE_OVERFLOW = "sendQueueOverflow";
+    @DefaultValue("DROP")
+    public static final String TAG_RECV_QUEUE_OVERFLOW = "recvQueueOverflow";
+    @DefaultValueInt(1000)
+    public static final String TAG_QUEUE_BLOCK_TIMEOUT = "queueBlockTimeout";
+    @DefaultValueInt(64)
+    public static final String TAG_QUEUE_SPILL_SIZE = "queueSpillSize";
+
+    private static final String SEND_PROCESSOR_NAME = "pgBusSend";
+    private static final String RECV_PROCESSOR_NAME = "pgBusRecv";
+    private static final String SOURCE_NAME = "FROST-Source";
+    private static final Pattern CHANNEL_NAME_PATTERN = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+    /**
+     * Prefix for notifications that contain the messages, base64 encoded.
+     */
+    private static final String PREFIX_INLINE = "m:";
+    /**
+     * Prefix for notifications that contain the id of an outbox row.
+     */
+    private static final String PREFIX_OUTBOX = "o:";
+    private static final String SQL_NOTIFY = "SELECT pg_notify(?, ?)";
+    private static final String SQL_OUTBOX_INSERT = "INSERT INTO \"BUS_OUTBOX\" (\"PAYLOAD\") VALUES (?) RETURNING \"ID\"";
+    private static final String SQL_OUTBOX_SELECT = "SELECT \"PAYLOAD\" FROM \"BUS_OUTBOX\" WHERE \"ID\" = ?";
+    private static final String SQL_OUTBOX_CLEAN = "DELETE FROM \"BUS_OUTBOX\" WHERE \"CREATED\" < now() - ? * interval '1 second'";
+    private static final long RECONNECT_DELAY = 5000;
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PostgresMessageBus.class);
+
+    private int sendPoolSize;
+    private int sendQueueSize;
+    private int recvPoolSize;
+    private int recvQueueSize;
+    private BlockingQueue<EntityChangedMessage> sendQueue;
+    private ExecutorService sendService;
+    private OverflowHandler<EntityChangedMessage> sendOverflow;
+    private BlockingQueue<EntityChangedMessage> recvQueue;
+    private ExecutorService recvService;
+    private OverflowHandler<EntityChangedMessage> recvOverflow;
+    private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The persistence settings, used to connect to the database.
+     */
+    private Settings persistenceSettings;
+    private String channelName;
+    /**
+     * The maximum length of a notification payload. Larger payloads go
+     * through the outbox table.
+     */
+    private int maxNotifySize;
+    /**
+     * The time, in milliseconds, between checks for new notifications.
+     */
+    private long pollInterval;
+    /**
+     * The time, in seconds, that rows are kept in the outbox table.
+     */
+    private int outboxRetention;
+    private volatile long nextOutboxClean = 0;
+
+    private Thread listenThread;
+    private volatile boolean listening = false;
+    private Connection listenConnection;
+
+    private MessageCodec codec;
+
+    @Override
+    public void init(CoreSettings settings) {
+        Settings customSettings = settings.getBusSettings().getCustomSettings();
+        persistenceSettings = settings.getPersistenceSettings().getCustomSettings();
+        sendPoolSize = customSettings.getInt(TAG_SEND_WORKER_COUNT, getClass());
+        sendQueueSize = customSettings.getInt(TAG_SEND_QUEUE_SIZE, getClass());
+        recvPoolSize = customSettings.getInt(TAG_RECV_WORKER_COUNT, getClass());
+        recvQueueSize = customSettings.getInt(TAG_RECV_QUEUE_SIZE, getClass());
+        channelName = customSettings.get(TAG_CHANNEL_NAME, getClass());
+        if (!CHANNEL_NAME_PATTERN.matcher(channelName).matches()) {
+            throw new IllegalArgumentException(TAG_CHANNEL_NAME + " must be a valid identifier, not '" + channelName + "'");
+        }
+        maxNotifySize = customSettings.getInt(TAG_MAX_NOTIFY_SIZE, getClass());
+        pollInterval = customSettings.getInt(TAG_POLL_INTERVAL, getClass());
+        outboxRetention = customSettings.getInt(TAG_OUTBOX_RETENTION, getClass());
+        int maxBatchSize = customSettings.getInt(TAG_MAX_BATCH_SIZE, getClass());
+        int maxBatchDelay = customSettings.getInt(TAG_MAX_BATCH_DELAY, getClass());
+
+        settings.addLiquibaseUser(PostgresMessageBusTables.class);
+        if (settings.getPersistenceSettings().isAutoUpdateDatabase()) {
+            PostgresMessageBusTables tables = new PostgresMessageBusTables();
+            tables.init(settings);
+            LiquibaseUtils.maybeUpdateDatabase(LOGGER, tables);
+        }
+
+        Class<? extends Id> idClass = PersistenceManagerFactory.getInstance().create().getIdManager().getIdClass();
+        codec = MessageBusFactory.createCodec(settings, idClass);
+
+        PartitionedQueue<EntityChangedMessage> sendPartitions = new PartitionedQueue<>(sendPoolSize, sendQueueSize, EntityChangedMessage::getPartitionKey);
+        sendQueue = sendPartitions;
+        if (maxBatchSize > 1) {
+            sendService = ProcessorHelper.createPartitionedBatchProcessors(
+                    sendPartitions,
+                    this::handleMessagesSent,
+                    maxBatchSize,
+                    maxBatchDelay,
+                    SEND_PROCESSOR_NAME);
+        } else {
+            sendService = ProcessorHelper.createPartitionedProcessors(
+                    sendPartitions,
+                    this::handleMessageSent,
+                    SEND_PROCESSOR_NAME);
+        }
+
+        PartitionedQueue<EntityChangedMessage> recvPartitions = new PartitionedQueue<>(recvPoolSize, recvQueueSize, EntityChangedMessage::getPartitionKey);
+        recvQueue = recvPartitions;
+        recvService = ProcessorHelper.createPartitionedProcessors(
+                recvPartitions,
+                this::handleMessageReceived,
+                RECV_PROCESSOR_NAME);
+
+        long blockTimeout = customSettings.getInt(TAG_QUEUE_BLOCK_TIMEOUT, getClass());
+        int spillSize = customSettings.getInt(TAG_QUEUE_SPILL_SIZE, getClass()) * 1024 * 1024;
+        sendOverflow = new OverflowHandler<>(
+                SEND_PROCESSOR_NAME,
+                sendQueue,
+                OverflowHandler.parsePolicy(customSettings.get(TAG_SEND_QUEUE_OVERFLOW, getClass())),
+                blockTimeout,
+                "Increase " + TAG_SEND_QUEUE_SIZE + " (currently " + sendQueueSize + ") to allow a bigger buffer, or increase " + TAG_SEND_WORKER_COUNT + " (currently " + sendPoolSize + ") to empty the buffer quicker.",
+                settings.getTempPath(),
+                spillSize,
+                new EntityChangedMessageSerialiser(idClass, true));
+        recvOverflow = new OverflowHandler<>(
+                RECV_PROCESSOR_NAME,
+                recvQueue,
+                OverflowHandler.parsePolicy(customSettings.get(TAG_RECV_QUEUE_OVERFLOW, getClass())),
+                blockTimeout,
+                "Increase " + TAG_RECV_QUEUE_SIZE + " (currently " + recvQueueSize + ") to allow a bigger buffer, or increase " + TAG_RECV_WORKER_COUNT + " (currently " + recvPoolSize + ") to empty the buffer quicker.",
+                settings.getTempPath(),
+                spillSize,
+                new EntityChangedMessageSerialiser(idClass, false));
+    }
+
+    private synchronized void startListening() {
+        if (listening) {
+            return;
+        }
+        LOGGER.info("Listening on database channel: {}", channelName);
+        listening = true;
+        listenThread = new Thread(this::listen, "pgBusListen");
+        listenThread.setDaemon(true);
+        listenThread.start();
+    }
+
+    private synchronized void stopListening() {
+        if (!listening) {
+            return;
+        }
+        LOGGER.info("Stopped listening on database channel: {}", channelName);
+        listening = false;
+        listenThread.interrupt();
+        try {
+            listenThread.join(RECONNECT_DELAY);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        listenThread = null;
+    }
+
+    private void listen() {
+        while (listening) {
+            try {
+                if (listenConnection == null) {
+                    openListenConnection();
+                }
+                pollNotifications();
+                Thread.sleep(pollInterval);
+            } catch (SQLException ex) {
+                LOGGER.error("Failed to listen for notifications, reconnecting in {} ms: {}", RECONNECT_DELAY, ex.getMessage());
+                LOGGER.debug("Exception:", ex);
+                closeListenConnection();
+                if (!sleepQuietly(RECONNECT_DELAY)) {
+                    break;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        closeListenConnection();
+    }
+
+    private void openListenConnection() throws SQLException {
+        listenConnection = ConnectionUtils.getDedicatedConnection(persistenceSettings);
+        try (Statement stmt = listenConnection.createStatement()) {
+            stmt.execute("LISTEN \"" + channelName + "\"");
+        }
+    }
+
+    private void closeListenConnection() {
+        if (listenConnection == null) {
+            return;
+        }
+        try {
+            listenConnection.close();
+        } catch (SQLException ex) {
+            LOGGER.debug("Exception closing listen connection.", ex);
+        }
+        listenConnection = null;
+    }
+
+    private static boolean sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Fetches the pending notifications. The driver only reads notifications
+     * from the connection when it talks to the server, hence the dummy query.
+     */
+    private void pollNotifications() throws SQLException {
+        try (Statement stmt = listenConnection.createStatement()) {
+            stmt.execute("SELECT 1");
+        }
+        PGNotification[] notifications = listenConnection.unwrap(PGConnection.class).getNotifications();
+        if (notifications == null) {
+            return;
+        }
+        for (PGNotification notification : notifications) {
+            handleNotification(notification.getParameter());
+        }
+    }
+
+    private void handleNotification(String payload) throws SQLException {
+        byte[] bytes;
+        if (payload.startsWith(PREFIX_INLINE)) {
+            bytes = Base64.getDecoder().decode(payload.substring(PREFIX_INLINE.length()));
+        } else if (payload.startsWith(PREFIX_OUTBOX)) {
+            bytes = loadFromOutbox(Long.parseLong(payload.substring(PREFIX_OUTBOX.length())));
+        } else {
+            LOGGER.warn("Received unknown notification on channel {}.", channelName);
+            return;
+        }
+        if (bytes == null) {
+            LOGGER.warn("Outbox entry for notification {} no longer exists, increase {}.", payload, TAG_OUTBOX_RETENTION);
+            return;
+        }
+        try {
+            for (EntityChangedMessage message : codec.decode(bytes)) {
+                recvOverflow.offer(message);
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.error("Failed to decode message from bus.", ex);
+        }
+    }
+
+    private byte[] loadFromOutbox(long id) throws SQLException {
+        try (PreparedStatement stmt = listenConnection.prepareStatement(SQL_OUTBOX_SELECT)) {
+            stmt.setLong(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getBytes(1);
+                }
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        LOGGER.info("Message bus shutting down.");
+        stopListening();
+        sendOverflow.close();
+        recvOverflow.close();
+        ProcessorHelper.shutdownProcessors(sendService, sendQueue, 10, TimeUnit.SECONDS);
+        ProcessorHelper.shutdownProcessors(recvService, recvQueue, 10, TimeUnit.SECONDS);
+        LOGGER.info("Message bus closed.");
+    }
+
+    @Override
+    public void sendMessage(EntityChangedMessage message) {
+        sendOverflow.offer(message);
+    }
+
+    @Override
+    public synchronized void addMessageListener(MessageListener listener) {
+        listeners.add(listener);
+        startListening();
+    }
+
+    @Override
+    public synchronized void removeMessageListener(MessageListener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty()) {
+            stopListening();
+        }
+    }
+
+    private void handleMessageSent(EntityChangedMessage message) {
+        handleMessagesSent(Collections.singletonList(message));
+    }
+
+    private void handleMessagesSent(List<EntityChangedMessage> messages) {
+        byte[] bytes;
+        try {
+            bytes = codec.encode(messages);
+        } catch (IOException ex) {
+            LOGGER.error("Failed to encode " + messages.size() + " message(s) for the bus.", ex);
+            return;
+        }
+        String inline = PREFIX_INLINE + Base64.getEncoder().encodeToString(bytes);
+        try (Connection connection = ConnectionUtils.getConnection(SOURCE_NAME, persistenceSettings)) {
+            try {
+                if (inline.length() <= maxNotifySize) {
+                    notify(connection, inline);
+                } else {
+                    long id = insertIntoOutbox(connection, bytes);
+                    notify(connection, PREFIX_OUTBOX + id);
+                    maybeCleanOutbox(connection);
+                }
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        } catch (SQLException ex) {
+            LOGGER.error("Failed to publish " + messages.size() + " message(s) to bus.", ex);
+        }
+    }
+
+    private void notify(Connection connection, String payload) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(SQL_NOTIFY)) {
+            stmt.setString(1, channelName);
+            stmt.setString(2, payload);
+            stmt.execute();
+        }
+    }
+
+    private static long insertIntoOutbox(Connection connection, byte[] bytes) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(SQL_OUTBOX_INSERT)) {
+            stmt.setBytes(1, bytes);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Removes old rows from the outbox, at most once per half retention
+     * period.
+     */
+    private void maybeCleanOutbox(Connection connection) throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now < nextOutboxClean) {
+            return;
+        }
+        nextOutboxClean = now + outboxRetention * 500L;
+        try (PreparedStatement stmt = connection.prepareStatement(SQL_OUTBOX_CLEAN)) {
+            stmt.setInt(1, outboxRetention);
+            int count = stmt.executeUpdate();
+            LOGGER.debug("Removed {} rows from the bus outbox.", count);
+        }
+    }
+
+    private void handleMessageReceived(EntityChangedMessage message) {
+        for (MessageListener listener : listeners) {
+            try {
+                listener.messageReceived(message);
+            } catch (Exception ex) {
+                LOGGER.error("Listener threw exception on message reception.", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres.messagebus;
+
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.ConnectionUtils;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.LiquibaseHelper;
+import de.fraunhofer.iosb.ilt.sta.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.sta.settings.Settings;
+import de.fraunhofer.iosb.ilt.sta.util.LiquibaseUser;
+import de.fraunhofer.iosb.ilt.sta.util.UpgradeFailedException;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the outbox table used by the {@link PostgresMessageBus} for
+ * messages that are too large for a notification. The table is created in
+ * the database of the persistence manager.
+ *
+ * @author scf
+ */
+public class PostgresMessageBusTables implements LiquibaseUser {
+
+    public static final String LIQUIBASE_CHANGELOG_FILENAME = "liquibase/busOutbox.xml";
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PostgresMessageBusTables.class);
+
+    private Settings persistenceSettings;
+
+    @Override
+    public void init(CoreSettings coreSettings) {
+        persistenceSettings = coreSettings.getPersistenceSettings().getCustomSettings();
+    }
+
+    @Override
+    public String checkForUpgrades() {
+        try {
+            Connection connection = ConnectionUtils.getConnection("FROST-Source", persistenceSettings);
+            return LiquibaseHelper.checkForUpgrades(connection, LIQUIBASE_CHANGELOG_FILENAME);
+        } catch (SQLException ex) {
+            LOGGER.error("Could not initialise database.", ex);
+            return "Failed to initialise database:\n"
+                    + ex.getLocalizedMessage()
+                    + "\n";
+        }
+    }
+
+    @Override
+    public boolean doUpgrades(Writer out) throws UpgradeFailedException, IOException {
+        Connection connection;
+        try {
+            connection = ConnectionUtils.getConnection("FROST-Source", persistenceSettings);
+        } catch (SQLException ex) {
+            LOGGER.error("Could not initialise database.", ex);
+            out.append("Failed to initialise database:\n");
+            out.append(ex.getLocalizedMessage());
+            out.append("\n");
+            return false;
+        }
+        return LiquibaseHelper.doUpgrades(connection, LIQUIBASE_CHANGELOG_FILENAME, out);
+    }
+
+}
@@ -53,7 +53,7 @@ public abstract class AbstractQDatastreams<T extends AbstractQDatastreams, I ext
         addMetadata(observedArea, ColumnMetadata.named("OBSERVED_AREA").ofType(Types.OTHER).withSize(2147483647));
         addMetadata(phenomenonTimeEnd, ColumnMetadata.named("PHENOMENON_TIME_END").ofType(Types.TIMESTAMP).withSize(23).withDigits(10));
         addMetadata(phenomenonTimeStart, ColumnMetadata.named("PHENOMENON_TIME_START").ofType(Types.TIMESTAMP).withSize(23).withDigits(10));
-        addMetadata(properties, ColumnMetadata.named("PROPERTIES").ofType(Types.CLOB).withSize(2147483647));
+        addMetadata(properties, ColumnMetadata.named("PROPERTIES").ofType(Types.OTHER).withSize(2147483647));
         addMetadata(resultTimeEnd, ColumnMetadata.named("RESULT_TIME_END").ofType(Types.TIMESTAMP).withSize(23).withDigits(10));
         addMetadata(resultTimeStart, ColumnMetadata.named("RESULT_TIME_START").ofType(Types.TIMESTAMP).withSize(23).withDigits(10));
         addMetadata(unitDefinition, ColumnMetadata.named("UNIT_DEFINITION").ofType(Types.VARCHAR).withSize(255));
@@ -39,7 +39,7 @@ public abstract class AbstractQFeatures<T extends AbstractQFeatures, I extends S
         addMetadata(feature, ColumnMetadata.named("FEATURE").ofType(Types.CLOB).withSize(2147483647));
         addMetadata(geom, ColumnMetadata.named("GEOM").ofType(Types.OTHER).withSize(2147483647));
         addMetadata(name, ColumnMetadata.named("NAME").ofType(Types.CLOB).withSize(2147483647));
-        addMetadata(properties, ColumnMetadata.named("PROPERTIES").ofType(Types.CLOB).withSize(2147483647));
+        addMetadata(properties, ColumnMetadata.named("PROPERTIES").ofType(Types.OTHER).withSize(2147483647));
     }
 
     /**
@@ -32,7 +32,7 @@ public abstract class AbstractQObsProperties<T extends AbstractQObsProperties, I
         addMetadata(definition, ColumnMetadata.named("DEFINITION").ofType(Types.CLOB).withSize(2147483647));
         addMetadata(description, ColumnMetadata.named("DESCRIPTION").ofType(Types.CLOB).withSize(2147483647));
         addMetadata(name, ColumnMetadata.named("NAME").ofType(Types.CLOB).withSize(2147483647));
-        addMetadata(properties, ColumnMetadata.named("PROPERTIES").ofType(Types.CLOB).withSize(2147483647));
+        addMetadata(properties, ColumnMetadata.named("PROPERTIES").ofType(Types.OTHER).withSize(2147483647));
     }
 
     /**
@@ -48,13 +48,13 @@ public abstract class AbstractQObservations<T extends AbstractQObservations, I e
 
     public AbstractQObservations(Class<? extends T> type, PathMetadata metadata, String schema, String table) {
         super(type, metadata, schema, table);
-        addMetadata(parameters, ColumnMetadata.named("PARAMETERS").ofType(Types.CLOB).withSize(2147483647));
+        addMetadata(parameters, ColumnMetadata.named("PARAMETERS").ofType(Types.OTHER).withSize(2147483647));
         addMetadata(phenomenonTimeEnd, ColumnMetadata.named("PHENOMENON_TIME_END").ofType(Types.TIMESTAMP).withSize(23).withDigits(10));
         addMetadata(phenomenonTimeStart, ColumnMetadata.named("PHENOMENON_TIME_START").ofType(Types.TIMESTAMP).withSize(23).withDigits(10));
         addMetadata(resultBoolean, ColumnMetadata.named("RESULT_BOOLEAN").ofType(Types.BOOLEAN).withSize(1));
-        addMetadata(resultJson, ColumnMetadata.named("RESULT_JSON").ofType(Types.CLOB).withSize(2147483647));
+        addMetadata(resultJson, ColumnMetadata.named("RESULT_JSON").ofType(Types.OTHER).withSize(2147483647));
         addMetadata(resultNumber, ColumnMetadata.named("RESULT_NUMBER").ofType(Types.DOUBLE).withSize(17));
-        addMetadata(resultQuality, ColumnMetadata.named("RESULT_QUALITY").ofType(Types.CLOB).withSize(2147483647));
+        addMetadata(resultQuality, ColumnMetadata.named("RESULT_QUALITY").ofType(Types.OTHER).withSize(2147483647));
         addMetadata(resultString, ColumnMetadata.named("RESULT_STRING").ofType(Types.CLOB).withSize(2147483647));
         addMetadata(resultTime, ColumnMetadata.named("RESULT_TIME").ofType(Types.TIMESTAMP).withSize(23).withDigits(10));
         addMetadata(resultType, ColumnMetadata.named("RESULT_TYPE").ofType(Types.TINYINT).withSize(3));
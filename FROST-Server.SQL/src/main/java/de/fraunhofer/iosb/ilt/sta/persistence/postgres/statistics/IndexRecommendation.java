@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics;
+
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.QueryShape.JsonPath;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.QueryShape.OrderColumn;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An index that would help one or more query shapes.
+ *
+ * @author scf
+ */
+public class IndexRecommendation {
+
+    /**
+     * The maximum length of identifiers in PostgreSQL.
+     */
+    private static final int MAX_NAME_LENGTH = 63;
+    private static final String METHOD_BTREE = "btree";
+
+    private final String tableName;
+    private final String method;
+    private final List<OrderColumn> columns;
+    private final int equalCount;
+    private final boolean concurrently;
+    /**
+     * The json path to index the text value of, or null if the index is on
+     * columns.
+     */
+    private final JsonPath jsonPath;
+    private final String indexName;
+    private final String statement;
+    private long count;
+    private long totalNanos;
+
+    /**
+     * @param tableName The table to create the index on.
+     * @param method The index method, btree or gist.
+     * @param columns The columns of the index.
+     * @param equalCount The number of leading columns that are compared to
+     * constants, so their order and direction do not matter.
+     */
+    public IndexRecommendation(String tableName, String method, List<OrderColumn> columns, int equalCount) {
+        this(tableName, method, columns, equalCount, true);
+    }
+
+    /**
+     * @param tableName The table to create the index on.
+     * @param method The index method, btree or gist.
+     * @param columns The columns of the index.
+     * @param equalCount The number of leading columns that are compared to
+     * constants, so their order and direction do not matter.
+     * @param concurrently Create the index without locking the table. Not
+     * possible for partitioned tables.
+     */
+    public IndexRecommendation(String tableName, String method, List<OrderColumn> columns, int equalCount, boolean concurrently) {
+        this.tableName = tableName;
+        this.method = method;
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+        this.equalCount = equalCount;
+        this.concurrently = concurrently;
+        this.jsonPath = null;
+        StringBuilder name = new StringBuilder(tableName);
+        StringBuilder columnList = new StringBuilder();
+        for (OrderColumn column : columns) {
+            name.append('_').append(column.getColumn());
+            if (columnList.length() > 0) {
+                columnList.append(", ");
+            }
+            columnList.append('"').append(column.getColumn()).append('"');
+            if (column.isDescending()) {
+                name.append("_DESC");
+                columnList.append(" DESC");
+            }
+        }
+        this.indexName = limitLength(name.toString());
+        this.statement = createStatement(columnList.toString());
+    }
+
+    /**
+     * Recommends a b-tree index on the text value of a path in a json column,
+     * as used by equality and range filters on custom properties. The
+     * elements of the path are put in the statement as they are, so the
+     * caller must make sure they are safe to use.
+     *
+     * @param tableName The table to create the index on.
+     * @param jsonPath The json column and the path in it.
+     * @param concurrently Create the index without locking the table. Not
+     * possible for partitioned tables.
+     */
+    public IndexRecommendation(String tableName, JsonPath jsonPath, boolean concurrently) {
+        this.tableName = tableName;
+        this.method = METHOD_BTREE;
+        this.columns = Collections.emptyList();
+        this.equalCount = 0;
+        this.concurrently = concurrently;
+        this.jsonPath = jsonPath;
+        StringBuilder name = new StringBuilder(tableName).append('_').append(jsonPath.getColumn());
+        for (String key : jsonPath.getPath()) {
+            name.append('_').append(key);
+        }
+        this.indexName = limitLength(name.toString());
+        this.statement = createStatement("(\"" + jsonPath.getColumn() + "\"#>>'{" + String.join(",", jsonPath.getPath()) + "}')");
+    }
+
+    private static String limitLength(String name) {
+        if (name.length() <= MAX_NAME_LENGTH) {
+            return name;
+        }
+        String hash = String.format("%08x", name.hashCode());
+        return name.substring(0, MAX_NAME_LENGTH - hash.length() - 1) + '_' + hash;
+    }
+
+    private String createStatement(String definition) {
+        return "CREATE INDEX " + (concurrently ? "CONCURRENTLY " : "") + "IF NOT EXISTS \"" + indexName + "\" ON \"" + tableName + "\" USING " + method + " (" + definition + ")";
+    }
+
+    /**
+     * Adds the statistics of a query shape that would use this index.
+     *
+     * @param stats The statistics of the query shape.
+     */
+    public void addShape(ShapeStatistics stats) {
+        count += stats.getCount();
+        totalNanos += stats.getTotalNanos();
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return The columns of the index, empty for an index on a json path.
+     */
+    public List<OrderColumn> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return The json path of which the text value is indexed, or null if
+     * the index is on columns.
+     */
+    public JsonPath getJsonPath() {
+        return jsonPath;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    /**
+     * @return The number of leading columns that are compared to constants.
+     */
+    public int getEqualCount() {
+        return equalCount;
+    }
+
+    /**
+     * @return The SQL statement that creates this index.
+     */
+    public String getStatement() {
+        return statement;
+    }
+
+    /**
+     * @return The number of queries that would use this index.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The time spent on queries that would use this index.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public int hashCode() {
+        return statement.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return Objects.equals(statement, ((IndexRecommendation) obj).statement);
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics;
+
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.QueryShape.JsonPath;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.QueryShape.OrderColumn;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.QueryShape.TableUsage;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Recommends indexes for recorded query shapes. For each table in a shape, a
+ * b-tree index is recommended on the columns that are compared to constants,
+ * followed by the columns the result is ordered by, or the first column used
+ * in a range comparison if there is no order. A GiST index is recommended for
+ * each column used in a spatial function, and a b-tree index on the text value
+ * of each json path that is compared to a constant. Recommendations that are
+ * already covered by an existing index are skipped. Indexes on json paths are
+ * only recognised by their name, so only those created from a recommendation
+ * are found.
+ *
+ * @author scf
+ */
+public class IndexRecommender {
+
+    private static final String PRIMARY_KEY_COLUMN = "ID";
+    private static final String METHOD_BTREE = "btree";
+    private static final String METHOD_GIST = "gist";
+    /**
+     * The keys of json paths that are safe to put in an index statement.
+     */
+    private static final Pattern SAFE_JSON_KEY = Pattern.compile("^[A-Za-z0-9_]+$");
+    private static final String SQL_EXISTING_INDEXES = "SELECT t.relname, am.amname, array_to_string(array("
+            + "SELECT coalesce(a.attname, '?') || CASE WHEN (i.indoption[k.n - 1] & 1) = 1 THEN ' DESC' ELSE '' END"
+            + " FROM unnest(i.indkey::int2[]) WITH ORDINALITY AS k(attnum, n)"
+            + " LEFT JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = k.attnum"
+            + " ORDER BY k.n), ','), c.relname"
+            + " FROM pg_index i"
+            + " JOIN pg_class t ON t.oid = i.indrelid"
+            + " JOIN pg_class c ON c.oid = i.indexrelid"
+            + " JOIN pg_am am ON am.oid = c.relam"
+            + " JOIN pg_namespace ns ON ns.oid = t.relnamespace"
+            + " WHERE ns.nspname = ANY(current_schemas(false)) AND i.indpred IS NULL";
+    private static final String SQL_PARTITIONED_TABLES = "SELECT t.relname FROM pg_class t"
+            + " JOIN pg_namespace ns ON ns.oid = t.relnamespace"
+            + " WHERE ns.nspname = ANY(current_schemas(false)) AND t.relkind = 'p'";
+    private static final String DESC_SUFFIX = " DESC";
+
+    private final Map<String, List<List<OrderColumn>>> existingIndexes = new HashMap<>();
+    private final Set<String> existingIndexNames = new HashSet<>();
+    /**
+     * The partitioned tables, on which indexes can not be created
+     * concurrently.
+     */
+    private final Set<String> partitionedTables = new HashSet<>();
+
+    /**
+     * Loads the indexes that exist in the database, for all tables in the
+     * current search path.
+     *
+     * @param connection The connection to use.
+     * @throws SQLException If the catalog can not be read.
+     */
+    public void loadExistingIndexes(Connection connection) throws SQLException {
+        existingIndexes.clear();
+        existingIndexNames.clear();
+        partitionedTables.clear();
+        try (Statement stmt = connection.createStatement();
+                ResultSet rs = stmt.executeQuery(SQL_PARTITIONED_TABLES)) {
+            while (rs.next()) {
+                partitionedTables.add(rs.getString(1));
+            }
+        }
+        try (Statement stmt = connection.createStatement();
+                ResultSet rs = stmt.executeQuery(SQL_EXISTING_INDEXES)) {
+            while (rs.next()) {
+                List<OrderColumn> columns = new ArrayList<>();
+                for (String column : rs.getString(3).split(",")) {
+                    boolean desc = column.endsWith(DESC_SUFFIX);
+                    columns.add(new OrderColumn(desc ? column.substring(0, column.length() - DESC_SUFFIX.length()) : column, desc));
+                }
+                addExistingIndex(rs.getString(1), rs.getString(2), columns);
+                existingIndexNames.add(rs.getString(4));
+            }
+        }
+    }
+
+    /**
+     * Register an index that exists in the database.
+     *
+     * @param tableName The table the index is on.
+     * @param method The index method.
+     * @param columns The columns of the index.
+     */
+    public void addExistingIndex(String tableName, String method, List<OrderColumn> columns) {
+        existingIndexes.computeIfAbsent(tableName + '/' + method, k -> new ArrayList<>()).add(columns);
+    }
+
+    /**
+     * Recommend indexes for the given query shapes.
+     *
+     * @param shapes The statistics of the query shapes.
+     * @return The recommended indexes that do not exist yet, the ones used by
+     * the queries that took the most time first.
+     */
+    public List<IndexRecommendation> recommend(List<ShapeStatistics> shapes) {
+        Map<String, IndexRecommendation> result = new LinkedHashMap<>();
+        for (ShapeStatistics stats : shapes) {
+            for (TableUsage usage : stats.getShape().getTables()) {
+                for (IndexRecommendation candidate : recommendFor(usage)) {
+                    if (isCovered(candidate)) {
+                        continue;
+                    }
+                    result.computeIfAbsent(candidate.getStatement(), k -> candidate).addShape(stats);
+                }
+            }
+        }
+        List<IndexRecommendation> sorted = new ArrayList<>(result.values());
+        Collections.sort(sorted, (r1, r2) -> Long.compare(r2.getTotalNanos(), r1.getTotalNanos()));
+        return sorted;
+    }
+
+    private List<IndexRecommendation> recommendFor(TableUsage usage) {
+        List<IndexRecommendation> candidates = new ArrayList<>();
+        String tableName = usage.getTableName();
+        boolean concurrently = !partitionedTables.contains(tableName);
+        for (String column : usage.getSpatialColumns()) {
+            candidates.add(new IndexRecommendation(tableName, METHOD_GIST, Collections.singletonList(new OrderColumn(column, false)), 0, concurrently));
+        }
+        for (JsonPath jsonPath : usage.getJsonPaths()) {
+            if (isSafe(jsonPath)) {
+                candidates.add(new IndexRecommendation(tableName, jsonPath, concurrently));
+            }
+        }
+        List<String> equalColumns = usage.getEqualColumns();
+        if (equalColumns.contains(PRIMARY_KEY_COLUMN)) {
+            // At most one row, the primary key is the best index.
+            return candidates;
+        }
+        List<OrderColumn> columns = new ArrayList<>();
+        for (String column : equalColumns) {
+            columns.add(new OrderColumn(column, false));
+        }
+        for (OrderColumn column : usage.getOrderColumns()) {
+            if (!equalColumns.contains(column.getColumn())) {
+                columns.add(column);
+            }
+        }
+        if (usage.getOrderColumns().isEmpty() && !usage.getRangeColumns().isEmpty()) {
+            columns.add(new OrderColumn(usage.getRangeColumns().get(0), false));
+        }
+        if (!columns.isEmpty() && !PRIMARY_KEY_COLUMN.equals(columns.get(0).getColumn())) {
+            candidates.add(new IndexRecommendation(tableName, METHOD_BTREE, columns, equalColumns.size(), concurrently));
+        }
+        return candidates;
+    }
+
+    private static boolean isSafe(JsonPath jsonPath) {
+        for (String key : jsonPath.getPath()) {
+            if (!SAFE_JSON_KEY.matcher(key).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isCovered(IndexRecommendation candidate) {
+        if (candidate.getJsonPath() != null) {
+            return existingIndexNames.contains(candidate.getIndexName());
+        }
+        List<List<OrderColumn>> indexes = existingIndexes.get(candidate.getTableName() + '/' + candidate.getMethod());
+        if (indexes == null) {
+            return false;
+        }
+        for (List<OrderColumn> index : indexes) {
+            if (covers(index, candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the existing index can be used the same way as the
+     * recommended index: the columns that are compared to constants must be
+     * the leading columns, in any order, followed by the other columns in the
+     * same order, with all the same or all the opposite directions, since an
+     * index can be scanned backwards.
+     */
+    private static boolean covers(List<OrderColumn> index, IndexRecommendation candidate) {
+        List<OrderColumn> columns = candidate.getColumns();
+        if (index.size() < columns.size()) {
+            return false;
+        }
+        int equalCount = candidate.getEqualCount();
+        HashSet<String> wanted = new HashSet<>();
+        HashSet<String> found = new HashSet<>();
+        for (int i = 0; i < equalCount; i++) {
+            wanted.add(columns.get(i).getColumn());
+            found.add(index.get(i).getColumn());
+        }
+        if (!wanted.equals(found)) {
+            return false;
+        }
+        Boolean inverted = null;
+        for (int i = equalCount; i < columns.size(); i++) {
+            OrderColumn column = columns.get(i);
+            OrderColumn existing = index.get(i);
+            if (!column.getColumn().equals(existing.getColumn())) {
+                return false;
+            }
+            boolean differs = column.isDescending() != existing.isDescending();
+            if (inverted == null) {
+                inverted = differs;
+            } else if (inverted != differs) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
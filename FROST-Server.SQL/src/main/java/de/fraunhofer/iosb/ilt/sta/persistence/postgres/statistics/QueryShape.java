@@ -0,0 +1,502 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics;
+
+import com.querydsl.core.JoinExpression;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.Operator;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.Order;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.TemplateExpression;
+import com.querydsl.spatial.SpatialOps;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.RelationalPath;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.expression.JsonExpressionFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The normalised shape of a query: for each table in the query, the columns
+ * that are compared to a constant, used in a range, used in a spatial
+ * function, the paths in json columns that are compared to a constant, and
+ * the columns the result is ordered by. Constants are not part
+ * of the shape, so all requests that only differ in the ids and values they
+ * use have the same shape.
+ *
+ * @author scf
+ */
+public class QueryShape {
+
+    private final List<TableUsage> tables;
+    private final String key;
+
+    private QueryShape(List<TableUsage> tables) {
+        this.tables = Collections.unmodifiableList(tables);
+        StringBuilder sb = new StringBuilder();
+        for (TableUsage table : tables) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(table);
+        }
+        this.key = sb.toString();
+    }
+
+    /**
+     * @return The tables used in the query, the main table first.
+     */
+    public List<TableUsage> getTables() {
+        return tables;
+    }
+
+    /**
+     * @return The string representation of the shape, that is the same for
+     * all queries with the same shape.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+
+    /**
+     * Analyses the given query.
+     *
+     * @param metadata The metadata of the query to analyse.
+     * @return the shape of the query.
+     */
+    public static QueryShape fromQuery(QueryMetadata metadata) {
+        return new Analyser(metadata).analyse();
+    }
+
+    /**
+     * The columns of a table that are used in the query.
+     */
+    public static class TableUsage {
+
+        private final String tableName;
+        private final List<String> equalColumns = new ArrayList<>();
+        private final List<String> rangeColumns = new ArrayList<>();
+        private final List<String> spatialColumns = new ArrayList<>();
+        private final List<JsonPath> jsonPaths = new ArrayList<>();
+        private final List<OrderColumn> orderColumns = new ArrayList<>();
+
+        public TableUsage(String tableName) {
+            this.tableName = tableName;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * @return The columns that are compared to a constant, sorted by
+         * name.
+         */
+        public List<String> getEqualColumns() {
+            return equalColumns;
+        }
+
+        /**
+         * @return The columns that are used in a range comparison, sorted by
+         * name.
+         */
+        public List<String> getRangeColumns() {
+            return rangeColumns;
+        }
+
+        /**
+         * @return The columns that are used in a spatial function, sorted by
+         * name.
+         */
+        public List<String> getSpatialColumns() {
+            return spatialColumns;
+        }
+
+        /**
+         * @return The paths in json columns of which the text value is
+         * compared to a constant, sorted.
+         */
+        public List<JsonPath> getJsonPaths() {
+            return jsonPaths;
+        }
+
+        /**
+         * @return The columns the result is ordered by, in order.
+         */
+        public List<OrderColumn> getOrderColumns() {
+            return orderColumns;
+        }
+
+        private void addSorted(List<String> target, String column) {
+            if (!target.contains(column)) {
+                target.add(column);
+                Collections.sort(target);
+            }
+        }
+
+        private void addJsonPath(JsonPath jsonPath) {
+            if (!jsonPaths.contains(jsonPath)) {
+                jsonPaths.add(jsonPath);
+                Collections.sort(jsonPaths, (p1, p2) -> p1.toString().compareTo(p2.toString()));
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(tableName);
+            sb.append('[');
+            appendList(sb, "eq", equalColumns);
+            appendList(sb, "range", rangeColumns);
+            appendList(sb, "spatial", spatialColumns);
+            appendList(sb, "json", jsonPaths);
+            appendList(sb, "order", orderColumns);
+            sb.append(']');
+            return sb.toString();
+        }
+
+        private static void appendList(StringBuilder sb, String name, List<?> items) {
+            if (items.isEmpty()) {
+                return;
+            }
+            if (sb.charAt(sb.length() - 1) != '[') {
+                sb.append(';');
+            }
+            sb.append(name).append(':');
+            boolean first = true;
+            for (Object item : items) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append(item);
+            }
+        }
+    }
+
+    /**
+     * A column in the ORDER BY clause.
+     */
+    public static class OrderColumn {
+
+        private final String column;
+        private final boolean descending;
+
+        public OrderColumn(String column, boolean descending) {
+            this.column = column;
+            this.descending = descending;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public boolean isDescending() {
+            return descending;
+        }
+
+        @Override
+        public String toString() {
+            return descending ? column + " DESC" : column;
+        }
+    }
+
+    /**
+     * A path in a json column.
+     */
+    public static class JsonPath {
+
+        private final String column;
+        private final List<String> path;
+
+        public JsonPath(String column, List<String> path) {
+            this.column = column;
+            this.path = Collections.unmodifiableList(new ArrayList<>(path));
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public List<String> getPath() {
+            return path;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(column, path);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            JsonPath other = (JsonPath) obj;
+            return column.equals(other.column) && path.equals(other.path);
+        }
+
+        @Override
+        public String toString() {
+            return column + "#>>{" + String.join(",", path) + "}";
+        }
+    }
+
+    /**
+     * A column of a table instance in the query.
+     */
+    private static class ColumnRef {
+
+        private final String alias;
+        private final String column;
+
+        public ColumnRef(String alias, String column) {
+            this.alias = alias;
+            this.column = column;
+        }
+    }
+
+    /**
+     * Walks the joins, where clause and order of a query.
+     */
+    private static class Analyser {
+
+        private final QueryMetadata metadata;
+        /**
+         * The tables in the query, by alias, in the order they are joined.
+         */
+        private final Map<String, TableUsage> usages = new LinkedHashMap<>();
+        /**
+         * Column pairs that are compared to each other.
+         */
+        private final List<ColumnRef[]> links = new ArrayList<>();
+
+        public Analyser(QueryMetadata metadata) {
+            this.metadata = metadata;
+        }
+
+        public QueryShape analyse() {
+            for (JoinExpression join : metadata.getJoins()) {
+                Expression<?> target = join.getTarget();
+                if (target instanceof RelationalPath) {
+                    RelationalPath<?> table = (RelationalPath<?>) target;
+                    usages.put(table.getMetadata().getName(), new TableUsage(table.getTableName()));
+                }
+                addPredicate(join.getCondition());
+            }
+            addPredicate(metadata.getWhere());
+            propagateEquality();
+            addOrder();
+            return new QueryShape(new ArrayList<>(usages.values()));
+        }
+
+        /**
+         * Columns that are joined to a column that is compared to a constant,
+         * are themselves compared to that constant.
+         */
+        private void propagateEquality() {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (ColumnRef[] link : links) {
+                    changed |= propagate(link[0], link[1]);
+                    changed |= propagate(link[1], link[0]);
+                }
+            }
+        }
+
+        private boolean propagate(ColumnRef from, ColumnRef to) {
+            TableUsage fromUsage = usages.get(from.alias);
+            TableUsage toUsage = usages.get(to.alias);
+            if (fromUsage == null || toUsage == null) {
+                return false;
+            }
+            if (fromUsage.equalColumns.contains(from.column) && !toUsage.equalColumns.contains(to.column)) {
+                toUsage.addSorted(toUsage.equalColumns, to.column);
+                return true;
+            }
+            return false;
+        }
+
+        private void addOrder() {
+            if (usages.isEmpty()) {
+                return;
+            }
+            String mainAlias = usages.keySet().iterator().next();
+            TableUsage main = usages.get(mainAlias);
+            for (OrderSpecifier<?> orderBy : metadata.getOrderBy()) {
+                ColumnRef column = toColumn(orderBy.getTarget());
+                if (column == null || !mainAlias.equals(column.alias)) {
+                    // An index can not help with the rest of the order.
+                    return;
+                }
+                main.orderColumns.add(new OrderColumn(column.column, orderBy.getOrder() == Order.DESC));
+            }
+        }
+
+        private void addPredicate(Expression<?> predicate) {
+            if (!(predicate instanceof Operation)) {
+                return;
+            }
+            Operation<?> operation = (Operation<?>) predicate;
+            Operator operator = operation.getOperator();
+            if (operator == Ops.AND) {
+                for (Expression<?> arg : operation.getArgs()) {
+                    addPredicate(arg);
+                }
+            } else if (operator instanceof SpatialOps) {
+                for (Expression<?> arg : operation.getArgs()) {
+                    addSpatial(arg);
+                }
+            } else if (operator == Ops.EQ || operator == Ops.IN) {
+                addComparison(operation, true);
+            } else if (operator == Ops.LT || operator == Ops.GT || operator == Ops.LOE || operator == Ops.GOE || operator == Ops.BETWEEN) {
+                addComparison(operation, false);
+            }
+        }
+
+        private void addComparison(Operation<?> operation, boolean equality) {
+            List<Expression<?>> args = operation.getArgs();
+            ColumnRef first = toColumn(args.get(0));
+            ColumnRef second = args.size() == 2 ? toColumn(args.get(1)) : null;
+            if (first == null && second == null) {
+                addJsonComparison(args);
+                return;
+            }
+            if (first != null && second != null) {
+                if (equality) {
+                    links.add(new ColumnRef[]{first, second});
+                }
+                return;
+            }
+            ColumnRef column = first == null ? second : first;
+            if (column == null) {
+                return;
+            }
+            int columnIndex = first == null ? 1 : 0;
+            for (int i = 0; i < args.size(); i++) {
+                if (i != columnIndex && containsColumn(args.get(i))) {
+                    // Compared to an expression on other columns.
+                    return;
+                }
+            }
+            TableUsage usage = usages.get(column.alias);
+            if (usage != null) {
+                usage.addSorted(equality ? usage.equalColumns : usage.rangeColumns, column.column);
+            }
+        }
+
+        /**
+         * Records the json path, if one of the arguments is the text value of
+         * a path in a json column, and the others are constants.
+         */
+        private void addJsonComparison(List<Expression<?>> args) {
+            for (int i = 0; i < args.size(); i++) {
+                Expression<?> arg = args.get(i);
+                if (!(arg instanceof TemplateExpression)) {
+                    continue;
+                }
+                TemplateExpression<?> template = (TemplateExpression<?>) arg;
+                List<String> path = JsonExpressionFactory.getTextPath(template);
+                if (path == null || template.getArgs().isEmpty() || !(template.getArg(0) instanceof Expression)) {
+                    continue;
+                }
+                ColumnRef column = toColumn((Expression<?>) template.getArg(0));
+                if (column == null) {
+                    continue;
+                }
+                for (int j = 0; j < args.size(); j++) {
+                    if (j != i && containsColumn(args.get(j))) {
+                        return;
+                    }
+                }
+                TableUsage usage = usages.get(column.alias);
+                if (usage != null) {
+                    usage.addJsonPath(new JsonPath(column.column, path));
+                }
+                return;
+            }
+        }
+
+        private void addSpatial(Expression<?> expression) {
+            ColumnRef column = toColumn(expression);
+            if (column != null) {
+                TableUsage usage = usages.get(column.alias);
+                if (usage != null) {
+                    usage.addSorted(usage.spatialColumns, column.column);
+                }
+            } else if (expression instanceof Operation) {
+                for (Expression<?> arg : ((Operation<?>) expression).getArgs()) {
+                    addSpatial(arg);
+                }
+            } else if (expression instanceof TemplateExpression) {
+                for (Object arg : ((TemplateExpression<?>) expression).getArgs()) {
+                    if (arg instanceof Expression) {
+                        addSpatial((Expression<?>) arg);
+                    }
+                }
+            }
+        }
+
+        private boolean containsColumn(Expression<?> expression) {
+            if (toColumn(expression) != null) {
+                return true;
+            }
+            if (expression instanceof Operation) {
+                for (Expression<?> arg : ((Operation<?>) expression).getArgs()) {
+                    if (containsColumn(arg)) {
+                        return true;
+                    }
+                }
+            } else if (expression instanceof TemplateExpression) {
+                for (Object arg : ((TemplateExpression<?>) expression).getArgs()) {
+                    if (arg instanceof Expression && containsColumn((Expression<?>) arg)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static ColumnRef toColumn(Expression<?> expression) {
+            if (!(expression instanceof Path)) {
+                return null;
+            }
+            Path<?> path = (Path<?>) expression;
+            Path<?> parent = path.getMetadata().getParent();
+            if (!(parent instanceof RelationalPath)) {
+                return null;
+            }
+            return new ColumnRef(parent.getMetadata().getName(), ColumnMetadata.getName(path));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics;
+
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.LruMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps statistics on the shapes of the queries that are executed. Only the
+ * most recently used shapes are kept.
+ *
+ * @author scf
+ */
+public class QueryStatistics {
+
+    private final Map<String, ShapeStatistics> shapes;
+
+    /**
+     * @param maxSize The maximum number of shapes to keep statistics for.
+     */
+    public QueryStatistics(int maxSize) {
+        shapes = Collections.synchronizedMap(new LruMap<>(Math.max(1, maxSize)));
+    }
+
+    /**
+     * Record the execution of a query.
+     *
+     * @param shape The shape of the query.
+     * @param example The request that resulted in the query.
+     * @param nanos The time it took to execute the query and load the
+     * results.
+     * @param rows The number of rows returned.
+     */
+    public void record(QueryShape shape, String example, long nanos, long rows) {
+        ShapeStatistics stats;
+        synchronized (shapes) {
+            stats = shapes.get(shape.getKey());
+            if (stats == null) {
+                stats = new ShapeStatistics(shape, example);
+                shapes.put(shape.getKey(), stats);
+            }
+        }
+        stats.record(nanos, rows);
+    }
+
+    /**
+     * @return The statistics of all recorded shapes, the shapes that took the
+     * most time in total first.
+     */
+    public List<ShapeStatistics> getShapes() {
+        List<ShapeStatistics> result;
+        synchronized (shapes) {
+            result = new ArrayList<>(shapes.values());
+        }
+        Collections.sort(result, (s1, s2) -> Long.compare(s2.getTotalNanos(), s1.getTotalNanos()));
+        return result;
+    }
+
+    /**
+     * Remove all recorded statistics.
+     */
+    public void clear() {
+        shapes.clear();
+    }
+
+}
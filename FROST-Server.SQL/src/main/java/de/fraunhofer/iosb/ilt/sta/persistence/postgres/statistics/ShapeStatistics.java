@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics;
+
+/**
+ * The statistics of all queries with the same shape.
+ *
+ * @author scf
+ */
+public class ShapeStatistics {
+
+    private final QueryShape shape;
+    private final String example;
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private long totalRows;
+
+    /**
+     * @param shape The shape of the queries.
+     * @param example An example request that resulted in this shape.
+     */
+    public ShapeStatistics(QueryShape shape, String example) {
+        this.shape = shape;
+        this.example = example;
+    }
+
+    /**
+     * Record the execution of a query with this shape.
+     *
+     * @param nanos The time it took to execute the query and load the
+     * results.
+     * @param rows The number of rows returned.
+     */
+    public synchronized void record(long nanos, long rows) {
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        totalRows += rows;
+    }
+
+    public QueryShape getShape() {
+        return shape;
+    }
+
+    public String getExample() {
+        return example;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public synchronized long getTotalRows() {
+        return totalRows;
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.PostgreSQLTemplates;
+import com.querydsl.sql.SQLQueryFactory;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.relationalpaths.AbstractQObservations;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import static org.junit.Assert.assertEquals;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the batch insert clause against a connection that records the
+ * statements and parameters, instead of a database.
+ *
+ * @author scf
+ */
+public class BatchInsertClauseTest {
+
+    private static final QTestObservations QO = new QTestObservations("o");
+
+    /**
+     * The sql of each prepared statement.
+     */
+    private final List<String> statements = new ArrayList<>();
+    /**
+     * The parameters of each batched row, by parameter index.
+     */
+    private final List<Map<Integer, Object>> batchedRows = new ArrayList<>();
+    private long nextId = 1;
+    private SQLQueryFactory queryFactory;
+
+    @Before
+    public void setUp() {
+        statements.clear();
+        batchedRows.clear();
+        nextId = 1;
+        Connection connection = proxy(Connection.class, (method, args) -> {
+            if ("prepareStatement".equals(method)) {
+                statements.add((String) args[0]);
+                return createStatement();
+            }
+            return null;
+        });
+        queryFactory = new SQLQueryFactory(new Configuration(PostgreSQLTemplates.builder().quote().build()), () -> connection);
+    }
+
+    @Test
+    public void testFailedRowDoesNotLeak() {
+        BatchInsertClause<Long> clause = new BatchInsertClause<>(queryFactory, QO, QO.id);
+        clause.set(QO.datastreamId, 1L)
+                .set(QO.resultQuality, "good")
+                .set(QO.resultNumber, 1.0)
+                .addBatch();
+
+        // The second Observation fails after some of its values are set.
+        clause.set(QO.id, 99L)
+                .set(QO.datastreamId, 2L)
+                .set(QO.resultQuality, "bad");
+        clause.clearRow();
+
+        clause.set(QO.datastreamId, 3L)
+                .set(QO.resultNumber, 3.0)
+                .addBatch();
+
+        assertEquals(2, clause.getBatchCount());
+        assertEquals(Arrays.asList(1L, 2L), clause.executeWithKeys());
+
+        assertEquals(2, statements.size());
+        assertEquals("INSERT INTO \"OBSERVATIONS\" (\"DATASTREAM_ID\", \"RESULT_QUALITY\", \"RESULT_NUMBER\") VALUES (?, ?, ?)", statements.get(0));
+        assertEquals("INSERT INTO \"OBSERVATIONS\" (\"DATASTREAM_ID\", \"RESULT_NUMBER\") VALUES (?, ?)", statements.get(1));
+        assertEquals(Arrays.asList(1L, "good", 1.0), new ArrayList<>(batchedRows.get(0).values()));
+        assertEquals(Arrays.asList(3L, 3.0), new ArrayList<>(batchedRows.get(1).values()));
+    }
+
+    @Test
+    public void testRowsWithSameColumnsShareStatement() {
+        BatchInsertClause<Long> clause = new BatchInsertClause<>(queryFactory, QO, QO.id);
+        clause.set(QO.datastreamId, 1L).setNull(QO.resultQuality).addBatch();
+        clause.set(QO.datastreamId, 2L).set(QO.resultQuality, "q").addBatch();
+
+        assertEquals(Arrays.asList(1L, 2L), clause.executeWithKeys());
+        assertEquals(1, statements.size());
+        assertEquals(2, batchedRows.size());
+        assertEquals(null, batchedRows.get(0).get(2));
+        assertEquals("q", batchedRows.get(1).get(2));
+    }
+
+    private PreparedStatement createStatement() {
+        Map<Integer, Object> current = new TreeMap<>();
+        List<Long> keys = new ArrayList<>();
+        return proxy(PreparedStatement.class, (method, args) -> {
+            switch (method) {
+                case "setLong":
+                case "setDouble":
+                case "setString":
+                case "setObject":
+                    current.put((Integer) args[0], args[1]);
+                    return null;
+
+                case "setNull":
+                    current.put((Integer) args[0], null);
+                    return null;
+
+                case "addBatch":
+                    batchedRows.add(new TreeMap<>(current));
+                    current.clear();
+                    keys.add(nextId++);
+                    return null;
+
+                case "executeBatch":
+                    return new int[keys.size()];
+
+                case "getGeneratedKeys":
+                    return createKeys(keys.iterator());
+
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static ResultSet createKeys(Iterator<Long> keys) {
+        Long[] current = new Long[1];
+        return proxy(ResultSet.class, (method, args) -> {
+            switch (method) {
+                case "next":
+                    current[0] = keys.hasNext() ? keys.next() : null;
+                    return current[0] != null;
+
+                case "getLong":
+                    return current[0];
+
+                case "getObject":
+                    return current[0];
+
+                case "wasNull":
+                    return false;
+
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private interface Handler {
+
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(
+                BatchInsertClauseTest.class.getClassLoader(),
+                new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    Object result = handler.invoke(method.getName(), args);
+                    if (result == null && method.getReturnType() == boolean.class) {
+                        return false;
+                    }
+                    if (result == null && method.getReturnType() == int.class) {
+                        return 0;
+                    }
+                    return result;
+                }));
+    }
+
+    /**
+     * An Observations table with long ids, like the one of the PGLong
+     * persistence manager.
+     */
+    private static class QTestObservations extends AbstractQObservations<QTestObservations, NumberPath<Long>, Long> {
+
+        public final NumberPath<Long> datastreamId = createNumber("datastreamId", Long.class);
+
+        public final NumberPath<Long> featureId = createNumber("featureId", Long.class);
+
+        public final NumberPath<Long> id = createNumber("id", Long.class);
+
+        public final NumberPath<Long> multiDatastreamId = createNumber("multiDatastreamId", Long.class);
+
+        QTestObservations(String variable) {
+            super(QTestObservations.class, forVariable(variable), "PUBLIC", "OBSERVATIONS");
+            addMetadata(datastreamId, ColumnMetadata.named("DATASTREAM_ID").ofType(Types.BIGINT).withSize(19));
+            addMetadata(featureId, ColumnMetadata.named("FEATURE_ID").ofType(Types.BIGINT).withSize(19).notNull());
+            addMetadata(id, ColumnMetadata.named("ID").ofType(Types.BIGINT).withSize(19).notNull());
+            addMetadata(multiDatastreamId, ColumnMetadata.named("MULTI_DATASTREAM_ID").ofType(Types.BIGINT).withSize(19));
+        }
+
+        @Override
+        public NumberPath<Long> getId() {
+            return id;
+        }
+
+        @Override
+        public NumberPath<Long> getDatastreamId() {
+            return datastreamId;
+        }
+
+        @Override
+        public NumberPath<Long> getMultiDatastreamId() {
+            return multiDatastreamId;
+        }
+
+        @Override
+        public NumberPath<Long> getFeatureId() {
+            return featureId;
+        }
+
+        @Override
+        public QTestObservations newWithAlias(String variable) {
+            return new QTestObservations(variable);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.sql.RelationalPathBase;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.SQLQueryFactory;
+import de.fraunhofer.iosb.ilt.sta.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.sta.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.sta.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityCounter.Count;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.EntityCounter.CountMode;
+import de.fraunhofer.iosb.ilt.sta.query.Query;
+import de.fraunhofer.iosb.ilt.sta.settings.PersistenceSettings;
+import de.fraunhofer.iosb.ilt.sta.settings.Settings;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the count modes against a connection that answers the count queries
+ * with a configured number of rows, instead of a database.
+ *
+ * @author scf
+ */
+public class EntityCounterTest {
+
+    private static final String SERVICE_ROOT = "http://example.org/FROST-Server/v1.0";
+    private static final long COUNT_LIMIT = 100;
+
+    private final RelationalPathBase<Object> table = new RelationalPathBase<>(Object.class, "e0", "PUBLIC", "OBSERVATIONS");
+    private final NumberPath<Long> id = Expressions.numberPath(Long.class, table, "ID");
+
+    private RecordingConnection connection;
+    private SQLQueryFactory queryFactory;
+    /**
+     * The number of rows the counted query returns.
+     */
+    private long rowCount;
+    /**
+     * The number of rows the query planner estimates.
+     */
+    private long planRows;
+
+    @Before
+    public void setUp() {
+        rowCount = 0;
+        planRows = 0;
+        connection = new RecordingConnection();
+        connection.setResponder(sql -> {
+            if (sql.startsWith("EXPLAIN")) {
+                String plan = "[{\"Plan\": {\"Node Type\": \"Seq Scan\", \"Plan Rows\": " + planRows + "}}]";
+                return Collections.singletonList(new Object[]{plan});
+            }
+            long count = rowCount;
+            if (sql.contains("limit ?")) {
+                count = Math.min(rowCount, COUNT_LIMIT + 1);
+            }
+            return Collections.singletonList(new Object[]{count});
+        });
+        queryFactory = connection.createQueryFactory();
+    }
+
+    private EntityCounter createCounter(String mode, int cacheTtl) {
+        Properties properties = new Properties();
+        properties.setProperty("countMode", mode);
+        properties.setProperty("countLimit", Long.toString(COUNT_LIMIT));
+        properties.setProperty("countCacheTtl", Integer.toString(cacheTtl));
+        PersistenceSettings settings = new PersistenceSettings(new Settings(properties));
+        return new EntityCounter(settings, () -> queryFactory);
+    }
+
+    private SQLQuery<Tuple> countQuery() {
+        return queryFactory.select(new Expression<?>[]{id}).from(table).orderBy(id.asc()).limit(10);
+    }
+
+    private Count count(EntityCounter counter, String path, String query) {
+        ResourcePath resourcePath = PathParser.parsePath(SERVICE_ROOT, path);
+        Query parsedQuery = QueryParser.parseQuery(query);
+        return counter.count(countQuery(), resourcePath, parsedQuery);
+    }
+
+    private List<String> statements() {
+        return connection.getStatements();
+    }
+
+    @Test
+    public void testFindMode() {
+        assertEquals(CountMode.EXACT, CountMode.findMode("Exact"));
+        assertEquals(CountMode.ESTIMATED, CountMode.findMode("estimated"));
+        assertEquals(CountMode.CAPPED, CountMode.findMode("CAPPED"));
+        assertEquals(CountMode.CACHED, CountMode.findMode("Cached"));
+        assertNull(CountMode.findMode("Guessed"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMode() {
+        createCounter("Guessed", 60);
+    }
+
+    @Test
+    public void testExact() {
+        rowCount = 12345;
+        Count count = count(createCounter("Exact", 60), "/Observations", null);
+        assertEquals(12345, count.getValue());
+        assertFalse(count.isEstimated());
+        assertEquals(1, statements().size());
+        String sql = statements().get(0);
+        assertTrue(sql, sql.startsWith("select count(*)"));
+        assertFalse("The order and limit of the page should not be counted: " + sql, sql.contains("order by") || sql.contains("limit"));
+    }
+
+    @Test
+    public void testCappedBelowLimit() {
+        rowCount = 42;
+        Count count = count(createCounter("Capped", 60), "/Observations", null);
+        assertEquals(42, count.getValue());
+        assertFalse(count.isEstimated());
+    }
+
+    @Test
+    public void testCappedAboveLimit() {
+        rowCount = 12345;
+        Count count = count(createCounter("Capped", 60), "/Observations", null);
+        assertEquals(COUNT_LIMIT, count.getValue());
+        assertTrue(count.isEstimated());
+        assertEquals(1, statements().size());
+        String sql = statements().get(0);
+        assertTrue(sql, sql.contains("limit ?"));
+    }
+
+    @Test
+    public void testEstimatedUsesPlan() {
+        rowCount = 12345;
+        planRows = 50000;
+        Count count = count(createCounter("Estimated", 60), "/Observations", null);
+        assertEquals(50000, count.getValue());
+        assertTrue(count.isEstimated());
+        assertEquals(1, statements().size());
+        assertTrue(statements().get(0).startsWith("EXPLAIN (FORMAT JSON) "));
+    }
+
+    @Test
+    public void testEstimatedSmallPlanIsCounted() {
+        rowCount = 42;
+        planRows = 50;
+        Count count = count(createCounter("Estimated", 60), "/Observations", null);
+        assertEquals(42, count.getValue());
+        assertFalse(count.isEstimated());
+        assertEquals(2, statements().size());
+    }
+
+    @Test
+    public void testEstimatedWithFilterIsCapped() {
+        rowCount = 12345;
+        planRows = 50000;
+        Count count = count(createCounter("Estimated", 60), "/Observations", "$filter=result gt 5");
+        assertEquals(COUNT_LIMIT, count.getValue());
+        assertTrue(count.isEstimated());
+        assertEquals(1, statements().size());
+        assertFalse(statements().get(0).startsWith("EXPLAIN"));
+    }
+
+    @Test
+    public void testCachedCountIsReused() {
+        EntityCounter counter = createCounter("Cached", 60);
+        rowCount = 12345;
+        Count first = count(counter, "/Datastreams(1)/Observations", null);
+        assertEquals(12345, first.getValue());
+        assertFalse(first.isEstimated());
+
+        rowCount = 12346;
+        Count second = count(counter, "/Datastreams(1)/Observations", null);
+        assertEquals(12345, second.getValue());
+        assertTrue(second.isEstimated());
+        assertEquals(1, statements().size());
+
+        // A different filter is a different count.
+        Count filtered = count(counter, "/Datastreams(1)/Observations", "$filter=result gt 5");
+        assertEquals(12346, filtered.getValue());
+        assertFalse(filtered.isEstimated());
+        assertEquals(2, statements().size());
+    }
+
+    @Test
+    public void testCachedCountExpires() {
+        EntityCounter counter = createCounter("Cached", 0);
+        rowCount = 12345;
+        Count first = count(counter, "/Datastreams(2)/Observations", null);
+        assertEquals(12345, first.getValue());
+
+        rowCount = 12346;
+        Count second = count(counter, "/Datastreams(2)/Observations", null);
+        assertEquals(12346, second.getValue());
+        assertFalse(second.isEstimated());
+        assertEquals(2, statements().size());
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Projections;
+import com.querydsl.core.types.dsl.DateTimePath;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.PostgreSQLTemplates;
+import com.querydsl.sql.RelationalPathBase;
+import com.querydsl.sql.SQLBindings;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.SQLTemplates;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests the skiptokens of the keyset pagination, and the WHERE clauses
+ * generated from them.
+ *
+ * @author scf
+ */
+public class KeysetPaginationTest {
+
+    private static final SQLTemplates TEMPLATES = PostgreSQLTemplates.builder().quote().build();
+    private static final QTestObservations QO = new QTestObservations("o");
+
+    private static final String ID = "\"o\".\"ID\"";
+    private static final String PHENOMENON_TIME = "\"o\".\"PHENOMENON_TIME_START\"";
+    private static final String RESULT = "\"o\".\"RESULT_NUMBER\"";
+
+    private static final Timestamp TIME = Timestamp.from(Instant.parse("2018-03-01T12:00:00.123456Z"));
+
+    private static SQLQuery<Tuple> query(OrderSpecifier<?>... orderBys) {
+        return new SQLQuery<Void>(TEMPLATES)
+                .select(QO.id, QO.phenomenonTimeStart, QO.resultNumber)
+                .from(QO)
+                .orderBy(orderBys);
+    }
+
+    private static Tuple row(Long id, Timestamp time, Double result) {
+        return Projections.tuple(QO.id, QO.phenomenonTimeStart, QO.resultNumber).newInstance(id, time, result);
+    }
+
+    private static String encode(String json) {
+        return "k1" + Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertRejected(SQLQuery<Tuple> query, String token) {
+        try {
+            KeysetPagination.addTokenFilter(query, token);
+            fail("Token should be rejected: " + token);
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Invalid $skiptoken"));
+        }
+    }
+
+    @Test
+    public void testTokenRoundTrip() {
+        OrderSpecifier<?>[] orderBys = {QO.phenomenonTimeStart.asc(), QO.resultNumber.desc(), QO.id.asc()};
+        String token = KeysetPagination.createToken(query(orderBys), row(7L, TIME, 1.5));
+        assertTrue(token, token.startsWith("k1"));
+        assertFalse(token, token.contains("=") || token.contains("+") || token.contains("/"));
+
+        SQLQuery<Tuple> next = query(orderBys);
+        KeysetPagination.addTokenFilter(next, token);
+        SQLBindings sql = next.getSQL();
+        assertTrue(sql.getNullFriendlyBindings().contains(7L));
+        assertTrue(sql.getNullFriendlyBindings().contains(1.5));
+        // The token keeps the microseconds of the time.
+        assertTrue(sql.getNullFriendlyBindings().contains(TIME));
+    }
+
+    @Test
+    public void testTokenRoundTripWithNull() {
+        OrderSpecifier<?>[] orderBys = {QO.resultNumber.asc(), QO.id.asc()};
+        String token = KeysetPagination.createToken(query(orderBys), row(7L, TIME, null));
+
+        SQLQuery<Tuple> next = query(orderBys);
+        KeysetPagination.addTokenFilter(next, token);
+        SQLBindings sql = next.getSQL();
+        // Only nulls follow a null when ascending, ordered by the id.
+        assertTrue(sql.getSQL(), sql.getSQL().contains(RESULT + " is null"));
+        assertTrue(sql.getSQL(), sql.getSQL().contains(ID + " > ?"));
+        assertTrue(sql.getNullFriendlyBindings().contains(7L));
+    }
+
+    @Test
+    public void testUnsupportedOrderHasNoToken() {
+        DateTimePath<Date> date = Expressions.dateTimePath(Date.class, QO, "RESULT_TIME");
+        SQLQuery<Tuple> query = query(date.asc(), QO.id.asc());
+        assertNull(KeysetPagination.createToken(query, row(7L, TIME, 1.5)));
+    }
+
+    @Test
+    public void testMalformedTokens() {
+        OrderSpecifier<?>[] orderBys = {QO.phenomenonTimeStart.asc(), QO.id.asc()};
+        assertRejected(query(orderBys), "123");
+        assertRejected(query(orderBys), "k1!!!");
+        assertRejected(query(orderBys), encode("not json"));
+        assertRejected(query(orderBys), encode("{\"a\": 1}"));
+    }
+
+    @Test
+    public void testTamperedTokens() {
+        OrderSpecifier<?>[] orderBys = {QO.phenomenonTimeStart.asc(), QO.id.asc()};
+        String token = KeysetPagination.createToken(query(orderBys), row(7L, TIME, 1.5));
+        KeysetPagination.addTokenFilter(query(orderBys), token);
+
+        // Too few or too many values for the $orderby.
+        assertRejected(query(orderBys), encode("[\"7\"]"));
+        assertRejected(query(QO.id.asc()), token);
+        // Values that do not fit the type of the order expression.
+        assertRejected(query(orderBys), encode("[\"yesterday\", \"7\"]"));
+        assertRejected(query(orderBys), encode("[\"2018-03-01T12:00:00Z\", \"seven\"]"));
+        // A token of a different version.
+        assertRejected(query(orderBys), "k2" + token.substring(2));
+    }
+
+    @Test
+    public void testFilterAscending() {
+        SQLQuery<Tuple> next = query(QO.id.asc());
+        KeysetPagination.addTokenFilter(next, encode("[\"7\"]"));
+        SQLBindings sql = next.getSQL();
+        assertTrue(sql.getSQL(), sql.getSQL().contains("(" + ID + ") > (?)"));
+        assertEquals(Arrays.asList(7L), sql.getNullFriendlyBindings());
+    }
+
+    @Test
+    public void testFilterDescendingMultiColumn() {
+        SQLQuery<Tuple> next = query(QO.phenomenonTimeStart.desc(), QO.id.desc());
+        KeysetPagination.addTokenFilter(next, encode("[\"2018-03-01T12:00:00.123456Z\", \"7\"]"));
+        SQLBindings sql = next.getSQL();
+        // All keys are not null and descending, so one row comparison works.
+        assertTrue(sql.getSQL(), sql.getSQL().contains("(" + PHENOMENON_TIME + ", " + ID + ") < (?, ?)"));
+        assertEquals(Arrays.asList(TIME, 7L), sql.getNullFriendlyBindings());
+    }
+
+    @Test
+    public void testFilterMixedDirections() {
+        SQLQuery<Tuple> next = query(QO.phenomenonTimeStart.desc(), QO.id.asc());
+        KeysetPagination.addTokenFilter(next, encode("[\"2018-03-01T12:00:00.123456Z\", \"7\"]"));
+        String sql = next.getSQL().getSQL();
+        assertFalse(sql, sql.contains(") < (") || sql.contains(") > ("));
+        // The bound on the first key, usable as index range.
+        assertTrue(sql, sql.contains(PHENOMENON_TIME + " <= ?"));
+        assertTrue(sql, sql.contains(PHENOMENON_TIME + " < ?"));
+        // The ID only breaks ties of the phenomenonTime.
+        int equalTime = sql.indexOf(PHENOMENON_TIME + " = ?");
+        int afterId = sql.indexOf(ID + " > ?");
+        assertTrue(sql, equalTime > 0);
+        assertTrue(sql, afterId > equalTime);
+    }
+
+    @Test
+    public void testFilterNullableColumn() {
+        SQLQuery<Tuple> next = query(QO.resultNumber.asc(), QO.id.asc());
+        KeysetPagination.addTokenFilter(next, encode("[\"1.5\", \"7\"]"));
+        String sql = next.getSQL().getSQL();
+        // The nulls sort last, so they follow every value.
+        assertFalse(sql, sql.contains(RESULT + " >= ?"));
+        assertTrue(sql, sql.contains(RESULT + " > ?"));
+        assertTrue(sql, sql.contains(RESULT + " is null"));
+        assertTrue(sql, sql.indexOf(ID + " > ?") > sql.indexOf(RESULT + " = ?"));
+    }
+
+    /**
+     * The ordered columns of an Observations table. The ID and the
+     * phenomenonTime are not null, the result is.
+     */
+    private static class QTestObservations extends RelationalPathBase<QTestObservations> {
+
+        public final NumberPath<Long> id = createNumber("id", Long.class);
+
+        public final DateTimePath<Timestamp> phenomenonTimeStart = createDateTime("phenomenonTimeStart", Timestamp.class);
+
+        public final NumberPath<Double> resultNumber = createNumber("resultNumber", Double.class);
+
+        QTestObservations(String variable) {
+            super(QTestObservations.class, variable, "PUBLIC", "OBSERVATIONS");
+            addMetadata(id, ColumnMetadata.named("ID").ofType(Types.BIGINT).withSize(19).notNull());
+            addMetadata(phenomenonTimeStart, ColumnMetadata.named("PHENOMENON_TIME_START").ofType(Types.TIMESTAMP).withSize(35).withDigits(6).notNull());
+            addMetadata(resultNumber, ColumnMetadata.named("RESULT_NUMBER").ofType(Types.DOUBLE).withSize(17).withDigits(17));
+        }
+    }
+}
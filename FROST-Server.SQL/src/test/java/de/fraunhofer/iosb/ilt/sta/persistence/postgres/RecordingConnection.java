@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres;
+
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.PostgreSQLTemplates;
+import com.querydsl.sql.SQLQueryFactory;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A connection that records the sql of the statements it prepares, and answers
+ * each query with the rows a responder gives for its sql. Values are returned
+ * by column index, so the responder has to know the order of the selected
+ * columns.
+ *
+ * @author scf
+ */
+class RecordingConnection {
+
+    private final List<String> statements = new ArrayList<>();
+    private final Connection connection;
+    private Function<String, List<Object[]>> responder = sql -> Collections.emptyList();
+
+    RecordingConnection() {
+        connection = proxy(Connection.class, (method, args) -> {
+            if ("prepareStatement".equals(method)) {
+                statements.add((String) args[0]);
+                return createStatement((String) args[0]);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @param responder The function that gives the result rows for the sql
+     * of a query.
+     */
+    void setResponder(Function<String, List<Object[]>> responder) {
+        this.responder = responder;
+    }
+
+    /**
+     * @return The sql of the prepared statements, in order.
+     */
+    List<String> getStatements() {
+        return statements;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    SQLQueryFactory createQueryFactory() {
+        return new SQLQueryFactory(new Configuration(PostgreSQLTemplates.builder().quote().build()), () -> connection);
+    }
+
+    private PreparedStatement createStatement(String sql) {
+        PreparedStatement[] statement = new PreparedStatement[1];
+        statement[0] = proxy(PreparedStatement.class, (method, args) -> {
+            if ("executeQuery".equals(method)) {
+                return createResults(statement[0], responder.apply(sql));
+            }
+            return null;
+        });
+        return statement[0];
+    }
+
+    private static ResultSet createResults(PreparedStatement statement, List<Object[]> rows) {
+        int[] current = {-1};
+        boolean[] wasNull = {false};
+        return proxy(ResultSet.class, (method, args) -> {
+            switch (method) {
+                case "next":
+                    current[0]++;
+                    return current[0] < rows.size();
+
+                case "getStatement":
+                    return statement;
+
+                case "wasNull":
+                    return wasNull[0];
+
+                default:
+                    if (method.startsWith("get") && args != null && args.length >= 1 && args[0] instanceof Integer) {
+                        Object value = rows.get(current[0])[(Integer) args[0] - 1];
+                        wasNull[0] = value == null;
+                        return value;
+                    }
+                    return null;
+            }
+        });
+    }
+
+    private interface Handler {
+
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(
+                RecordingConnection.class.getClassLoader(),
+                new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    Object result = handler.invoke(method.getName(), args);
+                    Class<?> returnType = method.getReturnType();
+                    if (!returnType.isPrimitive() || returnType == void.class) {
+                        return result;
+                    }
+                    if (returnType == boolean.class) {
+                        return result != null && (Boolean) result;
+                    }
+                    Number number = result == null ? 0 : (Number) result;
+                    if (returnType == long.class) {
+                        return number.longValue();
+                    }
+                    if (returnType == double.class) {
+                        return number.doubleValue();
+                    }
+                    if (returnType == float.class) {
+                        return number.floatValue();
+                    }
+                    return number.intValue();
+                }));
+    }
+
+}
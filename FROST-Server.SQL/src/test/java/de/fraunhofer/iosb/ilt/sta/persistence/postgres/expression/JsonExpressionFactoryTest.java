@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres.expression;
+
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.core.types.dsl.StringTemplate;
+import com.querydsl.sql.PostgreSQLTemplates;
+import com.querydsl.sql.RelationalPathBase;
+import com.querydsl.sql.SQLQuery;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.expression.JsonExpressionFactory.ListExpressionJson;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.IndexRecommendation;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.IndexRecommender;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.QueryShape;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.ShapeStatistics;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the containment checks that are added to comparisons on json paths,
+ * and the index recommendations for those paths.
+ *
+ * @author scf
+ */
+public class JsonExpressionFactoryTest {
+
+    private static final String CONTAINS = "@>";
+
+    private final RelationalPathBase<Object> table = new RelationalPathBase<>(Object.class, "e0", "PUBLIC", "THINGS");
+    private final StringPath properties = Expressions.stringPath(table, "PROPERTIES");
+    private final StringPath name = Expressions.stringPath(table, "NAME");
+
+    private ListExpressionJson build(Expression<?> jsonField, String... path) {
+        JsonExpressionFactory factory = new JsonExpressionFactory(jsonField);
+        for (String key : path) {
+            factory.addToPath(key);
+        }
+        return factory.build();
+    }
+
+    private String eqString(String value, String... path) {
+        return build(properties, path).eq(new ConstantStringExpression(value)).toString();
+    }
+
+    @Test
+    public void testContainmentForString() {
+        String predicate = eqString("x", "a");
+        assertTrue(predicate, predicate.contains(CONTAINS));
+        assertTrue(predicate, predicate.contains("{\"a\":\"x\"}"));
+
+        predicate = eqString("x", "a", "b");
+        assertTrue(predicate, predicate.contains("{\"a\":{\"b\":\"x\"}}"));
+
+        predicate = eqString("trueish", "a");
+        assertTrue(predicate, predicate.contains("{\"a\":\"trueish\"}"));
+    }
+
+    @Test
+    public void testContainmentForNumber() {
+        String predicate = build(properties, "a").eq(new ConstantNumberExpression<>(5)).toString();
+        assertTrue(predicate, predicate.contains(CONTAINS));
+        assertTrue(predicate, predicate.contains("{\"a\":5}"));
+    }
+
+    @Test
+    public void testNoContainmentForNonStringText() {
+        // The text value of numbers, booleans, objects and arrays.
+        for (String value : Arrays.asList("5", "-1", "true", "false", "{\"b\":1}", "[1]")) {
+            String predicate = eqString(value, "a");
+            assertFalse(value + ": " + predicate, predicate.contains(CONTAINS));
+        }
+    }
+
+    @Test
+    public void testNoContainmentForArrayIndex() {
+        for (String key : Arrays.asList("0", "-1", "[0]")) {
+            String predicate = eqString("x", "a", key);
+            assertFalse(key + ": " + predicate, predicate.contains(CONTAINS));
+        }
+    }
+
+    @Test
+    public void testNoContainmentForNonConstants() {
+        String predicate = build(properties, "a").eq(name).toString();
+        assertFalse(predicate, predicate.contains(CONTAINS));
+
+        StringTemplate notAPath = Expressions.stringTemplate("{0}", properties);
+        predicate = build(notAPath, "a").eq(new ConstantStringExpression("x")).toString();
+        assertFalse(predicate, predicate.contains(CONTAINS));
+    }
+
+    @Test
+    public void testGetTextPath() {
+        ListExpressionJson expression = build(properties, "a", "b");
+        StringTemplate text = (StringTemplate) expression.getExpression(JsonExpressionFactory.KEY_STRING);
+        assertEquals(Arrays.asList("a", "b"), JsonExpressionFactory.getTextPath(text));
+        assertNull(JsonExpressionFactory.getTextPath(expression.getJsonExpression()));
+    }
+
+    private List<IndexRecommendation> recommend(BooleanExpression predicate) {
+        SQLQuery<Void> query = new SQLQuery<Void>(PostgreSQLTemplates.DEFAULT)
+                .from(table)
+                .where(predicate);
+        QueryShape shape = QueryShape.fromQuery(query.getMetadata());
+        return new IndexRecommender().recommend(Collections.singletonList(new ShapeStatistics(shape, "example")));
+    }
+
+    @Test
+    public void testRecommendJsonPathIndex() {
+        List<IndexRecommendation> recommendations = recommend(build(properties, "a", "b").eq(new ConstantStringExpression("x")));
+        assertEquals(1, recommendations.size());
+        assertEquals(
+                "CREATE INDEX CONCURRENTLY IF NOT EXISTS \"THINGS_PROPERTIES_a_b\" ON \"THINGS\" USING btree ((\"PROPERTIES\"#>>'{a,b}'))",
+                recommendations.get(0).getStatement());
+
+        recommendations = recommend(build(properties, "a'b").eq(new ConstantStringExpression("x")));
+        assertTrue(recommendations.isEmpty());
+    }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics;
+
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.DateTimePath;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.SimplePath;
+import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.spatial.SpatialOps;
+import com.querydsl.sql.PostgreSQLTemplates;
+import com.querydsl.sql.RelationalPathBase;
+import com.querydsl.sql.SQLQuery;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.expression.ConstantStringExpression;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.expression.JsonExpressionFactory;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.QueryShape.OrderColumn;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the indexes recommended for query shapes.
+ *
+ * @author scf
+ */
+public class IndexRecommenderTest {
+
+    private static final String NAVIGATION_INDEX = "CREATE INDEX CONCURRENTLY IF NOT EXISTS \"OBSERVATIONS_DATASTREAM_ID_PHENOMENON_TIME_START_DESC_ID\""
+            + " ON \"OBSERVATIONS\" USING btree (\"DATASTREAM_ID\", \"PHENOMENON_TIME_START\" DESC, \"ID\")";
+
+    private final RelationalPathBase<Object> observations = new RelationalPathBase<>(Object.class, "e0", "PUBLIC", "OBSERVATIONS");
+    private final NumberPath<Long> obsId = Expressions.numberPath(Long.class, observations, "ID");
+    private final NumberPath<Long> obsDatastreamId = Expressions.numberPath(Long.class, observations, "DATASTREAM_ID");
+    private final DateTimePath<Timestamp> obsPhenomenonTime = Expressions.dateTimePath(Timestamp.class, observations, "PHENOMENON_TIME_START");
+
+    private final RelationalPathBase<Object> datastreams = new RelationalPathBase<>(Object.class, "e1", "PUBLIC", "DATASTREAMS");
+    private final NumberPath<Long> dsId = Expressions.numberPath(Long.class, datastreams, "ID");
+
+    private final RelationalPathBase<Object> locations = new RelationalPathBase<>(Object.class, "e0", "PUBLIC", "LOCATIONS");
+    private final SimplePath<Object> locationGeom = Expressions.path(Object.class, locations, "GEOM");
+    private final StringPath locationProperties = Expressions.stringPath(locations, "PROPERTIES");
+
+    private IndexRecommender recommender;
+
+    @Before
+    public void setUp() {
+        recommender = new IndexRecommender();
+    }
+
+    private static List<OrderColumn> columns(String... columns) {
+        List<OrderColumn> result = new ArrayList<>();
+        for (String column : columns) {
+            boolean desc = column.endsWith(" DESC");
+            result.add(new OrderColumn(desc ? column.substring(0, column.length() - 5) : column, desc));
+        }
+        return result;
+    }
+
+    /**
+     * The shape of Datastreams(id)/Observations?$orderby=phenomenonTime desc
+     */
+    private QueryShape navigationShape() {
+        return QueryShape.fromQuery(new SQLQuery<Void>(PostgreSQLTemplates.DEFAULT)
+                .from(observations)
+                .innerJoin(datastreams).on(dsId.eq(obsDatastreamId))
+                .where(dsId.eq(5L))
+                .orderBy(obsPhenomenonTime.desc(), obsId.asc())
+                .getMetadata());
+    }
+
+    private QueryShape locationsShape(Predicate where) {
+        return QueryShape.fromQuery(new SQLQuery<Void>(PostgreSQLTemplates.DEFAULT)
+                .from(locations)
+                .where(where)
+                .getMetadata());
+    }
+
+    private List<String> recommend(QueryShape... shapes) {
+        List<ShapeStatistics> statistics = new ArrayList<>();
+        for (QueryShape shape : shapes) {
+            statistics.add(new ShapeStatistics(shape, shape.getKey()));
+        }
+        List<String> statements = new ArrayList<>();
+        for (IndexRecommendation recommendation : recommender.recommend(statistics)) {
+            statements.add(recommendation.getStatement());
+        }
+        return statements;
+    }
+
+    @Test
+    public void testRecommendForNavigation() {
+        // The Datastream is found by its primary key, only the Observations need an index.
+        assertEquals(Collections.singletonList(NAVIGATION_INDEX), recommend(navigationShape()));
+    }
+
+    @Test
+    public void testSameIndexRecommendedOnce() {
+        assertEquals(Collections.singletonList(NAVIGATION_INDEX), recommend(navigationShape(), navigationShape()));
+    }
+
+    @Test
+    public void testRangeWithoutOrder() {
+        QueryShape shape = QueryShape.fromQuery(new SQLQuery<Void>(PostgreSQLTemplates.DEFAULT)
+                .from(observations)
+                .where(obsDatastreamId.eq(5L), obsPhenomenonTime.goe(new Timestamp(0)))
+                .getMetadata());
+        assertEquals(
+                Collections.singletonList("CREATE INDEX CONCURRENTLY IF NOT EXISTS \"OBSERVATIONS_DATASTREAM_ID_PHENOMENON_TIME_START\""
+                        + " ON \"OBSERVATIONS\" USING btree (\"DATASTREAM_ID\", \"PHENOMENON_TIME_START\")"),
+                recommend(shape));
+    }
+
+    @Test
+    public void testCoveredByExistingIndex() {
+        recommender.addExistingIndex("OBSERVATIONS", "btree", columns("DATASTREAM_ID", "PHENOMENON_TIME_START DESC", "ID"));
+        assertTrue(recommend(navigationShape()).isEmpty());
+    }
+
+    @Test
+    public void testCoveredByBackwardIndex() {
+        recommender.addExistingIndex("OBSERVATIONS", "btree", columns("DATASTREAM_ID", "PHENOMENON_TIME_START", "ID DESC"));
+        assertTrue(recommend(navigationShape()).isEmpty());
+    }
+
+    @Test
+    public void testCoveredByLongerIndex() {
+        recommender.addExistingIndex("OBSERVATIONS", "btree", columns("DATASTREAM_ID", "PHENOMENON_TIME_START DESC", "ID", "RESULT_NUMBER"));
+        assertTrue(recommend(navigationShape()).isEmpty());
+    }
+
+    @Test
+    public void testNotCoveredByOtherIndexes() {
+        // Mixed directions can not be scanned in the requested order.
+        recommender.addExistingIndex("OBSERVATIONS", "btree", columns("DATASTREAM_ID", "PHENOMENON_TIME_START", "ID"));
+        // The order columns do not follow the equal columns.
+        recommender.addExistingIndex("OBSERVATIONS", "btree", columns("PHENOMENON_TIME_START DESC", "DATASTREAM_ID", "ID"));
+        // Too short.
+        recommender.addExistingIndex("OBSERVATIONS", "btree", columns("DATASTREAM_ID", "PHENOMENON_TIME_START DESC"));
+        // Other method, other table.
+        recommender.addExistingIndex("OBSERVATIONS", "brin", columns("DATASTREAM_ID", "PHENOMENON_TIME_START DESC", "ID"));
+        recommender.addExistingIndex("DATASTREAMS", "btree", columns("DATASTREAM_ID", "PHENOMENON_TIME_START DESC", "ID"));
+        assertEquals(Collections.singletonList(NAVIGATION_INDEX), recommend(navigationShape()));
+    }
+
+    @Test
+    public void testGistForSpatialFilter() {
+        QueryShape shape = locationsShape(Expressions.booleanOperation(SpatialOps.INTERSECTS, locationGeom, Expressions.constant("POINT(8 49)")));
+        String gist = "CREATE INDEX CONCURRENTLY IF NOT EXISTS \"LOCATIONS_GEOM\" ON \"LOCATIONS\" USING gist (\"GEOM\")";
+        assertEquals(Collections.singletonList(gist), recommend(shape));
+
+        // A b-tree index on the column does not help.
+        recommender.addExistingIndex("LOCATIONS", "btree", columns("GEOM"));
+        assertEquals(Collections.singletonList(gist), recommend(shape));
+
+        recommender.addExistingIndex("LOCATIONS", "gist", columns("GEOM"));
+        assertTrue(recommend(shape).isEmpty());
+    }
+
+    @Test
+    public void testJsonPathIndex() throws SQLException {
+        Predicate filter = new JsonExpressionFactory(locationProperties)
+                .addToPath("building")
+                .addToPath("floor")
+                .build()
+                .eq(new ConstantStringExpression("north"));
+        QueryShape shape = locationsShape(filter);
+        assertEquals(
+                Collections.singletonList("CREATE INDEX CONCURRENTLY IF NOT EXISTS \"LOCATIONS_PROPERTIES_building_floor\""
+                        + " ON \"LOCATIONS\" USING btree ((\"PROPERTIES\"#>>'{building,floor}'))"),
+                recommend(shape));
+
+        // Indexes on expressions are only recognised by their name.
+        recommender.loadExistingIndexes(createCatalog(
+                new String[]{"LOCATIONS", "btree", "?", "LOCATIONS_PROPERTIES_building_floor"}));
+        assertTrue(recommend(shape).isEmpty());
+    }
+
+    @Test
+    public void testLoadExistingIndexes() throws SQLException {
+        recommender.loadExistingIndexes(createCatalog(
+                new String[]{"OBSERVATIONS", "btree", "DATASTREAM_ID,PHENOMENON_TIME_START DESC,ID", "OBSERVATIONS_DS_TIME"}));
+        assertTrue(recommend(navigationShape()).isEmpty());
+
+        // Loading again replaces the indexes found before.
+        recommender.loadExistingIndexes(createCatalog());
+        assertEquals(Collections.singletonList(NAVIGATION_INDEX), recommend(navigationShape()));
+    }
+
+    @Test
+    public void testNotConcurrentlyOnPartitionedTable() throws SQLException {
+        recommender.loadExistingIndexes(createCatalog("OBSERVATIONS"));
+        List<String> statements = recommend(navigationShape());
+        assertEquals(1, statements.size());
+        assertFalse(statements.get(0), statements.get(0).contains("CONCURRENTLY"));
+    }
+
+    @Test
+    public void testLongNamesAreShortened() {
+        List<OrderColumn> columns = columns("DATASTREAM_ID", "MULTI_DATASTREAM_ID", "PHENOMENON_TIME_START DESC", "PHENOMENON_TIME_END DESC", "ID");
+        IndexRecommendation recommendation = new IndexRecommendation("OBSERVATIONS", "btree", columns, 2);
+        String fullName = "OBSERVATIONS_DATASTREAM_ID_MULTI_DATASTREAM_ID_PHENOMENON_TIME_START_DESC_PHENOMENON_TIME_END_DESC_ID";
+        String name = recommendation.getIndexName();
+        assertEquals(63, name.length());
+        assertEquals(fullName.substring(0, 54) + '_' + String.format("%08x", fullName.hashCode()), name);
+        assertTrue(recommendation.getStatement().contains("\"" + name + "\""));
+
+        // Names that only differ after the cut-off stay different.
+        columns.set(4, new OrderColumn("RESULT_TIME_START", false));
+        String otherName = new IndexRecommendation("OBSERVATIONS", "btree", columns, 2).getIndexName();
+        assertEquals(63, otherName.length());
+        assertNotEquals(name, otherName);
+
+        // Names up to the limit are kept.
+        String exact = new IndexRecommendation("OBSERVATIONS", "btree", columns("DATASTREAM_ID", "RESULT_TIME_START DESC", "RESULT_NUMBER"), 1).getIndexName();
+        assertEquals("OBSERVATIONS_DATASTREAM_ID_RESULT_TIME_START_DESC_RESULT_NUMBER", exact);
+        assertEquals(63, exact.length());
+    }
+
+    /**
+     * Creates a connection that answers the catalog queries of the
+     * recommender.
+     *
+     * @param partitionedTable The partitioned table, or null.
+     * @param indexes The rows of the index query: table, method, columns and
+     * index name.
+     */
+    private static Connection createCatalog(String partitionedTable, String[]... indexes) {
+        List<String[]> partitioned = new ArrayList<>();
+        if (partitionedTable != null) {
+            partitioned.add(new String[]{partitionedTable});
+        }
+        return proxy(Connection.class, (method, args) -> {
+            if (!"createStatement".equals(method)) {
+                return null;
+            }
+            return proxy(Statement.class, (stmtMethod, stmtArgs) -> {
+                if (!"executeQuery".equals(stmtMethod)) {
+                    return null;
+                }
+                String sql = (String) stmtArgs[0];
+                return createResults(sql.contains("relkind = 'p'") ? partitioned : Arrays.asList(indexes));
+            });
+        });
+    }
+
+    private static Connection createCatalog(String[]... indexes) {
+        return createCatalog(null, indexes);
+    }
+
+    private static ResultSet createResults(List<String[]> rows) {
+        int[] current = {-1};
+        return proxy(ResultSet.class, (method, args) -> {
+            switch (method) {
+                case "next":
+                    current[0]++;
+                    return current[0] < rows.size();
+
+                case "getString":
+                    return rows.get(current[0])[(Integer) args[0] - 1];
+
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private interface Handler {
+
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(
+                IndexRecommenderTest.class.getClassLoader(),
+                new Class<?>[]{type},
+                (proxy, method, args) -> handler.invoke(method.getName(), args)));
+    }
+
+}
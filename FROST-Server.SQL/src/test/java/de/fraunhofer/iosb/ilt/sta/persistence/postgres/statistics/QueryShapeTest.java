@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics;
+
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.DateTimePath;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.sql.PostgreSQLTemplates;
+import com.querydsl.sql.RelationalPathBase;
+import com.querydsl.sql.SQLQuery;
+import de.fraunhofer.iosb.ilt.sta.persistence.postgres.statistics.QueryShape.TableUsage;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests the shapes derived from the metadata of queries.
+ *
+ * @author scf
+ */
+public class QueryShapeTest {
+
+    private static final Timestamp TIME = Timestamp.valueOf("2018-03-01 12:00:00");
+
+    private final RelationalPathBase<Object> observations = new RelationalPathBase<>(Object.class, "e0", "PUBLIC", "OBSERVATIONS");
+    private final NumberPath<Long> obsId = Expressions.numberPath(Long.class, observations, "ID");
+    private final NumberPath<Long> obsDatastreamId = Expressions.numberPath(Long.class, observations, "DATASTREAM_ID");
+    private final DateTimePath<Timestamp> obsPhenomenonTime = Expressions.dateTimePath(Timestamp.class, observations, "PHENOMENON_TIME_START");
+    private final NumberPath<Double> obsResult = Expressions.numberPath(Double.class, observations, "RESULT_NUMBER");
+
+    private final RelationalPathBase<Object> datastreams = new RelationalPathBase<>(Object.class, "e1", "PUBLIC", "DATASTREAMS");
+    private final NumberPath<Long> dsId = Expressions.numberPath(Long.class, datastreams, "ID");
+    private final NumberPath<Long> dsThingId = Expressions.numberPath(Long.class, datastreams, "THING_ID");
+
+    /**
+     * The query for Datastreams(id)/Observations?$orderby=phenomenonTime desc
+     */
+    private SQLQuery<Void> observationsOfDatastream(long id) {
+        return new SQLQuery<Void>(PostgreSQLTemplates.DEFAULT)
+                .from(observations)
+                .innerJoin(datastreams).on(dsId.eq(obsDatastreamId))
+                .where(dsId.eq(id))
+                .orderBy(obsPhenomenonTime.desc(), obsId.asc());
+    }
+
+    private QueryShape shapeOf(Predicate where) {
+        return QueryShape.fromQuery(new SQLQuery<Void>(PostgreSQLTemplates.DEFAULT)
+                .from(observations)
+                .where(where)
+                .getMetadata());
+    }
+
+    @Test
+    public void testShapeOfNavigation() {
+        QueryShape shape = QueryShape.fromQuery(observationsOfDatastream(5).getMetadata());
+        assertEquals(
+                "OBSERVATIONS[eq:DATASTREAM_ID;order:PHENOMENON_TIME_START DESC,ID] DATASTREAMS[eq:ID]",
+                shape.getKey());
+
+        TableUsage main = shape.getTables().get(0);
+        assertEquals("OBSERVATIONS", main.getTableName());
+        // The constant on the ID of the Datastream applies to the joined column.
+        assertEquals(Collections.singletonList("DATASTREAM_ID"), main.getEqualColumns());
+        assertEquals(2, main.getOrderColumns().size());
+        assertTrue(main.getOrderColumns().get(0).isDescending());
+    }
+
+    @Test
+    public void testConstantsAreNotPartOfTheShape() {
+        String key = QueryShape.fromQuery(observationsOfDatastream(5).getMetadata()).getKey();
+        assertEquals(key, QueryShape.fromQuery(observationsOfDatastream(6).getMetadata()).getKey());
+        assertEquals(
+                shapeOf(obsDatastreamId.in(1L, 2L)).getKey(),
+                shapeOf(obsDatastreamId.in(3L, 4L, 5L)).getKey());
+    }
+
+    @Test
+    public void testEqualAndRangeColumns() {
+        QueryShape shape = shapeOf(obsPhenomenonTime.goe(TIME)
+                .and(obsResult.lt(10.0))
+                .and(obsDatastreamId.eq(1L)));
+        TableUsage main = shape.getTables().get(0);
+        assertEquals(Collections.singletonList("DATASTREAM_ID"), main.getEqualColumns());
+        assertEquals(Arrays.asList("PHENOMENON_TIME_START", "RESULT_NUMBER"), main.getRangeColumns());
+        assertEquals("OBSERVATIONS[eq:DATASTREAM_ID;range:PHENOMENON_TIME_START,RESULT_NUMBER]", shape.getKey());
+    }
+
+    @Test
+    public void testComparisonWithColumnsIsIgnored() {
+        // An index on one of the columns does not help to compare them.
+        QueryShape shape = shapeOf(obsResult.gt(obsId.doubleValue().add(1.0)));
+        assertEquals("OBSERVATIONS[]", shape.getKey());
+    }
+
+    @Test
+    public void testOrderOnOtherTableStopsOrder() {
+        QueryShape shape = QueryShape.fromQuery(new SQLQuery<Void>(PostgreSQLTemplates.DEFAULT)
+                .from(observations)
+                .innerJoin(datastreams).on(dsId.eq(obsDatastreamId))
+                .where(dsThingId.eq(3L))
+                .orderBy(obsPhenomenonTime.asc(), dsId.asc(), obsId.asc())
+                .getMetadata());
+        assertEquals("OBSERVATIONS[order:PHENOMENON_TIME_START] DATASTREAMS[eq:THING_ID]", shape.getKey());
+    }
+
+}